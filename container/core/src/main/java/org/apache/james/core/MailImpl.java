@@ -36,12 +36,17 @@ import java.io.ObjectOutputStream;
 import java.io.OptionalDataException;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 /**
@@ -110,6 +115,22 @@ public class MailImpl implements Disposable, Mail {
      */
     private Map<String, Object> attributes;
 
+    /**
+     * Names of the attributes whose values are shared with a copy of this
+     * MailImpl. They are cloned before they are handed out, so changes to a
+     * value are not visible to the other MailImpl. <code>null</code> if no
+     * value is shared.
+     */
+    private transient Set<String> sharedAttributes;
+
+    /**
+     * Attribute value types which are immutable and so can be shared between
+     * copies without cloning them
+     */
+    private final static Set<Class<?>> IMMUTABLE_ATTRIBUTE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class, Boolean.class,
+            Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class,
+            MailAddress.class));
+
     /**
      * A constructor that creates a new, uninitialized MailImpl
      */
@@ -161,7 +182,7 @@ public class MailImpl implements Disposable, Mail {
         setLastUpdated(mail.getLastUpdated());
         try {
             if (mail instanceof MailImpl) {
-                setAttributesRaw((HashMap) cloneSerializableObject(((MailImpl) mail).getAttributesRaw()));
+                copyAttributes((MailImpl) mail);
             } else {
                 HashMap<String, Object> attribs = new HashMap<String, Object>();
                 for (Iterator i = mail.getAttributeNames(); i.hasNext(); ) {
@@ -179,6 +200,50 @@ public class MailImpl implements Disposable, Mail {
         }
     }
 
+    /**
+     * Copy the attributes of the given MailImpl without cloning the values.
+     * Values which are not immutable are shared until one of the two
+     * MailImpls accesses them.
+     *
+     * @param mail the mail to copy the attributes from
+     */
+    private void copyAttributes(MailImpl mail) {
+        attributes = new HashMap<String, Object>(mail.attributes);
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            Object value = entry.getValue();
+            if (value != null && !IMMUTABLE_ATTRIBUTE_TYPES.contains(value.getClass())) {
+                if (sharedAttributes == null) {
+                    sharedAttributes = new HashSet<String>();
+                }
+                sharedAttributes.add(entry.getKey());
+                if (mail.sharedAttributes == null) {
+                    mail.sharedAttributes = new HashSet<String>();
+                }
+                mail.sharedAttributes.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Replace the value of the given attribute by a clone if it is still
+     * shared with a copy of this MailImpl. If the value can not be cloned it
+     * stays shared rather than getting lost.
+     *
+     * @param key the name of the attribute
+     */
+    private void unshareAttribute(String key) {
+        if (sharedAttributes != null && sharedAttributes.remove(key)) {
+            try {
+                attributes.put(key, cloneSerializableObject(attributes.get(key)));
+            } catch (IOException e) {
+                // the value is not serializable after all, keep sharing it
+            } catch (ClassNotFoundException e) {
+                // should never happen as we just serialized it, keep sharing
+                // the value
+            }
+        }
+    }
+
     /**
      * A constructor that creates a MailImpl with the specified name, sender,
      * recipients, and message data.
@@ -550,6 +615,11 @@ public class MailImpl implements Disposable, Mail {
      * @since 2.2.0
      */
     public Map<String, Object> getAttributesRaw() {
+        if (sharedAttributes != null) {
+            for (String key : new ArrayList<String>(sharedAttributes)) {
+                unshareAttribute(key);
+            }
+        }
         return attributes;
     }
 
@@ -568,26 +638,31 @@ public class MailImpl implements Disposable, Mail {
      */
     public void setAttributesRaw(HashMap<String, Object> attr) {
         this.attributes = (attr == null) ? new HashMap<String, Object>() : attr;
+        this.sharedAttributes = null;
     }
 
     @Override
     public Serializable getAttribute(String key) {
+        unshareAttribute(key);
         return (Serializable) attributes.get(key);
     }
 
     @Override
     public Serializable setAttribute(String key, Serializable object) {
+        unshareAttribute(key);
         return (Serializable) attributes.put(key, object);
     }
 
     @Override
     public Serializable removeAttribute(String key) {
+        unshareAttribute(key);
         return (Serializable) attributes.remove(key);
     }
 
     @Override
     public void removeAllAttributes() {
         attributes.clear();
+        sharedAttributes = null;
     }
 
     @Override
@@ -0,0 +1,84 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The content of a message held by a {@link MessageContentStore}.
+ * <p>
+ * The content is first written via {@link #getOutputStream()}. Once that
+ * stream was closed it can be read any number of times via
+ * {@link #getInputStream()}. The content is reference counted: the creator
+ * holds the first reference and everyone who needs the content beyond the
+ * lifetime of its creator has to {@link #retain()} it. The space is given back
+ * to the store once the last reference was released.
+ */
+public interface MessageContent {
+
+    /**
+     * Return the stream to write the content to. Streams which support it also
+     * implement {@link java.nio.channels.WritableByteChannel} so the content
+     * can be written without copying it to a byte array first.
+     * 
+     * @return out
+     */
+    OutputStream getOutputStream();
+
+    /**
+     * Return a new stream to read the content
+     * 
+     * @return in
+     * @throws IOException
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * Return the count of bytes written so far
+     * 
+     * @return size
+     */
+    long getSize();
+
+    /**
+     * Return the file which holds the complete content
+     * 
+     * @return file or null if the content is not complete yet or not held in
+     *         a file
+     */
+    File getFile();
+
+    /**
+     * Acquire a reference to the content
+     * 
+     * @throws IllegalStateException if the content was already released
+     */
+    void retain();
+
+    /**
+     * Release a reference to the content. The space used by the content is
+     * freed once the last reference is released.
+     */
+    void release();
+
+}
@@ -19,14 +19,10 @@
 
 package org.apache.james.core;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.james.lifecycle.api.Disposable;
 
 import javax.mail.MessagingException;
-import javax.mail.util.SharedByteArrayInputStream;
-import javax.mail.util.SharedFileInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,16 +33,18 @@ import java.util.List;
 /**
  * Takes an input stream and creates a repeatable input stream source for a
  * MimeMessageWrapper. It does this by completely reading the input stream and
- * saving that to data to an {@link DeferredFileOutputStream} with its threshold set to 100kb
+ * saving that data to a {@link MessageContent} of a {@link MessageContentStore}.
+ * By default a {@link SpoolingMessageContentStore} is used with its threshold
+ * set to 100kb and <code>java.io.tmpdir</code> as spool directory.
  */
 public class MimeMessageInputStreamSource extends MimeMessageSource implements Disposable {
 
     private final List<InputStream> streams = new ArrayList<InputStream>();
 
     /**
-     * A temporary file used to hold the message stream
+     * The content which holds the message stream
      */
-    private DeferredFileOutputStream out;
+    private MessageContent content;
 
     /**
      * The full path of the temporary file
@@ -56,12 +54,17 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
     /**
      * 100kb threshold for the stream.
      */
-    private final static int THRESHOLD = 1024 * 100;
+    public final static int THRESHOLD = 1024 * 100;
 
     /**
      * Temporary directory to use
      */
-    private final static File TMPDIR = new File(System.getProperty("java.io.tmpdir"));
+    public final static File TMPDIR = new File(System.getProperty("java.io.tmpdir"));
+
+    /**
+     * The store used if none is given
+     */
+    private final static MessageContentStore DEFAULT_STORE = new SpoolingMessageContentStore(THRESHOLD, TMPDIR);
 
     /**
      * Construct a new MimeMessageInputStreamSource from an
@@ -75,8 +78,10 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
         super();
         // We want to immediately read this into a temporary file
         // Create a temp file and channel the input stream into it
+        OutputStream out = null;
         try {
-            out = new DeferredFileOutputStream(THRESHOLD, key, ".m64", TMPDIR);
+            content = DEFAULT_STORE.newContent(key);
+            out = content.getOutputStream();
             IOUtils.copy(in, out);
             sourceId = key;
         } catch (IOException ioe) {
@@ -86,7 +91,7 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
                 if (out != null) {
                     out.close();
 
-                    File file = out.getFile();
+                    File file = content.getFile();
                     if (file != null) {
                         file.delete();
                     }
@@ -107,8 +112,39 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
     }
 
     public MimeMessageInputStreamSource(String key) {
+        this(key, THRESHOLD, TMPDIR);
+    }
+
+    /**
+     * Construct a new, empty MimeMessageInputStreamSource which gets filled via
+     * {@link #getWritableOutputStream()}.
+     *
+     * @param key       the prefix for the name of the temp file
+     * @param threshold the count of bytes kept in memory before the data gets
+     *                  spooled to disk
+     * @param spoolDir  the directory in which the temp file is created
+     */
+    public MimeMessageInputStreamSource(String key, int threshold, File spoolDir) {
         super();
-        out = new DeferredFileOutputStream(THRESHOLD, key, ".m64", TMPDIR);
+        content = new SpoolingMessageContentStore(threshold, spoolDir).newContent(key);
+        sourceId = key;
+    }
+
+    /**
+     * Construct a new, empty MimeMessageInputStreamSource which keeps its data
+     * in the given store and gets filled via {@link #getWritableOutputStream()}.
+     *
+     * @param key   the key of the message
+     * @param store the store which holds the data
+     * @throws MessagingException if the store is unable to provide a content
+     */
+    public MimeMessageInputStreamSource(String key, MessageContentStore store) throws MessagingException {
+        super();
+        try {
+            content = store.newContent(key);
+        } catch (IOException ioe) {
+            throw new MessagingException("Unable to create the content: " + ioe.getMessage(), ioe);
+        }
         sourceId = key;
     }
 
@@ -127,12 +163,7 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      * @return a <code>BufferedInputStream</code> containing the data
      */
     public synchronized InputStream getInputStream() throws IOException {
-        InputStream in;
-        if (out.isInMemory()) {
-            in = new SharedByteArrayInputStream(out.getData());
-        } else {
-            in = new SharedFileInputStream(out.getFile());
-        }
+        InputStream in = content.getInputStream();
         streams.add(in);
         return in;
     }
@@ -146,28 +177,54 @@ public class MimeMessageInputStreamSource extends MimeMessageSource implements D
      */
     @Override
     public long getMessageSize() throws IOException {
-        return out.getByteCount();
+        return content.getSize();
     }
 
+    /**
+     * Return the stream to write the data to. The stream implements
+     * {@link java.nio.channels.WritableByteChannel} if the store supports to
+     * write buffers directly.
+     *
+     * @return out
+     */
     public OutputStream getWritableOutputStream() {
-        return out;
+        return content.getOutputStream();
+    }
+
+    /**
+     * Return the file which holds the data of this source. This allows to hand
+     * the spooled data over without reading it through the heap.
+     *
+     * @return file or null if the data is kept in memory or the stream was not
+     *         closed yet
+     */
+    public synchronized File getFile() {
+        return content != null ? content.getFile() : null;
+    }
+
+    /**
+     * Return the content which holds the data of this source. Whoever needs
+     * the content after this source was disposed has to
+     * {@link MessageContent#retain()} it.
+     *
+     * @return content
+     */
+    public synchronized MessageContent getContent() {
+        return content;
     }
 
     @Override
-    public void dispose() {
+    public synchronized void dispose() {
         // explicit close all streams
         for (InputStream stream : streams) {
             IOUtils.closeQuietly(stream);
         }
+        streams.clear();
 
-        if (out != null) {
-            IOUtils.closeQuietly(out);
-            File file = out.getFile();
-            if (file != null) {
-                FileUtils.deleteQuietly(file);
-                file = null;
-            }
-            out = null;
+        if (content != null) {
+            IOUtils.closeQuietly(content.getOutputStream());
+            content.release();
+            content = null;
         }
     }
 
@@ -182,6 +182,15 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         return source != null ? source.getSourceId() : null;
     }
 
+    /**
+     * Returns the MimeMessageSource that is supplying this with data.
+     * 
+     * @return source or null if the message was not created from a source
+     */
+    public synchronized MimeMessageSource getSource() {
+        return source;
+    }
+
     /**
      * Load the message headers from the internal source.
      * 
@@ -547,6 +556,18 @@ public class MimeMessageWrapper extends MimeMessage implements Disposable {
         super.setDataHandler(arg0);
     }
 
+    /**
+     * Close the stream the message was parsed from and dispose the source.
+     * <p>
+     * The parsed message and its parts read their content from streams which
+     * share the data of the source. Once the source was disposed and no one
+     * else retained its content, reading the content of the message or of its
+     * parts fails with an IOException ("Content already released" for a
+     * {@link TieredMessageContentStore}). So the message must not be used
+     * after it was disposed; copy it first if it needs to be kept.
+     * 
+     * @see org.apache.james.lifecycle.api.Disposable#dispose()
+     */
     @Override
     public void dispose() {
         if (sourceIn != null) {
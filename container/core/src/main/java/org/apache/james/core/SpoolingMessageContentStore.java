@@ -0,0 +1,110 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.mail.util.SharedByteArrayInputStream;
+import javax.mail.util.SharedFileInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * {@link MessageContentStore} which keeps the content of a message on the heap
+ * until it exceeds the threshold and spools it to a file afterwards.
+ * 
+ * @see SpoolingOutputStream
+ */
+public class SpoolingMessageContentStore implements MessageContentStore {
+
+    private final int threshold;
+    private final File directory;
+
+    /**
+     * @param threshold the count of bytes kept in memory per message
+     * @param directory the directory to which bigger messages get spooled
+     */
+    public SpoolingMessageContentStore(int threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageContentStore#newContent(java.lang.String)
+     */
+    public MessageContent newContent(String key) {
+        return new SpooledContent(new SpoolingOutputStream(threshold, key, ".m64", directory));
+    }
+
+    private final static class SpooledContent implements MessageContent {
+
+        private final SpoolingOutputStream out;
+        private int references = 1;
+
+        public SpooledContent(SpoolingOutputStream out) {
+            this.out = out;
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        public InputStream getInputStream() throws IOException {
+            if (out.isInMemory()) {
+                return new SharedByteArrayInputStream(out.getData(), 0, (int) out.getByteCount());
+            } else {
+                // make sure all pending data hit the disk and the file is
+                // truncated to its real size
+                out.close();
+                return new SharedFileInputStream(out.getFile());
+            }
+        }
+
+        public long getSize() {
+            return out.getByteCount();
+        }
+
+        public File getFile() {
+            return out.isClosed() ? out.getFile() : null;
+        }
+
+        public synchronized void retain() {
+            if (references == 0) {
+                throw new IllegalStateException("Content already released");
+            }
+            references++;
+        }
+
+        public synchronized void release() {
+            if (references > 0 && --references == 0) {
+                IOUtils.closeQuietly(out);
+                File file = out.getFile();
+                if (file != null) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+}
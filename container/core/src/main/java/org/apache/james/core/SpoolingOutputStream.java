@@ -0,0 +1,301 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link OutputStream} which keeps its data in memory until the given threshold
+ * is exceeded and then spools it to a file.
+ * <p>
+ * Once spooling, writes are collected in a direct {@link ByteBuffer} taken from
+ * a shared pool and flushed to the file with a {@link FileChannel}. The file
+ * is preallocated in growing chunks and truncated to the real size on
+ * {@link #close()}. {@link #write(ByteBuffer)} allows to append the content of
+ * a buffer without copying it to an intermediate byte array first.
+ */
+public class SpoolingOutputStream extends OutputStream implements WritableByteChannel {
+
+    /**
+     * Size of the pooled direct buffers
+     */
+    public final static int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximal count of idle buffers kept in the pool
+     */
+    private final static int MAX_POOLED_BUFFERS = 32;
+
+    /**
+     * Minimal size by which the spool file is grown
+     */
+    private final static long PREALLOCATION_SIZE = 1024 * 1024;
+
+    private final static Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final static AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final int threshold;
+    private final String prefix;
+    private final String suffix;
+    private final File directory;
+
+    private byte[] memory;
+    private File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private long allocated;
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * @param threshold the count of bytes kept in memory before spooling to a file
+     * @param prefix    the prefix of the spool file name
+     * @param suffix    the suffix of the spool file name
+     * @param directory the directory in which the spool file is created
+     */
+    public SpoolingOutputStream(int threshold, String prefix, String suffix, File directory) {
+        this.threshold = threshold;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.directory = directory;
+        this.memory = new byte[Math.max(0, Math.min(threshold, 4096))];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        if (isInMemory()) {
+            memory[(int) byteCount] = (byte) b;
+        } else {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
+        }
+        byteCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        if (isInMemory()) {
+            System.arraycopy(b, off, memory, (int) byteCount, len);
+        } else {
+            int written = 0;
+            while (written < len) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                int chunk = Math.min(len - written, buffer.remaining());
+                buffer.put(b, off + written, chunk);
+                written += chunk;
+            }
+        }
+        byteCount += len;
+    }
+
+    /**
+     * Write the remaining bytes of the given buffer. The position of the buffer
+     * is advanced to its limit.
+     *
+     * @param src the buffer to write
+     * @return the count of bytes written
+     * @throws IOException
+     */
+    public int write(ByteBuffer src) throws IOException {
+        int len = src.remaining();
+        ensureCapacity(len);
+        if (isInMemory()) {
+            src.get(memory, (int) byteCount, len);
+        } else {
+            int limit = src.limit();
+            while (src.hasRemaining()) {
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                }
+                if (src.remaining() > buffer.remaining()) {
+                    src.limit(src.position() + buffer.remaining());
+                }
+                buffer.put(src);
+                src.limit(limit);
+            }
+        }
+        byteCount += len;
+        return len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!closed && !isInMemory()) {
+            flushBuffer();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (channel != null) {
+            try {
+                flushBuffer();
+                channel.truncate(byteCount);
+            } finally {
+                releaseBuffer();
+                raf.close();
+                channel = null;
+                raf = null;
+            }
+        }
+    }
+
+    /**
+     * Return true if the data was not spooled to a file
+     *
+     * @return inMemory
+     */
+    public boolean isInMemory() {
+        return file == null;
+    }
+
+    /**
+     * Return true if {@link #close()} was called
+     *
+     * @return closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @see java.nio.channels.Channel#isOpen()
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Return the array holding the data if it was kept in memory. Only the
+     * first {@link #getByteCount()} bytes of the array are valid.
+     *
+     * @return data or null if the data was spooled to a file
+     */
+    public byte[] getData() {
+        return memory;
+    }
+
+    /**
+     * Return the spool file
+     *
+     * @return file or null if the data was kept in memory
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Return the count of bytes written to this stream
+     *
+     * @return byteCount
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream already closed");
+        }
+        long needed = byteCount + len;
+        if (isInMemory()) {
+            if (needed <= memory.length) {
+                return;
+            } else if (needed <= threshold) {
+                byte[] grown = new byte[(int) Math.min(threshold, Math.max(needed, memory.length * 2L))];
+                System.arraycopy(memory, 0, grown, 0, (int) byteCount);
+                memory = grown;
+                return;
+            }
+            spool();
+        }
+        if (needed > allocated) {
+            allocated = Math.max(needed, allocated + Math.max(allocated, PREALLOCATION_SIZE));
+            raf.setLength(allocated);
+        }
+    }
+
+    /**
+     * Move the data kept in memory to a newly created spool file
+     */
+    private void spool() throws IOException {
+        File spoolFile = File.createTempFile(prefix, suffix, directory);
+        raf = new RandomAccessFile(spoolFile, "rw");
+        channel = raf.getChannel();
+        file = spoolFile;
+        buffer = borrowBuffer();
+
+        ByteBuffer data = ByteBuffer.wrap(memory, 0, (int) byteCount);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        memory = null;
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            buffer.clear();
+            if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+                BUFFER_POOL.offer(buffer);
+            } else {
+                POOLED_BUFFERS.decrementAndGet();
+            }
+            buffer = null;
+        }
+    }
+
+    private static ByteBuffer borrowBuffer() {
+        ByteBuffer pooled = BUFFER_POOL.poll();
+        if (pooled != null) {
+            POOLED_BUFFERS.decrementAndGet();
+            return pooled;
+        }
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+}
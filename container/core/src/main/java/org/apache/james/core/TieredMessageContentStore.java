@@ -0,0 +1,641 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * {@link MessageContentStore} which keeps message content in three tiers:
+ * <ul>
+ * <li>small and medium messages are written to pooled off-heap slabs</li>
+ * <li>messages bigger than the per message threshold are spooled to a file</li>
+ * <li>once the slabs in use reach the memory budget of the store, further
+ * content spills to disk as well</li>
+ * </ul>
+ * Readers share the slabs, so {@link #newContent(String)} is the only place
+ * where in memory content gets copied. Spooled content is read with
+ * positional reads on one {@link FileChannel} which is shared by all readers.
+ * It is not memory-mapped, as a mapping can only be unmapped by the garbage
+ * collector and so would keep the address space, and on some platforms the
+ * file, after the content was released. The slabs and the file are freed as
+ * soon as the last reference to the content is released.
+ */
+public class TieredMessageContentStore implements MessageContentStore {
+
+    /**
+     * Default size of a slab
+     */
+    public final static int DEFAULT_SLAB_SIZE = 32 * 1024;
+
+    /**
+     * Minimal size by which a spool file is grown
+     */
+    private final static long PREALLOCATION_SIZE = 1024 * 1024;
+
+    private final long memoryBudget;
+    private final int threshold;
+    private final int slabSize;
+    private final File directory;
+
+    private final Queue<ByteBuffer> freeSlabs = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicLong usedMemory = new AtomicLong();
+
+    /**
+     * @param memoryBudget the count of bytes all messages together may keep in
+     *                     memory
+     * @param threshold    the count of bytes a single message may keep in
+     *                     memory
+     * @param directory    the directory to which messages are spooled
+     */
+    public TieredMessageContentStore(long memoryBudget, int threshold, File directory) {
+        this(memoryBudget, threshold, DEFAULT_SLAB_SIZE, directory);
+    }
+
+    /**
+     * @param memoryBudget the count of bytes all messages together may keep in
+     *                     memory
+     * @param threshold    the count of bytes a single message may keep in
+     *                     memory
+     * @param slabSize     the size of the slabs the memory is handed out in
+     * @param directory    the directory to which messages are spooled
+     */
+    public TieredMessageContentStore(long memoryBudget, int threshold, int slabSize, File directory) {
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("slabSize must be positive");
+        }
+        this.memoryBudget = memoryBudget;
+        this.threshold = threshold;
+        this.slabSize = slabSize;
+        this.directory = directory;
+    }
+
+    /**
+     * @see org.apache.james.core.MessageContentStore#newContent(java.lang.String)
+     */
+    public MessageContent newContent(String key) {
+        return new TieredContent(key);
+    }
+
+    /**
+     * Return the count of bytes currently held in slabs
+     * 
+     * @return usedMemory
+     */
+    public long getUsedMemory() {
+        return usedMemory.get();
+    }
+
+    /**
+     * Return the count of bytes all messages together may keep in memory
+     * 
+     * @return memoryBudget
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Take a slab from the pool if the memory budget allows it
+     * 
+     * @return slab or null if the budget is exhausted
+     */
+    private ByteBuffer allocateSlab() {
+        long used;
+        do {
+            used = usedMemory.get();
+            if (used + slabSize > memoryBudget) {
+                return null;
+            }
+        } while (!usedMemory.compareAndSet(used, used + slabSize));
+
+        ByteBuffer slab = freeSlabs.poll();
+        if (slab == null) {
+            slab = ByteBuffer.allocateDirect(slabSize);
+        }
+        return slab;
+    }
+
+    private void releaseSlab(ByteBuffer slab) {
+        slab.clear();
+        freeSlabs.offer(slab);
+        usedMemory.addAndGet(-slabSize);
+    }
+
+    private final class TieredContent implements MessageContent {
+
+        private final String key;
+        private final ContentOutputStream out = new ContentOutputStream();
+        private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+        private File file;
+        private RandomAccessFile raf;
+        private FileChannel channel;
+        private ByteBuffer writeBuffer;
+        private boolean pooledWriteBuffer;
+        private long allocated;
+        private long size;
+        private boolean closed;
+
+        private ByteBuffer[] readBuffers;
+        private RandomAccessFile readFile;
+        private int references = 1;
+        private boolean released;
+
+        public TieredContent(String key) {
+            this.key = key;
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        public synchronized InputStream getInputStream() throws IOException {
+            checkReleased();
+            out.close();
+            if (file != null) {
+                if (readFile == null) {
+                    readFile = new RandomAccessFile(file, "r");
+                }
+                references++;
+                return new ContentInputStream(this, readFile.getChannel(), 0, size, true);
+            }
+            if (readBuffers == null) {
+                readBuffers = new ByteBuffer[slabs.size()];
+                for (int i = 0; i < readBuffers.length; i++) {
+                    readBuffers[i] = (ByteBuffer) slabs.get(i).duplicate().flip();
+                }
+            }
+            references++;
+            return new ContentInputStream(this, readBuffers, 0, size, true);
+        }
+
+        public synchronized long getSize() {
+            return size;
+        }
+
+        public synchronized File getFile() {
+            return closed && !released ? file : null;
+        }
+
+        public synchronized void retain() {
+            checkReleased();
+            references++;
+        }
+
+        public synchronized void release() {
+            if (released || --references > 0) {
+                return;
+            }
+            released = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore on release
+            }
+            for (ByteBuffer slab : slabs) {
+                releaseSlab(slab);
+            }
+            slabs.clear();
+            readBuffers = null;
+            if (readFile != null) {
+                try {
+                    readFile.close();
+                } catch (IOException e) {
+                    // ignore on release
+                }
+                readFile = null;
+            }
+            if (file != null) {
+                FileUtils.deleteQuietly(file);
+            }
+        }
+
+        private void checkReleased() {
+            if (released) {
+                throw new IllegalStateException("Content of " + key + " already released");
+            }
+        }
+
+        /**
+         * Return a buffer with space left, spilling the content to disk if no
+         * slab can be used anymore
+         */
+        private ByteBuffer writable() throws IOException {
+            if (closed) {
+                throw new IOException("Stream already closed");
+            }
+            if (file != null) {
+                if (!writeBuffer.hasRemaining()) {
+                    flushWriteBuffer();
+                }
+                return writeBuffer;
+            }
+            if (!slabs.isEmpty()) {
+                ByteBuffer current = slabs.get(slabs.size() - 1);
+                if (current.hasRemaining()) {
+                    return current;
+                }
+            }
+            if (size + slabSize <= threshold) {
+                ByteBuffer slab = allocateSlab();
+                if (slab != null) {
+                    slabs.add(slab);
+                    return slab;
+                }
+            }
+            spill();
+            return writeBuffer;
+        }
+
+        /**
+         * Move the content to a newly created spool file and keep the last
+         * slab as write buffer
+         */
+        private void spill() throws IOException {
+            File spoolFile = File.createTempFile(key, ".m64", directory);
+            raf = new RandomAccessFile(spoolFile, "rw");
+            channel = raf.getChannel();
+            file = spoolFile;
+
+            for (ByteBuffer slab : slabs) {
+                ByteBuffer data = (ByteBuffer) slab.duplicate().flip();
+                ensureAllocated(channel.position() + data.remaining());
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            if (slabs.isEmpty()) {
+                writeBuffer = allocateSlab();
+                pooledWriteBuffer = writeBuffer != null;
+                if (writeBuffer == null) {
+                    writeBuffer = ByteBuffer.allocate(slabSize);
+                }
+            } else {
+                writeBuffer = slabs.remove(slabs.size() - 1);
+                writeBuffer.clear();
+                pooledWriteBuffer = true;
+                for (ByteBuffer slab : slabs) {
+                    releaseSlab(slab);
+                }
+                slabs.clear();
+            }
+        }
+
+        private void flushWriteBuffer() throws IOException {
+            writeBuffer.flip();
+            ensureAllocated(channel.position() + writeBuffer.remaining());
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            writeBuffer.clear();
+        }
+
+        private void ensureAllocated(long needed) throws IOException {
+            if (needed > allocated) {
+                allocated = Math.max(needed, allocated + Math.max(allocated, PREALLOCATION_SIZE));
+                raf.setLength(allocated);
+            }
+        }
+
+        private final class ContentOutputStream extends OutputStream implements WritableByteChannel {
+
+            @Override
+            public void write(int b) throws IOException {
+                synchronized (TieredContent.this) {
+                    writable().put((byte) b);
+                    size++;
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (TieredContent.this) {
+                    int written = 0;
+                    while (written < len) {
+                        ByteBuffer target = writable();
+                        int chunk = Math.min(len - written, target.remaining());
+                        target.put(b, off + written, chunk);
+                        written += chunk;
+                        size += chunk;
+                    }
+                }
+            }
+
+            public int write(ByteBuffer src) throws IOException {
+                synchronized (TieredContent.this) {
+                    int len = src.remaining();
+                    int limit = src.limit();
+                    while (src.hasRemaining()) {
+                        ByteBuffer target = writable();
+                        int chunk = Math.min(src.remaining(), target.remaining());
+                        src.limit(src.position() + chunk);
+                        target.put(src);
+                        src.limit(limit);
+                        size += chunk;
+                    }
+                    return len;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (TieredContent.this) {
+                    if (!closed && file != null) {
+                        flushWriteBuffer();
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                synchronized (TieredContent.this) {
+                    if (closed) {
+                        return;
+                    }
+                    closed = true;
+                    if (channel != null) {
+                        try {
+                            flushWriteBuffer();
+                            channel.truncate(size);
+                        } finally {
+                            if (pooledWriteBuffer) {
+                                releaseSlab(writeBuffer);
+                            }
+                            writeBuffer = null;
+                            raf.close();
+                            channel = null;
+                            raf = null;
+                        }
+                    }
+                }
+            }
+
+            public boolean isOpen() {
+                synchronized (TieredContent.this) {
+                    return !closed;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link SharedInputStream} over the slabs or the spool file of a content.
+     * Only the streams handed out by {@link TieredContent#getInputStream()}
+     * hold a reference to the content, streams created via
+     * {@link #newStream(long, long)} fail once the content was released.
+     */
+    private final class ContentInputStream extends InputStream implements SharedInputStream {
+
+        /**
+         * Size of the buffer a stream over a spool file reads ahead into
+         */
+        private final static int FILE_BUFFER_SIZE = 8192;
+
+        private final TieredContent content;
+        private final ByteBuffer[] buffers;
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final boolean referenced;
+        private long position;
+        private long mark;
+        private boolean closed;
+
+        private byte[] fileBuffer;
+        private long fileBufferStart;
+        private int fileBufferLength;
+
+        public ContentInputStream(TieredContent content, ByteBuffer[] source, long start, long end, boolean referenced) {
+            this.content = content;
+            this.channel = null;
+            this.start = start;
+            this.end = end;
+            this.referenced = referenced;
+            this.position = start;
+            this.mark = start;
+            // each stream uses its own views so reads do not interfere
+            this.buffers = new ByteBuffer[source.length];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = source[i].duplicate();
+            }
+        }
+
+        public ContentInputStream(TieredContent content, FileChannel channel, long start, long end, boolean referenced) {
+            this.content = content;
+            this.channel = channel;
+            this.buffers = null;
+            this.start = start;
+            this.end = end;
+            this.referenced = referenced;
+            this.position = start;
+            this.mark = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (content) {
+                checkReadable();
+                if (position >= end) {
+                    return -1;
+                }
+                int b;
+                if (channel != null) {
+                    fillFileBuffer();
+                    b = fileBuffer[(int) (position - fileBufferStart)] & 0xff;
+                } else {
+                    b = buffers[(int) (position / slabSize)].get((int) (position % slabSize)) & 0xff;
+                }
+                position++;
+                return b;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            synchronized (content) {
+                checkReadable();
+                if (position >= end) {
+                    return -1;
+                }
+                if (channel != null) {
+                    return readFile(b, off, len);
+                }
+                int read = 0;
+                while (read < len && position < end) {
+                    ByteBuffer buffer = buffers[(int) (position / slabSize)];
+                    int offset = (int) (position % slabSize);
+                    int chunk = (int) Math.min(Math.min(len - read, buffer.limit() - offset), end - position);
+                    buffer.position(offset);
+                    buffer.get(b, off + read, chunk);
+                    read += chunk;
+                    position += chunk;
+                }
+                return read;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            synchronized (content) {
+                checkReadable();
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (content) {
+                checkReadable();
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+            synchronized (content) {
+                mark = position;
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            synchronized (content) {
+                position = mark;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (content) {
+                if (!closed) {
+                    closed = true;
+                    if (referenced) {
+                        content.release();
+                    }
+                }
+            }
+        }
+
+        /**
+         * @see javax.mail.internet.SharedInputStream#getPosition()
+         */
+        public long getPosition() {
+            synchronized (content) {
+                return position - start;
+            }
+        }
+
+        /**
+         * @see javax.mail.internet.SharedInputStream#newStream(long, long)
+         */
+        public InputStream newStream(long start, long end) {
+            if (start < 0) {
+                throw new IllegalArgumentException("start < 0");
+            }
+            long newEnd = end == -1 ? this.end : Math.min(this.start + end, this.end);
+            if (channel != null) {
+                return new ContentInputStream(content, channel, this.start + start, newEnd, false);
+            }
+            return new ContentInputStream(content, buffers, this.start + start, newEnd, false);
+        }
+
+        /**
+         * Read from the spool file. Small reads are served from a read ahead
+         * buffer so reading byte by byte does not cost a system call each.
+         */
+        private int readFile(byte[] b, int off, int len) throws IOException {
+            int wanted = (int) Math.min(len, end - position);
+            if (wanted >= FILE_BUFFER_SIZE) {
+                int read = readFully(ByteBuffer.wrap(b, off, wanted), position);
+                position += read;
+                return read;
+            }
+            fillFileBuffer();
+            int chunk = (int) Math.min(wanted, fileBufferStart + fileBufferLength - position);
+            System.arraycopy(fileBuffer, (int) (position - fileBufferStart), b, off, chunk);
+            position += chunk;
+            return chunk;
+        }
+
+        /**
+         * Make sure the read ahead buffer holds the byte at the current
+         * position
+         */
+        private void fillFileBuffer() throws IOException {
+            if (fileBuffer != null && position >= fileBufferStart && position < fileBufferStart + fileBufferLength) {
+                return;
+            }
+            if (fileBuffer == null) {
+                fileBuffer = new byte[FILE_BUFFER_SIZE];
+            }
+            int wanted = (int) Math.min(FILE_BUFFER_SIZE, end - position);
+            fileBufferLength = readFully(ByteBuffer.wrap(fileBuffer, 0, wanted), position);
+            fileBufferStart = position;
+        }
+
+        private int readFully(ByteBuffer dst, long filePosition) throws IOException {
+            int read = 0;
+            while (dst.hasRemaining()) {
+                int n = channel.read(dst, filePosition + read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of spool file " + content.file);
+                }
+                read += n;
+            }
+            return read;
+        }
+
+        private void checkReadable() throws IOException {
+            if (closed) {
+                throw new IOException("Stream already closed");
+            }
+            if (content.released) {
+                throw new IOException("Content already released");
+            }
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import org.apache.mailet.Mail;
 
 import javax.mail.MessagingException;
 import java.util.ArrayList;
+import java.util.List;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
@@ -102,4 +103,75 @@ public class MailImplTest extends MailTestAllImplementations {
         helperTestInitialState(duplicate);
         helperTestMessageSize(duplicate, 0);
     }
+
+    @Test
+    public void testDuplicateSharesImmutableAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        String value = new String("value");
+        mail.setAttribute("string", value);
+
+        MailImpl duplicate = (MailImpl) mail.duplicate();
+        assertSame(value, duplicate.getAttribute("string"));
+
+        duplicate.setAttribute("string", "changed");
+        duplicate.setAttribute("added", "added");
+        assertEquals("value", mail.getAttribute("string"));
+        assertNull(mail.getAttribute("added"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDuplicateIsolatesMutableAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("a");
+        mail.setAttribute("list", list);
+
+        MailImpl duplicate = (MailImpl) mail.duplicate();
+        ((List<String>) duplicate.getAttribute("list")).add("b");
+        assertEquals(1, ((List<String>) mail.getAttribute("list")).size());
+
+        ((List<String>) mail.getAttribute("list")).add("c");
+        assertEquals(2, ((List<String>) duplicate.getAttribute("list")).size());
+        assertEquals(2, ((List<String>) mail.getAttributesRaw().get("list")).size());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCopiesIsolateSharedAttributes() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("a");
+        mail.setAttribute("list", list);
+        mail.setAttribute("removed", new ArrayList<String>());
+
+        // a copy of a copy still shares the value with the original
+        MailImpl copy = new MailImpl(mail);
+        MailImpl copyOfCopy = new MailImpl(copy);
+
+        // replacing or removing a shared value must not touch the copies
+        mail.setAttribute("list", new ArrayList<String>());
+        mail.removeAttribute("removed");
+        assertEquals(1, ((List<String>) copy.getAttribute("list")).size());
+        assertNotNull(copy.getAttribute("removed"));
+
+        ((List<String>) copy.getAttribute("list")).add("b");
+        assertEquals(1, ((List<String>) copyOfCopy.getAttribute("list")).size());
+        assertEquals(0, ((List<String>) mail.getAttribute("list")).size());
+        assertNotSame(copy.getAttribute("removed"), copyOfCopy.getAttribute("removed"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testUncloneableAttributeStaysShared() throws MessagingException {
+        MailImpl mail = new MailImpl();
+        ArrayList<Object> list = new ArrayList<Object>();
+        // not serializable, so the value can not be cloned
+        list.add(new Object());
+        mail.setAttribute("list", list);
+
+        MailImpl copy = new MailImpl(mail);
+        assertSame(list, copy.getAttribute("list"));
+        assertSame(list, mail.getAttribute("list"));
+    }
 }
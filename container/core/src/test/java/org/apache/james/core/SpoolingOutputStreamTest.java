@@ -0,0 +1,110 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class SpoolingOutputStreamTest {
+
+    private final static File TMPDIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private byte[] content(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    @Test
+    public void testKeepsSmallContentInMemory() throws IOException {
+        SpoolingOutputStream out = new SpoolingOutputStream(1024, "test", ".m64", TMPDIR);
+        byte[] data = content(1000);
+        out.write(data, 0, 500);
+        out.write(ByteBuffer.wrap(data, 500, 500));
+        out.close();
+
+        assertTrue(out.isInMemory());
+        assertNull(out.getFile());
+        assertEquals(1000, out.getByteCount());
+        byte[] written = new byte[1000];
+        System.arraycopy(out.getData(), 0, written, 0, written.length);
+        assertArrayEquals(data, written);
+    }
+
+    @Test
+    public void testSpoolsBigContentToFile() throws IOException {
+        SpoolingOutputStream out = new SpoolingOutputStream(1024, "test", ".m64", TMPDIR);
+        byte[] data = content(3 * SpoolingOutputStream.BUFFER_SIZE + 17);
+        try {
+            out.write(data, 0, 100);
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length - 101);
+            direct.put(data, 100, data.length - 101);
+            direct.flip();
+            out.write(direct);
+            assertFalse(direct.hasRemaining());
+            out.write(data[data.length - 1]);
+            out.close();
+
+            assertFalse(out.isInMemory());
+            assertEquals(data.length, out.getByteCount());
+            assertEquals(data.length, out.getFile().length());
+            assertArrayEquals(data, FileUtils.readFileToByteArray(out.getFile()));
+        } finally {
+            FileUtils.deleteQuietly(out.getFile());
+        }
+    }
+
+    @Test
+    public void testSourceUsesConfiguredThreshold() throws Exception {
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("test", 10, TMPDIR);
+        try {
+            byte[] data = content(100);
+            ((WritableByteChannel) source.getWritableOutputStream()).write(ByteBuffer.wrap(data));
+            source.getWritableOutputStream().close();
+
+            File file = source.getFile();
+            assertTrue(file.exists());
+            assertEquals(100, source.getMessageSize());
+            InputStream in = source.getInputStream();
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+
+            source.dispose();
+            assertFalse(file.exists());
+        } finally {
+            source.dispose();
+        }
+    }
+
+}
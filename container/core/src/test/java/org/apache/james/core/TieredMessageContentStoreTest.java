@@ -0,0 +1,203 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.mail.internet.SharedInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class TieredMessageContentStoreTest {
+
+    private final static File TMPDIR = new File(System.getProperty("java.io.tmpdir"));
+
+    private byte[] content(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + i % 26);
+        }
+        return data;
+    }
+
+    private MessageContent write(MessageContentStore store, byte[] data) throws IOException {
+        MessageContent content = store.newContent("test");
+        OutputStream out = content.getOutputStream();
+        out.write(data, 0, data.length / 2);
+        ((WritableByteChannel) out).write(ByteBuffer.wrap(data, data.length / 2, data.length - data.length / 2));
+        out.close();
+        return content;
+    }
+
+    @Test
+    public void testSmallContentIsKeptInSlabs() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 64 * 1024, 4096, TMPDIR);
+        byte[] data = content(10000);
+        MessageContent content = write(store, data);
+
+        assertNull(content.getFile());
+        assertEquals(data.length, content.getSize());
+        assertEquals(3 * 4096, store.getUsedMemory());
+        InputStream in = content.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+        in.close();
+
+        content.release();
+        assertEquals(0, store.getUsedMemory());
+    }
+
+    @Test
+    public void testBigContentIsSpooled() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 8192, 4096, TMPDIR);
+        byte[] data = content(100000);
+        MessageContent content = write(store, data);
+
+        File file = content.getFile();
+        assertNotNull(file);
+        assertEquals(data.length, file.length());
+        assertEquals(0, store.getUsedMemory());
+        InputStream in = content.getInputStream();
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+        in.close();
+
+        content.release();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testContentSpillsWhenBudgetIsExhausted() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(8192, 64 * 1024, 4096, TMPDIR);
+        byte[] data = content(6000);
+        MessageContent first = write(store, data);
+        MessageContent second = write(store, data);
+
+        assertNull(first.getFile());
+        assertNotNull(second.getFile());
+        assertArrayEquals(data, IOUtils.toByteArray(second.getInputStream()));
+
+        first.release();
+        second.release();
+        assertEquals(0, store.getUsedMemory());
+    }
+
+    @Test
+    public void testContentIsFreedAfterLastReader() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 64 * 1024, 4096, TMPDIR);
+        byte[] data = content(5000);
+        MessageContent content = write(store, data);
+
+        InputStream in = content.getInputStream();
+        content.release();
+        assertTrue(store.getUsedMemory() > 0);
+        assertArrayEquals(data, IOUtils.toByteArray(in));
+        in.close();
+        assertEquals(0, store.getUsedMemory());
+
+        try {
+            content.retain();
+            fail("Released content must not be retained again");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSharedInputStream() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 64 * 1024, 4096, TMPDIR);
+        byte[] data = content(10000);
+        MessageContent content = write(store, data);
+
+        SharedInputStream in = (SharedInputStream) content.getInputStream();
+        InputStream part = in.newStream(4000, 5000);
+        byte[] expected = new byte[1000];
+        System.arraycopy(data, 4000, expected, 0, expected.length);
+        assertArrayEquals(expected, IOUtils.toByteArray(part));
+
+        ((InputStream) in).close();
+        content.release();
+        try {
+            in.newStream(0, -1).read();
+            fail("Released content must not be readable");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSpooledSharedInputStream() throws IOException {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 8192, 4096, TMPDIR);
+        byte[] data = content(100000);
+        MessageContent content = write(store, data);
+        File file = content.getFile();
+        assertNotNull(file);
+
+        SharedInputStream in = (SharedInputStream) content.getInputStream();
+        InputStream part = in.newStream(4000, 24000);
+        for (int i = 4000; i < 24000; i++) {
+            assertEquals(data[i], (byte) part.read());
+        }
+        assertEquals(-1, part.read());
+
+        byte[] expected = new byte[50000];
+        System.arraycopy(data, 30000, expected, 0, expected.length);
+        assertArrayEquals(expected, IOUtils.toByteArray(in.newStream(30000, 80000)));
+
+        ((InputStream) in).close();
+        content.release();
+        assertFalse(file.exists());
+        try {
+            in.newStream(0, -1).read();
+            fail("Released content must not be readable");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMessageFromTieredSource() throws Exception {
+        TieredMessageContentStore store = new TieredMessageContentStore(1024 * 1024, 64 * 1024, 4096, TMPDIR);
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("test", store);
+        OutputStream out = source.getWritableOutputStream();
+        out.write(("Subject: tiered\r\n\r\n" + new String(content(10000))).getBytes("US-ASCII"));
+        out.close();
+
+        MimeMessageWrapper message = new MimeMessageWrapper(source);
+        assertEquals("tiered", message.getSubject());
+        assertEquals(new String(content(10000)), message.getContent());
+
+        source.dispose();
+        assertEquals(0, store.getUsedMemory());
+    }
+
+}
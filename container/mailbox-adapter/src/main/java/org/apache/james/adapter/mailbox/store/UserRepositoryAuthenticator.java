@@ -25,17 +25,20 @@ import javax.inject.Named;
 
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.mailbox.store.Authenticator;
+import org.apache.james.user.api.AuthenticationService;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
 import org.slf4j.Logger;
 
 /**
  * Authenticator which use an UsersRepository to check if the user and password
- * match
+ * match. If an {@link AuthenticationService} is set, the credentials are
+ * checked through it instead, so its cache is shared with the other protocols.
  */
 public class UserRepositoryAuthenticator implements Authenticator, LogEnabled {
 
     private UsersRepository repos;
+    private AuthenticationService authenticationService;
     private Logger log;
 
     @Inject
@@ -44,6 +47,12 @@ public class UserRepositoryAuthenticator implements Authenticator, LogEnabled {
         this.repos = repos;
     }
 
+    @Inject
+    @Resource(name = "authenticationservice")
+    public void setAuthenticationService(@Named("authenticationservice") AuthenticationService authenticationService) {
+        this.authenticationService = authenticationService;
+    }
+
     /**
      * @see
      * org.apache.james.mailbox.store.Authenticator#isAuthentic(java.lang.String
@@ -51,6 +60,10 @@ public class UserRepositoryAuthenticator implements Authenticator, LogEnabled {
      */
     public boolean isAuthentic(String userid, CharSequence passwd) {
         try {
+            if (authenticationService != null) {
+                // the client address is not known here
+                return authenticationService.authenticate(userid, passwd.toString(), null);
+            }
             return repos.test(userid, passwd.toString());
         } catch (UsersRepositoryException e) {
             log.info("Unable to access UsersRepository", e);
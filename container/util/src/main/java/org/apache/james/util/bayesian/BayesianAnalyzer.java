@@ -21,15 +21,8 @@ package org.apache.james.util.bayesian;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 
 /**
  * <p>
@@ -60,7 +53,7 @@ import java.util.TreeSet;
  * <p>
  * Use: void buildCorpus()
  * <p/>
- * to build the final token/probabilities Map.
+ * to build the final token/probabilities corpus.
  * <p/>
  * Use your own methods for persistent storage of either the individual ham/spam
  * corpus & message counts, and/or the final corpus.
@@ -76,18 +69,21 @@ import java.util.TreeSet;
  * </p>
  * <p/>
  * <p>
- * If you use persistent storage, use: void setCorpus(Map)
+ * If you use persistent storage, use: void setCorpus(BayesianCorpus)
  * <p/>
  * before calling computeSpamProbability.
  * </p>
+ * <p/>
+ * <p>
+ * The corpus is an immutable snapshot, so computeSpamProbability can be used
+ * by many threads while a new corpus is built and swapped in.
+ * </p>
  *
  * @since 2.3.0
  */
 
 public class BayesianAnalyzer {
 
-    private final Object lock = new Object();
-
     /**
      * Number of "interesting" tokens to use to compute overall spamminess
      * probability.
@@ -129,56 +125,169 @@ public class BayesianAnalyzer {
     /**
      * Final token/probability corpus.
      */
-    private Map<String, Double> corpus = new HashMap<String, Double>();
+    private volatile BayesianCorpus corpus = BayesianCorpus.EMPTY;
 
     /**
-     * Inner class for managing Token Probability Strengths during the
-     * computeSpamProbability phase.
+     * Selects the "interesting" tokens during the computeSpamProbability phase,
+     * and computes the overall probability from them.
      * <p/>
      * By probability <i>strength</i> we mean the absolute distance of a
-     * probability from the middle value 0.5.
-     * <p/>
-     * It implements Comparable so that it's sorting is automatic.
+     * probability from the middle value 0.5. The strongest
+     * MAX_INTERESTING_TOKENS tokens are used, and any other token which is at
+     * least as strong as INTERESTINGNESS_THRESHOLD. As all those strong tokens
+     * are used anyway, their probabilities are combined when they are added,
+     * and only the strongest of the weaker tokens are kept in a fixed size
+     * heap.
      */
-    private class TokenProbabilityStrength implements Comparable<TokenProbabilityStrength> {
-        /**
-         * Message token.
-         */
-        String token = null;
+    private final static class InterestingTokens {
 
         /**
-         * Token's computed probability strength.
+         * Weaker tokens, the weakest one being the root.
          */
-        double strength = Math.abs(0.5 - DEFAULT_TOKEN_PROBABILITY);
+        private final Candidate[] heap = new Candidate[MAX_INTERESTING_TOKENS];
+
+        private int heapSize = 0;
+
+        private int strongCount = 0;
+
+        private double p = 1.0;
+
+        private double np = 1.0;
+
+        InterestingTokens() {
+            for (int i = 0; i < heap.length; i++) {
+                heap[i] = new Candidate();
+            }
+        }
 
         /**
-         * Force the natural sort order for this object to be high-to-low.
+         * Add a token of the message.
          *
-         * @param anotherTokenProbabilityStrength
-         *         A TokenProbabilityStrength instance to compare this
-         *         instance with.
-         * @return The result of the comparison (before, equal, after).
+         * @param probability the token's probability
+         * @param token buffer holding the token
+         * @param length length of the token
          */
-        public final int compareTo(TokenProbabilityStrength anotherTokenProbabilityStrength) {
-            int result = (int) ((anotherTokenProbabilityStrength.strength - strength) * 1000000);
-            if (result == 0) {
-                return this.token.compareTo(anotherTokenProbabilityStrength.token);
-            } else {
-                return result;
+        void add(double probability, char[] token, int length) {
+            double strength = Math.abs(0.5 - probability);
+            if (strength >= INTERESTINGNESS_THRESHOLD) {
+                strongCount++;
+                p *= probability;
+                np *= (1.0 - probability);
+                return;
+            }
+            if (heapSize < heap.length) {
+                heap[heapSize].set(strength, probability, token, length);
+                siftUp(heapSize++);
+            } else if (Candidate.compare(strength, token, length, heap[0]) < 0) {
+                heap[0].set(strength, probability, token, length);
+                siftDown(0);
             }
         }
 
         /**
-         * Simple toString () implementation mostly for debugging purposes.
+         * Compute the spamminess probability of the interesting tokens.
          *
-         * @return String representation of this object.
+         * @return Computed spamminess.
          */
-        public String toString() {
-            StringBuilder sb = new StringBuilder(30);
+        double computeOverallProbability() {
+            // the weaker tokens complete the strong ones up to
+            // MAX_INTERESTING_TOKENS, and one of them follows the strong
+            // tokens anyway
+            int count = Math.min(Math.max(MAX_INTERESTING_TOKENS - strongCount, 1), heapSize);
+            while (count-- > 0) {
+                // the heap is small, so simply look for the strongest token
+                int strongest = 0;
+                for (int i = 1; i < heapSize; i++) {
+                    if (heap[i].compareTo(heap[strongest]) < 0) {
+                        strongest = i;
+                    }
+                }
+                double probability = heap[strongest].probability;
+                p *= probability;
+                np *= (1.0 - probability);
+                swap(strongest, --heapSize);
+            }
+            return (p / (p + np));
+        }
+
+        private void siftUp(int index) {
+            while (index > 0) {
+                int parent = (index - 1) / 2;
+                if (heap[index].compareTo(heap[parent]) <= 0) {
+                    break;
+                }
+                swap(index, parent);
+                index = parent;
+            }
+        }
+
+        private void siftDown(int index) {
+            while (true) {
+                int weakest = index;
+                int child = 2 * index + 1;
+                if (child < heapSize && heap[child].compareTo(heap[weakest]) > 0) {
+                    weakest = child;
+                }
+                child++;
+                if (child < heapSize && heap[child].compareTo(heap[weakest]) > 0) {
+                    weakest = child;
+                }
+                if (weakest == index) {
+                    break;
+                }
+                swap(index, weakest);
+                index = weakest;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Candidate candidate = heap[i];
+            heap[i] = heap[j];
+            heap[j] = candidate;
+        }
+    }
+
+    /**
+     * A token kept by InterestingTokens. The instances are reused, so the
+     * token is copied.
+     */
+    private final static class Candidate {
+
+        private final char[] token = new char[Tokenizer.MAX_TOKEN_LENGTH];
+
+        private int length;
+
+        private double probability;
 
-            sb.append(token).append("=").append(strength);
+        private double strength;
 
-            return sb.toString();
+        void set(double strength, double probability, char[] token, int length) {
+            this.strength = strength;
+            this.probability = probability;
+            this.length = length;
+            System.arraycopy(token, 0, this.token, 0, length);
+        }
+
+        /**
+         * Order from the highest strength to the lowest strength, then by
+         * token.
+         */
+        int compareTo(Candidate another) {
+            return -compare(another.strength, another.token, another.length, this);
+        }
+
+        static int compare(double strength, char[] token, int length, Candidate another) {
+            int result = (int) ((another.strength - strength) * 1000000);
+            if (result != 0) {
+                return result;
+            }
+            int common = Math.min(length, another.length);
+            for (int i = 0; i < common; i++) {
+                if (token[i] != another.token[i]) {
+                    return token[i] - another.token[i];
+                }
+            }
+            return length - another.length;
         }
     }
 
@@ -256,7 +365,7 @@ public class BayesianAnalyzer {
      * Clears all analysis repositories and counters.
      */
     public void clear() {
-        corpus.clear();
+        corpus = BayesianCorpus.EMPTY;
 
         tokenCountsClear();
 
@@ -277,14 +386,14 @@ public class BayesianAnalyzer {
      *
      * @param corpus The new corpus.
      */
-    public void setCorpus(Map<String, Double> corpus) {
+    public void setCorpus(BayesianCorpus corpus) {
         this.corpus = corpus;
     }
 
     /**
      * Public getter for corpus.
      */
-    public Map<String, Double> getCorpus() {
+    public BayesianCorpus getCorpus() {
         return this.corpus;
     }
 
@@ -293,17 +402,14 @@ public class BayesianAnalyzer {
      */
     public void buildCorpus() {
         // Combine the known ham & spam tokens.
-        Set<String> set = new HashSet<String>(hamTokenCounts.size() + spamTokenCounts.size());
-        set.addAll(hamTokenCounts.keySet());
-        set.addAll(spamTokenCounts.keySet());
-        Map<String, Double> tempCorpus = new HashMap<String, Double>(set.size());
-
-        // Iterate through all the tokens and compute their new
-        // individual probabilities.
-        for (String token : set) {
-            tempCorpus.put(token, computeProbability(token));
+        TokenCounts counts = new TokenCounts(hamTokenCounts.size() + spamTokenCounts.size());
+        for (Map.Entry<String, Integer> entry : hamTokenCounts.entrySet()) {
+            counts.add(TokenCounts.hash(entry.getKey()), entry.getValue(), 0);
+        }
+        for (Map.Entry<String, Integer> entry : spamTokenCounts.entrySet()) {
+            counts.add(TokenCounts.hash(entry.getKey()), 0, entry.getValue());
         }
-        setCorpus(tempCorpus);
+        setCorpus(new BayesianCorpus(counts, hamMessageCount, spamMessageCount));
     }
 
     /**
@@ -328,28 +434,65 @@ public class BayesianAnalyzer {
         spamMessageCount++;
     }
 
+    /**
+     * Parses a message into tokens and returns their occurrences, without
+     * touching the state of this analyzer.
+     *
+     * @param stream A reader stream on the message to analyze
+     * @return token occurrences
+     * @throws IOException If any error occurs
+     */
+    public Map<String, Integer> countTokens(Reader stream) throws java.io.IOException {
+        Map<String, Integer> tokens = new HashMap<String, Integer>();
+        addTokenOccurrences(stream, tokens);
+        return tokens;
+    }
+
     /**
      * Computes the probability that the stream contains SPAM.
+     * <p/>
+     * The stream is analyzed while it is read, so it does not need to be
+     * buffered: each token is looked up in the corpus as soon as it is read.
      *
      * @param stream The text to be analyzed for Spamminess.
      * @return A 0.0 - 1.0 probability
      * @throws IOException If any error occurs
      */
     public double computeSpamProbability(Reader stream) throws java.io.IOException {
-        // Build a set of the tokens in the Stream.
-        Set<String> tokens = parse(stream);
-
         // Get the corpus to use in this run
         // A new corpus may be being built in the meantime
-        Map<String, Double> workCorpus = getCorpus();
+        BayesianCorpus workCorpus = getCorpus();
+
+        Tokenizer tokenizer = new Tokenizer(stream);
+        TokenCounts seenTokens = new TokenCounts();
+        InterestingTokens interestingTokens = new InterestingTokens();
 
-        // Assign their probabilities from the Corpus (using an additional
-        // calculation to determine spamminess).
-        SortedSet<TokenProbabilityStrength> tokenProbabilityStrengths = getTokenProbabilityStrengths(tokens, workCorpus);
+        while (tokenizer.next()) {
+            char[] token = tokenizer.getChars();
+            int length = tokenizer.getLength();
+            long hash = hash(TokenCounts.emptyHash(), token, 0, length);
+
+            // Only the unique tokens are used.
+            if (seenTokens.contains(hash)) {
+                continue;
+            }
+            seenTokens.add(hash, 0, 0);
+
+            // Assign their probabilities from the Corpus (using an additional
+            // calculation to determine spamminess).
+            double probability = workCorpus.getProbability(hash);
+            if (probability < 0) {
+                // This token has never been seen before,
+                // we'll give it initially the default probability, unless
+                // one of its degenerations is stronger.
+                probability = getDegeneratedProbability(workCorpus, token, tokenizer.getHeaderLength(), length);
+            }
+            interestingTokens.add(probability, token, length);
+        }
 
         // Compute and return the overall probability that the
         // stream is SPAM.
-        return computeOverallProbability(tokenProbabilityStrengths, workCorpus);
+        return interestingTokens.computeOverallProbability();
     }
 
     /**
@@ -360,349 +503,121 @@ public class BayesianAnalyzer {
      * @param target
      */
     private void addTokenOccurrences(Reader stream, Map<String, Integer> target) throws java.io.IOException {
-        String token;
-        String header = "";
+        Tokenizer tokenizer = new Tokenizer(stream);
 
         // Update target with the tokens/count encountered.
-        while ((token = nextToken(stream)) != null) {
-            boolean endingLine = false;
-            if (token.length() > 0 && token.charAt(token.length() - 1) == '\n') {
-                endingLine = true;
-                token = token.substring(0, token.length() - 1);
-            }
-
-            if (token.length() > 0 && header.length() + token.length() < 90 && !allDigits(token)) {
-                if (token.equals("From:") || token.equals("Return-Path:") || token.equals("Subject:") || token.equals("To:")) {
-                    header = token;
-                    if (!endingLine) {
-                        continue;
-                    }
-                }
-
-                token = header + token;
+        while (tokenizer.next()) {
+            String token = tokenizer.getToken();
 
-                Integer value;
+            Integer value;
 
-                if (target.containsKey(token)) {
-                    value = target.get(token) + 1;
-                } else {
-                    value = 1;
-                }
-
-                target.put(token, value);
+            if (target.containsKey(token)) {
+                value = target.get(token) + 1;
+            } else {
+                value = 1;
             }
 
-            if (endingLine) {
-                header = "";
-            }
+            target.put(token, value);
         }
     }
 
     /**
-     * Parses a stream into tokens, and returns a Set of the unique tokens
-     * encountered.
+     * Returns the probability of the strongest degeneration of a token which
+     * is not in the corpus, or the default probability if none of them is
+     * stronger.
+     * <p/>
+     * The degenerations are the lower case token, the token with only its
+     * first letter in upper case, and the token without its trailing
+     * exclamation marks, with and without the header prefix.
      *
-     * @param stream
-     * @return Set
-     */
-    private Set<String> parse(Reader stream) throws java.io.IOException {
-        Set<String> tokens = new HashSet<String>();
-        String token;
-        String header = "";
-
-        // Build a Map of tokens encountered.
-        while ((token = nextToken(stream)) != null) {
-            boolean endingLine = false;
-            if (token.length() > 0 && token.charAt(token.length() - 1) == '\n') {
-                endingLine = true;
-                token = token.substring(0, token.length() - 1);
-            }
-
-            if (token.length() > 0 && header.length() + token.length() < 90 && !allDigits(token)) {
-                if (token.equals("From:") || token.equals("Return-Path:") || token.equals("Subject:") || token.equals("To:")) {
-                    header = token;
-                    if (!endingLine) {
-                        continue;
-                    }
+     * @param workCorpus
+     * @param token buffer holding the token
+     * @param headerLength length of the header prefix, including ':'
+     * @param length length of the token
+     * @return probability
+     */
+    private double getDegeneratedProbability(BayesianCorpus workCorpus, char[] token, int headerLength, int length) {
+        // look for a header string termination, the ':' is kept with the
+        // token
+        int start = headerLength > 0 ? headerLength - 1 : 0;
+        long headerHash = hash(TokenCounts.emptyHash(), token, 0, start);
+        boolean hasHeader = start > 0;
+
+        double[] best = { DEFAULT_TOKEN_PROBABILITY, Math.abs(0.5 - DEFAULT_TOKEN_PROBABILITY) };
+        int end = length - start;
+        do {
+            if (hasUpperCase(token, start, start + end)) {
+                updateDegenerated(workCorpus, best, lowerCaseHash(headerHash, token, start, start + end, start));
+                if (hasHeader) {
+                    updateDegenerated(workCorpus, best, lowerCaseHash(TokenCounts.emptyHash(), token, start, start + end, start));
                 }
-
-                token = header + token;
-
-                tokens.add(token);
-            }
-
-            if (endingLine) {
-                header = "";
             }
-        }
-
-        // Return the unique set of tokens encountered.
-        return tokens;
-    }
-
-    private String nextToken(Reader reader) throws java.io.IOException {
-        StringBuilder token = new StringBuilder();
-        int i;
-        char ch, ch2;
-        boolean previousWasDigit = false;
-        boolean tokenCharFound = false;
-
-        if (!reader.ready()) {
-            return null;
-        }
-
-        while ((i = reader.read()) != -1) {
-
-            ch = (char) i;
-
-            if (ch == ':') {
-                String tokenString = token.toString() + ':';
-                if (tokenString.equals("From:") || tokenString.equals("Return-Path:") || tokenString.equals("Subject:") || tokenString.equals("To:")) {
-                    return tokenString;
+            if (end > 1 && token[start] >= 'A' && token[start] <= 'Z') {
+                updateDegenerated(workCorpus, best, lowerCaseHash(headerHash, token, start, start + end, start + 1));
+                if (hasHeader) {
+                    updateDegenerated(workCorpus, best, lowerCaseHash(TokenCounts.emptyHash(), token, start, start + end, start + 1));
                 }
             }
 
-            if (Character.isLetter(ch) || ch == '-' || ch == '$' || ch == '\u20AC' // the
-                    // EURO
-                    // symbol
-                    || ch == '!' || ch == '\'') {
-                tokenCharFound = true;
-                previousWasDigit = false;
-                token.append(ch);
-            } else if (Character.isDigit(ch)) {
-                tokenCharFound = true;
-                previousWasDigit = true;
-                token.append(ch);
-            } else if (previousWasDigit && (ch == '.' || ch == ',')) {
-                reader.mark(1);
-                previousWasDigit = false;
-                i = reader.read();
-                if (i == -1) {
-                    break;
-                }
-                ch2 = (char) i;
-                if (Character.isDigit(ch2)) {
-                    tokenCharFound = true;
-                    previousWasDigit = true;
-                    token.append(ch);
-                    token.append(ch2);
-                } else {
-                    reader.reset();
-                    break;
-                }
-            } else if (ch == '\r') {
-                // cr found, ignore
-            } else if (ch == '\n') {
-                // eol found
-                tokenCharFound = true;
-                previousWasDigit = false;
-                token.append(ch);
-                break;
-            } else if (tokenCharFound) {
+            if (token[start + end - 1] != '!') {
                 break;
             }
-        }
-
-        if (tokenCharFound) {
-            // System.out.println("Token read: " + token);
-            return token.toString();
-        } else {
-            return null;
-        }
-    }
 
-    /**
-     * Compute the probability that "token" is SPAM.
-     *
-     * @param token
-     * @return The probability that the token occurs within spam.
-     */
-    private double computeProbability(String token) {
-        double hamFactor = 0;
-        double spamFactor = 0;
-
-        boolean foundInHam = false;
-        boolean foundInSpam = false;
-
-        double minThreshold = 0.01;
-        double maxThreshold = 0.99;
-
-        if (hamTokenCounts.containsKey(token)) {
-            foundInHam = true;
-        }
-
-        if (spamTokenCounts.containsKey(token)) {
-            foundInSpam = true;
-        }
-
-        if (foundInHam) {
-            hamFactor = 2 * hamTokenCounts.get(token).doubleValue();
-            if (!foundInSpam) {
-                minThreshold = (hamFactor > 20) ? 0.0001 : 0.0002;
-            }
-        }
+            end--;
 
-        if (foundInSpam) {
-            spamFactor = spamTokenCounts.get(token).doubleValue();
-            if (!foundInHam) {
-                maxThreshold = (spamFactor > 10) ? 0.9999 : 0.9998;
+            updateDegenerated(workCorpus, best, hash(headerHash, token, start, start + end));
+            if (hasHeader) {
+                updateDegenerated(workCorpus, best, hash(TokenCounts.emptyHash(), token, start, start + end));
             }
-        }
-
-        if ((hamFactor + spamFactor) < 5) {
-            // This token hasn't been seen enough.
-            return 0.4;
-        }
-
-        double spamFreq = Math.min(1.0, spamFactor / spamMessageCount);
-        double hamFreq = Math.min(1.0, hamFactor / hamMessageCount);
+        } while (end > 0);
 
-        return Math.max(minThreshold, Math.min(maxThreshold, (spamFreq / (hamFreq + spamFreq))));
+        return best[0];
     }
 
     /**
-     * Returns a SortedSet of TokenProbabilityStrength built from the Corpus and
-     * the tokens passed in the "tokens" Set. The ordering is from the highest
-     * strength to the lowest strength.
+     * Keep the probability of a degenerated token if it is stronger than the
+     * best one found so far.
      *
-     * @param tokens
      * @param workCorpus
-     * @return SortedSet of TokenProbabilityStrength objects.
+     * @param best probability and strength of the best degeneration
+     * @param hash hash of the degenerated token
      */
-    private SortedSet<TokenProbabilityStrength> getTokenProbabilityStrengths(Set<String> tokens, Map<String, Double> workCorpus) {
-        // Convert to a SortedSet of token probability strengths.
-        SortedSet<TokenProbabilityStrength> tokenProbabilityStrengths = new TreeSet<TokenProbabilityStrength>();
-
-        for (String token : tokens) {
-            TokenProbabilityStrength tps = new TokenProbabilityStrength();
-
-            tps.token = token;
-
-            if (workCorpus.containsKey(tps.token)) {
-                tps.strength = Math.abs(0.5 - workCorpus.get(tps.token));
-            } else {
-                // This token has never been seen before,
-                // we'll give it initially the default probability.
-                Double corpusProbability = DEFAULT_TOKEN_PROBABILITY;
-                tps.strength = Math.abs(0.5 - DEFAULT_TOKEN_PROBABILITY);
-                boolean isTokenDegeneratedFound = false;
-
-                Collection<String> degeneratedTokens = buildDegenerated(tps.token);
-                Iterator<String> iDegenerated = degeneratedTokens.iterator();
-                String tokenDegenerated;
-                double strengthDegenerated;
-                while (iDegenerated.hasNext()) {
-                    tokenDegenerated = iDegenerated.next();
-                    if (workCorpus.containsKey(tokenDegenerated)) {
-                        Double probabilityTemp = workCorpus.get(tokenDegenerated);
-                        strengthDegenerated = Math.abs(0.5 - probabilityTemp);
-                        if (strengthDegenerated > tps.strength) {
-                            isTokenDegeneratedFound = true;
-                            tps.strength = strengthDegenerated;
-                            corpusProbability = probabilityTemp;
-                        }
-                    }
-                }
-                // to reduce memory usage, put in the corpus only if the
-                // probability is different from (stronger than) the default
-                if (isTokenDegeneratedFound) {
-                    synchronized (lock) {
-                        workCorpus.put(tps.token, corpusProbability);
-                    }
-                }
+    private void updateDegenerated(BayesianCorpus workCorpus, double[] best, long hash) {
+        double probability = workCorpus.getProbability(hash);
+        if (probability >= 0) {
+            double strength = Math.abs(0.5 - probability);
+            if (strength > best[1]) {
+                best[0] = probability;
+                best[1] = strength;
             }
-
-            tokenProbabilityStrengths.add(tps);
         }
-
-        return tokenProbabilityStrengths;
     }
 
-    private Collection<String> buildDegenerated(String fullToken) {
-        ArrayList<String> tokens = new ArrayList<String>();
-        String header;
-        String token;
-        String tokenLower;
-
-        // look for a header string termination
-        int headerEnd = fullToken.indexOf(':');
-        if (headerEnd >= 0) {
-            header = fullToken.substring(0, headerEnd);
-            token = fullToken.substring(headerEnd);
-        } else {
-            header = "";
-            token = fullToken;
+    private static long hash(long hash, char[] token, int start, int end) {
+        for (int i = start; i < end; i++) {
+            hash = TokenCounts.hash(hash, token[i]);
         }
-
-        // prepare a version of the token containing all lower case (for
-        // performance reasons)
-        tokenLower = token.toLowerCase();
-
-        int end = token.length();
-        do {
-            if (!token.substring(0, end).equals(tokenLower.substring(0, end))) {
-                tokens.add(header + tokenLower.substring(0, end));
-                if (header.length() > 0) {
-                    tokens.add(tokenLower.substring(0, end));
-                }
-            }
-            if (end > 1 && token.charAt(0) >= 'A' && token.charAt(0) <= 'Z') {
-                tokens.add(header + token.charAt(0) + tokenLower.substring(1, end));
-                if (header.length() > 0) {
-                    tokens.add(token.charAt(0) + tokenLower.substring(1, end));
-                }
-            }
-
-            if (token.charAt(end - 1) != '!') {
-                break;
-            }
-
-            end--;
-
-            tokens.add(header + token.substring(0, end));
-            if (header.length() > 0) {
-                tokens.add(token.substring(0, end));
-            }
-        } while (end > 0);
-
-        return tokens;
+        return hash;
     }
 
     /**
-     * Compute the spamminess probability of the interesting tokens in the
-     * tokenProbabilities SortedSet.
-     *
-     * @param tokenProbabilityStrengths
-     * @param workCorpus
-     * @return Computed spamminess.
-     */
-    private double computeOverallProbability(SortedSet<TokenProbabilityStrength> tokenProbabilityStrengths, Map<String, Double> workCorpus) {
-        double p = 1.0;
-        double np = 1.0;
-        double tempStrength = 0.5;
-        int count = MAX_INTERESTING_TOKENS;
-        Iterator<TokenProbabilityStrength> iterator = tokenProbabilityStrengths.iterator();
-        while ((iterator.hasNext()) && (count-- > 0 || tempStrength >= INTERESTINGNESS_THRESHOLD)) {
-            TokenProbabilityStrength tps = iterator.next();
-            tempStrength = tps.strength;
-
-            // System.out.println(tps);
-
-            double theDoubleValue = DEFAULT_TOKEN_PROBABILITY; // initialize it
-            // to the default
-            Double theDoubleObject = workCorpus.get(tps.token);
-            // if either the original token or a degeneration was found use the
-            // double value, otherwise use the default
-            if (theDoubleObject != null) {
-                theDoubleValue = theDoubleObject;
-            }
-            p *= theDoubleValue;
-            np *= (1.0 - theDoubleValue);
-            // System.out.println("Token " + tps + ", p=" + theDoubleValue +
-            // ", overall p=" + p / (p + np));
+     * Continue a hash with the given chars in lower case, except the ones
+     * before lowerStart.
+     */
+    private static long lowerCaseHash(long hash, char[] token, int start, int end, int lowerStart) {
+        for (int i = start; i < end; i++) {
+            hash = TokenCounts.hash(hash, i < lowerStart ? token[i] : Character.toLowerCase(token[i]));
         }
+        return hash;
+    }
 
-        return (p / (p + np));
+    private static boolean hasUpperCase(char[] token, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (Character.toLowerCase(token[i]) != token[i]) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean allSameChar(String s) {
@@ -719,13 +634,4 @@ public class BayesianAnalyzer {
         }
         return true;
     }
-
-    private boolean allDigits(String s) {
-        for (int i = 0; i < s.length(); i++) {
-            if (!Character.isDigit(s.charAt(i))) {
-                return false;
-            }
-        }
-        return true;
-    }
 }
@@ -0,0 +1,183 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.util.bayesian;
+
+/**
+ * <p>
+ * Immutable snapshot of the token occurrences and message counts the spam
+ * probabilities are computed from.
+ * </p>
+ * <p>
+ * The probability of a token is computed on lookup, so a snapshot can be
+ * built by just loading or updating the counts. As it is never modified it
+ * can be used by any count of threads without locking, while a newer
+ * snapshot is built from it with {@link #update(TokenCounts, int, int)}.
+ * </p>
+ * 
+ * @since 3.0
+ */
+public final class BayesianCorpus {
+
+    /**
+     * Corpus without any token.
+     */
+    public final static BayesianCorpus EMPTY = new BayesianCorpus(new TokenCounts(), 0, 0);
+
+    /**
+     * The count of ham or spam occurrences a token needs to be kept. To reduce
+     * memory, tokens seen only once are left out.
+     */
+    public final static int MIN_TOKEN_COUNT = 2;
+
+    private final TokenCounts counts;
+
+    private final int hamMessageCount;
+
+    private final int spamMessageCount;
+
+    /**
+     * Create a new corpus. The given counts must not be modified afterwards.
+     * 
+     * @param counts
+     *            the token occurrences
+     * @param hamMessageCount
+     *            count of ham messages the counts were built from
+     * @param spamMessageCount
+     *            count of spam messages the counts were built from
+     */
+    public BayesianCorpus(TokenCounts counts, int hamMessageCount, int spamMessageCount) {
+        this.counts = counts;
+        this.hamMessageCount = hamMessageCount;
+        this.spamMessageCount = spamMessageCount;
+    }
+
+    /**
+     * Return a new corpus which contains the counts of this corpus plus the
+     * given ones. This corpus is left untouched. Like on load, the ham or spam
+     * occurrences of a token are only added once they reach
+     * {@link #MIN_TOKEN_COUNT}. As the occurrences which were left out before
+     * are not known, such a token may have lower counts than after a reload.
+     * 
+     * @param delta
+     *            the token occurrences to add
+     * @param hamMessages
+     *            count of ham messages the delta was built from
+     * @param spamMessages
+     *            count of spam messages the delta was built from
+     * @return updated corpus
+     */
+    public BayesianCorpus update(TokenCounts delta, int hamMessages, int spamMessages) {
+        TokenCounts updated = counts.copy();
+        updated.addAll(delta, MIN_TOKEN_COUNT);
+        return new BayesianCorpus(updated, hamMessageCount + hamMessages, spamMessageCount + spamMessages);
+    }
+
+    /**
+     * Return the count of tokens.
+     * 
+     * @return size
+     */
+    public int size() {
+        return counts.size();
+    }
+
+    public int getHamMessageCount() {
+        return hamMessageCount;
+    }
+
+    public int getSpamMessageCount() {
+        return spamMessageCount;
+    }
+
+    /**
+     * Return true if the token is part of the corpus.
+     * 
+     * @param token
+     *            hash of the token
+     * @return contains
+     */
+    public boolean contains(long token) {
+        return counts.contains(token);
+    }
+
+    /**
+     * Compute the probability that the token occurs within spam.
+     * 
+     * @param token
+     *            hash of the token
+     * @return probability, or -1 if the token is not part of the corpus
+     */
+    public double getProbability(long token) {
+        int hamCount = counts.getHamCount(token);
+        int spamCount = counts.getSpamCount(token);
+        if (hamCount == 0 && spamCount == 0) {
+            return -1;
+        }
+        return computeProbability(hamCount, spamCount, hamMessageCount, spamMessageCount);
+    }
+
+    /**
+     * Compute the probability that a token occurs within spam.
+     * 
+     * @param hamCount
+     *            ham occurrences of the token
+     * @param spamCount
+     *            spam occurrences of the token
+     * @param hamMessageCount
+     *            count of ham messages
+     * @param spamMessageCount
+     *            count of spam messages
+     * @return The probability that the token occurs within spam.
+     */
+    static double computeProbability(int hamCount, int spamCount, int hamMessageCount, int spamMessageCount) {
+        double hamFactor = 0;
+        double spamFactor = 0;
+
+        boolean foundInHam = hamCount > 0;
+        boolean foundInSpam = spamCount > 0;
+
+        double minThreshold = 0.01;
+        double maxThreshold = 0.99;
+
+        if (foundInHam) {
+            hamFactor = 2 * (double) hamCount;
+            if (!foundInSpam) {
+                minThreshold = (hamFactor > 20) ? 0.0001 : 0.0002;
+            }
+        }
+
+        if (foundInSpam) {
+            spamFactor = spamCount;
+            if (!foundInHam) {
+                maxThreshold = (spamFactor > 10) ? 0.9999 : 0.9998;
+            }
+        }
+
+        if ((hamFactor + spamFactor) < 5) {
+            // This token hasn't been seen enough.
+            return 0.4;
+        }
+
+        double spamFreq = Math.min(1.0, spamFactor / spamMessageCount);
+        double hamFreq = Math.min(1.0, hamFactor / hamMessageCount);
+
+        return Math.max(minThreshold, Math.min(maxThreshold, (spamFreq / (hamFreq + spamFreq))));
+    }
+}
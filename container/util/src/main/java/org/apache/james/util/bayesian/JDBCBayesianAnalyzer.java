@@ -23,7 +23,9 @@ import org.apache.james.util.sql.JDBCUtil;
 import org.apache.james.util.sql.SqlResources;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import java.io.File;
 
@@ -42,6 +44,16 @@ import java.sql.DatabaseMetaData;
  * different logging capabilities/interfaces in different parts of the code.
  * </p>
  * 
+ * <p>
+ * Fed messages are not written to the database one by one. Their token
+ * occurrences are queued as deltas with {@link #addHamDelta(Map)} and
+ * {@link #addSpamDelta(Map)} and written in one transaction by
+ * {@link #flushDeltas(Connection)}. Every analyzer of this JVM which called
+ * {@link #registerForUpdates()} receives the written deltas and applies them
+ * to its corpus with {@link #applyReceivedUpdates()}, so the corpus does not
+ * need to be reloaded from the database.
+ * </p>
+ * 
  * @since 2.3.0
  */
 
@@ -80,6 +92,25 @@ abstract public class JDBCBayesianAnalyzer extends BayesianAnalyzer {
     /** Holds value of property lastDatabaseUpdateTime. */
     private static long lastDatabaseUpdateTime;
 
+    /** The analyzers which receive the deltas written to the database. */
+    private final static List<JDBCBayesianAnalyzer> UPDATE_LISTENERS = new CopyOnWriteArrayList<JDBCBayesianAnalyzer>();
+
+    /** Token occurrences which were fed but not yet written. */
+    private TokenCounts pendingTokens = new TokenCounts(0, true);
+
+    private int pendingHamMessages;
+
+    private int pendingSpamMessages;
+
+    /** Guards the received but not yet applied deltas. */
+    private final Object receivedLock = new Object();
+
+    private TokenCounts receivedTokens = new TokenCounts();
+
+    private int receivedHamMessages;
+
+    private int receivedSpamMessages;
+
     /**
      * Getter for property sqlFileName.
      * 
@@ -146,6 +177,233 @@ abstract public class JDBCBayesianAnalyzer extends BayesianAnalyzer {
     public JDBCBayesianAnalyzer() {
     }
 
+    /**
+     * Loads the corpus from the database, and replaces the current one once
+     * it is completely loaded. The tokens are kept by their hash only.
+     * 
+     * @param conn
+     *            The connection for accessing the database
+     * @throws SQLException
+     *             If a database error occurs
+     */
+    public void loadCorpus(Connection conn) throws java.sql.SQLException {
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        // deltas received up to now are part of what is loaded
+        synchronized (receivedLock) {
+            receivedTokens = new TokenCounts();
+            receivedHamMessages = 0;
+            receivedSpamMessages = 0;
+        }
+
+        try {
+            TokenCounts counts = new TokenCounts();
+            int hamMessageCount = 0;
+            int spamMessageCount = 0;
+
+            pstmt = conn.prepareStatement(sqlQueries.getSqlString("selectHamTokens", true));
+            rs = pstmt.executeQuery();
+            readTokens(rs, counts, false);
+            rs.close();
+            pstmt.close();
+
+            pstmt = conn.prepareStatement(sqlQueries.getSqlString("selectSpamTokens", true));
+            rs = pstmt.executeQuery();
+            readTokens(rs, counts, true);
+            rs.close();
+            pstmt.close();
+
+            pstmt = conn.prepareStatement(sqlQueries.getSqlString("selectMessageCounts", true));
+            rs = pstmt.executeQuery();
+            if (rs.next()) {
+                hamMessageCount = rs.getInt(1);
+                spamMessageCount = rs.getInt(2);
+            }
+
+            setCorpus(new BayesianCorpus(counts, hamMessageCount, spamMessageCount));
+
+            // Verbose.
+            delegatedLog("Corpus tokens count: " + counts.size());
+
+        } finally {
+            theJDBCUtil.closeJDBCResultSet(rs);
+            theJDBCUtil.closeJDBCStatement(pstmt);
+        }
+    }
+
+    /**
+     * Queue the token occurrences of a ham message to be written by the next
+     * {@link #flushDeltas(Connection)}.
+     * 
+     * @param tokens
+     *            the token occurrences of the message
+     * @return count of messages which are queued
+     */
+    public synchronized int addHamDelta(Map<String, Integer> tokens) {
+        for (Map.Entry<String, Integer> entry : tokens.entrySet()) {
+            pendingTokens.add(entry.getKey(), entry.getValue(), 0);
+        }
+        pendingHamMessages++;
+        return pendingHamMessages + pendingSpamMessages;
+    }
+
+    /**
+     * Queue the token occurrences of a spam message to be written by the next
+     * {@link #flushDeltas(Connection)}.
+     * 
+     * @param tokens
+     *            the token occurrences of the message
+     * @return count of messages which are queued
+     */
+    public synchronized int addSpamDelta(Map<String, Integer> tokens) {
+        for (Map.Entry<String, Integer> entry : tokens.entrySet()) {
+            pendingTokens.add(entry.getKey(), 0, entry.getValue());
+        }
+        pendingSpamMessages++;
+        return pendingHamMessages + pendingSpamMessages;
+    }
+
+    /**
+     * Writes all queued deltas to the database in one transaction and hands
+     * them to the analyzers which registered for updates. If writing fails
+     * the deltas are queued again.
+     * 
+     * @param conn
+     *            The connection for accessing the database
+     * @return count of messages which were written
+     * @throws SQLException
+     *             If a database error occurs
+     */
+    public int flushDeltas(Connection conn) throws java.sql.SQLException {
+        TokenCounts tokens;
+        int hamMessages;
+        int spamMessages;
+        synchronized (this) {
+            tokens = pendingTokens;
+            hamMessages = pendingHamMessages;
+            spamMessages = pendingSpamMessages;
+            pendingTokens = new TokenCounts(0, true);
+            pendingHamMessages = 0;
+            pendingSpamMessages = 0;
+        }
+        if (hamMessages == 0 && spamMessages == 0) {
+            return 0;
+        }
+
+        boolean committed = false;
+        try {
+            if (conn.getAutoCommit()) {
+                conn.setAutoCommit(false);
+            }
+            if (hamMessages > 0) {
+                updateTokens(conn, tokens, false, sqlQueries.getSqlString("insertHamToken", true), sqlQueries.getSqlString("updateHamToken", true));
+                setMessageCount(conn, sqlQueries.getSqlString("updateHamMessageCounts", true), hamMessages);
+            }
+            if (spamMessages > 0) {
+                updateTokens(conn, tokens, true, sqlQueries.getSqlString("insertSpamToken", true), sqlQueries.getSqlString("updateSpamToken", true));
+                setMessageCount(conn, sqlQueries.getSqlString("updateSpamMessageCounts", true), spamMessages);
+            }
+            conn.commit();
+            committed = true;
+        } finally {
+            if (!committed) {
+                try {
+                    conn.rollback();
+                } catch (java.sql.SQLException ignore) {
+                }
+                synchronized (this) {
+                    pendingTokens.addAll(tokens);
+                    pendingHamMessages += hamMessages;
+                    pendingSpamMessages += spamMessages;
+                }
+            }
+        }
+
+        // hand the deltas over to the analyzers of this JVM
+        for (JDBCBayesianAnalyzer listener : UPDATE_LISTENERS) {
+            listener.receiveUpdate(tokens, hamMessages, spamMessages);
+        }
+        return hamMessages + spamMessages;
+    }
+
+    /**
+     * Register this analyzer to receive the deltas which are written to the
+     * database by any analyzer of this JVM.
+     */
+    public void registerForUpdates() {
+        UPDATE_LISTENERS.add(this);
+    }
+
+    /**
+     * Stop receiving the deltas written to the database.
+     */
+    public void unregisterForUpdates() {
+        UPDATE_LISTENERS.remove(this);
+    }
+
+    /**
+     * Apply the deltas which were received since the last call to the corpus.
+     * The current corpus stays usable until the updated one replaces it.
+     * 
+     * @return true if the corpus was updated
+     */
+    public boolean applyReceivedUpdates() {
+        TokenCounts tokens;
+        int hamMessages;
+        int spamMessages;
+        synchronized (receivedLock) {
+            if (receivedHamMessages == 0 && receivedSpamMessages == 0) {
+                return false;
+            }
+            tokens = receivedTokens;
+            hamMessages = receivedHamMessages;
+            spamMessages = receivedSpamMessages;
+            receivedTokens = new TokenCounts();
+            receivedHamMessages = 0;
+            receivedSpamMessages = 0;
+        }
+        setCorpus(getCorpus().update(tokens, hamMessages, spamMessages));
+        return true;
+    }
+
+    private void receiveUpdate(TokenCounts delta, int hamMessages, int spamMessages) {
+        synchronized (receivedLock) {
+            receivedTokens.addAll(delta);
+            receivedHamMessages += hamMessages;
+            receivedSpamMessages += spamMessages;
+        }
+    }
+
+    /**
+     * Adds the token counts of the given result set to the corpus counts. To
+     * reduce memory, a token is only used if its count reaches
+     * {@link BayesianCorpus#MIN_TOKEN_COUNT}.
+     * 
+     * @param rs
+     *            The result set of tokens and their counts
+     * @param counts
+     *            The counts to add to
+     * @param spam
+     *            true if the tokens are spam tokens
+     * @throws SQLException
+     *             If a database error occurs
+     */
+    static void readTokens(ResultSet rs, TokenCounts counts, boolean spam) throws java.sql.SQLException {
+        while (rs.next()) {
+            int count = rs.getInt(2);
+            if (count < BayesianCorpus.MIN_TOKEN_COUNT) {
+                continue;
+            }
+            long token = TokenCounts.hash(rs.getString(1));
+            if (spam) {
+                counts.add(token, 0, count);
+            } else {
+                counts.add(token, count, 0);
+            }
+        }
+    }
+
     /**
      * Loads the token frequencies from the database.
      * 
@@ -303,6 +561,47 @@ abstract public class JDBCBayesianAnalyzer extends BayesianAnalyzer {
         }
     }
 
+    private void updateTokens(Connection conn, TokenCounts tokens, boolean spam, String insertSqlStatement, String updateSqlStatement) throws java.sql.SQLException {
+        PreparedStatement insert = null;
+        PreparedStatement update = null;
+
+        try {
+            insert = conn.prepareStatement(insertSqlStatement);
+            update = conn.prepareStatement(updateSqlStatement);
+
+            for (long token : tokens.getTokens()) {
+                int count = spam ? tokens.getSpamCount(token) : tokens.getHamCount(token);
+                if (count == 0) {
+                    continue;
+                }
+                String text = tokens.getToken(token);
+                update.setInt(1, count);
+                update.setString(2, text);
+
+                // a token which is not in the database yet has to be inserted
+                if (update.executeUpdate() == 0) {
+                    insert.setString(1, text);
+                    insert.setInt(2, count);
+
+                    insert.executeUpdate();
+                }
+            }
+        } finally {
+            if (insert != null) {
+                try {
+                    insert.close();
+                } catch (java.sql.SQLException ignore) {
+                }
+            }
+            if (update != null) {
+                try {
+                    update.close();
+                } catch (java.sql.SQLException ignore) {
+                }
+            }
+        }
+    }
+
     private void updateTokens(Connection conn, Map<String, Integer> tokens, String insertSqlStatement, String updateSqlStatement) throws java.sql.SQLException {
         PreparedStatement insert = null;
         PreparedStatement update = null;
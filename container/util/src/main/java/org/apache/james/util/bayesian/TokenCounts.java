@@ -0,0 +1,374 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.util.bayesian;
+
+/**
+ * <p>
+ * Compact map of token hashes to their ham and spam occurrences.
+ * </p>
+ * <p>
+ * Tokens are identified by a 64 bit hash (see {@link #hash(CharSequence)}),
+ * and are kept in an open addressing table made of primitive arrays. Each
+ * token costs 16 bytes per slot, instead of a String and two boxed Integers
+ * per token in a {@link java.util.HashMap}.
+ * </p>
+ * <p>
+ * If requested on construction the tokens themselves are kept too, which is
+ * needed to write the counts back to the database. Tokens which share a hash
+ * share their counts, and the first one added is kept.
+ * </p>
+ * <p>
+ * This class is not thread safe. Instances which are shared between threads
+ * must not be modified any more, see {@link BayesianCorpus}.
+ * </p>
+ * 
+ * @since 3.0
+ */
+public final class TokenCounts {
+
+    /**
+     * The key used for empty slots. A token which hashes to this value is
+     * stored as {@link #ZERO_KEY} instead.
+     */
+    private final static long EMPTY = 0L;
+
+    private final static long ZERO_KEY = 1L;
+
+    private final static long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    private final static int DEFAULT_CAPACITY = 64;
+
+    private long[] keys;
+
+    private int[] hamCounts;
+
+    private int[] spamCounts;
+
+    private final boolean keepTokens;
+
+    private String[] tokens;
+
+    private int size;
+
+    /**
+     * Create an empty instance.
+     */
+    public TokenCounts() {
+        this(DEFAULT_CAPACITY / 2);
+    }
+
+    /**
+     * Create an empty instance which is able to hold the given count of
+     * tokens without growing.
+     * 
+     * @param expectedSize
+     *            the expected count of tokens
+     */
+    public TokenCounts(int expectedSize) {
+        this(expectedSize, false);
+    }
+
+    /**
+     * Create an empty instance which is able to hold the given count of
+     * tokens without growing.
+     * 
+     * @param expectedSize
+     *            the expected count of tokens
+     * @param keepTokens
+     *            true if the tokens added via {@link #add(String, int, int)}
+     *            are kept besides their hash
+     */
+    public TokenCounts(int expectedSize, boolean keepTokens) {
+        this.keepTokens = keepTokens;
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private TokenCounts(TokenCounts counts) {
+        keys = counts.keys.clone();
+        hamCounts = counts.hamCounts.clone();
+        spamCounts = counts.spamCounts.clone();
+        keepTokens = counts.keepTokens;
+        tokens = keepTokens ? counts.tokens.clone() : null;
+        size = counts.size;
+    }
+
+    /**
+     * Return the hash of the given token.
+     * 
+     * @param token
+     *            the token
+     * @return hash
+     */
+    public static long hash(CharSequence token) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < token.length(); i++) {
+            hash = hash(hash, token.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Return the hash of a token continued by the given char. This allows to
+     * compute the hash of a token while reading it. The hash of an empty token
+     * is {@link #emptyHash()}.
+     * 
+     * @param hash
+     *            the hash of the token read so far
+     * @param c
+     *            the next char of the token
+     * @return hash
+     */
+    public static long hash(long hash, char c) {
+        return (hash ^ c) * FNV_PRIME;
+    }
+
+    /**
+     * Return the hash of the empty token.
+     * 
+     * @return hash
+     */
+    public static long emptyHash() {
+        return FNV_OFFSET_BASIS;
+    }
+
+    /**
+     * Return a copy of this instance.
+     * 
+     * @return copy
+     */
+    public TokenCounts copy() {
+        return new TokenCounts(this);
+    }
+
+    /**
+     * Return the count of tokens.
+     * 
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return true if the token was added.
+     * 
+     * @param token
+     *            hash of the token
+     * @return contains
+     */
+    public boolean contains(long token) {
+        return keys[indexOf(token)] != EMPTY;
+    }
+
+    /**
+     * Return the token with the given hash, if tokens are kept.
+     * 
+     * @param token
+     *            hash of the token
+     * @return token, or null if it is unknown or tokens are not kept
+     */
+    public String getToken(long token) {
+        return keepTokens ? tokens[indexOf(token)] : null;
+    }
+
+    /**
+     * Return the hashes of all tokens.
+     * 
+     * @return hashes
+     */
+    public long[] getTokens() {
+        long[] hashes = new long[size];
+        int i = 0;
+        for (long key : keys) {
+            if (key != EMPTY) {
+                hashes[i++] = key;
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Return the ham occurrences of the token.
+     * 
+     * @param token
+     *            hash of the token
+     * @return count, 0 if the token is unknown
+     */
+    public int getHamCount(long token) {
+        return hamCounts[indexOf(token)];
+    }
+
+    /**
+     * Return the spam occurrences of the token.
+     * 
+     * @param token
+     *            hash of the token
+     * @return count, 0 if the token is unknown
+     */
+    public int getSpamCount(long token) {
+        return spamCounts[indexOf(token)];
+    }
+
+    /**
+     * Add occurrences of a token.
+     * 
+     * @param token
+     *            hash of the token
+     * @param ham
+     *            ham occurrences to add
+     * @param spam
+     *            spam occurrences to add
+     */
+    public void add(long token, int ham, int spam) {
+        addAt(token, ham, spam);
+    }
+
+    /**
+     * Add occurrences of a token, and keep the token if requested on
+     * construction.
+     * 
+     * @param token
+     *            the token
+     * @param ham
+     *            ham occurrences to add
+     * @param spam
+     *            spam occurrences to add
+     */
+    public void add(String token, int ham, int spam) {
+        int index = addAt(hash(token), ham, spam);
+        if (keepTokens && tokens[index] == null) {
+            tokens[index] = token;
+        }
+    }
+
+    /**
+     * Add all occurrences of the given instance to this one.
+     * 
+     * @param counts
+     *            the counts to add
+     */
+    public void addAll(TokenCounts counts) {
+        long[] otherKeys = counts.keys;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != EMPTY) {
+                int index = addAt(otherKeys[i], counts.hamCounts[i], counts.spamCounts[i]);
+                if (keepTokens && counts.keepTokens && tokens[index] == null) {
+                    tokens[index] = counts.tokens[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the occurrences of the given instance to this one, but drop the ham
+     * or spam occurrences of a token as long as they stay below the given
+     * count. This applies the threshold the counts were loaded with to the
+     * tokens which are new to this instance.
+     * 
+     * @param counts
+     *            the counts to add
+     * @param minCount
+     *            the count of ham or spam occurrences a token needs to be
+     *            kept
+     */
+    public void addAll(TokenCounts counts, int minCount) {
+        long[] otherKeys = counts.keys;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != EMPTY) {
+                int index = indexOf(otherKeys[i]);
+                int ham = hamCounts[index] + counts.hamCounts[i] >= minCount ? counts.hamCounts[i] : 0;
+                int spam = spamCounts[index] + counts.spamCounts[i] >= minCount ? counts.spamCounts[i] : 0;
+                if (ham > 0 || spam > 0) {
+                    addAt(otherKeys[i], ham, spam);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add occurrences of a token and return its slot.
+     */
+    private int addAt(long token, int ham, int spam) {
+        int index = indexOf(token);
+        if (keys[index] == EMPTY) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                index = indexOf(token);
+            }
+            keys[index] = key(token);
+            size++;
+        }
+        hamCounts[index] += ham;
+        spamCounts[index] += spam;
+        return index;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        hamCounts = new int[capacity];
+        spamCounts = new int[capacity];
+        tokens = keepTokens ? new String[capacity] : null;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldHamCounts = hamCounts;
+        int[] oldSpamCounts = spamCounts;
+        String[] oldTokens = tokens;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                hamCounts[index] = oldHamCounts[i];
+                spamCounts[index] = oldSpamCounts[i];
+                if (keepTokens) {
+                    tokens[index] = oldTokens[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the slot of the token, which is either the slot holding the
+     * token or the empty slot the token would be stored in.
+     */
+    private int indexOf(long token) {
+        long key = key(token);
+        int mask = keys.length - 1;
+        // spread the bits, as the table size is a power of two
+        long mixed = key * 0x9e3779b97f4a7c15L;
+        int index = (int) (mixed ^ (mixed >>> 32)) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private static long key(long token) {
+        return token == EMPTY ? ZERO_KEY : token;
+    }
+}
@@ -0,0 +1,279 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.util.bayesian;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * <p>
+ * Splits a text into the tokens used by {@link BayesianAnalyzer}.
+ * </p>
+ * <p>
+ * Tokens following a From, Return-Path, Subject or To header name are
+ * prefixed with the header name up to the end of the line, e.g.
+ * <code>Subject:free</code>. Tokens which only consist of digits, and tokens
+ * which are too long, are skipped.
+ * </p>
+ * <p>
+ * The text is read in blocks, and every token is returned in the same char
+ * buffer, so no object is created per token.
+ * </p>
+ * 
+ * @since 3.0
+ */
+final class Tokenizer {
+
+    /**
+     * Tokens (including the header prefix) of this length or longer are
+     * skipped.
+     */
+    final static int MAX_TOKEN_LENGTH = 90;
+
+    private final static char[][] HEADERS = { "From:".toCharArray(), "Return-Path:".toCharArray(), "Subject:".toCharArray(), "To:".toCharArray() };
+
+    private final static char EURO = '\u20AC';
+
+    private final Reader reader;
+
+    private final char[] buffer = new char[4096];
+
+    private int position;
+
+    private int limit;
+
+    /**
+     * The header prefix, followed by the token.
+     */
+    private final char[] token = new char[MAX_TOKEN_LENGTH];
+
+    /**
+     * Length of the header prefix of the tokens read next.
+     */
+    private int headerLength;
+
+    /**
+     * Length of the last token read from the text, without the header prefix.
+     * It may be greater than the space left in the buffer.
+     */
+    private int length;
+
+    private boolean endingLine;
+
+    private boolean headerName;
+
+    private int tokenLength;
+
+    private int tokenHeaderLength;
+
+    /**
+     * Create a tokenizer reading the given text.
+     * 
+     * @param reader
+     *            the text
+     */
+    Tokenizer(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Move to the next token.
+     * 
+     * @return false if the end of the text was reached
+     * @throws IOException
+     *             if the text could not be read
+     */
+    boolean next() throws IOException {
+        while (read()) {
+            boolean found = false;
+            if (length > 0 && headerLength + length < MAX_TOKEN_LENGTH && !isAllDigits()) {
+                if (headerName) {
+                    // header names never end a line, so the header prefix is
+                    // simply replaced
+                    System.arraycopy(token, headerLength, token, 0, length);
+                    headerLength = length;
+                    continue;
+                }
+                tokenHeaderLength = headerLength;
+                tokenLength = headerLength + length;
+                found = true;
+            }
+            if (endingLine) {
+                headerLength = 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the buffer holding the current token, including its header
+     * prefix. Only the first {@link #getLength()} chars are valid, and the
+     * buffer is overwritten by {@link #next()}.
+     * 
+     * @return buffer
+     */
+    char[] getChars() {
+        return token;
+    }
+
+    /**
+     * Return the length of the current token, including its header prefix.
+     * 
+     * @return length
+     */
+    int getLength() {
+        return tokenLength;
+    }
+
+    /**
+     * Return the length of the header prefix of the current token, 0 if it
+     * has no prefix. The prefix ends with ':'.
+     * 
+     * @return length
+     */
+    int getHeaderLength() {
+        return tokenHeaderLength;
+    }
+
+    /**
+     * Return the current token as a String.
+     * 
+     * @return token
+     */
+    String getToken() {
+        return new String(token, 0, tokenLength);
+    }
+
+    /**
+     * Read the next token from the text. It is stored after the header
+     * prefix.
+     */
+    private boolean read() throws IOException {
+        boolean previousWasDigit = false;
+        boolean tokenCharFound = false;
+        length = 0;
+        endingLine = false;
+        headerName = false;
+
+        int i;
+        while ((i = readChar()) != -1) {
+            char ch = (char) i;
+
+            if (ch == ':' && isHeaderName()) {
+                append(ch);
+                headerName = true;
+                return true;
+            }
+
+            if (Character.isLetter(ch) || ch == '-' || ch == '$' || ch == EURO || ch == '!' || ch == '\'') {
+                tokenCharFound = true;
+                previousWasDigit = false;
+                append(ch);
+            } else if (Character.isDigit(ch)) {
+                tokenCharFound = true;
+                previousWasDigit = true;
+                append(ch);
+            } else if (previousWasDigit && (ch == '.' || ch == ',')) {
+                previousWasDigit = false;
+                i = readChar();
+                if (i == -1) {
+                    break;
+                }
+                char ch2 = (char) i;
+                if (Character.isDigit(ch2)) {
+                    tokenCharFound = true;
+                    previousWasDigit = true;
+                    append(ch);
+                    append(ch2);
+                } else {
+                    // read it again as part of the next token
+                    position--;
+                    break;
+                }
+            } else if (ch == '\r') {
+                // cr found, ignore
+            } else if (ch == '\n') {
+                // eol found
+                tokenCharFound = true;
+                endingLine = true;
+                break;
+            } else if (tokenCharFound) {
+                break;
+            }
+        }
+        return tokenCharFound;
+    }
+
+    private boolean isHeaderName() {
+        for (char[] name : HEADERS) {
+            if (length == name.length - 1) {
+                int i = 0;
+                while (i < length && token[headerLength + i] == name[i]) {
+                    i++;
+                }
+                if (i == length) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isAllDigits() {
+        int end = Math.min(headerLength + length, MAX_TOKEN_LENGTH);
+        for (int i = headerLength; i < end; i++) {
+            if (!Character.isDigit(token[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(char c) {
+        if (headerLength + length < MAX_TOKEN_LENGTH) {
+            token[headerLength + length] = c;
+        }
+        length++;
+    }
+
+    private int readChar() throws IOException {
+        if (position == limit) {
+            int start = 0;
+            if (limit > 0) {
+                // keep the last char, so that it can be read again
+                buffer[0] = buffer[limit - 1];
+                start = 1;
+            }
+            int read;
+            do {
+                read = reader.read(buffer, start, buffer.length - start);
+            } while (read == 0);
+            position = start;
+            limit = read == -1 ? start : start + read;
+            if (read == -1) {
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
@@ -0,0 +1,176 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.util.bayesian;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+
+import org.junit.Test;
+
+public class BayesianCorpusTest {
+
+    @Test
+    public void testTokenCountsGrow() {
+        TokenCounts counts = new TokenCounts();
+        for (int i = 0; i < 10000; i++) {
+            counts.add(TokenCounts.hash("token" + i), i, 1);
+        }
+        counts.add(TokenCounts.hash("token1"), 1, 1);
+
+        assertEquals(10000, counts.size());
+        assertEquals(2, counts.getHamCount(TokenCounts.hash("token1")));
+        assertEquals(2, counts.getSpamCount(TokenCounts.hash("token1")));
+        assertEquals(9999, counts.getHamCount(TokenCounts.hash("token9999")));
+        assertFalse(counts.contains(TokenCounts.hash("token10000")));
+        assertEquals(0, counts.getHamCount(TokenCounts.hash("token10000")));
+    }
+
+    @Test
+    public void testHashIsIncremental() {
+        long hash = TokenCounts.emptyHash();
+        for (char c : "Subject:viagra".toCharArray()) {
+            hash = TokenCounts.hash(hash, c);
+        }
+        assertEquals(TokenCounts.hash("Subject:viagra"), hash);
+    }
+
+    @Test
+    public void testUpdateLeavesCorpusUntouched() {
+        TokenCounts counts = new TokenCounts();
+        counts.add(TokenCounts.hash("cheap"), 0, 10);
+        BayesianCorpus corpus = new BayesianCorpus(counts, 10, 10);
+
+        TokenCounts delta = new TokenCounts();
+        delta.add(TokenCounts.hash("cheap"), 10, 0);
+        delta.add(TokenCounts.hash("meeting"), 10, 0);
+        BayesianCorpus updated = corpus.update(delta, 10, 0);
+
+        assertEquals(1, corpus.size());
+        assertEquals(0.9998, corpus.getProbability(TokenCounts.hash("cheap")), 0.00001);
+        assertEquals(-1, corpus.getProbability(TokenCounts.hash("meeting")), 0.00001);
+
+        assertEquals(2, updated.size());
+        assertEquals(20, updated.getHamMessageCount());
+        assertTrue(updated.getProbability(TokenCounts.hash("cheap")) < 0.9998);
+        assertEquals(0.0002, updated.getProbability(TokenCounts.hash("meeting")), 0.00001);
+    }
+
+    @Test
+    public void testUpdateAppliesLoadThreshold() throws Exception {
+        TokenCounts loaded = new TokenCounts();
+        JDBCBayesianAnalyzer.readTokens(resultSet("cheap", 1, "meeting", 3), loaded, false);
+        JDBCBayesianAnalyzer.readTokens(resultSet("cheap", 1), loaded, true);
+        assertEquals(1, loaded.size());
+
+        TokenCounts delta = new TokenCounts();
+        delta.add(TokenCounts.hash("cheap"), 1, 1);
+        delta.add(TokenCounts.hash("pills"), 0, 1);
+        delta.add(TokenCounts.hash("meeting"), 1, 0);
+        delta.add(TokenCounts.hash("viagra"), 0, 2);
+        BayesianCorpus updated = new BayesianCorpus(loaded, 4, 1).update(delta, 1, 1);
+
+        // the database rows once the delta is written
+        TokenCounts reloaded = new TokenCounts();
+        JDBCBayesianAnalyzer.readTokens(resultSet("cheap", 2, "meeting", 4), reloaded, false);
+        JDBCBayesianAnalyzer.readTokens(resultSet("cheap", 2, "pills", 1, "viagra", 2), reloaded, true);
+        BayesianCorpus reload = new BayesianCorpus(reloaded, 5, 2);
+
+        // tokens seen once are left out of both
+        assertFalse(updated.contains(TokenCounts.hash("pills")));
+        assertFalse(reload.contains(TokenCounts.hash("pills")));
+        for (String token : new String[] { "meeting", "viagra" }) {
+            long hash = TokenCounts.hash(token);
+            assertEquals(token, reload.getProbability(hash), updated.getProbability(hash), 0);
+        }
+
+        // the single occurrences dropped on load are unknown to the update,
+        // so the token only shows up after a reload
+        assertFalse(updated.contains(TokenCounts.hash("cheap")));
+        assertTrue(reload.contains(TokenCounts.hash("cheap")));
+    }
+
+    @Test
+    public void testTokenCountsKeepTokens() {
+        TokenCounts counts = new TokenCounts(0, true);
+        for (int i = 0; i < 1000; i++) {
+            counts.add("token" + i, 1, 0);
+        }
+        counts.add("token1", 0, 2);
+        TokenCounts other = new TokenCounts(0, true);
+        other.add("other", 3, 0);
+        counts.addAll(other);
+
+        assertEquals(1001, counts.size());
+        assertEquals(1001, counts.getTokens().length);
+        assertEquals("token1", counts.getToken(TokenCounts.hash("token1")));
+        assertEquals(2, counts.getSpamCount(TokenCounts.hash("token1")));
+        assertEquals("other", counts.getToken(TokenCounts.hash("other")));
+        assertNull(counts.getToken(TokenCounts.hash("unknown")));
+        assertNull(new TokenCounts().getToken(TokenCounts.hash("token1")));
+    }
+
+    /**
+     * Answers the given token/count rows the way the token queries do.
+     */
+    private static ResultSet resultSet(final Object... rows) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+            private int row = -1;
+
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("next")) {
+                    return ++row * 2 < rows.length;
+                } else if (name.equals("getString")) {
+                    return rows[row * 2];
+                } else if (name.equals("getInt")) {
+                    return rows[row * 2 + 1];
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testComputeSpamProbability() throws Exception {
+        BayesianAnalyzer analyzer = new BayesianAnalyzer();
+        for (int i = 0; i < 5; i++) {
+            analyzer.addHam(new StringReader("Subject: project meeting\nlet us discuss the release schedule tomorrow\n"));
+            analyzer.addSpam(new StringReader("Subject: cheap pills\nbuy cheap pills now, best price guaranteed!\n"));
+        }
+        analyzer.buildCorpus();
+
+        assertTrue(analyzer.computeSpamProbability(new StringReader("Subject: cheap pills\nbest price now\n")) > 0.9);
+        assertTrue(analyzer.computeSpamProbability(new StringReader("Subject: meeting\nrelease schedule tomorrow\n")) < 0.1);
+        // degenerations of known tokens are used for unknown ones
+        assertTrue(analyzer.computeSpamProbability(new StringReader("CHEAP PILLS!!\n")) > 0.9);
+    }
+}
@@ -0,0 +1,69 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.util.bayesian;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TokenizerTest {
+
+    private List<String> tokenize(String text) throws Exception {
+        List<String> tokens = new ArrayList<String>();
+        Tokenizer tokenizer = new Tokenizer(new StringReader(text));
+        while (tokenizer.next()) {
+            tokens.add(tokenizer.getToken());
+        }
+        return tokens;
+    }
+
+    @Test
+    public void testHeaderPrefix() throws Exception {
+        assertEquals(Arrays.asList("Subject:Cheap", "Subject:pills", "Date", "Mon", "Jan", "Body"), tokenize("Subject: Cheap pills\r\nDate: Mon, 12 Jan\r\n\r\nBody"));
+    }
+
+    @Test
+    public void testNumbers() throws Exception {
+        assertEquals(Arrays.asList("1.000,50", "$", "price", "a1"), tokenize("1.000,50 $ 42 price. a1"));
+    }
+
+    @Test
+    public void testLongTokensAreSkipped() throws Exception {
+        StringBuilder longToken = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            longToken.append('x');
+        }
+        assertEquals(Arrays.asList("before", "after"), tokenize("before " + longToken + " after"));
+    }
+
+    @Test
+    public void testCountTokens() throws Exception {
+        Map<String, Integer> tokens = new BayesianAnalyzer().countTokens(new StringReader("To: you\nyou you"));
+        assertEquals(2, tokens.size());
+        assertEquals(Integer.valueOf(1), tokens.get("To:you"));
+        assertEquals(Integer.valueOf(2), tokens.get("you"));
+    }
+}
@@ -0,0 +1,43 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.api;
+
+/**
+ * Service which checks the credentials of users on behalf of the protocol
+ * servers. Implementations may cache verified credentials and refuse further
+ * attempts of users or clients which failed too often.
+ */
+public interface AuthenticationService {
+
+    /**
+     * Return <code>true</code> if the given password is the one of the user
+     * 
+     * @param username
+     *            the name of the user
+     * @param password
+     *            the password to check
+     * @param remoteAddress
+     *            the address of the client which tries to authenticate, or
+     *            <code>null</code> if unknown
+     * @return <code>true</code> if the credentials are valid
+     * @throws UsersRepositoryException
+     *             if the credentials could not be checked
+     */
+    boolean authenticate(String username, String password, String remoteAddress) throws UsersRepositoryException;
+}
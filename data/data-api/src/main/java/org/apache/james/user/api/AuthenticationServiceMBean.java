@@ -0,0 +1,75 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.api;
+
+/**
+ * Expose the statistics of an {@link AuthenticationService} through JMX.
+ */
+public interface AuthenticationServiceMBean {
+
+    /**
+     * Count of authentications which were answered by a cached verified
+     * credential
+     * 
+     * @return hits
+     */
+    long getCacheHits();
+
+    /**
+     * Count of authentications which needed to ask the users repository
+     * 
+     * @return misses
+     */
+    long getCacheMisses();
+
+    /**
+     * Count of authentications which were refused by a cached failed
+     * credential
+     * 
+     * @return negative hits
+     */
+    long getNegativeCacheHits();
+
+    /**
+     * Count of authentications which were refused without checking the
+     * credentials, because the user or the client failed too often
+     * 
+     * @return rejected
+     */
+    long getRejectedCount();
+
+    /**
+     * Count of authentications which failed
+     * 
+     * @return failures
+     */
+    long getFailureCount();
+
+    /**
+     * Count of currently cached verified credentials
+     * 
+     * @return size
+     */
+    int getCachedCredentialCount();
+
+    /**
+     * Forget all cached credentials and failure counters
+     */
+    void clearCache();
+}
@@ -58,25 +58,25 @@ public class XMLDomainList extends AbstractDomainList implements Configurable {
     }
 
     @Override
-    public boolean containsDomain(String domains) throws DomainListException {
+    protected boolean containsDomainInternal(String domains) throws DomainListException {
         return domainNames.contains(domains);
     }
 
     @Override
-    public void addDomain(String domain) throws DomainListException {
+    protected void doAddDomain(String domain) throws DomainListException {
         // TODO: Remove later. Temporary fix to get sure no domains can be added
         // to the XMLDomainList
         if (managementDisabled)
             throw new DomainListException("Read-Only DomainList implementation");
 
         String newDomain = domain.toLowerCase(Locale.US);
-        if (!containsDomain(newDomain)) {
+        if (!containsDomainInternal(newDomain)) {
             domainNames.add(newDomain);
         }
     }
 
     @Override
-    public void removeDomain(String domain) throws DomainListException {
+    protected void doRemoveDomain(String domain) throws DomainListException {
         // TODO: Remove later. Temporary fix to get sure no domains can be added
         // to the XMLDomainList
         if (managementDisabled)
@@ -131,6 +131,7 @@ public class UsersFileRepository extends AbstractJamesUsersRepository {
         } catch (Exception e) {
             throw new UsersRepositoryException("Exception caught while storing user: " + e);
         }
+        userAdded(user.getUserName());
     }
 
     /**
@@ -144,12 +145,18 @@ public class UsersFileRepository extends AbstractJamesUsersRepository {
                 return null;
             }
         }
+        User user = getCachedUser(name);
+        if (user != null) {
+            return user;
+        }
         if (contains(name)) {
             try {
-                return (User) objectRepository.get(name);
+                user = (User) objectRepository.get(name);
             } catch (Exception e) {
                 throw new UsersRepositoryException("Exception while retrieving user: " + e.getMessage());
             }
+            cacheUser(user);
+            return user;
         } else {
             return null;
         }
@@ -163,8 +170,10 @@ public class UsersFileRepository extends AbstractJamesUsersRepository {
      * @return The real name
      * @throws UsersRepositoryException
      */
-    private String getRealName(String name, boolean ignoreCase) {
-        if (ignoreCase) {
+    private String getRealName(String name, boolean ignoreCase) throws UsersRepositoryException {
+        if (isUserNameIndexEnabled()) {
+            return getIndexedUserName(name);
+        } else if (ignoreCase) {
             Iterator<String> it = list();
             while (it.hasNext()) {
                 String temp = it.next();
@@ -206,13 +215,16 @@ public class UsersFileRepository extends AbstractJamesUsersRepository {
      */
     public synchronized void removeUser(String name) throws UsersRepositoryException {
         objectRepository.remove(name);
+        userRemoved(name);
     }
 
     /**
      * @see org.apache.james.user.api.UsersRepository#contains(java.lang.String)
      */
     public boolean contains(String name) throws UsersRepositoryException {
-        if (ignoreCase) {
+        if (isUserNameIndexEnabled()) {
+            return getIndexedUserName(name) != null;
+        } else if (ignoreCase) {
             return containsCaseInsensitive(name);
         } else {
             return objectRepository.containsKey(name);
@@ -253,6 +265,9 @@ public class UsersFileRepository extends AbstractJamesUsersRepository {
      * @see org.apache.james.user.api.UsersRepository#countUsers()
      */
     public int countUsers() throws UsersRepositoryException {
+        if (isUserNameIndexEnabled()) {
+            return countIndexedUserNames();
+        }
         int count = 0;
         for (Iterator<String> it = list(); it.hasNext(); it.next()) {
             count++;
@@ -0,0 +1,35 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.file;
+
+import org.apache.james.user.api.UsersRepository;
+
+/**
+ * Test UsersFileRepository with indexed user names and cached users
+ */
+public class IndexedUsersFileRepositoryTest extends UsersFileRepositoryTest {
+
+    @Override
+    protected UsersRepository getUsersRepository() throws Exception {
+        UsersFileRepository res = (UsersFileRepository) super.getUsersRepository();
+        res.setIndexUserNames(true);
+        res.setUserCacheSize(100);
+        return res;
+    }
+}
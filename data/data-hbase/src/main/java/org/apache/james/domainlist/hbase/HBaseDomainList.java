@@ -48,10 +48,10 @@ public class HBaseDomainList extends AbstractDomainList {
     private static final Logger log = LoggerFactory.getLogger(HBaseDomainList.class.getName());
 
     /**
-     * @see org.apache.james.domainlist.api.DomainList#containsDomain(String)
+     * @see org.apache.james.domainlist.lib.AbstractDomainList#containsDomainInternal(String)
      */
     @Override
-    public boolean containsDomain(String domain) throws DomainListException {
+    protected boolean containsDomainInternal(String domain) throws DomainListException {
         HTable table = null;
         try {
             table = TablePool.getInstance().getDomainlistTable();
@@ -76,12 +76,12 @@ public class HBaseDomainList extends AbstractDomainList {
     }
 
     /**
-     * @see org.apache.james.domainlist.api.DomainList#addDomain(String)
+     * @see org.apache.james.domainlist.lib.AbstractDomainList#doAddDomain(String)
      */
     @Override
-    public void addDomain(String domain) throws DomainListException {
+    protected void doAddDomain(String domain) throws DomainListException {
         String lowerCasedDomain = domain.toLowerCase();
-        if (containsDomain(lowerCasedDomain)) {
+        if (containsDomainInternal(lowerCasedDomain)) {
             throw new DomainListException(lowerCasedDomain + " already exists.");
         }
         HTable table = null;
@@ -106,7 +106,7 @@ public class HBaseDomainList extends AbstractDomainList {
     }
 
     @Override
-    public void removeDomain(String domain) throws DomainListException {
+    protected void doRemoveDomain(String domain) throws DomainListException {
         HTable table = null;
         try {
             table = TablePool.getInstance().getDomainlistTable();
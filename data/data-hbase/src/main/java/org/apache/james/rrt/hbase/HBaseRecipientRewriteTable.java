@@ -157,6 +157,21 @@ public class HBaseRecipientRewriteTable extends AbstractRecipientRewriteTable {
         return map;
     }
 
+    /**
+     * {@link #mapAddressInternal(String, String)} checks *@domain before
+     * user@*
+     * 
+     * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#getMappingLookupOrder(String, String)
+     */
+    @Override
+    protected List<String> getMappingLookupOrder(String user, String domain) {
+        List<String> keys = new ArrayList<String>(3);
+        keys.add(user + "@" + domain);
+        keys.add(WILDCARD + "@" + domain);
+        keys.add(user + "@" + WILDCARD);
+        return keys;
+    }
+
     /**
      * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#mapAddressInternal(String, String)
      */
@@ -214,6 +214,20 @@ public class JDBCRecipientRewriteTable extends AbstractRecipientRewriteTable {
         doAddMapping(fixedUser, fixedDomain, regex);
     }
 
+    /**
+     * The selectMappings query takes the highest user@domain, so user@* is
+     * used before *@domain and *@* matches too
+     * 
+     * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#getMappingLookupOrder(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    protected List<String> getMappingLookupOrder(String user, String domain) {
+        List<String> keys = super.getMappingLookupOrder(user, domain);
+        keys.add(WILDCARD + "@" + WILDCARD);
+        return keys;
+    }
+
     /**
      * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#mapAddressInternal(java.lang.String,
      *      java.lang.String)
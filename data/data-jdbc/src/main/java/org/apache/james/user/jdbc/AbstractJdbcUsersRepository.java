@@ -155,6 +155,9 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
      * @return true or false
      */
     public boolean contains(String name) throws UsersRepositoryException {
+        if (isUserNameIndexEnabled()) {
+            return getIndexedUserName(name) != null;
+        }
         User user = getUserByName(name, ignoreCase);
         return (user != null);
     }
@@ -193,6 +196,9 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
      * @return the number of users in the repository
      */
     public int countUsers() throws UsersRepositoryException {
+        if (isUserNameIndexEnabled()) {
+            return countIndexedUserNames();
+        }
         List<String> usernames = listUserNames();
         return usernames.size();
     }
@@ -509,6 +515,7 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
             theJDBCUtil.closeJDBCStatement(addUserStatement);
             theJDBCUtil.closeJDBCConnection(conn);
         }
+        userAdded(user.getUserName());
     }
 
     /**
@@ -538,6 +545,7 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
             theJDBCUtil.closeJDBCStatement(removeUserStatement);
             theJDBCUtil.closeJDBCConnection(conn);
         }
+        userRemoved(username);
     }
 
     /**
@@ -594,9 +602,9 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
     }
 
     /**
-     * Gets a user by name, ignoring case if specified. If the specified SQL
-     * statement has been defined, this method overrides the basic
-     * implementation in AbstractJamesUsersRepository to increase performance.
+     * Gets a user by name, ignoring case if specified. If the user names are
+     * indexed, unknown users are not looked up in the database at all, and
+     * cached users are returned without accessing it.
      * 
      * @param name
      *            the name of the user being retrieved
@@ -607,6 +615,37 @@ public abstract class AbstractJdbcUsersRepository extends AbstractJamesUsersRepo
      * @throws UsersRepositoryException
      */
     protected User getUserByName(String name, boolean ignoreCase) throws UsersRepositoryException {
+        if (isUserNameIndexEnabled() && ignoreCase == this.ignoreCase) {
+            name = getIndexedUserName(name);
+            if (name == null) {
+                return null;
+            }
+            // the stored name is known now
+            ignoreCase = false;
+        }
+        User user = getCachedUser(name);
+        if (user == null) {
+            user = readUserByName(name, ignoreCase);
+            cacheUser(user);
+        }
+        return user;
+    }
+
+    /**
+     * Reads a user by name from the database, ignoring case if specified. If
+     * the specified SQL statement has been defined, this method overrides the
+     * basic implementation in AbstractJamesUsersRepository to increase
+     * performance.
+     * 
+     * @param name
+     *            the name of the user being retrieved
+     * @param ignoreCase
+     *            whether the name is regarded as case-insensitive
+     * 
+     * @return the user being retrieved, null if the user doesn't exist
+     * @throws UsersRepositoryException
+     */
+    private User readUserByName(String name, boolean ignoreCase) throws UsersRepositoryException {
         // See if this statement has been set, if not, use
         // simple superclass method.
         if (m_userByNameCaseInsensitiveSql == null) {
@@ -86,7 +86,7 @@ public class JPADomainList extends AbstractDomainList {
     }
 
     @Override
-    public boolean containsDomain(String domain) throws DomainListException {
+    protected boolean containsDomainInternal(String domain) throws DomainListException {
         EntityManager entityManager = entityManagerFactory.createEntityManager();
         final EntityTransaction transaction = entityManager.getTransaction();
         try {
@@ -110,9 +110,9 @@ public class JPADomainList extends AbstractDomainList {
     }
 
     @Override
-    public void addDomain(String domain) throws DomainListException {
+    protected void doAddDomain(String domain) throws DomainListException {
         String lowerCasedDomain = domain.toLowerCase();
-        if (containsDomain(lowerCasedDomain)) {
+        if (containsDomainInternal(lowerCasedDomain)) {
             throw new DomainListException(lowerCasedDomain + " already exists.");
         }
         EntityManager entityManager = entityManagerFactory.createEntityManager();
@@ -134,7 +134,7 @@ public class JPADomainList extends AbstractDomainList {
     }
 
     @Override
-    public void removeDomain(String domain) throws DomainListException {
+    protected void doRemoveDomain(String domain) throws DomainListException {
         EntityManager entityManager = entityManagerFactory.createEntityManager();
         final EntityTransaction transaction = entityManager.getTransaction();
         try {
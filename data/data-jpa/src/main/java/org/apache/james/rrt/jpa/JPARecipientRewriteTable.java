@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.rrt.jpa;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -71,6 +72,23 @@ public class JPARecipientRewriteTable extends AbstractRecipientRewriteTable {
         }
     }
 
+    /**
+     * The selectMappings query orders by domain, so *@domain is used before
+     * user@* and *@* matches too
+     * 
+     * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#getMappingLookupOrder(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    protected List<String> getMappingLookupOrder(String user, String domain) {
+        List<String> keys = new ArrayList<String>(4);
+        keys.add(user + "@" + domain);
+        keys.add(WILDCARD + "@" + domain);
+        keys.add(user + "@" + WILDCARD);
+        keys.add(WILDCARD + "@" + WILDCARD);
+        return keys;
+    }
+
     /**
      * @throws RecipientRewriteTableException
      * @see org.apache.james.rrt.lib.AbstractRecipientRewriteTable#mapAddressInternal(java.lang.String,
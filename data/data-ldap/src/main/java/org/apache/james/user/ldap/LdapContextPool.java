@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.user.ldap;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * <p>
+ * A bounded pool of {@link LdapContext}s. JNDI contexts are not thread-safe,
+ * so each directory operation borrows its own context, which is handed back
+ * with {@link #release(LdapContext)} once the operation is complete.
+ * </p>
+ * <p>
+ * At most <code>maxSize</code> contexts are in use at the same time. Callers
+ * that exceed this wait up to <code>maxWait</code> milliseconds for a context
+ * to be released.
+ * </p>
+ *
+ * @see ReadOnlyUsersLDAPRepository
+ */
+public abstract class LdapContextPool {
+
+    private final ConcurrentLinkedQueue<LdapContext> idle = new ConcurrentLinkedQueue<LdapContext>();
+
+    private final Semaphore permits;
+
+    private final long maxWait;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param maxSize
+     *            The maximum number of contexts handed out at the same time
+     * @param maxWait
+     *            The number of milliseconds to wait for a free context
+     */
+    public LdapContextPool(int maxSize, long maxWait) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.permits = new Semaphore(maxSize, true);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Create a new context for the pool.
+     *
+     * @return context
+     * @throws NamingException
+     */
+    protected abstract LdapContext newContext() throws NamingException;
+
+    /**
+     * Borrow a context from the pool. It must be passed back with
+     * {@link #release(LdapContext)} or {@link #invalidate(LdapContext)}.
+     *
+     * @return context
+     * @throws NamingException
+     *             If no context could be created or the pool is exhausted
+     */
+    public LdapContext borrow() throws NamingException {
+        if (closed) {
+            throw new ServiceUnavailableException("LDAP context pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                throw new ServiceUnavailableException("No LDAP context available after " + maxWait + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for an LDAP context");
+        }
+        LdapContext context = idle.poll();
+        if (context == null) {
+            try {
+                context = newContext();
+            } catch (NamingException e) {
+                permits.release();
+                throw e;
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Hand a borrowed context back to the pool, so it can be reused.
+     *
+     * @param context
+     */
+    public void release(LdapContext context) {
+        if (closed) {
+            closeQuietly(context);
+        } else {
+            idle.offer(context);
+            // the pool may have been closed in the meantime
+            if (closed && idle.remove(context)) {
+                closeQuietly(context);
+            }
+        }
+        permits.release();
+    }
+
+    /**
+     * Hand a borrowed context back which should not be reused, for example
+     * because an operation on it failed. The context gets closed.
+     *
+     * @param context
+     */
+    public void invalidate(LdapContext context) {
+        closeQuietly(context);
+        permits.release();
+    }
+
+    /**
+     * Return the number of contexts which are currently idle.
+     *
+     * @return idle
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Close all idle contexts. Contexts which are still in use are closed
+     * once they get released.
+     */
+    public void close() {
+        closed = true;
+        LdapContext context;
+        while ((context = idle.poll()) != null) {
+            closeQuietly(context);
+        }
+    }
+
+    private void closeQuietly(LdapContext context) {
+        try {
+            context.close();
+        } catch (NamingException e) {
+            // no-op
+        }
+    }
+}
@@ -29,8 +29,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * <p>
@@ -122,6 +124,25 @@ public class ReadOnlyLDAPGroupRestriction {
         return result;
     }
 
+    /**
+     * Returns the distinguished-names (DNs) of the members of all groups
+     * specified in the restriction list. Only the member attribute of the
+     * groups is requested from the LDAP server.
+     *
+     * @return Returns the set of userDNs which belong to at least one group.
+     * @throws NamingException Propagated from underlying LDAP communication layer.
+     */
+    protected Set<String> getGroupMembers(LdapContext ldapContext) throws NamingException {
+        Set<String> result = new HashSet<String>();
+        String[] attributes = new String[] { memberAttribute };
+
+        for (String groupDN : groupDNs) {
+            result.addAll(extractMembers(ldapContext.getAttributes(groupDN, attributes)));
+        }
+
+        return result;
+    }
+
     /**
      * Extracts the DNs for members of the group with the given LDAP context
      * attributes. This is achieved by extracting all the values of the LDAP
@@ -136,6 +157,9 @@ public class ReadOnlyLDAPGroupRestriction {
     private Collection<String> extractMembers(Attributes groupAttributes) throws NamingException {
         Collection<String> result = new ArrayList<String>();
         Attribute members = groupAttributes.get(memberAttribute);
+        if (members == null) {
+            return result;
+        }
         NamingEnumeration<?> memberDNs = members.getAll();
 
         while (memberDNs.hasMore())
@@ -20,20 +20,24 @@
 package org.apache.james.user.ldap;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.InitialLdapContext;
@@ -212,6 +216,31 @@ import org.slf4j.Logger;
  * <code>com.sun.jndi.ldap.read.timeout</code> to the specified integer value.
  * Applicable to Java 6 and above.
  * </ul>
+ * </p>
+ *
+ * <p>
+ * The following parameters control how the directory is accessed:
+ * <ul>
+ * <li>
+ * <b>poolSize:</b> (optional, default = 8) The maximum number of LDAP contexts
+ * used at the same time. Each lookup borrows its own context from the pool.
+ * <li>
+ * <b>poolMaxWait:</b> (optional, default = 10000) The number of milliseconds
+ * to wait for a free context before a lookup fails.
+ * <li>
+ * <b>userCacheTimeToLive:</b> (optional, default = 0) The number of
+ * milliseconds for which the result of a user lookup is cached. This includes
+ * users which were not found. 0 disables the cache.
+ * <li>
+ * <b>userCacheSize:</b> (optional, default = 10000) The maximum number of
+ * cached user lookups.
+ * <li>
+ * <b>groupRefreshInterval:</b> (optional, default = 0) If a restriction is
+ * configured and this is greater than 0, the members of the restriction groups
+ * are kept in memory and reloaded in the background every
+ * <code>groupRefreshInterval</code> milliseconds. If 0, the groups are read
+ * on every lookup.
+ * </ul>
  *
  * @see ReadOnlyLDAPUser
  * @see ReadOnlyLDAPGroupRestriction
@@ -304,6 +333,34 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
     // retries.
     private int maxRetries = 0;
 
+    // The maximum number of LDAP contexts used at the same time
+    private int poolSize = 8;
+
+    // The number of milliseconds to wait for a free LDAP context
+    private long poolMaxWait = 10000;
+
+    // The number of milliseconds a user lookup is cached. 0 disables the cache
+    private long userCacheTimeToLive = 0;
+
+    // The maximum number of cached user lookups
+    private int userCacheSize = 10000;
+
+    // The number of milliseconds between reloads of the group members. 0
+    // means the groups are read on every lookup
+    private long groupRefreshInterval = 0;
+
+    private LdapContextPool pool;
+
+    private Map<String, CachedUser> userCache;
+
+    /**
+     * The DNs of all members of the restriction groups, or <code>null</code>
+     * if they are not held in memory
+     */
+    private volatile Set<String> groupMembers;
+
+    private ScheduledExecutorService groupRefresher;
+
     private Logger log;
 
     /**
@@ -343,6 +400,11 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
         long retryMaxInterval = configuration.getLong("[@retryMaxInterval]", 60);
         int scale = configuration.getInt("[@retryIntervalScale]", 1000); // seconds
         schedule = new DoublingRetrySchedule(retryStartInterval, retryMaxInterval, scale);
+        poolSize = configuration.getInt("[@poolSize]", 8);
+        poolMaxWait = configuration.getLong("[@poolMaxWait]", 10000);
+        userCacheTimeToLive = configuration.getLong("[@userCacheTimeToLive]", 0);
+        userCacheSize = configuration.getInt("[@userCacheSize]", 10000);
+        groupRefreshInterval = configuration.getLong("[@groupRefreshInterval]", 0);
 
         HierarchicalConfiguration restrictionConfig = null;
         // Check if we have a restriction we can use
@@ -365,10 +427,89 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
     @PostConstruct
     public void init() throws Exception {
         if (log.isDebugEnabled()) {
-            log.debug(this.getClass().getName() + ".init()" + '\n' + "LDAP host: " + ldapHost + '\n' + "User baseDN: " + userBase + '\n' + "userIdAttribute: " + userIdAttribute + '\n' + "Group restriction: " + restriction + '\n' + "UseConnectionPool: " + useConnectionPool + '\n' + "connectionTimeout: " + connectionTimeout + '\n' + "readTimeout: " + readTimeout + '\n' + "retrySchedule: " + schedule + '\n' + "maxRetries: " + maxRetries + '\n');
+            log.debug(this.getClass().getName() + ".init()" + '\n' + "LDAP host: " + ldapHost + '\n' + "User baseDN: " + userBase + '\n' + "userIdAttribute: " + userIdAttribute + '\n' + "Group restriction: " + restriction + '\n' + "UseConnectionPool: " + useConnectionPool + '\n' + "connectionTimeout: " + connectionTimeout + '\n' + "readTimeout: " + readTimeout + '\n' + "retrySchedule: " + schedule + '\n' + "maxRetries: " + maxRetries + '\n' + "poolSize: " + poolSize + '\n' + "userCacheTimeToLive: " + userCacheTimeToLive + '\n' + "groupRefreshInterval: " + groupRefreshInterval + '\n');
         }
         // Setup the initial LDAP context
         updateLdapContext();
+
+        pool = new LdapContextPool(poolSize, poolMaxWait) {
+
+            @Override
+            protected LdapContext newContext() throws NamingException {
+                return computeLdapContext();
+            }
+        };
+
+        final int maxCachedUsers = userCacheSize;
+        userCache = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > maxCachedUsers;
+            }
+        };
+
+        if (restriction.isActivated() && groupRefreshInterval > 0) {
+            try {
+                refreshGroupMembers();
+            } catch (NamingException e) {
+                log.warn("Unable to load the members of the restriction groups, reading them on demand until the next refresh", e);
+            }
+            groupRefresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "LDAP group refresher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            groupRefresher.scheduleWithFixedDelay(new Runnable() {
+
+                public void run() {
+                    try {
+                        refreshGroupMembers();
+                    } catch (Exception e) {
+                        log.warn("Unable to reload the members of the restriction groups, keeping the old ones", e);
+                    }
+                }
+            }, groupRefreshInterval, groupRefreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop the background refresh of the group members and close the pooled
+     * LDAP contexts.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (groupRefresher != null) {
+            groupRefresher.shutdownNow();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Drop all cached user lookups, they are read from the LDAP server again
+     * on the next lookup. If the group members are held in memory they are
+     * reloaded right away; if that fails the previous members are kept until
+     * the next refresh.
+     */
+    public void invalidateCache() {
+        if (userCache != null) {
+            synchronized (userCache) {
+                userCache.clear();
+            }
+        }
+        if (groupRefresher != null) {
+            try {
+                refreshGroupMembers();
+            } catch (NamingException e) {
+                log.warn("Unable to reload the members of the restriction groups, keeping the old ones", e);
+            }
+        }
     }
 
     /**
@@ -431,102 +572,168 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
     }
 
     /**
-     * Indicates if the user with the specified DN can be found in the group
-     * membership map&#45;as encapsulated by the specified parameter map.
+     * Borrow a context of the pool for a single directory operation.
      *
-     * @param userDN
-     *            The DN of the user to search for.
-     * @param groupMembershipList
-     *            A map containing the entire group membership lists for the
-     *            configured groups. This is organised as a map of
+     * @return context
+     * @throws NamingException
+     */
+    private LdapContext borrowContext() throws NamingException {
+        return pool.borrow();
+    }
+
+    /**
+     * Hand a context back to the pool. A context with which an operation
+     * failed is not reused.
      *
-     *            <code>&quot;&lt;groupDN&gt;=&lt;[userDN1,userDN2,...,userDNn]&gt;&quot;</code>
-     *            pairs. In essence, each <code>groupDN</code> string is
-     *            associated to a list of <code>userDNs</code>.
-     * @return <code>True</code> if the specified userDN is associated with at
-     *         least one group in the parameter map, and <code>False</code>
-     *         otherwise.
-     */
-    private boolean userInGroupsMembershipList(String userDN,
-            Map<String, Collection<String>> groupMembershipList) {
-        boolean result = false;
-
-        Collection<Collection<String>> memberLists = groupMembershipList.values();
-        Iterator<Collection<String>> memberListsIterator = memberLists.iterator();
-
-        while (memberListsIterator.hasNext() && !result) {
-            Collection<String> groupMembers = memberListsIterator.next();
-            result = groupMembers.contains(userDN);
+     * @param context
+     * @param failed
+     */
+    private void releaseContext(LdapContext context, boolean failed) {
+        if (failed) {
+            pool.invalidate(context);
+        } else {
+            pool.release(context);
         }
+    }
 
-        return result;
+    /**
+     * Reload the members of the restriction groups and replace the ones which
+     * are held in memory.
+     *
+     * @throws NamingException
+     *             Propagated from the LDAP communication layer.
+     */
+    private void refreshGroupMembers() throws NamingException {
+        LdapContext context = borrowContext();
+        boolean failed = true;
+        try {
+            Set<String> members = restriction.getGroupMembers(context);
+            failed = false;
+            groupMembers = Collections.unmodifiableSet(members);
+            if (log.isDebugEnabled()) {
+                log.debug("Loaded " + members.size() + " members of the restriction groups");
+            }
+        } finally {
+            releaseContext(context, failed);
+        }
+    }
+
+    /**
+     * Return the DNs of all members of the restriction groups. The members are
+     * taken from memory if they are refreshed in the background, and read from
+     * the LDAP server otherwise.
+     *
+     * @return members
+     * @throws NamingException
+     *             Propagated from the LDAP communication layer.
+     */
+    Set<String> getGroupMembers() throws NamingException {
+        Set<String> members = groupMembers;
+        if (members != null) {
+            return members;
+        }
+        LdapContext context = borrowContext();
+        boolean failed = true;
+        try {
+            members = restriction.getGroupMembers(context);
+            failed = false;
+            return members;
+        } finally {
+            releaseContext(context, failed);
+        }
     }
 
     /**
      * Gets all the user entities taken from the LDAP server, as taken from the
      * search-context given by the value of the attribute {@link #userBase}.
+     * The userId of each user is returned by the same search, so no further
+     * requests are needed.
      *
-     * @return A set containing all the relevant users found in the LDAP
-     *         directory.
+     * @return A map of the DNs of all relevant users found in the LDAP
+     *         directory to their userIds.
      * @throws NamingException
      *             Propagated from the LDAP communication layer.
      */
-    private Set<String> getAllUsersFromLDAP() throws NamingException {
-        Set<String> result = new HashSet<String>();
+    private Map<String, String> getAllUsersFromLDAP() throws NamingException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
 
         SearchControls sc = new SearchControls();
         sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
-        sc.setReturningAttributes(new String[] { "distinguishedName" });
-        NamingEnumeration<SearchResult> sr = ldapContext.search(userBase, "(objectClass="
-                + userObjectClass + ")", sc);
-        while (sr.hasMore()) {
-            SearchResult r = sr.next();
-            result.add(r.getNameInNamespace());
+        sc.setReturningAttributes(new String[] { userIdAttribute });
+
+        LdapContext context = borrowContext();
+        boolean failed = true;
+        try {
+            NamingEnumeration<SearchResult> sr = context.search(userBase, "(objectClass="
+                    + userObjectClass + ")", sc);
+            while (sr.hasMore()) {
+                SearchResult r = sr.next();
+                Attribute userName = r.getAttributes().get(userIdAttribute);
+                if (userName != null) {
+                    result.put(r.getNameInNamespace(), userName.get().toString());
+                }
+            }
+            failed = false;
+        } finally {
+            releaseContext(context, failed);
         }
 
         return result;
     }
 
     /**
-     * Extract the user attributes for the given collection of userDNs, and
-     * encapsulates the user list as a collection of {@link ReadOnlyLDAPUser}s.
-     * This method delegates the extraction of a single user's details to the
-     * method {@link #buildUser(String)}.
+     * For a given name, this method returns the user which was found by
+     * {@link #searchUser(String)}, if it passes the group restriction. The
+     * result of the search is cached for {@link #userCacheTimeToLive}
+     * milliseconds.
      *
-     * @param userDNs
-     *            The distinguished-names (DNs) of the users whose information
-     *            is to be extracted from the LDAP repository.
-     * @return A collection of {@link ReadOnlyLDAPUser}s as taken from the LDAP
-     *         server.
+     * @param name
+     *            The userId which should be value of the field {@link #userIdAttribute}
+     * @return A {@link ReadOnlyLDAPUser} instance which is initialized with the
+     *         userId of this user and ldap connection information with which
+     *         the user was searched. Return null if such a user was not found.
      * @throws NamingException
-     *             Propagated from the underlying LDAP communication layer.
+     *             Propagated by the underlying LDAP communication layer.
      */
-    private Collection<ReadOnlyLDAPUser> buildUserCollection(Collection<String> userDNs)
-            throws NamingException {
-        List<ReadOnlyLDAPUser> results = new ArrayList<ReadOnlyLDAPUser>();
-
-        for (String userDN : userDNs) {
-            ReadOnlyLDAPUser user = buildUser(userDN);
-            results.add(user);
+    private ReadOnlyLDAPUser searchAndBuildUser(String name) throws NamingException {
+        CachedUser cached = null;
+        if (userCacheTimeToLive > 0) {
+            synchronized (userCache) {
+                cached = userCache.get(name);
+            }
+            if (cached != null && cached.expires < System.currentTimeMillis()) {
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            cached = searchUser(name);
+            if (userCacheTimeToLive > 0) {
+                synchronized (userCache) {
+                    userCache.put(name, cached);
+                }
+            }
         }
 
-        return results;
+        if (cached.user == null) {
+            return null;
+        }
+        if (!restriction.isActivated() || getGroupMembers().contains(cached.userDN)) {
+            return cached.user;
+        }
+        return null;
     }
 
-
     /**
      * For a given name, this method makes ldap search in userBase with filter {@link #userIdAttribute}=name and objectClass={@link #userObjectClass}
      * and builds {@link User} based on search result.
      *
      * @param name
      *            The userId which should be value of the field {@link #userIdAttribute}
-     * @return A {@link ReadOnlyLDAPUser} instance which is initialized with the
-     *         userId of this user and ldap connection information with which
-     *         the user was searched. Return null if such a user was not found.
+     * @return The search result, which holds no user if none was found
      * @throws NamingException
      *             Propagated by the underlying LDAP communication layer.
      */
-    private ReadOnlyLDAPUser searchAndBuildUser(String name) throws NamingException {
+    private CachedUser searchUser(String name) throws NamingException {
       SearchControls sc = new SearchControls();
       sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
       sc.setReturningAttributes(new String[] { userIdAttribute });
@@ -536,42 +743,27 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
       builderFilter.append(userIdAttribute).append("=").append(name).append(")")
                    .append("(objectClass=").append(userObjectClass).append("))");
 
-      NamingEnumeration<SearchResult> sr = ldapContext.search(userBase, builderFilter.toString(),
-          sc);
-
-      if (!sr.hasMore())
-        return null;
-
-      SearchResult r = sr.next();
-      Attribute userName = r.getAttributes().get(userIdAttribute);
-
-      if (!restriction.isActivated()
-          || userInGroupsMembershipList(r.getNameInNamespace(), restriction.getGroupMembershipLists(ldapContext)))
-        return new ReadOnlyLDAPUser(userName.get().toString(), r.getNameInNamespace(), ldapContext);
-
-      return null;
-    }
-
-    /**
-     * Given a userDN, this method retrieves the user attributes from the LDAP
-     * server, so as to extract the items that are of interest to James.
-     * Specifically it extracts the userId, which is extracted from the LDAP
-     * attribute whose name is given by the value of the field
-     * {@link #userIdAttribute}.
-     *
-     * @param userDN
-     *            The distinguished-name of the user whose details are to be
-     *            extracted from the LDAP repository.
-     * @return A {@link ReadOnlyLDAPUser} instance which is initialized with the
-     *         userId of this user and ldap connection information with which
-     *         the userDN and attributes were obtained.
-     * @throws NamingException
-     *             Propagated by the underlying LDAP communication layer.
-     */
-    private ReadOnlyLDAPUser buildUser(String userDN) throws NamingException {
-      Attributes userAttributes = ldapContext.getAttributes(userDN);
-      Attribute userName = userAttributes.get(userIdAttribute);
-      return new ReadOnlyLDAPUser(userName.get().toString(), userDN, ldapContext);
+      long expires = System.currentTimeMillis() + userCacheTimeToLive;
+      LdapContext context = borrowContext();
+      boolean failed = true;
+      try {
+          NamingEnumeration<SearchResult> sr = context.search(userBase, builderFilter.toString(),
+              sc);
+
+          CachedUser result;
+          if (!sr.hasMore()) {
+              result = new CachedUser(null, null, expires);
+          } else {
+              SearchResult r = sr.next();
+              Attribute userName = r.getAttributes().get(userIdAttribute);
+              result = new CachedUser(new ReadOnlyLDAPUser(userName.get().toString(), r.getNameInNamespace(), ldapContext),
+                  r.getNameInNamespace(), expires);
+          }
+          failed = false;
+          return result;
+      } finally {
+          releaseContext(context, failed);
+      }
     }
 
     /**
@@ -640,9 +832,9 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
      */
     public User getUserByNameCaseInsensitive(String name) throws UsersRepositoryException {
         try {
-            for (ReadOnlyLDAPUser u : buildUserCollection(getValidUsers())) {
-                if (u.getUserName().equalsIgnoreCase(name)) {
-                    return u;
+            for (Map.Entry<String, String> user : getValidUsers().entrySet()) {
+                if (user.getValue().equalsIgnoreCase(name)) {
+                    return new ReadOnlyLDAPUser(user.getValue(), user.getKey(), ldapContext);
                 }
             }
 
@@ -658,12 +850,9 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
      * @see UsersRepository#list()
      */
     public Iterator<String> list() throws UsersRepositoryException {
-        List<String> result = new ArrayList<String>();
+        List<String> result;
         try {
-
-            for (ReadOnlyLDAPUser readOnlyLDAPUser : buildUserCollection(getValidUsers())) {
-                result.add(readOnlyLDAPUser.getUserName());
-            }
+            result = new ArrayList<String>(getValidUsers().values());
         } catch (NamingException namingException) {
             throw new UsersRepositoryException(
                     "Unable to retrieve users list from LDAP due to unknown naming error.",
@@ -673,26 +862,26 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
         return result.iterator();
     }
 
-    private Collection<String> getValidUsers() throws NamingException {
-        Set<String> userDNs = getAllUsersFromLDAP();
-        Collection<String> validUserDNs;
+    /**
+     * Return all users which pass the group restriction.
+     *
+     * @return A map of user DNs to userIds
+     * @throws NamingException
+     *             Propagated from the LDAP communication layer.
+     */
+    private Map<String, String> getValidUsers() throws NamingException {
+        Map<String, String> users = getAllUsersFromLDAP();
 
         if (restriction.isActivated()) {
-            Map<String, Collection<String>> groupMembershipList = restriction
-                    .getGroupMembershipLists(ldapContext);
-            validUserDNs = new ArrayList<String>();
-
-            Iterator<String> userDNIterator = userDNs.iterator();
-            String userDN;
+            Set<String> members = getGroupMembers();
+            Iterator<String> userDNIterator = users.keySet().iterator();
             while (userDNIterator.hasNext()) {
-                userDN = userDNIterator.next();
-                if (userInGroupsMembershipList(userDN, groupMembershipList))
-                    validUserDNs.add(userDN);
+                if (!members.contains(userDNIterator.next())) {
+                    userDNIterator.remove();
+                }
             }
-        } else {
-            validUserDNs = userDNs;
         }
-        return validUserDNs;
+        return users;
     }
 
     /**
@@ -744,4 +933,19 @@ public class ReadOnlyUsersLDAPRepository implements UsersRepository, Configurabl
         return false;
     }
 
+    /**
+     * The result of a user search, which is kept in the user cache.
+     */
+    private final static class CachedUser {
+        private final ReadOnlyLDAPUser user;
+        private final String userDN;
+        private final long expires;
+
+        private CachedUser(ReadOnlyLDAPUser user, String userDN, long expires) {
+            this.user = user;
+            this.userDN = userDN;
+            this.expires = expires;
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,172 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.LdapContext;
+
+import org.junit.Test;
+
+public class LdapContextPoolTest {
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final Set<LdapContext> closed = new HashSet<LdapContext>();
+    private volatile boolean failing;
+
+    @Test
+    public void testReleasedContextIsReused() throws Exception {
+        LdapContextPool pool = createPool(2, 100);
+        LdapContext context = pool.borrow();
+        pool.release(context);
+        assertEquals(1, pool.getIdleCount());
+
+        assertSame(context, pool.borrow());
+        assertEquals(1, created.get());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testBorrowWaitsAtMostMaxWait() throws Exception {
+        LdapContextPool pool = createPool(1, 100);
+        pool.borrow();
+
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrow();
+            fail("The pool must be exhausted");
+        } catch (ServiceUnavailableException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 90);
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testReleaseFreesPermit() throws Exception {
+        LdapContextPool pool = createPool(1, 100);
+        for (int i = 0; i < 3; i++) {
+            pool.release(pool.borrow());
+        }
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testInvalidateClosesContextAndFreesPermit() throws Exception {
+        LdapContextPool pool = createPool(1, 100);
+        LdapContext context = pool.borrow();
+        pool.invalidate(context);
+        assertTrue(closed.contains(context));
+        assertEquals(0, pool.getIdleCount());
+
+        assertNotSame(context, pool.borrow());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    public void testFailedCreationFreesPermit() throws Exception {
+        LdapContextPool pool = createPool(1, 100);
+        failing = true;
+        try {
+            pool.borrow();
+            fail("Creating the context must fail");
+        } catch (CommunicationException e) {
+            // expected
+        }
+
+        failing = false;
+        pool.borrow();
+        assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testCloseWhileBorrowed() throws Exception {
+        LdapContextPool pool = createPool(2, 100);
+        LdapContext idle = pool.borrow();
+        LdapContext borrowed = pool.borrow();
+        pool.release(idle);
+
+        pool.close();
+        assertTrue(closed.contains(idle));
+        assertFalse(closed.contains(borrowed));
+
+        pool.release(borrowed);
+        assertTrue(closed.contains(borrowed));
+        assertEquals(0, pool.getIdleCount());
+
+        try {
+            pool.borrow();
+            fail("A closed pool must not hand out contexts");
+        } catch (ServiceUnavailableException e) {
+            // expected
+        }
+    }
+
+    private LdapContextPool createPool(int maxSize, long maxWait) {
+        return new LdapContextPool(maxSize, maxWait) {
+
+            @Override
+            protected LdapContext newContext() throws NamingException {
+                if (failing) {
+                    throw new CommunicationException("LDAP server down");
+                }
+                created.incrementAndGet();
+                return newMockContext();
+            }
+        };
+    }
+
+    /**
+     * Return a context which only records that it was closed
+     */
+    private LdapContext newMockContext() {
+        return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("close")) {
+                    synchronized (closed) {
+                        closed.add((LdapContext) proxy);
+                    }
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("toString")) {
+                    return "MockLdapContext@" + System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+}
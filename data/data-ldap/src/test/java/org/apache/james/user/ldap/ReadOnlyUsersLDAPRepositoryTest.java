@@ -0,0 +1,181 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.ldap.LdapContext;
+
+import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test the in-memory group members of {@link ReadOnlyUsersLDAPRepository}
+ * against a mocked directory.
+ */
+public class ReadOnlyUsersLDAPRepositoryTest {
+
+    private final static String USER1 = "uid=user1,ou=people,dc=test";
+    private final static String USER2 = "uid=user2,ou=people,dc=test";
+
+    private final AtomicInteger groupReads = new AtomicInteger();
+    private volatile Collection<String> members = Arrays.asList(USER1);
+    private volatile boolean failing;
+
+    private ReadOnlyUsersLDAPRepository repository;
+
+    @After
+    public void tearDown() {
+        if (repository != null) {
+            repository.destroy();
+        }
+    }
+
+    @Test
+    public void testGroupMembersAreHeldInMemory() throws Exception {
+        repository = createRepository(3600000);
+        assertEquals(1, groupReads.get());
+
+        assertEquals(set(USER1), repository.getGroupMembers());
+        assertEquals(set(USER1), repository.getGroupMembers());
+        assertEquals(1, groupReads.get());
+    }
+
+    @Test
+    public void testInvalidateCacheReloadsGroupMembers() throws Exception {
+        repository = createRepository(3600000);
+
+        members = Arrays.asList(USER1, USER2);
+        repository.invalidateCache();
+        assertEquals(2, groupReads.get());
+        assertEquals(set(USER1, USER2), repository.getGroupMembers());
+    }
+
+    @Test
+    public void testInvalidateCacheKeepsGroupMembersIfReloadFails() throws Exception {
+        repository = createRepository(3600000);
+
+        failing = true;
+        repository.invalidateCache();
+        assertEquals(2, groupReads.get());
+
+        // still served from memory, not read on demand
+        assertEquals(set(USER1), repository.getGroupMembers());
+        assertEquals(2, groupReads.get());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsGroupMembers() throws Exception {
+        repository = createRepository(50);
+
+        failing = true;
+        int reads = groupReads.get();
+        waitFor(reads + 2);
+        assertEquals(set(USER1), repository.getGroupMembers());
+
+        members = Arrays.asList(USER2);
+        failing = false;
+        long timeout = System.currentTimeMillis() + 5000;
+        while (!repository.getGroupMembers().equals(set(USER2)) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertEquals(set(USER2), repository.getGroupMembers());
+    }
+
+    private ReadOnlyUsersLDAPRepository createRepository(long groupRefreshInterval) throws Exception {
+        ReadOnlyUsersLDAPRepository repository = new ReadOnlyUsersLDAPRepository() {
+
+            @Override
+            protected LdapContext computeLdapContext() {
+                return newMockContext();
+            }
+        };
+        repository.setLog(LoggerFactory.getLogger(ReadOnlyUsersLDAPRepositoryTest.class));
+
+        DefaultConfigurationBuilder configuration = new DefaultConfigurationBuilder();
+        configuration.addProperty("[@userBase]", "ou=people,dc=test");
+        configuration.addProperty("[@userIdAttribute]", "uid");
+        configuration.addProperty("[@userObjectClass]", "inetOrgPerson");
+        configuration.addProperty("[@groupRefreshInterval]", groupRefreshInterval);
+        configuration.addProperty("restriction[@memberAttribute]", "member");
+        configuration.addProperty("restriction.group", "cn=mail,ou=groups,dc=test");
+        repository.configure(configuration);
+        repository.init();
+        return repository;
+    }
+
+    private void waitFor(int reads) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (groupReads.get() < reads && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        assertTrue("Group was not read again", groupReads.get() >= reads);
+    }
+
+    private Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+
+    /**
+     * Return a context which answers the group lookups with the current
+     * members, or fails if the directory is marked as failing
+     */
+    private LdapContext newMockContext() {
+        return (LdapContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getAttributes")) {
+                    groupReads.incrementAndGet();
+                    if (failing) {
+                        throw new CommunicationException("LDAP server down");
+                    }
+                    BasicAttribute member = new BasicAttribute("member");
+                    for (String dn : members) {
+                        member.add(dn);
+                    }
+                    BasicAttributes attributes = new BasicAttributes(true);
+                    attributes.put(member);
+                    return attributes;
+                } else if (method.getName().equals("equals")) {
+                    return proxy == args[0];
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (method.getName().equals("toString")) {
+                    return "MockLdapContext@" + System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+}
@@ -22,8 +22,13 @@ package org.apache.james.domainlist.lib;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Resource;
 import javax.inject.Inject;
@@ -42,6 +47,22 @@ import org.slf4j.Logger;
 /**
  * All implementations of the DomainList interface should extends this abstract
  * class
+ * <p>
+ * If <code>cacheRefreshInterval</code> is configured, the domains are kept in an
+ * in-memory snapshot, so {@link #containsDomain(String)} and
+ * {@link #getDomains()} don't need to ask the backend or resolve the
+ * autodetected domains. The snapshot is loaded again once it is older than the
+ * interval, while the old one is still used by all other callers, and right
+ * away after a domain was added or removed through this instance.
+ * </p>
+ * <p>
+ * Implementations only need to provide {@link #getDomainListInternal()}. They
+ * should implement {@link #containsDomainInternal(String)},
+ * {@link #doAddDomain(String)} and {@link #doRemoveDomain(String)} to work with
+ * the cache. Implementations which still override
+ * {@link #containsDomain(String)}, {@link #addDomain(String)} and
+ * {@link #removeDomain(String)} keep working, but these calls bypass the cache.
+ * </p>
  */
 public abstract class AbstractDomainList implements DomainList, LogEnabled, Configurable {
     private DNSService dns;
@@ -50,6 +71,16 @@ public abstract class AbstractDomainList implements DomainList, LogEnabled, Conf
     private Logger logger;
     private String defaultDomain;
 
+    /**
+     * Milliseconds after which the snapshot is loaded again, 0 if the domains
+     * are not cached
+     */
+    private long cacheRefreshInterval = 0;
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Object reloadLock = new Object();
+
     @Inject
     @Resource
     public void setDNSService(@Named("dnsservice") DNSService dns) {
@@ -70,6 +101,7 @@ public abstract class AbstractDomainList implements DomainList, LogEnabled, Conf
 
         setAutoDetect(config.getBoolean("autodetect", true));
         setAutoDetectIP(config.getBoolean("autodetectIP", true));
+        setCacheRefreshInterval(config.getLong("cacheRefreshInterval", 0));
     }
 
     @Override
@@ -79,7 +111,93 @@ public abstract class AbstractDomainList implements DomainList, LogEnabled, Conf
 
     @Override
     public String[] getDomains() throws DomainListException {
-        List<String> domains = getDomainListInternal();
+        if (cacheRefreshInterval > 0) {
+            String[] domains = getSnapshot().domains;
+            return domains == null ? null : domains.clone();
+        }
+        return computeDomains(getDomainListInternal());
+    }
+
+    @Override
+    public boolean containsDomain(String domain) throws DomainListException {
+        if (cacheRefreshInterval > 0) {
+            return getSnapshot().stored.contains(domain.toLowerCase(Locale.US));
+        }
+        return containsDomainInternal(domain);
+    }
+
+    @Override
+    public void addDomain(String domain) throws DomainListException {
+        try {
+            doAddDomain(domain);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    @Override
+    public void removeDomain(String domain) throws DomainListException {
+        try {
+            doRemoveDomain(domain);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    /**
+     * Drop the cached domains, so they are loaded again on the next access
+     */
+    public void invalidateCache() {
+        generation.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * Return the current snapshot. A missing one is loaded by the caller, an
+     * outdated one by the first caller which notices it.
+     */
+    private Snapshot getSnapshot() throws DomainListException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (reloadLock) {
+                current = snapshot;
+                if (current == null) {
+                    current = loadSnapshot();
+                }
+            }
+        } else if (current.loaded + cacheRefreshInterval < System.currentTimeMillis() && reloading.compareAndSet(false, true)) {
+            try {
+                current = loadSnapshot();
+            } catch (DomainListException e) {
+                getLogger().warn("Unable to reload domains, using the cached ones", e);
+            } finally {
+                reloading.set(false);
+            }
+        }
+        return current;
+    }
+
+    private Snapshot loadSnapshot() throws DomainListException {
+        int loadedGeneration = generation.get();
+        List<String> stored = getDomainListInternal();
+        Set<String> storedSet = new HashSet<String>();
+        if (stored != null) {
+            for (String domain : stored) {
+                storedSet.add(domain.toLowerCase(Locale.US));
+            }
+        }
+        Snapshot loaded = new Snapshot(Collections.unmodifiableSet(storedSet), computeDomains(stored));
+        if (generation.get() == loadedGeneration) {
+            // don't publish domains which were changed while loading
+            snapshot = loaded;
+        }
+        return loaded;
+    }
+
+    /**
+     * Add the autodetected domains to the stored ones
+     */
+    private String[] computeDomains(List<String> domains) {
         if (domains != null) {
 
             String hostName;
@@ -189,6 +307,17 @@ public abstract class AbstractDomainList implements DomainList, LogEnabled, Conf
         return dns;
     }
 
+    /**
+     * Set the milliseconds after which the cached domains are loaded again, 0
+     * to disable the cache. Default is 0.
+     * 
+     * @param cacheRefreshInterval
+     */
+    public void setCacheRefreshInterval(long cacheRefreshInterval) {
+        this.cacheRefreshInterval = cacheRefreshInterval;
+        invalidateCache();
+    }
+
     /**
      * Return domainList
      * 
@@ -196,4 +325,62 @@ public abstract class AbstractDomainList implements DomainList, LogEnabled, Conf
      */
     protected abstract List<String> getDomainListInternal() throws DomainListException;
 
+    /**
+     * Return true if the domain is stored in the backend. The default
+     * implementation searches the domains returned by
+     * {@link #getDomainListInternal()}.
+     * 
+     * @param domain
+     * @return contains
+     * @throws DomainListException
+     */
+    protected boolean containsDomainInternal(String domain) throws DomainListException {
+        List<String> domains = getDomainListInternal();
+        if (domains != null) {
+            for (String stored : domains) {
+                if (stored.equalsIgnoreCase(domain)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add the domain to the backend. Implementations which support adding
+     * domains need to override this method or {@link #addDomain(String)}.
+     * 
+     * @param domain
+     * @throws DomainListException
+     */
+    protected void doAddDomain(String domain) throws DomainListException {
+        throw new DomainListException("Adding domains is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Remove the domain from the backend. Implementations which support
+     * removing domains need to override this method or
+     * {@link #removeDomain(String)}.
+     * 
+     * @param domain
+     * @throws DomainListException
+     */
+    protected void doRemoveDomain(String domain) throws DomainListException {
+        throw new DomainListException("Removing domains is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Immutable view of the domains at the time it was loaded
+     */
+    private final static class Snapshot {
+        private final Set<String> stored;
+        private final String[] domains;
+        private final long loaded = System.currentTimeMillis();
+
+        private Snapshot(Set<String> stored, String[] domains) {
+            this.stored = stored;
+            this.domains = domains;
+        }
+    }
+
 }
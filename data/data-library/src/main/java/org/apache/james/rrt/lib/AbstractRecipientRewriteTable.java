@@ -21,8 +21,12 @@ package org.apache.james.rrt.lib;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -43,7 +47,18 @@ import org.apache.mailet.MailAddress;
 import org.slf4j.Logger;
 
 /**
- * 
+ * All implementations of the RecipientRewriteTable interface should extends
+ * this abstract class
+ * <p>
+ * If <code>cacheRefreshInterval</code> is configured, all mappings are kept in
+ * an in-memory snapshot with the regular expressions of the regex mappings
+ * already compiled, so resolving an address doesn't need to ask the backend
+ * for every hop. The fully resolved mappings of the last
+ * <code>resolvedCacheSize</code> addresses are remembered as well. The
+ * snapshot is loaded again once it is older than the interval, while mappings
+ * which are added or removed through this instance are updated in it right
+ * away.
+ * </p>
  */
 public abstract class AbstractRecipientRewriteTable implements RecipientRewriteTable, LogEnabled, Configurable {
     // The maximum mappings which will process before throwing exception
@@ -51,6 +66,27 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
 
     private boolean recursive = true;
 
+    /**
+     * Milliseconds after which the snapshot is loaded again, 0 if the mappings
+     * are not cached
+     */
+    private long cacheRefreshInterval = 0;
+    private int resolvedCacheSize = 10000;
+    private volatile Snapshot snapshot;
+    private final AtomicBoolean reloading = new AtomicBoolean();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final Object reloadLock = new Object();
+
+    /** Resolved mappings by address, in access order */
+    private final LinkedHashMap<String, Resolution> resolved = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resolution> eldest) {
+            return size() > resolvedCacheSize;
+        }
+    };
+
     private Logger logger;
 
     private DomainList domainList;
@@ -71,6 +107,8 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
         } catch (IllegalArgumentException e) {
             throw new ConfigurationException(e.getMessage());
         }
+        setCacheRefreshInterval(config.getLong("cacheRefreshInterval", 0));
+        setResolvedCacheSize(config.getInt("resolvedCacheSize", 10000));
         doConfigure(config);
     }
 
@@ -90,6 +128,7 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
 
     public void setRecursiveMapping(boolean recursive) {
         this.recursive = recursive;
+        invalidateCache();
     }
 
     /**
@@ -104,6 +143,38 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
         if (mappingLimit < 1)
             throw new IllegalArgumentException("The minimum mappingLimit is 1");
         this.mappingLimit = mappingLimit;
+        invalidateCache();
+    }
+
+    /**
+     * Set the milliseconds after which the cached mappings are loaded again, 0
+     * to disable the cache. Default is 0.
+     * 
+     * @param cacheRefreshInterval
+     */
+    public void setCacheRefreshInterval(long cacheRefreshInterval) {
+        this.cacheRefreshInterval = cacheRefreshInterval;
+        invalidateCache();
+    }
+
+    /**
+     * Set the count of addresses for which the resolved mappings are
+     * remembered while the mappings are cached, 0 to disable it. Default is
+     * 10000.
+     * 
+     * @param resolvedCacheSize
+     */
+    public void setResolvedCacheSize(int resolvedCacheSize) {
+        this.resolvedCacheSize = resolvedCacheSize;
+        invalidateCache();
+    }
+
+    /**
+     * Drop the cached mappings, so they are loaded again on the next access
+     */
+    public void invalidateCache() {
+        snapshot = null;
+        dropResolved();
     }
 
     /**
@@ -111,7 +182,33 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      *      String)
      */
     public Collection<String> getMappings(String user, String domain) throws ErrorMappingException, RecipientRewriteTableException {
-        return getMappings(user, domain, mappingLimit);
+        if (cacheRefreshInterval <= 0 || resolvedCacheSize <= 0) {
+            return getMappings(user, domain, mappingLimit);
+        }
+        // make sure an outdated snapshot gets reloaded, even if all addresses
+        // are resolved already
+        getSnapshot();
+
+        String address = user + "@" + domain;
+        Resolution resolution;
+        synchronized (resolved) {
+            resolution = resolved.get(address);
+        }
+        int currentGeneration = generation.get();
+        if (resolution == null || resolution.generation != currentGeneration) {
+            try {
+                resolution = new Resolution(currentGeneration, getMappings(user, domain, mappingLimit), null);
+            } catch (ErrorMappingException e) {
+                resolution = new Resolution(currentGeneration, null, e.getMessage());
+            }
+            synchronized (resolved) {
+                // don't remember mappings which were changed while resolving
+                if (generation.get() == currentGeneration) {
+                    resolved.put(address, resolution);
+                }
+            }
+        }
+        return resolution.getMappings();
     }
 
     public Collection<String> getMappings(String user, String domain, int mappingLimit) throws ErrorMappingException, RecipientRewriteTableException {
@@ -134,7 +231,7 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
                 for (String target : RecipientRewriteTableUtil.mappingToCollection(targetString)) {
                     if (target.startsWith(RecipientRewriteTable.REGEX_PREFIX)) {
                         try {
-                            target = RecipientRewriteTableUtil.regexMap(new MailAddress(user, domain), target);
+                            target = regexMap(new MailAddress(user, domain), target);
                         } catch (PatternSyntaxException e) {
                             getLogger().error("Exception during regexMap processing: ", e);
                         } catch (ParseException e) {
@@ -208,7 +305,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
 
         checkMapping(user, domain, regex);
         getLogger().info("Add regex mapping => " + regex + " for user: " + user + " domain: " + domain);
-        addMappingInternal(user, domain, RecipientRewriteTable.REGEX_PREFIX + regex);
+        try {
+            addMappingInternal(user, domain, RecipientRewriteTable.REGEX_PREFIX + regex);
+        } finally {
+            mappingChanged(user, domain);
+        }
 
     }
 
@@ -218,7 +319,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      */
     public void removeRegexMapping(String user, String domain, String regex) throws RecipientRewriteTableException {
         getLogger().info("Remove regex mapping => " + regex + " for user: " + user + " domain: " + domain);
-        removeMappingInternal(user, domain, RecipientRewriteTable.REGEX_PREFIX + regex);
+        try {
+            removeMappingInternal(user, domain, RecipientRewriteTable.REGEX_PREFIX + regex);
+        } finally {
+            mappingChanged(user, domain);
+        }
     }
 
     /**
@@ -240,7 +345,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
         }
         checkMapping(user, domain, address);
         getLogger().info("Add address mapping => " + address + " for user: " + user + " domain: " + domain);
-        addMappingInternal(user, domain, address);
+        try {
+            addMappingInternal(user, domain, address);
+        } finally {
+            mappingChanged(user, domain);
+        }
 
     }
 
@@ -257,7 +366,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
             }
         }
         getLogger().info("Remove address mapping => " + address + " for user: " + user + " domain: " + domain);
-        removeMappingInternal(user, domain, address);
+        try {
+            removeMappingInternal(user, domain, address);
+        } finally {
+            mappingChanged(user, domain);
+        }
     }
 
     /**
@@ -267,7 +380,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
     public void addErrorMapping(String user, String domain, String error) throws RecipientRewriteTableException {
         checkMapping(user, domain, error);
         getLogger().info("Add error mapping => " + error + " for user: " + user + " domain: " + domain);
-        addMappingInternal(user, domain, RecipientRewriteTable.ERROR_PREFIX + error);
+        try {
+            addMappingInternal(user, domain, RecipientRewriteTable.ERROR_PREFIX + error);
+        } finally {
+            mappingChanged(user, domain);
+        }
 
     }
 
@@ -277,7 +394,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      */
     public void removeErrorMapping(String user, String domain, String error) throws RecipientRewriteTableException {
         getLogger().info("Remove error mapping => " + error + " for user: " + user + " domain: " + domain);
-        removeMappingInternal(user, domain, RecipientRewriteTable.ERROR_PREFIX + error);
+        try {
+            removeMappingInternal(user, domain, RecipientRewriteTable.ERROR_PREFIX + error);
+        } finally {
+            mappingChanged(user, domain);
+        }
     }
 
     /**
@@ -352,7 +473,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      */
     public void addAliasDomainMapping(String aliasDomain, String realDomain) throws RecipientRewriteTableException {
         getLogger().info("Add domain mapping: " + aliasDomain + " => " + realDomain);
-        addMappingInternal(null, aliasDomain, RecipientRewriteTable.ALIASDOMAIN_PREFIX + realDomain);
+        try {
+            addMappingInternal(null, aliasDomain, RecipientRewriteTable.ALIASDOMAIN_PREFIX + realDomain);
+        } finally {
+            mappingChanged(null, aliasDomain);
+        }
     }
 
     /**
@@ -361,7 +486,11 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      */
     public void removeAliasDomainMapping(String aliasDomain, String realDomain) throws RecipientRewriteTableException {
         getLogger().info("Remove domain mapping: " + aliasDomain + " => " + realDomain);
-        removeMappingInternal(null, aliasDomain, RecipientRewriteTable.ALIASDOMAIN_PREFIX + realDomain);
+        try {
+            removeMappingInternal(null, aliasDomain, RecipientRewriteTable.ALIASDOMAIN_PREFIX + realDomain);
+        } finally {
+            mappingChanged(null, aliasDomain);
+        }
     }
 
     protected Logger getLogger() {
@@ -440,9 +569,44 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
      * @return the mappings
      */
     private String mapAddress(String user, String domain) throws RecipientRewriteTableException {
+        if (cacheRefreshInterval > 0) {
+            Map<String, String> targets = getSnapshot().targets;
+            for (String key : getMappingLookupOrder(user, domain)) {
+                String target = targets.get(key);
+                if (target != null) {
+                    return target;
+                }
+            }
+            return null;
+        }
+        return sortMappings(mapAddressInternal(user, domain));
+    }
 
-        String mappings = mapAddressInternal(user, domain);
+    /**
+     * Return the user@domain keys {@link #mapAddressInternal(String, String)}
+     * checks for the given address, in the order it checks them. The cached
+     * mappings are looked up in this order, so enabling the cache does not
+     * change which mapping is used. Override if the backend does not use the
+     * order of {@link RecipientRewriteTableUtil#getTargetString(String, String, Map)}.
+     * 
+     * @param user
+     *            the username
+     * @param domain
+     *            the domain
+     * @return keys
+     */
+    protected List<String> getMappingLookupOrder(String user, String domain) {
+        List<String> keys = new ArrayList<String>(3);
+        keys.add(user + "@" + domain);
+        keys.add(user + "@" + WILDCARD);
+        keys.add(WILDCARD + "@" + domain);
+        return keys;
+    }
 
+    /**
+     * Make sure aliasdomain mappings are the first ones
+     */
+    private String sortMappings(String mappings) {
         // check if we need to sort
         // TODO: Maybe we should just return the aliasdomain mapping
         if (mappings != null && mappings.contains(RecipientRewriteTable.ALIASDOMAIN_PREFIX)) {
@@ -468,6 +632,96 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
         }
     }
 
+    /**
+     * Processes the regex mapping with the compiled pattern of the snapshot,
+     * if the mappings are cached
+     */
+    private String regexMap(MailAddress address, String target) throws RecipientRewriteTableException {
+        if (cacheRefreshInterval > 0) {
+            Pattern pattern = getSnapshot().patterns.get(target);
+            if (pattern != null) {
+                return RecipientRewriteTableUtil.regexMap(address, pattern, target);
+            }
+        }
+        return RecipientRewriteTableUtil.regexMap(address, target);
+    }
+
+    /**
+     * Return the current snapshot. A missing one is loaded by the caller, an
+     * outdated one by the first caller which notices it.
+     */
+    private Snapshot getSnapshot() throws RecipientRewriteTableException {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (reloadLock) {
+                current = snapshot;
+                if (current == null) {
+                    current = loadSnapshot();
+                }
+            }
+        } else if (current.loaded + cacheRefreshInterval < System.currentTimeMillis() && reloading.compareAndSet(false, true)) {
+            try {
+                current = loadSnapshot();
+            } catch (RecipientRewriteTableException e) {
+                getLogger().warn("Unable to reload mappings, using the cached ones", e);
+            } finally {
+                reloading.set(false);
+            }
+        }
+        return current;
+    }
+
+    private Snapshot loadSnapshot() throws RecipientRewriteTableException {
+        int loadedGeneration = generation.get();
+        Snapshot loaded = new Snapshot();
+        Map<String, Collection<String>> all = getAllMappingsInternal();
+        if (all != null) {
+            for (Map.Entry<String, Collection<String>> entry : all.entrySet()) {
+                loaded.put(entry.getKey(), entry.getValue());
+            }
+        }
+        synchronized (resolved) {
+            // don't publish mappings which were changed while loading
+            if (generation.compareAndSet(loadedGeneration, loadedGeneration + 1)) {
+                snapshot = loaded;
+                resolved.clear();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Update the mappings of the given user and domain in the snapshot after
+     * they were changed through this instance
+     */
+    private void mappingChanged(String user, String domain) {
+        if (cacheRefreshInterval <= 0) {
+            return;
+        }
+        // keep snapshots which are loading right now from being published
+        dropResolved();
+        Snapshot current = snapshot;
+        if (current != null) {
+            String fixedUser = getFixedUser(user);
+            String fixedDomain = getFixedDomain(domain);
+            try {
+                current.put(fixedUser + "@" + fixedDomain, getUserDomainMappingsInternal(fixedUser, fixedDomain));
+            } catch (RecipientRewriteTableException e) {
+                getLogger().warn("Unable to update cached mappings of " + fixedUser + "@" + fixedDomain, e);
+                invalidateCache();
+            }
+        }
+        // forget the addresses which were resolved while updating
+        dropResolved();
+    }
+
+    private void dropResolved() {
+        synchronized (resolved) {
+            generation.incrementAndGet();
+            resolved.clear();
+        }
+    }
+
     private void checkMapping(String user, String domain, String mapping) throws RecipientRewriteTableException {
         Collection<String> mappings = getUserDomainMappings(user, domain);
         if (mappings != null && mappings.contains(mapping)) {
@@ -515,4 +769,56 @@ public abstract class AbstractRecipientRewriteTable implements RecipientRewriteT
         }
     }
 
+    /**
+     * In-memory view of all mappings, with the compiled regular expression of
+     * every regex mapping
+     */
+    private final class Snapshot {
+        /** Sorted mapping string by user@domain */
+        private final Map<String, String> targets = new ConcurrentHashMap<String, String>();
+        /** Compiled pattern by regex mapping */
+        private final Map<String, Pattern> patterns = new ConcurrentHashMap<String, Pattern>();
+        private final long loaded = System.currentTimeMillis();
+
+        private void put(String key, Collection<String> mappings) {
+            if (mappings == null || mappings.isEmpty()) {
+                targets.remove(key);
+                return;
+            }
+            for (String mapping : mappings) {
+                if (mapping.startsWith(RecipientRewriteTable.REGEX_PREFIX) && !patterns.containsKey(mapping)) {
+                    try {
+                        patterns.put(mapping, RecipientRewriteTableUtil.compileRegex(mapping));
+                    } catch (PatternSyntaxException e) {
+                        // reported when the mapping is used
+                    }
+                }
+            }
+            targets.put(key, sortMappings(RecipientRewriteTableUtil.CollectionToMapping(mappings)));
+        }
+    }
+
+    /**
+     * Result of resolving an address, either its mappings or the error of an
+     * error mapping
+     */
+    private final static class Resolution {
+        private final int generation;
+        private final Collection<String> mappings;
+        private final String error;
+
+        private Resolution(int generation, Collection<String> mappings, String error) {
+            this.generation = generation;
+            this.mappings = mappings;
+            this.error = error;
+        }
+
+        private Collection<String> getMappings() throws ErrorMappingException {
+            if (error != null) {
+                throw new ErrorMappingException(error);
+            }
+            return mappings == null ? null : new ArrayList<String>(mappings);
+        }
+    }
+
 }
@@ -57,23 +57,44 @@ public class RecipientRewriteTableUtil {
      * @throws MalformedPatternException
      */
     public static String regexMap(MailAddress address, String targetString) {
-        String result = null;
-        int identifierLength = RecipientRewriteTable.REGEX_PREFIX.length();
-
-        int msgPos = targetString.indexOf(':', identifierLength + 1);
+        return regexMap(address, compileRegex(targetString), targetString);
+    }
 
-        // Throw exception on invalid format
-        if (msgPos < identifierLength + 1)
-            throw new PatternSyntaxException("Regex should be formatted as regex:<regular-expression>:<parameterized-string>", targetString, 0);
+    /**
+     * Compile the regular expression of a regex virtual user mapping, so it
+     * can be passed to {@link #regexMap(MailAddress, Pattern, String)} for
+     * every address which gets mapped
+     * 
+     * @param targetString
+     *            a String specifying the mapping
+     * @return pattern
+     * @throws PatternSyntaxException
+     */
+    public static Pattern compileRegex(String targetString) {
+        int identifierLength = RecipientRewriteTable.REGEX_PREFIX.length();
+        int msgPos = getRegexSeparator(targetString);
 
         // log("regex: targetString = " + targetString);
         // log("regex: msgPos = " + msgPos);
         // log("regex: compile " + targetString.substring("regex:".length(),
         // msgPos));
-        // log("regex: address = " + address.toString());
-        // log("regex: replace = " + targetString.substring(msgPos + 1));
+        return Pattern.compile(targetString.substring(identifierLength, msgPos));
+    }
 
-        Pattern pattern = Pattern.compile(targetString.substring(identifierLength, msgPos));
+    /**
+     * Processes regex virtual user mapping with the already compiled regular
+     * expression of the mapping
+     * 
+     * @param address
+     *            the MailAddress to be mapped
+     * @param pattern
+     *            the pattern returned by {@link #compileRegex(String)} for the
+     *            targetString
+     * @param targetString
+     *            a String specifying the mapping
+     */
+    public static String regexMap(MailAddress address, Pattern pattern, String targetString) {
+        String result = null;
         Matcher match = pattern.matcher(address.toString());
 
         if (match.matches()) {
@@ -81,11 +102,26 @@ public class RecipientRewriteTableUtil {
             for (int i = 1; i < match.groupCount(); i++) {
                 parameters.put(Integer.toString(i), match.group(i));
             }
-            result = replaceParameters(targetString.substring(msgPos + 1), parameters);
+            result = replaceParameters(targetString.substring(getRegexSeparator(targetString) + 1), parameters);
         }
         return result;
     }
 
+    /**
+     * Return the position of the colon between the regular expression and the
+     * parameterized string
+     */
+    private static int getRegexSeparator(String targetString) {
+        int identifierLength = RecipientRewriteTable.REGEX_PREFIX.length();
+
+        int msgPos = targetString.indexOf(':', identifierLength + 1);
+
+        // Throw exception on invalid format
+        if (msgPos < identifierLength + 1)
+            throw new PatternSyntaxException("Regex should be formatted as regex:<regular-expression>:<parameterized-string>", targetString, 0);
+        return msgPos;
+    }
+
     /**
      * Returns a named string, replacing parameters with the values set.
      * 
@@ -42,6 +42,12 @@ import java.util.Map;
  * This implements common functionality found in different UsersRespository
  * implementations, and makes it easier to create new User repositories.
  * </p>
+ * <p>
+ * If <code>indexUserNames</code> is configured, implementations can keep the
+ * names of all users in an in-memory {@link UsersCache}, so checking if a user
+ * exists doesn't need to access the storage. <code>userCacheSize</code> is the
+ * count of recently read {@link User}s which are kept in it.
+ * </p>
  * 
  * @deprecated Please implement {@link UsersRepository}
  */
@@ -63,11 +69,19 @@ public abstract class AbstractJamesUsersRepository extends AbstractUsersReposito
      */
     protected boolean enableForwarding;
 
+    private boolean indexUserNames;
+
+    private int userCacheSize;
+
+    private volatile UsersCache usersCache;
+
     @Override
     public void configure(HierarchicalConfiguration configuration) throws ConfigurationException {
         setIgnoreCase(configuration.getBoolean("ignoreCase", false));
         setEnableAliases(configuration.getBoolean("enableAliases", false));
         setEnableForwarding(configuration.getBoolean("enableForwarding", false));
+        setIndexUserNames(configuration.getBoolean("indexUserNames", false));
+        setUserCacheSize(configuration.getInt("userCacheSize", 0));
         super.configure(configuration);
     }
 
@@ -112,6 +126,10 @@ public abstract class AbstractJamesUsersRepository extends AbstractUsersReposito
             throw new UsersRepositoryException("User " + user.getUserName() + " does not exist");
         } else {
             doUpdateUser(user);
+            UsersCache cache = usersCache;
+            if (cache != null) {
+                cache.evict(user.getUserName());
+            }
         }
     }
 
@@ -174,6 +192,132 @@ public abstract class AbstractJamesUsersRepository extends AbstractUsersReposito
      */
     public void setIgnoreCase(boolean ignoreCase) {
         this.ignoreCase = ignoreCase;
+        resetUsersCache();
+    }
+
+    /**
+     * Set whether the names of all users are kept in memory. Default is
+     * <code>false</code>.
+     * 
+     * @param indexUserNames
+     */
+    public void setIndexUserNames(boolean indexUserNames) {
+        this.indexUserNames = indexUserNames;
+        resetUsersCache();
+    }
+
+    /**
+     * Set the count of users which are kept in memory after they were read, 0
+     * to disable it. Default is 0.
+     * 
+     * @param userCacheSize
+     */
+    public void setUserCacheSize(int userCacheSize) {
+        this.userCacheSize = userCacheSize;
+        resetUsersCache();
+    }
+
+    private void resetUsersCache() {
+        if (indexUserNames || userCacheSize > 0) {
+            usersCache = new UsersCache(ignoreCase, userCacheSize);
+        } else {
+            usersCache = null;
+        }
+    }
+
+    /**
+     * Return <code>true</code> if {@link #getIndexedUserName(String)} can be
+     * used
+     * 
+     * @return enabled
+     */
+    protected boolean isUserNameIndexEnabled() {
+        return indexUserNames;
+    }
+
+    /**
+     * Return the stored name of the given user, matching the case only if
+     * <code>ignoreCase</code> is not set, or <code>null</code> if there is no
+     * such user. The names are loaded through {@link #list()} on the first
+     * call.
+     * 
+     * @param name
+     * @return storedName
+     * @throws UsersRepositoryException
+     */
+    protected String getIndexedUserName(String name) throws UsersRepositoryException {
+        return getLoadedUsersCache().getStoredName(name);
+    }
+
+    /**
+     * Return the count of indexed user names
+     * 
+     * @return count
+     * @throws UsersRepositoryException
+     */
+    protected int countIndexedUserNames() throws UsersRepositoryException {
+        return getLoadedUsersCache().size();
+    }
+
+    private UsersCache getLoadedUsersCache() throws UsersRepositoryException {
+        UsersCache cache = usersCache;
+        if (!cache.isLoaded()) {
+            synchronized (cache) {
+                if (!cache.isLoaded()) {
+                    cache.load(list());
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Return the cached user with the given stored name, or <code>null</code>
+     * if it is not cached
+     * 
+     * @param storedName
+     * @return user
+     */
+    protected User getCachedUser(String storedName) {
+        UsersCache cache = usersCache;
+        return cache == null ? null : cache.getUser(storedName);
+    }
+
+    /**
+     * Cache a user which was read from the storage
+     * 
+     * @param user
+     */
+    protected void cacheUser(User user) {
+        UsersCache cache = usersCache;
+        if (cache != null && user != null) {
+            cache.putUser(user);
+        }
+    }
+
+    /**
+     * Must be called by implementations after a user was stored
+     * 
+     * @param storedName
+     */
+    protected void userAdded(String storedName) {
+        UsersCache cache = usersCache;
+        if (cache != null) {
+            cache.added(storedName);
+        }
+    }
+
+    /**
+     * Must be called by implementations after a user was removed from the
+     * storage
+     * 
+     * @param storedName
+     */
+    protected void userRemoved(String storedName) {
+        UsersCache cache = usersCache;
+        if (cache != null) {
+            cache.removed(storedName);
+        }
     }
 
     /**
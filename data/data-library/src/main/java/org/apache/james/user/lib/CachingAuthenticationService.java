@@ -0,0 +1,341 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.lib;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Resource;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.james.user.api.AuthenticationService;
+import org.apache.james.user.api.AuthenticationServiceMBean;
+import org.apache.james.user.api.UsersRepository;
+import org.apache.james.user.api.UsersRepositoryException;
+
+/**
+ * {@link AuthenticationService} which checks the credentials against the
+ * {@link UsersRepository} and caches the result.
+ * <p>
+ * A verified credential is remembered for <code>credentialTimeToLive</code>
+ * milliseconds as a salted hash of user name and password, so clients which
+ * reconnect often don't cause a lookup in the repository every time. Failed
+ * credentials are remembered the same way. Client addresses which failed more
+ * than <code>maxFailuresPerAddress</code> times within
+ * <code>failureWindow</code> milliseconds are refused without checking the
+ * credentials, unless they are cached as verified. Users can be refused the
+ * same way after <code>maxFailuresPerUser</code> failures, which is disabled
+ * by default as anybody who knows a user name could then lock that user out.
+ * </p>
+ * <p>
+ * A changed password is only honored once the cached credential expired or
+ * {@link #clearCache()} was called.
+ * </p>
+ */
+public class CachingAuthenticationService implements AuthenticationService, AuthenticationServiceMBean {
+
+    private final static String HASH_ALGORITHM = "SHA-256";
+
+    /** Digester of the current thread, as they are not thread safe */
+    private final static ThreadLocal<MessageDigest> DIGESTERS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance(HASH_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+            }
+        }
+    };
+
+    private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+    private UsersRepository usersRepository;
+
+    private long credentialTimeToLive = 60000;
+    private long failureWindow = 300000;
+    private int maxFailuresPerUser = 0;
+    private int maxFailuresPerAddress = 50;
+
+    /** Salt of the credential hashes, which only lives as long as this instance */
+    private final byte[] salt = new byte[16];
+
+    /** Hash of the verified credential by user name */
+    private final BoundedMap<String, Expiring<String>> verified;
+    /** Expiration time of failed credentials by hash */
+    private final BoundedMap<String, Long> failed;
+    private final BoundedMap<String, FailureCounter> userFailures;
+    private final BoundedMap<String, FailureCounter> addressFailures;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public CachingAuthenticationService() {
+        this(10000);
+    }
+
+    /**
+     * @param maxEntries
+     *            maximal count of cached credentials and of tracked users and
+     *            addresses
+     */
+    public CachingAuthenticationService(int maxEntries) {
+        new SecureRandom().nextBytes(salt);
+        verified = new BoundedMap<String, Expiring<String>>(maxEntries);
+        failed = new BoundedMap<String, Long>(maxEntries);
+        userFailures = new BoundedMap<String, FailureCounter>(maxEntries);
+        addressFailures = new BoundedMap<String, FailureCounter>(maxEntries);
+    }
+
+    @Inject
+    @Resource
+    public void setUsersRepository(@Named("usersrepository") UsersRepository usersRepository) {
+        this.usersRepository = usersRepository;
+    }
+
+    /**
+     * Set the milliseconds for which verified and failed credentials are
+     * cached, 0 to disable the cache. Default is 60000.
+     * 
+     * @param credentialTimeToLive
+     */
+    public void setCredentialTimeToLive(long credentialTimeToLive) {
+        this.credentialTimeToLive = credentialTimeToLive;
+    }
+
+    /**
+     * Set the milliseconds in which failures are counted. Default is 300000.
+     * 
+     * @param failureWindow
+     */
+    public void setFailureWindow(long failureWindow) {
+        this.failureWindow = failureWindow;
+    }
+
+    /**
+     * Set the count of failures after which a user is refused until the
+     * failure window ends, 0 to never refuse users. Default is 0, as anybody
+     * who knows a user name could lock that user out otherwise.
+     * 
+     * @param maxFailuresPerUser
+     */
+    public void setMaxFailuresPerUser(int maxFailuresPerUser) {
+        this.maxFailuresPerUser = maxFailuresPerUser;
+    }
+
+    /**
+     * Set the count of failures after which a client address is refused until
+     * the failure window ends, 0 to never refuse addresses. Default is 50.
+     * 
+     * @param maxFailuresPerAddress
+     */
+    public void setMaxFailuresPerAddress(int maxFailuresPerAddress) {
+        this.maxFailuresPerAddress = maxFailuresPerAddress;
+    }
+
+    /**
+     * @see org.apache.james.user.api.AuthenticationService#authenticate(java.lang.String,
+     *      java.lang.String, java.lang.String)
+     */
+    public boolean authenticate(String username, String password, String remoteAddress) throws UsersRepositoryException {
+        long now = System.currentTimeMillis();
+        String hash = hash(username, password);
+
+        Expiring<String> credential = verified.getEntry(username);
+        if (credential != null && credential.expires > now && credential.value.equals(hash)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        if (isBlocked(userFailures, username, maxFailuresPerUser, now) || (remoteAddress != null && isBlocked(addressFailures, remoteAddress, maxFailuresPerAddress, now))) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        Long failedUntil = failed.getEntry(hash);
+        if (failedUntil != null && failedUntil > now) {
+            negativeHits.incrementAndGet();
+            recordFailure(username, remoteAddress, now);
+            return false;
+        }
+
+        misses.incrementAndGet();
+        if (usersRepository.test(username, password)) {
+            if (credentialTimeToLive > 0) {
+                verified.putEntry(username, new Expiring<String>(hash, now + credentialTimeToLive));
+            }
+            userFailures.removeEntry(username);
+            return true;
+        }
+        if (credentialTimeToLive > 0) {
+            failed.putEntry(hash, now + credentialTimeToLive);
+        }
+        recordFailure(username, remoteAddress, now);
+        return false;
+    }
+
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    public long getNegativeCacheHits() {
+        return negativeHits.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    public int getCachedCredentialCount() {
+        return verified.sizeEntries();
+    }
+
+    public void clearCache() {
+        verified.clearEntries();
+        failed.clearEntries();
+        userFailures.clearEntries();
+        addressFailures.clearEntries();
+    }
+
+    private void recordFailure(String username, String remoteAddress, long now) {
+        failures.incrementAndGet();
+        increment(userFailures, username, now);
+        if (remoteAddress != null) {
+            increment(addressFailures, remoteAddress, now);
+        }
+    }
+
+    private void increment(BoundedMap<String, FailureCounter> counters, String key, long now) {
+        synchronized (counters) {
+            FailureCounter counter = counters.get(key);
+            if (counter == null || counter.start + failureWindow <= now) {
+                counter = new FailureCounter(now);
+                counters.put(key, counter);
+            }
+            counter.count++;
+        }
+    }
+
+    private boolean isBlocked(BoundedMap<String, FailureCounter> counters, String key, int maxFailures, long now) {
+        if (maxFailures <= 0) {
+            return false;
+        }
+        synchronized (counters) {
+            FailureCounter counter = counters.get(key);
+            return counter != null && counter.start + failureWindow > now && counter.count >= maxFailures;
+        }
+    }
+
+    /**
+     * Return the salted hash of the given credentials
+     */
+    private String hash(String username, String password) {
+        MessageDigest digest = DIGESTERS.get();
+        digest.reset();
+        digest.update(salt);
+        try {
+            digest.update(username.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(password.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private final static class Expiring<T> {
+        private final T value;
+        private final long expires;
+
+        private Expiring(T value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+    private final static class FailureCounter {
+        private final long start;
+        private int count;
+
+        private FailureCounter(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * LRU map which drops the least recently used entry once it is full. The
+     * *Entry methods synchronize on the map.
+     */
+    private final static class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maxEntries;
+
+        private BoundedMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+
+        private synchronized V getEntry(K key) {
+            return get(key);
+        }
+
+        private synchronized void putEntry(K key, V value) {
+            put(key, value);
+        }
+
+        private synchronized void removeEntry(K key) {
+            remove(key);
+        }
+
+        private synchronized int sizeEntries() {
+            return size();
+        }
+
+        private synchronized void clearEntries() {
+            clear();
+        }
+    }
+}
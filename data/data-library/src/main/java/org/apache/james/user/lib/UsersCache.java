@@ -0,0 +1,185 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.lib;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.james.user.api.model.User;
+
+/**
+ * In-memory index of the user names stored in a repository, and a bounded
+ * cache of the {@link User}s which were read from it.
+ * <p>
+ * The names are indexed by their normalized form, which is the lower case
+ * name if the repository ignores the case of user names. Once loaded, the
+ * repository has to report every added or removed user, so an existence check
+ * is a hash lookup which doesn't touch the storage. The names should be read
+ * from the storage while holding the monitor of this cache, so users which are
+ * added or removed at the same time are not lost.
+ * </p>
+ */
+public class UsersCache {
+
+    private final boolean ignoreCase;
+    private final int maxUsers;
+
+    /** Stored name by normalized name, null until loaded */
+    private volatile ConcurrentMap<String, String> names;
+
+    /** Users by normalized name, in access order */
+    private final LinkedHashMap<String, User> users;
+
+    /**
+     * @param ignoreCase
+     *            whether names which only differ in case are the same user
+     * @param maxUsers
+     *            maximal count of cached users, 0 to not cache users at all
+     */
+    public UsersCache(boolean ignoreCase, final int maxUsers) {
+        this.ignoreCase = ignoreCase;
+        this.maxUsers = maxUsers;
+        this.users = new LinkedHashMap<String, User>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, User> eldest) {
+                return size() > maxUsers;
+            }
+        };
+    }
+
+    /**
+     * Return <code>true</code> if the names were loaded already
+     * 
+     * @return loaded
+     */
+    public boolean isLoaded() {
+        return names != null;
+    }
+
+    /**
+     * Replace the indexed names with the given stored names
+     * 
+     * @param storedNames
+     */
+    public synchronized void load(Iterator<String> storedNames) {
+        ConcurrentMap<String, String> loaded = new ConcurrentHashMap<String, String>();
+        while (storedNames.hasNext()) {
+            String name = storedNames.next();
+            loaded.put(normalize(name), name);
+        }
+        names = loaded;
+    }
+
+    /**
+     * Return the stored name of the given user name, or <code>null</code> if
+     * there is no such user. The names must be loaded before.
+     * 
+     * @param name
+     * @return storedName
+     */
+    public String getStoredName(String name) {
+        return names.get(normalize(name));
+    }
+
+    /**
+     * Return the count of the indexed names. The names must be loaded before.
+     * 
+     * @return count
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Index a user which was added to the repository
+     * 
+     * @param storedName
+     */
+    public synchronized void added(String storedName) {
+        if (names != null) {
+            names.put(normalize(storedName), storedName);
+        }
+    }
+
+    /**
+     * Drop a user which was removed from the repository
+     * 
+     * @param storedName
+     */
+    public void removed(String storedName) {
+        synchronized (this) {
+            if (names != null) {
+                names.remove(normalize(storedName), storedName);
+            }
+        }
+        evict(storedName);
+    }
+
+    /**
+     * Return the cached user with the given stored name, or <code>null</code>
+     * if it is not cached
+     * 
+     * @param storedName
+     * @return user
+     */
+    public User getUser(String storedName) {
+        if (maxUsers <= 0) {
+            return null;
+        }
+        synchronized (users) {
+            User user = users.get(normalize(storedName));
+            return user != null && user.getUserName().equals(storedName) ? user : null;
+        }
+    }
+
+    /**
+     * Cache a user which was read from the repository
+     * 
+     * @param user
+     */
+    public void putUser(User user) {
+        if (maxUsers > 0) {
+            synchronized (users) {
+                users.put(normalize(user.getUserName()), user);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached user with the given name, for example because it was
+     * updated
+     * 
+     * @param name
+     */
+    public void evict(String name) {
+        synchronized (users) {
+            users.remove(normalize(name));
+        }
+    }
+
+    private String normalize(String name) {
+        return ignoreCase ? name.toLowerCase(Locale.US) : name;
+    }
+}
@@ -29,13 +29,26 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 /**
  * Computes and verifies digests of files and strings
  */
 public class DigestUtil {
 
+    /**
+     * Digesters of the current thread by algorithm, as looking them up is
+     * costly and they are not thread safe
+     */
+    private final static ThreadLocal<Map<String, MessageDigest>> DIGESTERS = new ThreadLocal<Map<String, MessageDigest>>() {
+        @Override
+        protected Map<String, MessageDigest> initialValue() {
+            return new HashMap<String, MessageDigest>();
+        }
+    };
+
     /**
      * Command line interface. Use -help for arguments.
      * 
@@ -144,7 +157,7 @@ public class DigestUtil {
         ByteArrayOutputStream bos;
 
         try {
-            md = MessageDigest.getInstance(algorithm);
+            md = getDigester(algorithm);
             byte[] digest = md.digest(pass.getBytes("iso-8859-1"));
             bos = new ByteArrayOutputStream();
             OutputStream encodedStream = MimeUtility.encode(bos, "base64");
@@ -157,6 +170,21 @@ public class DigestUtil {
         }
     }
 
+    /**
+     * Return the reset digester of the current thread for the given algorithm
+     */
+    private static MessageDigest getDigester(String algorithm) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digesters = DIGESTERS.get();
+        MessageDigest md = digesters.get(algorithm);
+        if (md == null) {
+            md = MessageDigest.getInstance(algorithm);
+            digesters.put(algorithm, md);
+        } else {
+            md.reset();
+        }
+        return md;
+    }
+
     /**
      * Private constructor to prevent instantiation of the class
      */
@@ -0,0 +1,186 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.domainlist.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.james.dnsservice.api.mock.MockDNSService;
+import org.apache.james.domainlist.api.DomainListException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test the cached domains of {@link AbstractDomainList}
+ */
+public class DomainListCacheTest {
+
+    private CountingDomainList domainList;
+
+    @Before
+    public void setUp() throws Exception {
+        domainList = new CountingDomainList();
+        domainList.setLog(LoggerFactory.getLogger(DomainListCacheTest.class));
+        domainList.setDNSService(new MockDNSService() {
+            @Override
+            public InetAddress getLocalHost() throws UnknownHostException {
+                return InetAddress.getByName("127.0.0.1");
+            }
+
+            @Override
+            public String getHostName(InetAddress addr) {
+                return "localhost";
+            }
+        });
+        domainList.setAutoDetectIP(false);
+        domainList.setCacheRefreshInterval(60000);
+    }
+
+    @Test
+    public void testLookupsUseSnapshot() throws DomainListException {
+        domainList.addDomain("domain1.tld");
+        assertTrue(domainList.containsDomain("domain1.tld"));
+        assertTrue(domainList.containsDomain("DOMAIN1.tld"));
+        assertFalse(domainList.containsDomain("domain2.tld"));
+        assertEquals(1, domainList.getDomains().length);
+        assertEquals(1, domainList.loads);
+        assertEquals(0, domainList.contains);
+    }
+
+    @Test
+    public void testAddAndRemoveInvalidate() throws DomainListException {
+        domainList.addDomain("domain1.tld");
+        assertTrue(domainList.containsDomain("domain1.tld"));
+
+        domainList.addDomain("domain2.tld");
+        assertTrue(domainList.containsDomain("domain2.tld"));
+
+        domainList.removeDomain("domain1.tld");
+        assertFalse(domainList.containsDomain("domain1.tld"));
+        assertEquals(3, domainList.loads);
+    }
+
+    @Test
+    public void testReloadAfterInterval() throws Exception {
+        domainList.setCacheRefreshInterval(1);
+        domainList.addDomain("domain1.tld");
+        assertTrue(domainList.containsDomain("domain1.tld"));
+
+        // changed behind the back of the cache
+        domainList.domains.add("domain2.tld");
+        Thread.sleep(5);
+        domainList.containsDomain("domain2.tld");
+        assertTrue(domainList.containsDomain("domain2.tld"));
+    }
+
+    @Test
+    public void testDisabledCache() throws DomainListException {
+        domainList.setCacheRefreshInterval(0);
+        domainList.addDomain("domain1.tld");
+        assertTrue(domainList.containsDomain("domain1.tld"));
+        assertEquals(0, domainList.loads);
+        assertEquals(1, domainList.contains);
+    }
+
+    @Test
+    public void testImplementationOverridingPublicMethods() throws DomainListException {
+        LegacyDomainList legacy = new LegacyDomainList();
+        legacy.setLog(LoggerFactory.getLogger(DomainListCacheTest.class));
+        legacy.setDNSService(domainList.getDNSServer());
+        legacy.setAutoDetect(false);
+        legacy.setAutoDetectIP(false);
+
+        legacy.addDomain("domain1.tld");
+        assertTrue(legacy.containsDomain("domain1.tld"));
+        assertEquals(1, legacy.getDomains().length);
+        legacy.removeDomain("domain1.tld");
+        assertFalse(legacy.containsDomain("domain1.tld"));
+    }
+
+    @Test
+    public void testDefaultContainsDomainInternal() throws DomainListException {
+        LegacyDomainList legacy = new LegacyDomainList();
+        legacy.domains.add("domain1.tld");
+        assertTrue(legacy.containsDomainInternal("DOMAIN1.tld"));
+        assertFalse(legacy.containsDomainInternal("domain2.tld"));
+    }
+
+    /**
+     * Implementation written before the cache, which overrides the public
+     * methods
+     */
+    private final static class LegacyDomainList extends AbstractDomainList {
+        private final List<String> domains = new ArrayList<String>();
+
+        @Override
+        protected List<String> getDomainListInternal() {
+            return new ArrayList<String>(domains);
+        }
+
+        @Override
+        public boolean containsDomain(String domain) {
+            return domains.contains(domain);
+        }
+
+        @Override
+        public void addDomain(String domain) {
+            domains.add(domain);
+        }
+
+        @Override
+        public void removeDomain(String domain) {
+            domains.remove(domain);
+        }
+    }
+
+    private final static class CountingDomainList extends AbstractDomainList {
+        private final List<String> domains = new ArrayList<String>();
+        private int loads;
+        private int contains;
+
+        @Override
+        protected List<String> getDomainListInternal() {
+            loads++;
+            return new ArrayList<String>(domains);
+        }
+
+        @Override
+        protected boolean containsDomainInternal(String domain) {
+            contains++;
+            return domains.contains(domain);
+        }
+
+        @Override
+        protected void doAddDomain(String domain) {
+            domains.add(domain);
+        }
+
+        @Override
+        protected void doRemoveDomain(String domain) {
+            domains.remove(domain);
+        }
+    }
+}
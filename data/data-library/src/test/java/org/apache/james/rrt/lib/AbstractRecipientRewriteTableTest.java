@@ -295,6 +295,45 @@ public abstract class AbstractRecipientRewriteTableTest {
 
     }
 
+    @Test
+    public void testCachedWildcardPrecedence() throws ErrorMappingException, RecipientRewriteTableException {
+
+        String user = "user";
+        String domain = "domain";
+
+        // the targets are mapped again by the wildcards otherwise
+        virtualUserTable.setRecursiveMapping(false);
+
+        try {
+            assertTrue("Add mapping", addMapping(user, RecipientRewriteTable.WILDCARD, "anydomain@target", ADDRESS_TYPE));
+            assertTrue("Add mapping", addMapping(RecipientRewriteTable.WILDCARD, domain, "anyuser@target", ADDRESS_TYPE));
+            assertCachedMappings(user, domain);
+            assertCachedMappings("user2", domain);
+            assertCachedMappings(user, "domain2");
+
+            assertTrue("Remove mapping", removeMapping(user, RecipientRewriteTable.WILDCARD, "anydomain@target", ADDRESS_TYPE));
+            assertTrue("Remove mapping", removeMapping(RecipientRewriteTable.WILDCARD, domain, "anyuser@target", ADDRESS_TYPE));
+            assertTrue("Add mapping", addMapping(RecipientRewriteTable.WILDCARD, RecipientRewriteTable.WILDCARD, "any@target", ADDRESS_TYPE));
+            assertCachedMappings(user, domain);
+
+            assertTrue("Remove mapping", removeMapping(RecipientRewriteTable.WILDCARD, RecipientRewriteTable.WILDCARD, "any@target", ADDRESS_TYPE));
+        } catch (IllegalArgumentException e) {
+            fail("Storing failed");
+        }
+    }
+
+    /**
+     * Check that the cached mappings of the given address are the ones the
+     * backend resolves without the cache
+     */
+    private void assertCachedMappings(String user, String domain) throws ErrorMappingException,
+            RecipientRewriteTableException {
+        virtualUserTable.setCacheRefreshInterval(0);
+        Collection<String> mappings = virtualUserTable.getMappings(user, domain);
+        virtualUserTable.setCacheRefreshInterval(60000);
+        assertEquals("Cached mappings of " + user + "@" + domain, mappings, virtualUserTable.getMappings(user, domain));
+    }
+
     protected abstract AbstractRecipientRewriteTable getRecipientRewriteTable() throws Exception;
 
     protected abstract boolean addMapping(String user, String domain, String mapping, int type) throws
@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.rrt.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.james.rrt.api.RecipientRewriteTable.ErrorMappingException;
+import org.apache.james.rrt.api.RecipientRewriteTableException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test the cached mappings of {@link AbstractRecipientRewriteTable}
+ */
+public class RecipientRewriteTableCacheTest {
+
+    private CountingRecipientRewriteTable rrt;
+
+    @Before
+    public void setUp() throws Exception {
+        rrt = new CountingRecipientRewriteTable();
+        rrt.setLog(LoggerFactory.getLogger(RecipientRewriteTableCacheTest.class));
+        rrt.setCacheRefreshInterval(60000);
+    }
+
+    @Test
+    public void testLookupsUseSnapshot() throws Exception {
+        rrt.addAddressMapping("alias", "domain1.tld", "user@domain2.tld");
+        rrt.addAddressMapping("user", "domain2.tld", "real@domain3.tld");
+        rrt.addRegexMapping(null, "domain4.tld", "(.*)@(.*):${1}@domain3.tld");
+
+        assertEquals("[real@domain3.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+        assertEquals("[john@domain3.tld]", rrt.getMappings("john", "domain4.tld").toString());
+        assertNull(rrt.getMappings("nobody", "domain1.tld"));
+        assertEquals(1, rrt.loads);
+        assertEquals(0, rrt.lookups);
+    }
+
+    @Test
+    public void testResolvedMappingsAreRemembered() throws Exception {
+        rrt.addAddressMapping("alias", "domain1.tld", "user@domain2.tld");
+        rrt.addErrorMapping("bounce", "domain1.tld", "550 bounced");
+
+        Collection<String> mappings = rrt.getMappings("alias", "domain1.tld");
+        mappings.clear();
+        assertEquals("[user@domain2.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+        for (int i = 0; i < 2; i++) {
+            try {
+                rrt.getMappings("bounce", "domain1.tld");
+                fail("Error mapping was not thrown");
+            } catch (ErrorMappingException e) {
+                assertEquals("550 bounced", e.getMessage());
+            }
+        }
+        assertEquals(1, rrt.loads);
+        assertEquals(0, rrt.lookups);
+    }
+
+    @Test
+    public void testChangesUpdateSnapshot() throws Exception {
+        rrt.addAddressMapping("alias", "domain1.tld", "user@domain2.tld");
+        assertEquals("[user@domain2.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+
+        rrt.addAddressMapping("user", "domain2.tld", "real@domain3.tld");
+        assertEquals("[real@domain3.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+
+        rrt.removeAddressMapping("user", "domain2.tld", "real@domain3.tld");
+        assertEquals("[user@domain2.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+        assertEquals(1, rrt.loads);
+    }
+
+    @Test
+    public void testReloadAfterInterval() throws Exception {
+        rrt.setCacheRefreshInterval(1);
+        assertNull(rrt.getMappings("alias", "domain1.tld"));
+
+        // changed behind the back of the cache
+        rrt.mappings.put("alias@domain1.tld", "user@domain2.tld");
+        Thread.sleep(5);
+        rrt.getMappings("alias", "domain1.tld");
+        assertEquals("[user@domain2.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+    }
+
+    @Test
+    public void testDisabledCache() throws Exception {
+        rrt.setCacheRefreshInterval(0);
+        rrt.addAddressMapping("alias", "domain1.tld", "user@domain2.tld");
+        assertEquals("[user@domain2.tld]", rrt.getMappings("alias", "domain1.tld").toString());
+        assertEquals(0, rrt.loads);
+        assertTrue(rrt.lookups > 0);
+    }
+
+    private final static class CountingRecipientRewriteTable extends AbstractRecipientRewriteTable {
+        private final Map<String, String> mappings = new HashMap<String, String>();
+        private int loads;
+        private int lookups;
+
+        @Override
+        protected void addMappingInternal(String user, String domain, String mapping) throws RecipientRewriteTableException {
+            String key = getFixedUser(user) + "@" + getFixedDomain(domain);
+            Collection<String> map = new ArrayList<String>();
+            if (mappings.containsKey(key)) {
+                map.addAll(RecipientRewriteTableUtil.mappingToCollection(mappings.get(key)));
+            }
+            map.add(mapping);
+            mappings.put(key, RecipientRewriteTableUtil.CollectionToMapping(map));
+        }
+
+        @Override
+        protected void removeMappingInternal(String user, String domain, String mapping) throws RecipientRewriteTableException {
+            String key = getFixedUser(user) + "@" + getFixedDomain(domain);
+            Collection<String> map = RecipientRewriteTableUtil.mappingToCollection(mappings.get(key));
+            map.remove(mapping);
+            if (map.isEmpty()) {
+                mappings.remove(key);
+            } else {
+                mappings.put(key, RecipientRewriteTableUtil.CollectionToMapping(map));
+            }
+        }
+
+        @Override
+        protected Collection<String> getUserDomainMappingsInternal(String user, String domain) throws RecipientRewriteTableException {
+            String map = mappings.get(user + "@" + domain);
+            return map == null ? null : RecipientRewriteTableUtil.mappingToCollection(map);
+        }
+
+        @Override
+        protected Map<String, Collection<String>> getAllMappingsInternal() throws RecipientRewriteTableException {
+            loads++;
+            Map<String, Collection<String>> all = new HashMap<String, Collection<String>>();
+            for (Map.Entry<String, String> entry : mappings.entrySet()) {
+                all.put(entry.getKey(), RecipientRewriteTableUtil.mappingToCollection(entry.getValue()));
+            }
+            return all;
+        }
+
+        @Override
+        protected String mapAddressInternal(String user, String domain) throws RecipientRewriteTableException {
+            lookups++;
+            return RecipientRewriteTableUtil.getTargetString(user, domain, mappings);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.james.user.api.UsersRepositoryException;
+import org.apache.james.user.lib.mock.MockUsersRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test {@link CachingAuthenticationService}
+ */
+public class CachingAuthenticationServiceTest {
+
+    private CountingUsersRepository users;
+    private CachingAuthenticationService service;
+
+    @Before
+    public void setUp() throws Exception {
+        users = new CountingUsersRepository();
+        users.addUser("user", "secret");
+        service = new CachingAuthenticationService();
+        service.setUsersRepository(users);
+        service.setMaxFailuresPerUser(3);
+        service.setMaxFailuresPerAddress(5);
+    }
+
+    @Test
+    public void testVerifiedCredentialsAreCached() throws UsersRepositoryException {
+        assertTrue(service.authenticate("user", "secret", "127.0.0.1"));
+        assertTrue(service.authenticate("user", "secret", "127.0.0.2"));
+        assertTrue(service.authenticate("user", "secret", null));
+        assertEquals(1, users.tests);
+        assertEquals(2, service.getCacheHits());
+        assertEquals(1, service.getCachedCredentialCount());
+
+        // another password is checked against the repository
+        assertFalse(service.authenticate("user", "wrong", null));
+        assertEquals(2, users.tests);
+    }
+
+    @Test
+    public void testFailedCredentialsAreCached() throws UsersRepositoryException {
+        assertFalse(service.authenticate("user", "wrong", null));
+        assertFalse(service.authenticate("user", "wrong", null));
+        assertEquals(1, users.tests);
+        assertEquals(1, service.getNegativeCacheHits());
+        assertEquals(2, service.getFailureCount());
+    }
+
+    @Test
+    public void testUserIsRefusedAfterFailures() throws UsersRepositoryException {
+        for (int i = 0; i < 3; i++) {
+            assertFalse(service.authenticate("user", "wrong" + i, null));
+        }
+        assertFalse(service.authenticate("user", "secret", null));
+        assertEquals(3, users.tests);
+        assertEquals(1, service.getRejectedCount());
+
+        service.clearCache();
+        assertTrue(service.authenticate("user", "secret", null));
+    }
+
+    @Test
+    public void testVerifiedCredentialsBypassRefusedUser() throws UsersRepositoryException {
+        assertTrue(service.authenticate("user", "secret", null));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(service.authenticate("user", "wrong" + i, null));
+        }
+        assertTrue(service.authenticate("user", "secret", null));
+    }
+
+    @Test
+    public void testAddressIsRefusedAfterFailures() throws UsersRepositoryException {
+        for (int i = 0; i < 5; i++) {
+            assertFalse(service.authenticate("unknown" + i, "wrong", "10.0.0.1"));
+        }
+        assertFalse(service.authenticate("user", "secret", "10.0.0.1"));
+        assertTrue(service.authenticate("user", "secret", "10.0.0.2"));
+    }
+
+    @Test
+    public void testUsersAreNotRefusedByDefault() throws UsersRepositoryException {
+        service = new CachingAuthenticationService();
+        service.setUsersRepository(users);
+        for (int i = 0; i < 20; i++) {
+            assertFalse(service.authenticate("user", "wrong" + i, "10.0.0." + i));
+        }
+        assertTrue(service.authenticate("user", "secret", "10.0.1.1"));
+        assertEquals(0, service.getRejectedCount());
+    }
+
+    @Test
+    public void testDisabledCache() throws UsersRepositoryException {
+        service.setCredentialTimeToLive(0);
+        assertTrue(service.authenticate("user", "secret", null));
+        assertTrue(service.authenticate("user", "secret", null));
+        assertEquals(2, users.tests);
+    }
+
+    private final static class CountingUsersRepository extends MockUsersRepository {
+        private int tests;
+
+        @Override
+        public boolean test(String name, String password) throws UsersRepositoryException {
+            tests++;
+            return super.test(name, password);
+        }
+    }
+}
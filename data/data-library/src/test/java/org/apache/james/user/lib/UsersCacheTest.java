@@ -0,0 +1,91 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.user.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.james.user.api.model.User;
+import org.apache.james.user.lib.model.DefaultUser;
+import org.junit.Test;
+
+/**
+ * Test {@link UsersCache}
+ */
+public class UsersCacheTest {
+
+    @Test
+    public void testCaseInsensitiveNames() {
+        UsersCache cache = new UsersCache(true, 0);
+        cache.load(Arrays.asList("John", "mary").iterator());
+
+        assertEquals("John", cache.getStoredName("john"));
+        assertEquals("John", cache.getStoredName("JOHN"));
+        assertEquals("mary", cache.getStoredName("Mary"));
+        assertNull(cache.getStoredName("bob"));
+        assertEquals(2, cache.size());
+
+        cache.added("Bob");
+        assertEquals("Bob", cache.getStoredName("bob"));
+
+        // only the stored name removes the user
+        cache.removed("bob");
+        assertEquals("Bob", cache.getStoredName("bob"));
+        cache.removed("Bob");
+        assertNull(cache.getStoredName("bob"));
+    }
+
+    @Test
+    public void testCaseSensitiveNames() {
+        UsersCache cache = new UsersCache(false, 0);
+        cache.load(Arrays.asList("John").iterator());
+
+        assertEquals("John", cache.getStoredName("John"));
+        assertNull(cache.getStoredName("john"));
+    }
+
+    @Test
+    public void testUsersAreBounded() {
+        UsersCache cache = new UsersCache(true, 2);
+        User john = new DefaultUser("John", "SHA");
+        cache.putUser(john);
+        cache.putUser(new DefaultUser("mary", "SHA"));
+
+        assertSame(john, cache.getUser("John"));
+        assertNull(cache.getUser("john"));
+
+        // mary is the least recently used one
+        cache.putUser(new DefaultUser("bob", "SHA"));
+        assertNull(cache.getUser("mary"));
+        assertSame(john, cache.getUser("John"));
+
+        cache.evict("JOHN");
+        assertNull(cache.getUser("John"));
+    }
+
+    @Test
+    public void testDisabledUserCache() {
+        UsersCache cache = new UsersCache(false, 0);
+        cache.putUser(new DefaultUser("John", "SHA"));
+        assertNull(cache.getUser("John"));
+    }
+}
@@ -0,0 +1,79 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.api;
+
+import java.net.InetAddress;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * {@link DNSService} which can resolve without blocking the caller. This
+ * allows to start many lookups at once and wait for all of them together,
+ * instead of one after another.
+ * <p>
+ * The returned {@link Future}s fail with the exception the matching blocking
+ * method of {@link DNSService} throws.
+ * </p>
+ */
+public interface AsyncDNSService extends DNSService {
+
+    /**
+     * @see DNSService#findMXRecords(String)
+     */
+    Future<Collection<String>> findMXRecordsAsync(String hostname);
+
+    /**
+     * @see DNSService#findTXTRecords(String)
+     */
+    Future<Collection<String>> findTXTRecordsAsync(String hostname);
+
+    /**
+     * @see DNSService#getAllByName(String)
+     */
+    Future<InetAddress[]> getAllByNameAsync(String host);
+
+    /**
+     * @see DNSService#getByName(String)
+     */
+    Future<InetAddress> getByNameAsync(String host);
+
+    /**
+     * @see DNSService#getHostName(InetAddress)
+     */
+    Future<String> getHostNameAsync(InetAddress addr);
+
+    /**
+     * Start the lookups of all given hosts at once
+     * 
+     * @param hosts
+     * @return the pending lookups by host, in the order of the given hosts
+     * @see DNSService#getByName(String)
+     */
+    Map<String, Future<InetAddress>> getByNameAsync(Collection<String> hosts);
+
+    /**
+     * Start the TXT lookups of all given hosts at once
+     * 
+     * @param hostnames
+     * @return the pending lookups by host, in the order of the given hosts
+     * @see DNSService#findTXTRecords(String)
+     */
+    Map<String, Future<Collection<String>>> findTXTRecordsAsync(Collection<String> hostnames);
+}
@@ -0,0 +1,186 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.api;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link AsyncDNSService} which wraps a blocking {@link DNSService}. The
+ * lookups are done in the calling thread, so the returned {@link Future}s are
+ * always completed.
+ * <p>
+ * Code which makes use of {@link AsyncDNSService} can use
+ * {@link #adapt(DNSService)} to work with any {@link DNSService}.
+ * </p>
+ */
+public class DNSServiceAsyncAdapter implements AsyncDNSService {
+
+    private final DNSService dns;
+
+    public DNSServiceAsyncAdapter(DNSService dns) {
+        this.dns = dns;
+    }
+
+    /**
+     * Return the given service if it is an {@link AsyncDNSService} already,
+     * or wrap it
+     * 
+     * @param dns
+     * @return async service
+     */
+    public static AsyncDNSService adapt(DNSService dns) {
+        if (dns instanceof AsyncDNSService) {
+            return (AsyncDNSService) dns;
+        }
+        return new DNSServiceAsyncAdapter(dns);
+    }
+
+    @Override
+    public Collection<String> findMXRecords(String hostname) throws TemporaryResolutionException {
+        return dns.findMXRecords(hostname);
+    }
+
+    @Override
+    public Collection<String> findTXTRecords(String hostname) {
+        return dns.findTXTRecords(hostname);
+    }
+
+    @Override
+    public InetAddress[] getAllByName(String host) throws UnknownHostException {
+        return dns.getAllByName(host);
+    }
+
+    @Override
+    public InetAddress getByName(String host) throws UnknownHostException {
+        return dns.getByName(host);
+    }
+
+    @Override
+    public InetAddress getLocalHost() throws UnknownHostException {
+        return dns.getLocalHost();
+    }
+
+    @Override
+    public String getHostName(InetAddress addr) {
+        return dns.getHostName(addr);
+    }
+
+    @Override
+    public Future<Collection<String>> findMXRecordsAsync(String hostname) {
+        try {
+            return new CompletedFuture<Collection<String>>(dns.findMXRecords(hostname), null);
+        } catch (TemporaryResolutionException e) {
+            return new CompletedFuture<Collection<String>>(null, e);
+        }
+    }
+
+    @Override
+    public Future<Collection<String>> findTXTRecordsAsync(String hostname) {
+        return new CompletedFuture<Collection<String>>(dns.findTXTRecords(hostname), null);
+    }
+
+    @Override
+    public Future<InetAddress[]> getAllByNameAsync(String host) {
+        try {
+            return new CompletedFuture<InetAddress[]>(dns.getAllByName(host), null);
+        } catch (UnknownHostException e) {
+            return new CompletedFuture<InetAddress[]>(null, e);
+        }
+    }
+
+    @Override
+    public Future<InetAddress> getByNameAsync(String host) {
+        try {
+            return new CompletedFuture<InetAddress>(dns.getByName(host), null);
+        } catch (UnknownHostException e) {
+            return new CompletedFuture<InetAddress>(null, e);
+        }
+    }
+
+    @Override
+    public Future<String> getHostNameAsync(InetAddress addr) {
+        return new CompletedFuture<String>(dns.getHostName(addr), null);
+    }
+
+    @Override
+    public Map<String, Future<InetAddress>> getByNameAsync(Collection<String> hosts) {
+        Map<String, Future<InetAddress>> results = new LinkedHashMap<String, Future<InetAddress>>();
+        for (String host : hosts) {
+            results.put(host, getByNameAsync(host));
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Future<Collection<String>>> findTXTRecordsAsync(Collection<String> hostnames) {
+        Map<String, Future<Collection<String>>> results = new LinkedHashMap<String, Future<Collection<String>>>();
+        for (String hostname : hostnames) {
+            results.put(hostname, findTXTRecordsAsync(hostname));
+        }
+        return results;
+    }
+
+    /**
+     * {@link Future} of a lookup which is done already
+     */
+    private final static class CompletedFuture<V> implements Future<V> {
+        private final V value;
+        private final Exception exception;
+
+        private CompletedFuture(V value, Exception exception) {
+            this.value = value;
+            this.exception = exception;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public V get() throws ExecutionException {
+            if (exception != null) {
+                throw new ExecutionException(exception);
+            }
+            return value;
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+    }
+}
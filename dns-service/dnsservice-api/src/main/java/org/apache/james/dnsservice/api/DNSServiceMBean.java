@@ -49,4 +49,33 @@ public interface DNSServiceMBean {
      * Clear the cache of the service
      */
     void clearCache();
+
+    /**
+     * Return the count of domains with a cached route
+     * 
+     * @return currentRouteCacheSize
+     */
+    int getCurrentRouteCacheSize();
+
+    /**
+     * Return the count of route lookups answered from the cache
+     * 
+     * @return hits
+     */
+    long getRouteCacheHits();
+
+    /**
+     * Return the count of route lookups which needed to query the DNS servers
+     * 
+     * @return misses
+     */
+    long getRouteCacheMisses();
+
+    /**
+     * Return the count of routes refreshed in the background before they
+     * expired
+     * 
+     * @return refreshes
+     */
+    long getRouteCacheRefreshes();
 }
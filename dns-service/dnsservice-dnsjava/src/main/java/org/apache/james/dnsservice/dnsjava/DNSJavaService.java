@@ -20,7 +20,7 @@ package org.apache.james.dnsservice.dnsjava;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.AsyncDNSService;
 import org.apache.james.dnsservice.api.DNSServiceMBean;
 import org.apache.james.dnsservice.api.TemporaryResolutionException;
 import org.apache.james.lifecycle.api.Configurable;
@@ -44,6 +44,7 @@ import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -51,12 +52,21 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Provides DNS client functionality to services running inside James
  */
-public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled, Configurable {
+public class DNSJavaService implements AsyncDNSService, DNSServiceMBean, LogEnabled, Configurable {
 
     /**
      * A resolver instance used to retrieve DNS records. This is a reference to
@@ -75,6 +85,38 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
      */
     private int maxCacheSize = 50000;
 
+    /**
+     * Maximum number of domains to cache resolved routes for, 0 to disable
+     * the route cache.
+     */
+    private int maxRouteCacheSize = 10000;
+
+    /**
+     * Seconds to cache that a domain has no route
+     */
+    private long negativeCacheTTL = 300;
+
+    /**
+     * Whether used routes are refreshed before they expire
+     */
+    private boolean routeCachePrefetch = true;
+
+    /**
+     * Cache of resolved mail routes, <code>null</code> if disabled
+     */
+    private RouteCache routeCache;
+
+    /**
+     * Maximum number of lookups which are resolved concurrently for the
+     * {@link AsyncDNSService} methods
+     */
+    private int asyncThreads = 16;
+
+    /**
+     * Executes the lookups of the {@link AsyncDNSService} methods
+     */
+    private ExecutorService asyncExecutor;
+
     /**
      * Whether the DNS response is required to be authoritative
      */
@@ -170,6 +212,11 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         dnsCredibility = authoritative ? Credibility.AUTH_ANSWER : Credibility.NONAUTH_ANSWER;
 
         maxCacheSize = configuration.getInt("maxcachesize", maxCacheSize);
+
+        maxRouteCacheSize = configuration.getInt("maxroutecachesize", maxRouteCacheSize);
+        negativeCacheTTL = configuration.getLong("negativecachettl", negativeCacheTTL);
+        routeCachePrefetch = configuration.getBoolean("routecacheprefetch", routeCachePrefetch);
+        asyncThreads = configuration.getInt("asyncthreads", asyncThreads);
     }
 
     @PostConstruct
@@ -204,6 +251,26 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         cache = new Cache(DClass.IN);
         cache.setMaxEntries(maxCacheSize);
 
+        asyncExecutor = Executors.newFixedThreadPool(asyncThreads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DNS lookup " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        if (maxRouteCacheSize > 0) {
+            routeCache = new RouteCache(new RouteCache.Loader() {
+                @Override
+                public RouteCache.Route load(String domain) throws TemporaryResolutionException {
+                    return resolveRoute(domain);
+                }
+            }, maxRouteCacheSize, routeCachePrefetch, logger);
+        }
+
         if (setAsDNSJavaDefault) {
             Lookup.setDefaultResolver(resolver);
             Lookup.setDefaultCache(cache, DClass.IN);
@@ -223,6 +290,16 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         logger.debug("DNSService ...init end");
     }
 
+    @PreDestroy
+    public void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+        if (routeCache != null) {
+            routeCache.close();
+        }
+    }
+
     /**
      * Return the list of DNS servers in use by this service
      *
@@ -305,8 +382,97 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         return servers;
     }
 
+    /**
+     * Resolve the MX hosts of a domain and their addresses. If the domain has
+     * no MX records the domain itself is used, if it has an address.
+     *
+     * @param domain
+     * @return route
+     * @throws TemporaryResolutionException
+     */
+    private RouteCache.Route resolveRoute(String domain) throws TemporaryResolutionException {
+        Record answers[] = lookup(domain, Type.MX, "MX");
+        List<List<String>> priorities = new ArrayList<List<String>>();
+        Map<String, InetAddress[]> addresses = new HashMap<String, InetAddress[]>();
+        long ttl = Long.MAX_VALUE;
+
+        if (answers != null && answers.length > 0) {
+            MXRecord[] mxAnswers = new MXRecord[answers.length];
+            for (int i = 0; i < answers.length; i++) {
+                mxAnswers[i] = (MXRecord) answers[i];
+            }
+            Arrays.sort(mxAnswers, mxComparator);
+
+            List<String> samePrio = null;
+            int currentPrio = -1;
+            for (MXRecord mx : mxAnswers) {
+                if (samePrio == null || mx.getPriority() != currentPrio) {
+                    samePrio = new ArrayList<String>();
+                    priorities.add(samePrio);
+                    currentPrio = mx.getPriority();
+                }
+                String host = mx.getTarget().toString();
+                samePrio.add(host);
+                ttl = Math.min(ttl, mx.getTTL());
+                ttl = Math.min(ttl, resolveRouteHost(host, addresses));
+            }
+        } else {
+            logger.info("Couldn't resolve MX records for domain " + domain + ".");
+            long hostTTL = resolveRouteHost(domain, addresses);
+            if (addresses.containsKey(domain)) {
+                priorities.add(Collections.singletonList(domain));
+                ttl = hostTTL;
+            } else {
+                logger.error("Couldn't resolve IP address for host " + domain + ".");
+                ttl = negativeCacheTTL;
+            }
+        }
+        return new RouteCache.Route(priorities, addresses, ttl);
+    }
+
+    /**
+     * Resolve the addresses of a MX host and add them to the given map
+     *
+     * @return the TTL of the addresses
+     */
+    private long resolveRouteHost(String host, Map<String, InetAddress[]> addresses) {
+        String name = allowIPLiteral(host);
+        Record[] records = null;
+        try {
+            org.xbill.DNS.Address.getByAddress(name);
+        } catch (UnknownHostException e) {
+            records = lookupNoException(name, Type.A, "A");
+        }
+        if (records == null || records.length == 0) {
+            try {
+                // IP literal, local host or not resolvable
+                addresses.put(host, getAllByName(host));
+            } catch (UnknownHostException e) {
+                // resolved again on use
+            }
+            return negativeCacheTTL;
+        }
+        long ttl = Long.MAX_VALUE;
+        InetAddress[] addrs = new InetAddress[records.length];
+        for (int i = 0; i < records.length; i++) {
+            ARecord a = (ARecord) records[i];
+            try {
+                addrs[i] = InetAddress.getByAddress(name, a.getAddress().getAddress());
+            } catch (UnknownHostException e) {
+                // can not happen for a valid address
+                return negativeCacheTTL;
+            }
+            ttl = Math.min(ttl, a.getTTL());
+        }
+        addresses.put(host, addrs);
+        return ttl;
+    }
+
     @Override
     public Collection<String> findMXRecords(String hostname) throws TemporaryResolutionException {
+        if (routeCache != null) {
+            return Collections.unmodifiableCollection(routeCache.get(hostname).getHosts());
+        }
         List<String> servers = new ArrayList<String>();
         try {
             servers = findMXRecordsRaw(hostname);
@@ -425,6 +591,10 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
 
     @Override
     public InetAddress getByName(String host) throws UnknownHostException {
+        InetAddress[] cached = routeCache == null ? null : routeCache.getAddresses(host);
+        if (cached != null && cached.length > 0) {
+            return cached[0];
+        }
         String name = allowIPLiteral(host);
 
         try {
@@ -447,6 +617,10 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
 
     @Override
     public InetAddress[] getAllByName(String host) throws UnknownHostException {
+        InetAddress[] cached = routeCache == null ? null : routeCache.getAddresses(host);
+        if (cached != null && cached.length > 0) {
+            return cached.clone();
+        }
         String name = allowIPLiteral(host);
         try {
             // Check if its local
@@ -506,6 +680,78 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
         return InetAddress.getLocalHost();
     }
 
+    @Override
+    public Future<Collection<String>> findMXRecordsAsync(final String hostname) {
+        return asyncExecutor.submit(new Callable<Collection<String>>() {
+            @Override
+            public Collection<String> call() throws TemporaryResolutionException {
+                return findMXRecords(hostname);
+            }
+        });
+    }
+
+    @Override
+    public Future<Collection<String>> findTXTRecordsAsync(final String hostname) {
+        return asyncExecutor.submit(new Callable<Collection<String>>() {
+            @Override
+            public Collection<String> call() {
+                return findTXTRecords(hostname);
+            }
+        });
+    }
+
+    @Override
+    public Future<InetAddress[]> getAllByNameAsync(final String host) {
+        return asyncExecutor.submit(new Callable<InetAddress[]>() {
+            @Override
+            public InetAddress[] call() throws UnknownHostException {
+                return getAllByName(host);
+            }
+        });
+    }
+
+    @Override
+    public Future<InetAddress> getByNameAsync(final String host) {
+        return asyncExecutor.submit(new Callable<InetAddress>() {
+            @Override
+            public InetAddress call() throws UnknownHostException {
+                return getByName(host);
+            }
+        });
+    }
+
+    @Override
+    public Future<String> getHostNameAsync(final InetAddress addr) {
+        return asyncExecutor.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return getHostName(addr);
+            }
+        });
+    }
+
+    @Override
+    public Map<String, Future<InetAddress>> getByNameAsync(Collection<String> hosts) {
+        Map<String, Future<InetAddress>> results = new LinkedHashMap<String, Future<InetAddress>>();
+        for (String host : hosts) {
+            if (!results.containsKey(host)) {
+                results.put(host, getByNameAsync(host));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Future<Collection<String>>> findTXTRecordsAsync(Collection<String> hostnames) {
+        Map<String, Future<Collection<String>>> results = new LinkedHashMap<String, Future<Collection<String>>>();
+        for (String hostname : hostnames) {
+            if (!results.containsKey(hostname)) {
+                results.put(hostname, findTXTRecordsAsync(hostname));
+            }
+        }
+        return results;
+    }
+
     @Override
     public int getMaximumCacheSize() {
         return maxCacheSize;
@@ -519,6 +765,29 @@ public class DNSJavaService implements DNSService, DNSServiceMBean, LogEnabled,
     @Override
     public void clearCache() {
         cache.clearCache();
+        if (routeCache != null) {
+            routeCache.clear();
+        }
+    }
+
+    @Override
+    public int getCurrentRouteCacheSize() {
+        return routeCache == null ? 0 : routeCache.size();
+    }
+
+    @Override
+    public long getRouteCacheHits() {
+        return routeCache == null ? 0 : routeCache.getHits();
+    }
+
+    @Override
+    public long getRouteCacheMisses() {
+        return routeCache == null ? 0 : routeCache.getMisses();
+    }
+
+    @Override
+    public long getRouteCacheRefreshes() {
+        return routeCache == null ? 0 : routeCache.getRefreshes();
     }
 
 }
@@ -0,0 +1,284 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.dnsservice.dnsjava;
+
+import org.apache.james.dnsservice.api.TemporaryResolutionException;
+import org.slf4j.Logger;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the resolved mail routes of domains: the MX hosts ordered by
+ * priority together with their addresses.
+ * <p/>
+ * Entries expire with the smallest TTL of the records they were built from.
+ * Domains without any route are cached as well, for the negative TTL. Entries
+ * which were used again after they were loaded are refreshed in the background
+ * once most of their TTL passed, so lookups of popular domains are always
+ * answered from the cache.
+ */
+public class RouteCache {
+
+    /**
+     * Percentage of the TTL after which a used entry is refreshed
+     */
+    private final static int REFRESH_PERCENT = 75;
+
+    /**
+     * Resolves the route of a domain
+     */
+    public interface Loader {
+
+        /**
+         * @param domain
+         * @return route
+         * @throws TemporaryResolutionException
+         */
+        Route load(String domain) throws TemporaryResolutionException;
+    }
+
+    private final Loader loader;
+    private final Logger logger;
+    private final boolean prefetch;
+    private final Map<String, Route> routes;
+
+    /**
+     * The routes by the hosts they contain addresses for
+     */
+    private final ConcurrentHashMap<String, Route> hosts = new ConcurrentHashMap<String, Route>();
+    private final ExecutorService refresher;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    /**
+     * @param loader
+     * @param maxEntries
+     *            maximal count of cached domains, the least recently used are
+     *            evicted first
+     * @param prefetch
+     *            if true used entries get refreshed before they expire
+     * @param logger
+     */
+    public RouteCache(Loader loader, final int maxEntries, boolean prefetch, Logger logger) {
+        this.loader = loader;
+        this.prefetch = prefetch;
+        this.logger = logger;
+        this.routes = new LinkedHashMap<String, Route>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Route> eldest) {
+                if (size() > maxEntries) {
+                    unindex(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.refresher = prefetch ? Executors.newSingleThreadExecutor(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "DNS route refresher " + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        }) : null;
+    }
+
+    /**
+     * Return the cached route of the domain, or resolve it if it is not cached
+     * or expired
+     *
+     * @param domain
+     * @return route
+     * @throws TemporaryResolutionException
+     *             if the route was not cached and could not be resolved
+     */
+    public Route get(String domain) throws TemporaryResolutionException {
+        String key = domain.toLowerCase();
+        Route route;
+        synchronized (routes) {
+            route = routes.get(key);
+        }
+        long now = System.currentTimeMillis();
+        if (route != null && route.expires > now) {
+            hits.incrementAndGet();
+            if (prefetch && route.used.getAndSet(true) && route.refreshAt <= now && route.refreshing.compareAndSet(false, true)) {
+                refresh(key);
+            }
+            return route;
+        }
+        misses.incrementAndGet();
+        return put(key, loader.load(domain));
+    }
+
+    /**
+     * Return the addresses of a host if they were resolved as part of a cached
+     * route
+     *
+     * @param host
+     * @return addresses or <code>null</code>
+     */
+    public InetAddress[] getAddresses(String host) {
+        Route route = hosts.get(host.toLowerCase());
+        if (route == null || route.expires <= System.currentTimeMillis()) {
+            return null;
+        }
+        return route.addresses.get(host.toLowerCase());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    public int size() {
+        synchronized (routes) {
+            return routes.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (routes) {
+            routes.clear();
+            hosts.clear();
+        }
+    }
+
+    /**
+     * Stop refreshing entries
+     */
+    public void close() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    private void refresh(final String key) {
+        refresher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    put(key, loader.load(key));
+                    refreshes.incrementAndGet();
+                } catch (TemporaryResolutionException e) {
+                    // keep the current entry until it expires
+                    logger.debug("Unable to refresh route of " + key, e);
+                } catch (RuntimeException e) {
+                    logger.warn("Unable to refresh route of " + key, e);
+                }
+            }
+        });
+    }
+
+    private Route put(String key, Route route) {
+        synchronized (routes) {
+            Route old = routes.put(key, route);
+            if (old != null) {
+                unindex(old);
+            }
+            for (String host : route.addresses.keySet()) {
+                hosts.put(host, route);
+            }
+        }
+        return route;
+    }
+
+    private void unindex(Route route) {
+        for (String host : route.addresses.keySet()) {
+            hosts.remove(host, route);
+        }
+    }
+
+    /**
+     * The resolved route of a domain
+     */
+    public static final class Route {
+        private final List<List<String>> priorities;
+        private final Map<String, InetAddress[]> addresses;
+        private final long expires;
+        private final long refreshAt;
+        private final AtomicBoolean used = new AtomicBoolean();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        /**
+         * @param priorities
+         *            the MX hosts grouped by priority, the group with the
+         *            highest priority first. Empty if the domain has no
+         *            route.
+         * @param addresses
+         *            the resolved addresses by host
+         * @param ttl
+         *            seconds the route is valid
+         */
+        public Route(List<List<String>> priorities, Map<String, InetAddress[]> addresses, long ttl) {
+            this.priorities = priorities;
+            this.addresses = new ConcurrentHashMap<String, InetAddress[]>();
+            for (Map.Entry<String, InetAddress[]> entry : addresses.entrySet()) {
+                this.addresses.put(entry.getKey().toLowerCase(), entry.getValue());
+            }
+            long now = System.currentTimeMillis();
+            this.expires = now + ttl * 1000;
+            this.refreshAt = now + ttl * 10 * REFRESH_PERCENT;
+        }
+
+        /**
+         * Return the MX hosts ordered by priority. Hosts with the same
+         * priority are shuffled on every call, see JAMES-913.
+         *
+         * @return hosts
+         */
+        public List<String> getHosts() {
+            List<String> hosts = new ArrayList<String>();
+            for (List<String> samePrio : priorities) {
+                List<String> shuffled = new ArrayList<String>(samePrio);
+                Collections.shuffle(shuffled);
+                hosts.addAll(shuffled);
+            }
+            return hosts;
+        }
+
+        public boolean isNegative() {
+            return priorities.isEmpty();
+        }
+    }
+}
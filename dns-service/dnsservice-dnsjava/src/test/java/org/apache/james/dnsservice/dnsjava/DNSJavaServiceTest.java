@@ -41,9 +41,15 @@ import org.xbill.DNS.Zone;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URL;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class DNSJavaServiceTest {
 
@@ -83,6 +89,7 @@ public class DNSJavaServiceTest {
 
     @After
     public void tearDown() throws Exception {
+        dnsServer.destroy();
         dnsServer.setCache(null);
         dnsServer = null;
         Lookup.setDefaultCache(defaultCache, DClass.IN);
@@ -207,6 +214,60 @@ public class DNSJavaServiceTest {
         assertEquals(1, records.size());
         assertTrue(records.contains("mx1.one-mx.bar."));
     }
+    @Test
+    public void testRouteCache() throws Exception {
+        doAnswer(new ZoneCacheLookupRecordsAnswer(loadZone("dnstest.com.")))
+                .when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        Collection<String> records = dnsServer.findMXRecords("nomx.dnstest.com.");
+        assertEquals(1, records.size());
+        assertEquals(0, dnsServer.getRouteCacheHits());
+        assertEquals(1, dnsServer.getRouteCacheMisses());
+
+        // answered from the route cache without asking the resolver again
+        dnsServer.setCache(null);
+        records = dnsServer.findMXRecords("nomx.dnstest.com.");
+        assertEquals("nomx.dnstest.com.", records.iterator().next());
+        assertEquals("204.12.234.32", dnsServer.getAllByName("nomx.dnstest.com.")[0].getHostAddress());
+        assertEquals(1, dnsServer.getRouteCacheHits());
+        assertEquals(1, dnsServer.getCurrentRouteCacheSize());
+
+        dnsServer.setCache(mockedCache);
+        dnsServer.clearCache();
+        assertEquals(0, dnsServer.getCurrentRouteCacheSize());
+    }
+
+    @Test
+    public void testRouteCacheNegative() throws Exception {
+        doAnswer(new ZoneCacheLookupRecordsAnswer(loadZone("dnstest.com.")))
+                .when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        assertEquals(0, dnsServer.findMXRecords("unknown.dnstest.com.").size());
+        assertEquals(0, dnsServer.findMXRecords("unknown.dnstest.com.").size());
+        assertEquals(1, dnsServer.getRouteCacheMisses());
+        assertEquals(1, dnsServer.getRouteCacheHits());
+    }
+
+    @Test
+    public void testAsyncLookups() throws Exception {
+        doAnswer(new ZoneCacheLookupRecordsAnswer(loadZone("dnstest.com.")))
+                .when(mockedCache).lookupRecords(any(Name.class), anyInt(), anyInt());
+        dnsServer.setCache(mockedCache);
+
+        Map<String, Future<InetAddress>> lookups = dnsServer.getByNameAsync(Arrays.asList("mail.dnstest.com.", "unknown.dnstest.com."));
+        assertEquals(2, lookups.size());
+        assertEquals("216.183.119.114", lookups.get("mail.dnstest.com.").get().getHostAddress());
+        try {
+            lookups.get("unknown.dnstest.com.").get();
+            fail("Host should not be resolvable");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UnknownHostException);
+        }
+        assertEquals("badhost.dnstest.com.", dnsServer.findMXRecordsAsync("badmx.dnstest.com.").get().iterator().next());
+    }
+
     /*
      * public void testCNAMEasMXrecords() throws Exception { // Zone z =
      * loadZone("brandilyncollins.com."); dnsServer.setResolver(null);
@@ -68,6 +68,46 @@ public class Inet4Network implements InetNetwork {
         return network.getHostAddress() + "/" + netmask.getHostAddress();
     }
 
+    /**
+     * Return the IP address of the network, the subnet mask being applied.
+     * 
+     * @return network
+     */
+    public InetAddress getNetwork() {
+        return network;
+    }
+
+    /**
+     * Return the count of leading bits covered by the subnet mask, or -1 if
+     * the mask is not made of contiguous leading bits (e.g. 255.0.255.0).
+     * 
+     * @return prefix length
+     */
+    public int getPrefixLength() {
+        return prefixLength(netmask.getAddress());
+    }
+
+    /**
+     * Return the count of leading one bits of the mask, or -1 if the other
+     * bits are not all zero.
+     * 
+     * @param mask
+     *            the byte[] represent the netmask
+     * @return prefix length
+     */
+    static int prefixLength(byte[] mask) {
+        int length = 0;
+        while (length < mask.length * 8 && (mask[length / 8] & (0x80 >> (length % 8))) != 0) {
+            length++;
+        }
+        for (int i = length; i < mask.length * 8; i++) {
+            if ((mask[i / 8] & (0x80 >> (i % 8))) != 0) {
+                return -1;
+            }
+        }
+        return length;
+    }
+
     @Override
     public int hashCode() {
         return maskIP(network, netmask).hashCode();
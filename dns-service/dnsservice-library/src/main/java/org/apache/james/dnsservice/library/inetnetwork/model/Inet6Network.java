@@ -66,6 +66,25 @@ public class Inet6Network implements InetNetwork {
         return network.getHostAddress() + "/" + netmask;
     }
 
+    /**
+     * Return the IP address of the network, the subnet mask being applied.
+     *
+     * @return network
+     */
+    public InetAddress getNetwork() {
+        return network;
+    }
+
+    /**
+     * Return the count of leading bits covered by the subnet mask which is
+     * applied on the addresses.
+     *
+     * @return prefix length
+     */
+    public int getPrefixLength() {
+        return Inet4Network.prefixLength(maskBytes(netmask));
+    }
+
     @Override
     public int hashCode() {
         return maskIP(network, netmask).hashCode();
@@ -77,6 +96,10 @@ public class Inet6Network implements InetNetwork {
     }
 
     private static InetAddress maskIP(final InetAddress ip, Integer mask) {
+        return maskIP(ip.getAddress(), maskBytes(mask));
+    }
+
+    private static byte[] maskBytes(Integer mask) {
         byte[] maskBytes = new byte[16];
         int i = 0;
         while (mask > 0) {
@@ -84,7 +107,7 @@ public class Inet6Network implements InetNetwork {
             i++;
             mask = (mask >> 1);
         }
-        return maskIP(ip.getAddress(), maskBytes);
+        return maskBytes;
     }
 
     /**
@@ -20,14 +20,17 @@ package org.apache.james.dnsservice.library.netmatcher;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.library.inetnetwork.InetNetworkBuilder;
+import org.apache.james.dnsservice.library.inetnetwork.model.Inet4Network;
+import org.apache.james.dnsservice.library.inetnetwork.model.Inet6Network;
 import org.apache.james.dnsservice.library.inetnetwork.model.InetNetwork;
 
 /**
@@ -35,6 +38,10 @@ import org.apache.james.dnsservice.library.inetnetwork.model.InetNetwork;
  * 
  * NetMatcher provides a means for checking whether a particular IPv4 or IPv6
  * address or domain name is within a set of subnets.
+ * 
+ * The networks are kept in a binary trie per address family, so checking an
+ * address costs the same whatever the count of networks is. IP addresses given
+ * as String are parsed directly, only host names are resolved.
  */
 public class NetMatcher {
 
@@ -48,6 +55,22 @@ public class NetMatcher {
      */
     private SortedSet<InetNetwork> networks;
 
+    /**
+     * The IPv4 networks.
+     */
+    private NetworkTrie inet4Networks;
+
+    /**
+     * The IPv6 networks.
+     */
+    private NetworkTrie inet6Networks;
+
+    /**
+     * The networks which can't be put in a trie, because their subnet mask is
+     * not a prefix.
+     */
+    private List<InetNetwork> otherNetworks;
+
     /**
      * Create a new instance of Netmatcher.
      * 
@@ -83,10 +106,23 @@ public class NetMatcher {
      */
     public boolean matchInetNetwork(final String hostIP) {
 
+        byte[] address = parseInet4Address(hostIP);
+        if (address != null && otherNetworks.isEmpty()) {
+            return matchInetNetwork(address);
+        }
+
         InetAddress ip;
 
         try {
-            ip = dnsServer.getByName(hostIP);
+            if (address != null) {
+                ip = InetAddress.getByAddress(address);
+            } else if (InetNetworkBuilder.isV6(hostIP)) {
+                // host names never contain ':', so this is a literal address
+                // which is only parsed, never looked up
+                ip = InetAddress.getByName(hostIP);
+            } else {
+                ip = dnsServer.getByName(hostIP);
+            }
         } catch (UnknownHostException uhe) {
             log("Cannot resolve address for " + hostIP + ": " + uhe.getMessage());
             return false;
@@ -106,17 +142,35 @@ public class NetMatcher {
      */
     public boolean matchInetNetwork(final InetAddress ip) {
 
-        boolean sameNet = false;
+        if (matchInetNetwork(ip.getAddress())) {
+            return true;
+        }
 
-        for (Iterator<InetNetwork> iter = networks.iterator(); (!sameNet) && iter.hasNext();) {
-            InetNetwork network = iter.next();
-            sameNet = network.contains(ip);
+        for (InetNetwork network : otherNetworks) {
+            if (network.contains(ip)) {
+                return true;
+            }
         }
 
-        return sameNet;
+        return false;
 
     }
 
+    /**
+     * Return true if the address is part of a network of the tries.
+     * 
+     * @param address
+     *            the IPv4 or IPv6 address
+     * @return true if match the network
+     */
+    private boolean matchInetNetwork(final byte[] address) {
+        if (address.length == 4) {
+            return inet4Networks.contains(address);
+        } else {
+            return inet6Networks.contains(address);
+        }
+    }
+
     @Override
     public String toString() {
         return networks.toString();
@@ -166,6 +220,58 @@ public class NetMatcher {
             }
         }
 
+        inet4Networks = new NetworkTrie();
+        inet6Networks = new NetworkTrie();
+        otherNetworks = new ArrayList<InetNetwork>();
+
+        for (InetNetwork network : networks) {
+            if (network instanceof Inet4Network && ((Inet4Network) network).getPrefixLength() >= 0) {
+                Inet4Network inet4Network = (Inet4Network) network;
+                inet4Networks.add(inet4Network.getNetwork().getAddress(), inet4Network.getPrefixLength());
+            } else if (network instanceof Inet6Network) {
+                Inet6Network inet6Network = (Inet6Network) network;
+                inet6Networks.add(inet6Network.getNetwork().getAddress(), inet6Network.getPrefixLength());
+            } else {
+                otherNetworks.add(network);
+            }
+        }
+
+    }
+
+    /**
+     * Parse an IPv4 address in dotted decimal notation (e.g. 192.168.0.1).
+     * 
+     * @param hostIP
+     *            the ipAddress or host name
+     * @return the address, or null if the String is not an IPv4 address in
+     *         this notation
+     */
+    static byte[] parseInet4Address(final String hostIP) {
+        byte[] address = new byte[4];
+        int part = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = 0; i < hostIP.length(); i++) {
+            char c = hostIP.charAt(i);
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (digits > 3 || value > 255) {
+                    return null;
+                }
+            } else if (c == '.' && digits > 0 && part < 3) {
+                address[part++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else {
+                return null;
+            }
+        }
+        if (part != 3 || digits == 0) {
+            return null;
+        }
+        address[part] = (byte) value;
+        return address;
     }
 
 }
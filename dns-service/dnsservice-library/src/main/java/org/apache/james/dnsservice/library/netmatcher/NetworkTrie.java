@@ -0,0 +1,104 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.dnsservice.library.netmatcher;
+
+/**
+ * Binary radix trie of network prefixes.
+ * 
+ * An address is looked up by walking the trie bit by bit, so the cost of a
+ * lookup only depends on the length of the longest prefix, not on the count
+ * of networks. The trie is meant to be built once and then only read, it may
+ * then be shared between threads.
+ */
+class NetworkTrie {
+
+    /**
+     * The children of the nodes, at index 2 * node + bit. 0 means no child,
+     * as the root (node 0) is never a child.
+     */
+    private int[] children = new int[64];
+
+    /**
+     * True for the nodes which end a prefix.
+     */
+    private boolean[] terminal = new boolean[32];
+
+    private int nodeCount = 1;
+
+    /**
+     * Add a network.
+     * 
+     * @param address
+     *            the address of the network
+     * @param prefixLength
+     *            the count of leading bits of the address which are part of
+     *            the network
+     */
+    public void add(byte[] address, int prefixLength) {
+        int node = 0;
+        for (int i = 0; i < prefixLength && !terminal[node]; i++) {
+            int index = 2 * node + bit(address, i);
+            if (children[index] == 0) {
+                int child = newNode();
+                children[index] = child;
+            }
+            node = children[index];
+        }
+        terminal[node] = true;
+    }
+
+    /**
+     * Return true if the address is part of one of the networks.
+     * 
+     * @param address
+     *            the address to look up
+     * @return true if a network contains the address
+     */
+    public boolean contains(byte[] address) {
+        int bits = address.length * 8;
+        int node = 0;
+        for (int i = 0; !terminal[node]; i++) {
+            if (i == bits) {
+                return false;
+            }
+            node = children[2 * node + bit(address, i)];
+            if (node == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int newNode() {
+        if (nodeCount == terminal.length) {
+            int[] newChildren = new int[children.length * 2];
+            System.arraycopy(children, 0, newChildren, 0, children.length);
+            children = newChildren;
+            boolean[] newTerminal = new boolean[terminal.length * 2];
+            System.arraycopy(terminal, 0, newTerminal, 0, terminal.length);
+            terminal = newTerminal;
+        }
+        return nodeCount++;
+    }
+
+    private static int bit(byte[] address, int index) {
+        return (address[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+}
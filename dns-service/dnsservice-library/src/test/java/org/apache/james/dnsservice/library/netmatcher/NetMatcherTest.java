@@ -18,9 +18,15 @@
  ****************************************************************/
 package org.apache.james.dnsservice.library.netmatcher;
 
+import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.james.dnsservice.api.mock.DNSFixture;
+import org.apache.james.dnsservice.api.mock.MockDNSService;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import org.junit.Test;
 
 /**
@@ -109,4 +115,81 @@ public class NetMatcherTest {
         assertEquals(false, netMatcher.matchInetNetwork("192.168.1.254"));
         assertEquals(false, netMatcher.matchInetNetwork("192.169.1.254"));
     }
+
+    /**
+     * Test with many networks, including networks contained in others.
+     */
+    @Test
+    public void testManyNetworks() {
+        List<String> networks = new ArrayList<String>();
+        for (int i = 0; i < 4096; i++) {
+            networks.add("10." + (i >> 4) + "." + ((i & 15) << 4) + ".0/20");
+        }
+        networks.add("10.1.0.0/16");
+        networks.add("10.1.2.3");
+        networks.add("172.16.*");
+        networks.add("2781:0db8:1234:8612:45ee:0000:f05e:0001/48");
+
+        netMatcher = new NetMatcher(networks, DNSFixture.DNS_SERVER_IPV4_MOCK);
+
+        assertEquals(true, netMatcher.matchInetNetwork("10.255.240.1"));
+        assertEquals(true, netMatcher.matchInetNetwork("10.1.2.3"));
+        assertEquals(true, netMatcher.matchInetNetwork("172.16.200.200"));
+        assertEquals(false, netMatcher.matchInetNetwork("11.0.0.1"));
+        assertEquals(false, netMatcher.matchInetNetwork("172.17.0.1"));
+        assertEquals(true, netMatcher.matchInetNetwork("2781:0db8:1234:ffff:0:0:0:1"));
+        assertEquals(false, netMatcher.matchInetNetwork("2781:0db8:1235:8612:0:0:0:1"));
+    }
+
+    /**
+     * Test the networks matching all addresses, and subnet masks which are not
+     * a prefix.
+     */
+    @Test
+    public void testSpecialMasks() {
+        netMatcher = new NetMatcher(new String[] { "0.0.0.0/0" }, DNSFixture.DNS_SERVER_IPV4_MOCK);
+        assertEquals(true, netMatcher.matchInetNetwork("1.2.3.4"));
+        assertEquals(false, netMatcher.matchInetNetwork("0:0:0:0:0:0:0:1"));
+
+        netMatcher = new NetMatcher(new String[] { "192.0.168.0/255.0.255.0" }, DNSFixture.DNS_SERVER_IPV4_MOCK);
+        assertEquals(true, netMatcher.matchInetNetwork("192.1.168.1"));
+        assertEquals(false, netMatcher.matchInetNetwork("192.1.169.1"));
+    }
+
+    /**
+     * Test that IP addresses are not resolved.
+     */
+    @Test
+    public void testIpAddressesAreNotResolved() {
+        NetMatcher noDnsMatcher = new NetMatcher(new String[] { "192.168.1.0/24", "0:0:0:0:0:0:0:1" }, new MockDNSService() {
+
+            @Override
+            public InetAddress getByName(String host) throws UnknownHostException {
+                if (host.equals("192.168.1.0") || host.equals("255.255.255.0") || host.equals("0:0:0:0:0:0:0:1")) {
+                    return InetAddress.getByName(host);
+                }
+                throw new UnknownHostException("No lookup expected for " + host);
+            }
+        });
+
+        assertEquals(true, noDnsMatcher.matchInetNetwork("192.168.1.20"));
+        assertEquals(false, noDnsMatcher.matchInetNetwork("192.168.2.20"));
+        assertEquals(true, noDnsMatcher.matchInetNetwork("::1"));
+        assertEquals(false, noDnsMatcher.matchInetNetwork("localhost"));
+    }
+
+    /**
+     * Test the parsing of IPv4 addresses.
+     */
+    @Test
+    public void testParseInet4Address() {
+        assertEquals(-1, NetMatcher.parseInet4Address("255.0.10.1")[0]);
+        assertEquals(10, NetMatcher.parseInet4Address("255.0.10.1")[2]);
+        assertNull(NetMatcher.parseInet4Address("256.0.0.1"));
+        assertNull(NetMatcher.parseInet4Address("1.2.3"));
+        assertNull(NetMatcher.parseInet4Address("1.2.3.4.5"));
+        assertNull(NetMatcher.parseInet4Address("1..3.4"));
+        assertNull(NetMatcher.parseInet4Address("1.2.3.4."));
+        assertNull(NetMatcher.parseInet4Address("example.com"));
+    }
 }
@@ -21,6 +21,10 @@ package org.apache.james.mailetcontainer.api.jmx;
 
 /**
  * MBean for Mail processing components
+ * 
+ * The mean and the percentiles of the processing time are kept with
+ * microsecond precision, so they are also meaningful for components which
+ * take less than a millisecond.
  */
 public interface MailProcessorManagementMBean {
 
@@ -67,4 +71,68 @@ public interface MailProcessorManagementMBean {
      */
     long getLastProcessing();
 
+    /**
+     * Return the mean time in ms of the processing
+     * 
+     * @return mean
+     */
+    double getMeanProcessing();
+
+    /**
+     * Return the time in ms within which half of the processing was done
+     * 
+     * @return median
+     */
+    double getMedianProcessing();
+
+    /**
+     * Return the time in ms within which 90% of the processing was done
+     * 
+     * @return percentile
+     */
+    double getProcessing90thPercentile();
+
+    /**
+     * Return the time in ms within which 99% of the processing was done
+     * 
+     * @return percentile
+     */
+    double getProcessing99thPercentile();
+
+    /**
+     * Return the time in ms within which 99.9% of the processing was done
+     * 
+     * @return percentile
+     */
+    double getProcessing999thPercentile();
+
+    /**
+     * Return the time in ms within which the given percentage of the
+     * processing was done
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return percentile
+     */
+    double getProcessingPercentile(double percentile);
+
+    /**
+     * Return the count of handled mails per second over the last minute
+     * 
+     * @return rate
+     */
+    double getOneMinuteRate();
+
+    /**
+     * Return the count of handled mails per second over the last ten seconds
+     * 
+     * @return rate
+     */
+    double getTenSecondRate();
+
+    /**
+     * Reset all counters, times, percentiles and rates
+     */
+    void resetStatistics();
+
 }
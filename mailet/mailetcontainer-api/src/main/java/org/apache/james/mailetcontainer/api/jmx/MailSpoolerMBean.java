@@ -36,4 +36,49 @@ public interface MailSpoolerMBean {
      */
     int getCurrentSpoolCount();
 
+    /**
+     * Return the count of mails which may be in flight at once. This is the
+     * thread count, unless adaptive concurrency is enabled.
+     * 
+     * @return concurrencyLimit
+     */
+    int getConcurrencyLimit();
+
+    /**
+     * Return the count of mails which were dequeued, or are about to be
+     * dequeued, and are not processed yet
+     * 
+     * @return inFlightCount
+     */
+    int getInFlightCount();
+
+    /**
+     * Return how often the spooler had to wait for a free worker before it
+     * could dequeue the next mail
+     * 
+     * @return saturationCount
+     */
+    long getSaturationCount();
+
+    /**
+     * Return the total time in milliseconds the spooler waited for free
+     * workers
+     * 
+     * @return saturationTime
+     */
+    long getSaturationTime();
+
+    /**
+     * Return <code>true</code> if the concurrency is adjusted to the observed
+     * processing latency and queue depth
+     * 
+     * @return adaptive
+     */
+    boolean isAdaptive();
+
+    /**
+     * Reset the saturation statistics
+     */
+    void resetStatistics();
+
 }
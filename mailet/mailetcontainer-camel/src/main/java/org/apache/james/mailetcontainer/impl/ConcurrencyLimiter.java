@@ -0,0 +1,198 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the count of mails which are in flight in the {@link JamesMailSpooler}
+ * . A mail must only be dequeued after a slot was acquired, so the spooler
+ * never takes more mails than it can process at once.
+ * <p>
+ * The limit can be changed at runtime. In adaptive mode
+ * {@link #adjust(long)} is called periodically and moves the limit between the
+ * configured minimum and maximum, based on the processing latency observed
+ * since the last call and the count of mails waiting in the queue:
+ * <ul>
+ * <li>If the average latency grew beyond {@link #LATENCY_TOLERANCE} times the
+ * lowest observed average, the limit is decreased by a quarter.</li>
+ * <li>Otherwise, if all slots were in use and mails are waiting, the limit is
+ * increased by a tenth (at least by one).</li>
+ * </ul>
+ * </p>
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Factor by which the average latency may exceed the lowest observed one
+     * before the limit gets decreased
+     */
+    public final static double LATENCY_TOLERANCE = 2.0;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private int limit;
+    private int inFlight;
+    private boolean saturatedSinceAdjust;
+
+    private long saturationCount;
+    private long saturationTime;
+
+    private long latencySum;
+    private long latencyCount;
+    private long minLatency = Long.MAX_VALUE;
+
+    /**
+     * Create a limiter with a fixed limit
+     *
+     * @param limit
+     */
+    public ConcurrencyLimiter(int limit) {
+        this(limit, limit, limit);
+    }
+
+    /**
+     * @param initialLimit
+     * @param minLimit
+     * @param maxLimit
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits " + minLimit + " - " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    }
+
+    /**
+     * Wait until a slot is free and take it
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        if (inFlight >= limit) {
+            saturationCount++;
+            saturatedSinceAdjust = true;
+            long start = System.nanoTime();
+            try {
+                while (inFlight >= limit) {
+                    wait();
+                }
+            } finally {
+                saturationTime += System.nanoTime() - start;
+            }
+        }
+        inFlight++;
+    }
+
+    /**
+     * Give back a slot without recording a latency, for example because
+     * dequeuing failed
+     */
+    public synchronized void release() {
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Give back a slot after a mail was processed
+     *
+     * @param latency
+     *            processing time of the mail in nanoseconds
+     */
+    public synchronized void release(long latency) {
+        latencySum += latency;
+        latencyCount++;
+        release();
+    }
+
+    /**
+     * Adjust the limit, see the class description
+     *
+     * @param waiting
+     *            count of mails waiting in the queue, or a negative value if
+     *            unknown. If unknown, waiting dequeue threads are taken as a
+     *            sign for waiting mails.
+     */
+    public synchronized void adjust(long waiting) {
+        boolean grow;
+        if (waiting < 0) {
+            grow = saturatedSinceAdjust;
+        } else {
+            grow = waiting > 0 && (saturatedSinceAdjust || inFlight >= limit);
+        }
+        saturatedSinceAdjust = false;
+
+        long averageLatency = -1;
+        if (latencyCount > 0) {
+            averageLatency = latencySum / latencyCount;
+            latencySum = 0;
+            latencyCount = 0;
+            if (averageLatency < minLatency) {
+                minLatency = averageLatency;
+            } else {
+                // slowly forget the lowest latency, as it may have been
+                // observed under different conditions
+                minLatency += (averageLatency - minLatency) / 100;
+            }
+        }
+
+        if (averageLatency > minLatency * LATENCY_TOLERANCE) {
+            limit = Math.max(minLimit, limit - Math.max(1, limit / 4));
+        } else if (grow) {
+            limit = Math.min(maxLimit, limit + Math.max(1, limit / 10));
+        } else {
+            return;
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return how often a caller had to wait for a free slot
+     */
+    public synchronized long getSaturationCount() {
+        return saturationCount;
+    }
+
+    /**
+     * @return total time in milliseconds callers waited for a free slot
+     */
+    public synchronized long getSaturationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(saturationTime);
+    }
+
+    /**
+     * Reset the saturation counters
+     */
+    public synchronized void resetStatistics() {
+        saturationCount = 0;
+        saturationTime = 0;
+    }
+}
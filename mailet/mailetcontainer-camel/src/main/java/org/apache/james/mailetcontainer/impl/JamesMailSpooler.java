@@ -31,6 +31,7 @@ import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.james.queue.api.ManageableMailQueue;
 import org.apache.james.util.concurrent.JMXEnabledThreadPoolExecutor;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
@@ -39,6 +40,10 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -46,6 +51,13 @@ import java.util.concurrent.atomic.AtomicInteger;
  * Manages the mail spool. This class is responsible for retrieving messages
  * from the spool, directing messages to the appropriate processor, and removing
  * them from the spool when processing is complete.
+ * <p>
+ * A mail is only dequeued once a worker is free to process it, so during
+ * spikes the mails stay in the queue instead of piling up in memory. With
+ * <code>adaptive</code> enabled the count of concurrently processed mails is
+ * moved between <code>minThreads</code> and <code>threads</code>, see
+ * {@link ConcurrencyLimiter}.
+ * </p>
  */
 public class JamesMailSpooler implements Runnable, Disposable, Configurable, LogEnabled, MailSpoolerMBean {
 
@@ -86,6 +98,19 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
 
     private int numDequeueThreads;
 
+    private boolean adaptive;
+
+    private int minThreads;
+
+    private long adaptiveInterval;
+
+    /**
+     * Limits the mails in flight to the free workers
+     */
+    private ConcurrencyLimiter limiter;
+
+    private ScheduledExecutorService adaptiveService;
+
     @Inject
     public void setMailQueueFactory(MailQueueFactory queueFactory) {
         this.queueFactory = queueFactory;
@@ -103,6 +128,13 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         numDequeueThreads = config.getInt("dequeueThreads", 2);
 
         numThreads = config.getInt("threads", 100);
+
+        adaptive = config.getBoolean("adaptive", false);
+        minThreads = config.getInt("minThreads", Math.max(1, numThreads / 10));
+        adaptiveInterval = config.getLong("adaptiveInterval", 5000);
+        if (minThreads < 1 || minThreads > numThreads) {
+            throw new ConfigurationException("minThreads must be between 1 and " + numThreads);
+        }
     }
 
     /**
@@ -119,6 +151,20 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
             logger.info(infoBuffer);
         }
 
+        if (adaptive) {
+            limiter = new ConcurrencyLimiter(numThreads, minThreads, numThreads);
+            adaptiveService = Executors.newSingleThreadScheduledExecutor();
+            adaptiveService.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    adjustConcurrency();
+                }
+            }, adaptiveInterval, adaptiveInterval, TimeUnit.MILLISECONDS);
+        } else {
+            limiter = new ConcurrencyLimiter(numThreads);
+        }
+
         active.set(true);
         workerService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "spooler", numThreads);
         dequeueService = JMXEnabledThreadPoolExecutor.newFixedThreadPool("org.apache.james:type=component,component=mailetcontainer,name=mailspooler,sub-type=threadpool", "dequeuer", numDequeueThreads);
@@ -144,12 +190,36 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
         while (active.get()) {
 
             final MailQueueItem queueItem;
+            try {
+                // only take a mail if a worker is free to process it
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
             try {
                 queueItem = queue.deQueue();
+            } catch (MailQueueException e1) {
+                limiter.release();
+                if (active.get() && logger.isErrorEnabled()) {
+                    logger.error("Exception dequeue mail", e1);
+
+                }
+                continue;
+            } catch (RuntimeException e1) {
+                limiter.release();
+                if (active.get() && logger.isErrorEnabled()) {
+                    logger.error("Exception dequeue mail", e1);
+
+                }
+                continue;
+            }
+            try {
                 workerService.execute(new Runnable() {
 
                     @Override
                     public void run() {
+                        long start = System.nanoTime();
                         try {
                             numActive.incrementAndGet();
 
@@ -183,14 +253,24 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
                         } finally {
                             processingActive.decrementAndGet();
                             numActive.decrementAndGet();
+                            limiter.release(System.nanoTime() - start);
                         }
 
                     }
                 });
-            } catch (MailQueueException e1) {
+            } catch (RejectedExecutionException e1) {
+                limiter.release();
                 if (active.get() && logger.isErrorEnabled()) {
-                    logger.error("Exception dequeue mail", e1);
-
+                    logger.error("Unable to process dequeued mail", e1);
+                }
+                // hand the mail back to the queue instead of leaving it
+                // unacknowledged
+                try {
+                    queueItem.done(false);
+                } catch (MailQueueException e2) {
+                    if (logger.isErrorEnabled()) {
+                        logger.error("Unable to requeue mail", e2);
+                    }
                 }
             }
         }
@@ -214,6 +294,9 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
     public void dispose() {
         logger.info(getClass().getName() + " dispose...");
         active.set(false); // shutdown the threads
+        if (adaptiveService != null) {
+            adaptiveService.shutdownNow();
+        }
         dequeueService.shutdownNow();
         workerService.shutdown();
 
@@ -242,4 +325,54 @@ public class JamesMailSpooler implements Runnable, Disposable, Configurable, Log
     public int getCurrentSpoolCount() {
         return processingActive.get();
     }
+
+    @Override
+    public int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return limiter.getInFlight();
+    }
+
+    @Override
+    public long getSaturationCount() {
+        return limiter.getSaturationCount();
+    }
+
+    @Override
+    public long getSaturationTime() {
+        return limiter.getSaturationTime();
+    }
+
+    @Override
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    @Override
+    public void resetStatistics() {
+        limiter.resetStatistics();
+    }
+
+    /**
+     * Adjust the concurrency to the latency observed since the last call and
+     * the count of waiting mails, if the queue can tell it
+     */
+    private void adjustConcurrency() {
+        long waiting = -1;
+        if (queue instanceof ManageableMailQueue) {
+            try {
+                waiting = ((ManageableMailQueue) queue).getSize();
+            } catch (MailQueueException e) {
+                logger.debug("Unable to get the size of the spool", e);
+            }
+        }
+        int old = limiter.getLimit();
+        limiter.adjust(waiting);
+        if (logger.isDebugEnabled() && old != limiter.getLimit()) {
+            logger.debug("Changed spool concurrency from " + old + " to " + limiter.getLimit());
+        }
+    }
 }
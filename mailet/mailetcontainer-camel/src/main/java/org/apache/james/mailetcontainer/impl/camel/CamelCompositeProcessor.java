@@ -25,11 +25,14 @@ import javax.inject.Named;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.CamelContextAware;
+import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.mailetcontainer.api.MailProcessor;
 import org.apache.james.mailetcontainer.api.MailetLoader;
 import org.apache.james.mailetcontainer.api.MatcherLoader;
+import org.apache.james.mailetcontainer.impl.compiled.CompiledMailetProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateCompositeProcessor;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailetContext;
 
@@ -39,9 +42,20 @@ import org.apache.mailet.MailetContext;
  * 
  * It also offer the {@link AbstractStateCompositeProcessor} implementation
  * which allow to inject {@link Mail} into the routes.
+ * 
+ * The <code>engine</code> attribute of the processors, or of a single
+ * processor, selects how the mails are routed through the mailets. The default
+ * <code>camel</code> uses a {@link CamelMailetProcessor}, <code>compiled</code>
+ * uses a {@link CompiledMailetProcessor}.
  */
 public class CamelCompositeProcessor extends AbstractStateCompositeProcessor implements CamelContextAware {
 
+    /** Engine which routes the mails with a Camel route */
+    public final static String ENGINE_CAMEL = "camel";
+
+    /** Engine which routes the mails in a plain loop */
+    public final static String ENGINE_COMPILED = "compiled";
+
     private CamelContext camelContext;
     private MailetContext mailetContext;
     private MatcherLoader matcherLoader;
@@ -93,10 +107,19 @@ public class CamelCompositeProcessor extends AbstractStateCompositeProcessor imp
      * #createMailProcessor(java.lang.String, org.apache.commons.configuration.HierarchicalConfiguration)
      */
     protected MailProcessor createMailProcessor(String name, HierarchicalConfiguration config) throws Exception {
-        CamelMailetProcessor processor = new CamelMailetProcessor();
+        String engine = config.getString("[@engine]", this.config.getString("[@engine]", ENGINE_CAMEL));
+        AbstractStateMailetProcessor processor;
+        if (ENGINE_COMPILED.equals(engine)) {
+            processor = new CompiledMailetProcessor();
+        } else if (ENGINE_CAMEL.equals(engine)) {
+            CamelMailetProcessor camelProcessor = new CamelMailetProcessor();
+            camelProcessor.setCamelContext(camelContext);
+            processor = camelProcessor;
+        } else {
+            throw new ConfigurationException("Unknown engine " + engine + " for processor " + name);
+        }
         try {
             processor.setLog(logger);
-            processor.setCamelContext(camelContext);
             processor.setMailetContext(mailetContext);
             processor.setMailetLoader(mailetLoader);
             processor.setMatcherLoader(matcherLoader);
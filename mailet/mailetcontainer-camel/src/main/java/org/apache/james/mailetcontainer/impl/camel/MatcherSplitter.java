@@ -21,7 +21,9 @@ package org.apache.james.mailetcontainer.impl.camel;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.Locale;
 
 import javax.mail.MessagingException;
@@ -32,6 +34,7 @@ import org.apache.camel.InOnly;
 import org.apache.camel.Property;
 import org.apache.james.core.MailImpl;
 import org.apache.james.mailetcontainer.impl.ProcessorUtil;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
 import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
@@ -71,10 +74,12 @@ public class MatcherSplitter {
      */
     @SuppressWarnings("unchecked")
     @Handler
-    public List<Mail> split(@Property(MATCHER_PROPERTY) Matcher matcher, @Property(ON_MATCH_EXCEPTION_PROPERTY) String onMatchException, @Property(LOGGER_PROPERTY) Logger logger, @Property(MAILETCONTAINER_PROPERTY) CamelMailetProcessor container, @Body Mail mail) throws MessagingException {
+    public List<Mail> split(@Property(MATCHER_PROPERTY) Matcher matcher, @Property(ON_MATCH_EXCEPTION_PROPERTY) String onMatchException, @Property(LOGGER_PROPERTY) Logger logger, @Property(MAILETCONTAINER_PROPERTY) AbstractStateMailetProcessor container, @Body Mail mail) throws MessagingException {
         Collection<MailAddress> matchedRcpts = null;
-        Collection<MailAddress> origRcpts = new ArrayList<MailAddress>(mail.getRecipients());
-        long start = System.currentTimeMillis();
+        List<MailetProcessorListener> listeners = container.getListeners();
+        // only copy the recipients if someone is interested in them
+        Collection<MailAddress> origRcpts = listeners.isEmpty() ? null : new ArrayList<MailAddress>(mail.getRecipients());
+        long start = System.nanoTime();
         MessagingException ex = null;
 
         try {
@@ -115,12 +120,18 @@ public class MatcherSplitter {
 
             // check if the matcher matched
             if (matchedRcpts != null && !matchedRcpts.isEmpty()) {
-                List<MailAddress> rcpts = new ArrayList<MailAddress>(mail.getRecipients());
-
-                for (MailAddress matchedRcpt : matchedRcpts) {
-                    // loop through the recipients and remove the recipients
-                    // that matched
-                    rcpts.remove(matchedRcpt);
+                Collection<MailAddress> allRcpts = mail.getRecipients();
+                List<MailAddress> rcpts = new ArrayList<MailAddress>(allRcpts.size());
+
+                if (matchedRcpts != allRcpts) {
+                    // keep the recipients that did not match. Use a set so
+                    // this is linear in the number of recipients
+                    Set<MailAddress> matchedSet = matchedRcpts instanceof Set ? (Set<MailAddress>) matchedRcpts : new HashSet<MailAddress>(matchedRcpts);
+                    for (MailAddress rcpt : allRcpts) {
+                        if (!matchedSet.contains(rcpt)) {
+                            rcpts.add(rcpt);
+                        }
+                    }
                 }
 
                 if (rcpts.isEmpty()) {
@@ -129,6 +140,8 @@ public class MatcherSplitter {
                 } else {
                     mail.setRecipients(rcpts);
 
+                    // the attributes of the new mail are only cloned once
+                    // they are accessed
                     Mail newMail = new MailImpl(mail);
                     newMail.setRecipients(matchedRcpts);
 
@@ -153,14 +166,15 @@ public class MatcherSplitter {
             return mails;
         } finally {
 
-            long complete = System.currentTimeMillis() - start;
-            List<MailetProcessorListener> listeners = container.getListeners();
-            for (MailetProcessorListener listener : listeners) {
-                // need to check if its null or empty!
-                if (matchedRcpts == null || matchedRcpts.isEmpty()) {
-                    listener.afterMatcher(matcher, mail.getName(), origRcpts, null, complete, ex);
-                } else {
-                    listener.afterMatcher(matcher, mail.getName(), origRcpts, matchedRcpts, complete, ex);
+            double complete = (System.nanoTime() - start) / 1000000d;
+            if (origRcpts != null) {
+                for (MailetProcessorListener listener : listeners) {
+                    // need to check if its null or empty!
+                    if (matchedRcpts == null || matchedRcpts.isEmpty()) {
+                        listener.afterMatcher(matcher, mail.getName(), origRcpts, null, complete, ex);
+                    } else {
+                        listener.afterMatcher(matcher, mail.getName(), origRcpts, matchedRcpts, complete, ex);
+                    }
                 }
             }
         }
@@ -0,0 +1,173 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.compiled;
+
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.mailetcontainer.impl.MailetConfigImpl;
+import org.apache.james.mailetcontainer.impl.MatcherMailetPair;
+import org.apache.james.mailetcontainer.impl.camel.CamelProcessor;
+import org.apache.james.mailetcontainer.impl.camel.MatcherSplitter;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
+import org.apache.mailet.Mail;
+import org.apache.mailet.Mailet;
+import org.apache.mailet.MailetConfig;
+import org.apache.mailet.Matcher;
+
+/**
+ * {@link AbstractStateMailetProcessor} implementation which compiles the
+ * {@link Matcher} / {@link Mailet} pairs into arrays and routes the mails
+ * through them in a plain loop, without the overhead of a Camel route.
+ * 
+ * The routing is the same as the one of
+ * {@link org.apache.james.mailetcontainer.impl.camel.CamelMailetProcessor}:
+ * <ul>
+ * <li>the mail is split by the {@link MatcherSplitter} of each pair. The part
+ * which matched is processed by the rest of the processor first</li>
+ * <li>a mail in state {@link Mail#GHOST} is disposed</li>
+ * <li>a mail which changed its state is handed over to the processor of the
+ * new state</li>
+ * <li>a mail which reaches the end of the processor is passed to the
+ * {@link AbstractStateMailetProcessor.TerminatingMailet}</li>
+ * </ul>
+ */
+public class CompiledMailetProcessor extends AbstractStateMailetProcessor {
+
+    private final MatcherSplitter splitter = new MatcherSplitter();
+
+    private Matcher[] matchers;
+
+    private CamelProcessor[] mailets;
+
+    private String[] onMatchExceptions;
+
+    private CamelProcessor terminatingMailet;
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.api.MailProcessor#service(org.apache.mailet.Mail)
+     */
+    public void service(Mail mail) throws MessagingException {
+        try {
+            process(mail, 0);
+        } catch (RuntimeException e) {
+            throw new MessagingException("Unable to process mail " + mail.getName(), e);
+        }
+    }
+
+    /**
+     * Route the mail through the pairs, starting with the pair of the given
+     * index
+     * 
+     * @param mail
+     * @param index
+     * @throws MessagingException
+     */
+    private void process(Mail mail, int index) throws MessagingException {
+        for (int i = index; i < matchers.length; i++) {
+            List<Mail> mails = splitter.split(matchers[i], onMatchExceptions[i], getLogger(), this, mail);
+
+            // the mails which were split off are processed first. The last
+            // one is always the mail we were called with
+            int last = mails.size() - 1;
+            for (int j = 0; j < last; j++) {
+                Mail newMail = mails.get(j);
+                if (service(newMail, i)) {
+                    process(newMail, i + 1);
+                }
+            }
+            if (!service(mail, i)) {
+                return;
+            }
+        }
+
+        String state = getState();
+        if (state.equals(mail.getState())) {
+            // the mail state did not change till the end of the processor,
+            // so call the TerminatingMailet to make sure we don't fall into
+            // an endless loop
+            terminatingMailet.process(mail);
+        } else if (Mail.GHOST.equals(mail.getState())) {
+            dispose(mail);
+        } else {
+            getLogger().debug("End of mailetprocessor for state " + state + " reached");
+        }
+    }
+
+    /**
+     * Call the mailet of the pair with the given index if its matcher matched
+     * the mail.
+     * 
+     * @param mail
+     * @param index
+     * @return <code>true</code> if the mail needs to be processed by the next
+     *         pair
+     * @throws MessagingException
+     */
+    private boolean service(Mail mail, int index) throws MessagingException {
+        if (mail.removeAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE) != null) {
+            mailets[index].process(mail);
+        }
+
+        String mailState = mail.getState();
+        if (Mail.GHOST.equals(mailState)) {
+            dispose(mail);
+            return false;
+        }
+        if (!getState().equals(mailState)) {
+            toProcessor(mail);
+            getLogger().debug("End of mailetprocessor for state " + getState() + " reached");
+            return false;
+        }
+        return true;
+    }
+
+    private void dispose(Mail mail) throws MessagingException {
+        LifecycleUtil.dispose(mail.getMessage());
+        LifecycleUtil.dispose(mail);
+    }
+
+    /**
+     * @see
+     * org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor#setupRouting
+     * (java.util.List)
+     */
+    protected void setupRouting(List<MatcherMailetPair> pairs) throws MessagingException {
+        matchers = new Matcher[pairs.size()];
+        mailets = new CamelProcessor[pairs.size()];
+        onMatchExceptions = new String[pairs.size()];
+
+        for (int i = 0; i < pairs.size(); i++) {
+            MatcherMailetPair pair = pairs.get(i);
+            Mailet mailet = pair.getMailet();
+            matchers[i] = pair.getMatcher();
+            mailets[i] = new CamelProcessor(mailet, getLogger(), this);
+
+            MailetConfig mailetConfig = mailet.getMailetConfig();
+            if (mailetConfig instanceof MailetConfigImpl) {
+                onMatchExceptions[i] = ((MailetConfigImpl) mailetConfig).getInitAttribute("onMatchException");
+            }
+        }
+        terminatingMailet = new CamelProcessor(new TerminatingMailet(), getLogger(), this);
+    }
+}
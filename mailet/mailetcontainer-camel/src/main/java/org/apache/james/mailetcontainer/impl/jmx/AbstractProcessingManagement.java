@@ -0,0 +1,184 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotCompliantMBeanException;
+import javax.management.StandardMBean;
+
+import org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean;
+
+/**
+ * Base class for the MBeans of the mail processing components, which keeps the
+ * counters, processing times and {@link ProcessingStatistics} they all share
+ */
+public abstract class AbstractProcessingManagement extends StandardMBean implements MailProcessorManagementMBean {
+
+    private final AtomicLong errorCount = new AtomicLong(0);
+    private final AtomicLong successCount = new AtomicLong(0);
+    private final AtomicLong fastestProcessing = new AtomicLong(-1);
+    private final AtomicLong slowestProcessing = new AtomicLong(-1);
+    private final AtomicLong lastProcessing = new AtomicLong(-1);
+    private final ProcessingStatistics statistics = new ProcessingStatistics();
+
+    protected AbstractProcessingManagement(Class<? extends MailProcessorManagementMBean> mbeanInterface) throws NotCompliantMBeanException {
+        super(mbeanInterface);
+    }
+
+    /**
+     * Update the stats
+     * 
+     * @param processTime
+     *            in ms
+     * @param success
+     */
+    public void update(double processTime, boolean success) {
+        long time = (long) processTime;
+        long fastest = fastestProcessing.get();
+
+        if (fastest > time || fastest == -1) {
+            fastestProcessing.set(time);
+        }
+
+        if (slowestProcessing.get() < time) {
+            slowestProcessing.set(time);
+        }
+        if (success) {
+            successCount.incrementAndGet();
+        } else {
+            errorCount.incrementAndGet();
+        }
+
+        lastProcessing.set(time);
+        statistics.update(processTime);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getHandledMailCount()
+     */
+    public long getHandledMailCount() {
+        return getSuccessCount() + getErrorCount();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getFastestProcessing()
+     */
+    public long getFastestProcessing() {
+        return fastestProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSlowestProcessing()
+     */
+    public long getSlowestProcessing() {
+        return slowestProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getErrorCount()
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSuccessCount()
+     */
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getLastProcessing()
+     */
+    public long getLastProcessing() {
+        return lastProcessing.get();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getMeanProcessing()
+     */
+    public double getMeanProcessing() {
+        return statistics.getMeanProcessing();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getMedianProcessing()
+     */
+    public double getMedianProcessing() {
+        return statistics.getProcessingPercentile(50);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getProcessing90thPercentile()
+     */
+    public double getProcessing90thPercentile() {
+        return statistics.getProcessingPercentile(90);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getProcessing99thPercentile()
+     */
+    public double getProcessing99thPercentile() {
+        return statistics.getProcessingPercentile(99);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getProcessing999thPercentile()
+     */
+    public double getProcessing999thPercentile() {
+        return statistics.getProcessingPercentile(99.9);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getProcessingPercentile(double)
+     */
+    public double getProcessingPercentile(double percentile) {
+        return statistics.getProcessingPercentile(percentile);
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getOneMinuteRate()
+     */
+    public double getOneMinuteRate() {
+        return statistics.getOneMinuteRate();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getTenSecondRate()
+     */
+    public double getTenSecondRate() {
+        return statistics.getTenSecondRate();
+    }
+
+    /**
+     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#resetStatistics()
+     */
+    public void resetStatistics() {
+        errorCount.set(0);
+        successCount.set(0);
+        fastestProcessing.set(-1);
+        slowestProcessing.set(-1);
+        lastProcessing.set(-1);
+        statistics.reset();
+    }
+
+}
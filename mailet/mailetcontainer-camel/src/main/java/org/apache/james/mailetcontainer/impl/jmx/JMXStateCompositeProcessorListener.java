@@ -114,9 +114,9 @@ public class JMXStateCompositeProcessorListener implements CompositeProcessorLis
      * @see
      * org.apache.james.mailetcontainer.lib.AbstractStateCompositeProcessor.CompositeProcessorListener
      * #afterProcessor(org.apache.james.mailetcontainer.api.MailProcessor, java.lang.String,
-     * long, javax.mail.MessagingException)
+     * double, javax.mail.MessagingException)
      */
-    public void afterProcessor(MailProcessor processor, String mailName, long processTime, MessagingException e) {
+    public void afterProcessor(MailProcessor processor, String mailName, double processTime, MessagingException e) {
         MailProcessorManagement m = mMap.get(processor);
         if (m != null) {
             m.update(processTime, e == null);
@@ -65,10 +65,10 @@ public class JMXStateMailetProcessorListener implements MailetProcessorListener,
     /**
      * @see
      * org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener
-     * #afterMailet(org.apache.mailet.Mailet, java.lang.String, java.lang.String, long,
+     * #afterMailet(org.apache.mailet.Mailet, java.lang.String, java.lang.String, double,
      * javax.mail.MessagingException)
      */
-    public void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e) {
+    public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
         MailetManagement mgmt = mailetMap.get(m);
         if (mgmt != null) {
             mgmt.update(processTime, e == null);
@@ -79,9 +79,9 @@ public class JMXStateMailetProcessorListener implements MailetProcessorListener,
      * @see
      * org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener
      * #afterMatcher(org.apache.mailet.Matcher, java.lang.String, java.util.Collection,
-     * java.util.Collection, long, javax.mail.MessagingException)
+     * java.util.Collection, double, javax.mail.MessagingException)
      */
-    public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> rcpts, Collection<MailAddress> matches, long processTime, MessagingException e) {
+    public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> rcpts, Collection<MailAddress> matches, double processTime, MessagingException e) {
         MatcherManagement mgmt = matcherMap.get(m);
 
         if (mgmt != null) {
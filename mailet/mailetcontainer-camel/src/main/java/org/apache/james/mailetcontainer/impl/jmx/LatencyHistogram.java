@@ -0,0 +1,168 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of processing times which uses a fixed amount of memory and can be
+ * updated concurrently without locking or allocating.
+ * 
+ * Like a HDR histogram it uses buckets with exponentially growing ranges,
+ * which are split in {@link #SUB_BUCKETS} linear sub-buckets. Values below
+ * {@link #SUB_BUCKETS} are recorded exactly, bigger ones with a relative error
+ * of less than 1 / {@link #SUB_BUCKETS}.
+ */
+public class LatencyHistogram {
+
+    /** Values below this are tracked exactly */
+    private final static int LINEAR_BITS = 5;
+    private final static int LINEAR_BUCKETS = 1 << LINEAR_BITS;
+
+    /** Count of sub-buckets per power of two above {@link #LINEAR_BUCKETS} */
+    private final static int SUB_BUCKETS = LINEAR_BUCKETS / 2;
+
+    /** Values above this are recorded as this value */
+    public final static long HIGHEST_TRACKABLE_VALUE = (1L << 32) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexFor(HIGHEST_TRACKABLE_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalValue = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Record the given value
+     * 
+     * @param value
+     *            must not be negative
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        } else if (value > HIGHEST_TRACKABLE_VALUE) {
+            value = HIGHEST_TRACKABLE_VALUE;
+        }
+        counts.incrementAndGet(indexFor(value));
+        totalCount.incrementAndGet();
+        totalValue.addAndGet(value);
+
+        long max = maxValue.get();
+        while (value > max && !maxValue.compareAndSet(max, value)) {
+            max = maxValue.get();
+        }
+    }
+
+    /**
+     * Return the count of recorded values
+     * 
+     * @return count
+     */
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Return the mean of the recorded values, or 0 if no value was recorded
+     * 
+     * @return mean
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalValue.get() / count;
+    }
+
+    /**
+     * Return the highest recorded value
+     * 
+     * @return max
+     */
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Return the value below which the given percentage of the recorded values
+     * fall. The result is the highest value of the bucket which holds the
+     * percentile, so it is never lower than the exact percentile.
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return value, or 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        int length = counts.length();
+        long total = 0;
+        for (int i = 0; i < length; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        double p = Math.min(Math.max(percentile, 0), 100);
+        long target = Math.max(1, (long) Math.ceil(p / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < length; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueFor(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    /**
+     * Drop all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalValue.set(0);
+        maxValue.set(0);
+    }
+
+    /**
+     * Return the index of the bucket for the given value
+     */
+    static int indexFor(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Return the highest value which is recorded in the bucket with the given
+     * index
+     */
+    static long highestValueFor(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long subBucket = SUB_BUCKETS + (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
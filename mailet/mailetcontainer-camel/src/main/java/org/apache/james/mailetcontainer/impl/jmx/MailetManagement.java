@@ -21,21 +21,13 @@ package org.apache.james.mailetcontainer.impl.jmx;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.NotCompliantMBeanException;
-import javax.management.StandardMBean;
 
 import org.apache.james.mailetcontainer.api.jmx.MailetManagementMBean;
 import org.apache.mailet.MailetConfig;
 
-public final class MailetManagement extends StandardMBean implements MailetManagementMBean {
-
-    private final AtomicLong errorCount = new AtomicLong(0);
-    private final AtomicLong successCount = new AtomicLong(0);
-    private final AtomicLong fastestProcessing = new AtomicLong(-1);
-    private final AtomicLong slowestProcessing = new AtomicLong(-1);
-    private final AtomicLong lastProcessing = new AtomicLong(-1);
+public final class MailetManagement extends AbstractProcessingManagement implements MailetManagementMBean {
 
     private final MailetConfig config;
 
@@ -45,24 +37,6 @@ public final class MailetManagement extends StandardMBean implements MailetManag
 
     }
 
-    public void update(long processTime, boolean success) {
-        long fastest = fastestProcessing.get();
-
-        if (fastest > processTime || fastest == -1) {
-            fastestProcessing.set(processTime);
-        }
-
-        if (slowestProcessing.get() < processTime) {
-            slowestProcessing.set(processTime);
-        }
-        if (success) {
-            successCount.incrementAndGet();
-        } else {
-            errorCount.incrementAndGet();
-        }
-        lastProcessing.set(processTime);
-    }
-
     /**
      * @see
      * org.apache.james.mailetcontainer.api.jmx.MailetManagementMBean#getMailetName()
@@ -87,48 +61,4 @@ public final class MailetManagement extends StandardMBean implements MailetManag
         return result;
     }
 
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getErrorCount()
-     */
-    public long getErrorCount() {
-        return errorCount.get();
-    }
-
-    /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getFastestProcessing()
-     */
-    public long getFastestProcessing() {
-        return fastestProcessing.get();
-    }
-
-    /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getHandledMailCount()
-     */
-    public long getHandledMailCount() {
-        return getErrorCount() + getSuccessCount();
-    }
-
-    /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSlowestProcessing()
-     */
-    public long getSlowestProcessing() {
-        return slowestProcessing.get();
-    }
-
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSuccessCount()
-     */
-    public long getSuccessCount() {
-        return successCount.get();
-    }
-
-    /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getLastProcessing()
-     */
-    public long getLastProcessing() {
-        return lastProcessing.get();
-    }
-
 }
@@ -21,20 +21,14 @@ package org.apache.james.mailetcontainer.impl.jmx;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.management.NotCompliantMBeanException;
-import javax.management.StandardMBean;
 
 import org.apache.james.mailetcontainer.api.jmx.MatcherManagementMBean;
 import org.apache.mailet.MatcherConfig;
 
-public final class MatcherManagement extends StandardMBean implements MatcherManagementMBean {
+public final class MatcherManagement extends AbstractProcessingManagement implements MatcherManagementMBean {
     private MatcherConfig matcherConfig;
-    private final AtomicLong errorCount = new AtomicLong(0);
-    private final AtomicLong successCount = new AtomicLong(0);
-    private final AtomicLong fastestProcessing = new AtomicLong(-1);
-    private final AtomicLong slowestProcessing = new AtomicLong(-1);
     private final AtomicLong matchedCount = new AtomicLong(0);
     private final AtomicLong notMatchedCount = new AtomicLong(0);
-    private final AtomicLong lastProcessing = new AtomicLong(-1);
 
     public MatcherManagement(MatcherConfig matcherConfig) throws NotCompliantMBeanException {
         super(MatcherManagementMBean.class);
@@ -42,29 +36,13 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
 
     }
 
-    public void update(long processTime, boolean success, boolean matched) {
-        long fastest = fastestProcessing.get();
-
-        if (fastest > processTime || fastest == -1) {
-            fastestProcessing.set(processTime);
-        }
-
-        if (slowestProcessing.get() < processTime) {
-            slowestProcessing.set(processTime);
-        }
-        if (success) {
-            successCount.incrementAndGet();
-        } else {
-            errorCount.incrementAndGet();
-        }
+    public void update(double processTime, boolean success, boolean matched) {
+        update(processTime, success);
         if (matched) {
             matchedCount.incrementAndGet();
         } else {
             notMatchedCount.incrementAndGet();
         }
-
-        lastProcessing.set(processTime);
-
     }
 
     /**
@@ -83,46 +61,6 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
         return matcherConfig.getCondition();
     }
 
-    /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getErrorCount()
-     */
-    public long getErrorCount() {
-        return errorCount.get();
-    }
-
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getFastestProcessing()
-     */
-    public long getFastestProcessing() {
-        return fastestProcessing.get();
-    }
-
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getHandledMailCount()
-     */
-    public long getHandledMailCount() {
-        return getSuccessCount() + getErrorCount();
-
-    }
-
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSlowestProcessing()
-     */
-    public long getSlowestProcessing() {
-        return slowestProcessing.get();
-    }
-
-    /**
-     * @see
-     * org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getSuccessCount()
-     */
-    public long getSuccessCount() {
-        return successCount.get();
-    }
-
     /**
      * @see org.apache.james.mailetcontainer.api.jmx.MatcherManagementMBean#getMatchedCount()
      */
@@ -138,9 +76,12 @@ public final class MatcherManagement extends StandardMBean implements MatcherMan
     }
 
     /**
-     * @see org.apache.james.mailetcontainer.api.jmx.MailProcessorManagementMBean#getLastProcessing()
+     * @see org.apache.james.mailetcontainer.impl.jmx.AbstractProcessingManagement#resetStatistics()
      */
-    public long getLastProcessing() {
-        return lastProcessing.get();
+    public void resetStatistics() {
+        super.resetStatistics();
+        matchedCount.set(0);
+        notMatchedCount.set(0);
     }
+
 }
@@ -0,0 +1,130 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events per second over a moving window of a fixed count of seconds.
+ * It can be updated concurrently without locking or allocating.
+ * 
+ * Each slot of the ring holds the second it belongs to in the upper bits and
+ * the count of events in that second in the lower {@link #COUNT_BITS} bits, so
+ * a slot can be moved to a new second and incremented with a single
+ * compare-and-set.
+ */
+public class MovingWindowRate {
+
+    private final static int COUNT_BITS = 24;
+    private final static long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final AtomicLongArray slots;
+
+    /**
+     * @param seconds
+     *            the longest window over which rates can be calculated
+     */
+    public MovingWindowRate(int seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException("seconds must be at least 1");
+        }
+        // one more slot for the current second, which is not complete yet
+        slots = new AtomicLongArray(seconds + 1);
+    }
+
+    /**
+     * Count one event at the current time
+     */
+    public void mark() {
+        mark(System.currentTimeMillis());
+    }
+
+    /**
+     * Count one event at the given time
+     * 
+     * @param now
+     *            in ms
+     */
+    public void mark(long now) {
+        long second = now / 1000;
+        int index = (int) (second % slots.length());
+        while (true) {
+            long slot = slots.get(index);
+            long updated;
+            if (slot >>> COUNT_BITS == second) {
+                if ((slot & COUNT_MASK) == COUNT_MASK) {
+                    // saturated
+                    return;
+                }
+                updated = slot + 1;
+            } else {
+                updated = (second << COUNT_BITS) | 1;
+            }
+            if (slots.compareAndSet(index, slot, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Return the average count of events per second over the given count of
+     * complete seconds before now
+     * 
+     * @param seconds
+     *            at most the count of seconds this was created with
+     * @return rate
+     */
+    public double getRate(int seconds) {
+        return getRate(seconds, System.currentTimeMillis());
+    }
+
+    /**
+     * Return the average count of events per second over the given count of
+     * complete seconds before the given time
+     * 
+     * @param seconds
+     *            at most the count of seconds this was created with
+     * @param now
+     *            in ms
+     * @return rate
+     */
+    public double getRate(int seconds, long now) {
+        int window = Math.min(Math.max(seconds, 1), slots.length() - 1);
+        long current = now / 1000;
+        long count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            long slot = slots.get(i);
+            long second = slot >>> COUNT_BITS;
+            if (second < current && second >= current - window) {
+                count += slot & COUNT_MASK;
+            }
+        }
+        return (double) count / window;
+    }
+
+    /**
+     * Drop all counted events
+     */
+    public void reset() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, 0);
+        }
+    }
+}
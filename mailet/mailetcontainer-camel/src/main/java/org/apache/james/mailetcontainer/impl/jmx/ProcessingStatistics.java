@@ -0,0 +1,83 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+/**
+ * Latency histogram and throughput rates of one mail processing component,
+ * which back the percentile and rate attributes of its MBean.
+ * 
+ * The processing times are recorded in microseconds, so the percentiles of components
+ * which take less than a millisecond do not all read 0.
+ */
+public class ProcessingStatistics {
+
+    /** The longest window for which rates are kept, in seconds */
+    private final static int RATE_WINDOW = 60;
+
+    private final static double MICROS_PER_MILLI = 1000;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final MovingWindowRate rate = new MovingWindowRate(RATE_WINDOW);
+
+    /**
+     * Record one processing
+     * 
+     * @param processTime
+     *            in ms
+     */
+    public void update(double processTime) {
+        latency.record(Math.round(processTime * MICROS_PER_MILLI));
+        rate.mark();
+    }
+
+    /**
+     * Return the mean processing time
+     * 
+     * @return mean in ms
+     */
+    public double getMeanProcessing() {
+        return latency.getMean() / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Return the time within which the given percentage of the processing was
+     * done
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return percentile in ms
+     */
+    public double getProcessingPercentile(double percentile) {
+        return latency.getValueAtPercentile(percentile) / MICROS_PER_MILLI;
+    }
+
+    public double getOneMinuteRate() {
+        return rate.getRate(RATE_WINDOW);
+    }
+
+    public double getTenSecondRate() {
+        return rate.getRate(10);
+    }
+
+    public void reset() {
+        latency.reset();
+        rate.reset();
+    }
+}
@@ -88,7 +88,7 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
      * {@link Mail#getState()}
      */
     public void service(Mail mail) throws MessagingException {
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         MessagingException ex = null;
         MailProcessor processor = getProcessor(mail.getState());
 
@@ -109,7 +109,7 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
                 ex = e;
                 throw e;
             } finally {
-                long end = System.currentTimeMillis() - start;
+                double end = (System.nanoTime() - start) / 1000000d;
                 for (CompositeProcessorListener listener : listeners) {
                     listener.afterProcessor(processor, mail.getName(), end, ex);
                 }
@@ -223,11 +223,11 @@ public abstract class AbstractStateCompositeProcessor implements MailProcessor,
          * @param processor
          * @param mailName
          * @param processTime
-         *            in ms
+         *            in ms, with sub-millisecond precision
          * @param e
          *            or null if no exception was thrown
          */
-        void afterProcessor(MailProcessor processor, String mailName, long processTime, MessagingException e);
+        void afterProcessor(MailProcessor processor, String mailName, double processTime, MessagingException e);
 
     }
 
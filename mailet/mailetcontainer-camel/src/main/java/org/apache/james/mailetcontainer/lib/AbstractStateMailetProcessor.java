@@ -460,11 +460,11 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
          * @param mailName
          * @param state
          * @param processTime
-         *            in ms
+         *            in ms, with sub-millisecond precision
          * @param e
          *            or null if no {@link MessagingException} was thrown
          */
-        void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e);
+        void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e);
 
         /**
          * Get called after each {@link Matcher} call was complete
@@ -474,11 +474,11 @@ public abstract class AbstractStateMailetProcessor implements MailProcessor, Con
          * @param recipients
          * @param matches
          * @param processTime
-         *            in ms
+         *            in ms, with sub-millisecond precision
          * @param e
          *            or null if no {@link MessagingException} was thrown
          */
-        void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients, Collection<MailAddress> matches, long processTime, MessagingException e);
+        void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients, Collection<MailAddress> matches, double processTime, MessagingException e);
 
     }
 
@@ -0,0 +1,102 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.mailetcontainer.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testAcquireBlocksWhenFull() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2);
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire();
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        t.start();
+
+        assertEquals(false, acquired.await(200, TimeUnit.MILLISECONDS));
+        limiter.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getSaturationCount());
+    }
+
+    @Test
+    public void testGrowWhenSaturatedAndMailsWaiting() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 10);
+        limiter.acquire();
+        limiter.acquire();
+
+        limiter.adjust(0);
+        assertEquals(2, limiter.getLimit());
+
+        limiter.adjust(100);
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinkWhenLatencyGrows() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(8, 1, 10);
+        limiter.acquire();
+        limiter.release(1000);
+        limiter.adjust(0);
+        assertEquals(8, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.release(10000);
+        limiter.adjust(100);
+        assertEquals(6, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitStaysInBounds() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 3);
+        limiter.acquire();
+        limiter.acquire();
+        limiter.adjust(100);
+        limiter.adjust(100);
+        assertEquals(3, limiter.getLimit());
+
+        limiter.release(1000);
+        limiter.adjust(0);
+        limiter.release(100000);
+        limiter.adjust(0);
+        assertEquals(2, limiter.getLimit());
+    }
+}
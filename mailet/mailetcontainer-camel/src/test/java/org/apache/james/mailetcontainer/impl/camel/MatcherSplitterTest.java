@@ -0,0 +1,177 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.camel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Matcher;
+import org.apache.mailet.MatcherConfig;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MatcherSplitterTest {
+
+    private final Logger log = LoggerFactory.getLogger(MatcherSplitterTest.class);
+
+    private final MatcherSplitter splitter = new MatcherSplitter();
+
+    private final CamelMailetProcessor container = new CamelMailetProcessor();
+
+    @Test
+    public void testPartialMatch() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "b@localhost", "c@localhost");
+        List<Mail> mails = splitter.split(new FixedMatcher("b@localhost"), null, log, container, mail);
+
+        assertEquals(2, mails.size());
+        assertEquals(addresses("b@localhost"), new ArrayList<Object>(mails.get(0).getRecipients()));
+        assertEquals(true, mails.get(0).getAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE));
+        assertSame(mail, mails.get(1));
+        assertEquals(addresses("a@localhost", "c@localhost"), new ArrayList<Object>(mail.getRecipients()));
+        assertNull(mail.getAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE));
+    }
+
+    @Test
+    public void testDuplicateRecipients() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "b@localhost", "a@localhost", "c@localhost");
+        List<Mail> mails = splitter.split(new FixedMatcher("a@localhost"), null, log, container, mail);
+
+        // every copy of a matched recipient leaves the original mail
+        assertEquals(2, mails.size());
+        assertEquals(addresses("a@localhost"), new ArrayList<Object>(mails.get(0).getRecipients()));
+        assertEquals(addresses("b@localhost", "c@localhost"), new ArrayList<Object>(mails.get(1).getRecipients()));
+    }
+
+    @Test
+    public void testDuplicateMatchedRecipients() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "b@localhost");
+        List<Mail> mails = splitter.split(new FixedMatcher("a@localhost", "a@localhost"), null, log, container, mail);
+
+        assertEquals(2, mails.size());
+        assertEquals(addresses("a@localhost", "a@localhost"), new ArrayList<Object>(mails.get(0).getRecipients()));
+        assertEquals(addresses("b@localhost"), new ArrayList<Object>(mails.get(1).getRecipients()));
+    }
+
+    @Test
+    public void testFullMatchWithDuplicateRecipients() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "a@localhost");
+        List<Mail> mails = splitter.split(new FixedMatcher("a@localhost"), null, log, container, mail);
+
+        // the mail is not split, so it keeps all its recipients
+        assertEquals(1, mails.size());
+        assertSame(mail, mails.get(0));
+        assertEquals(addresses("a@localhost", "a@localhost"), new ArrayList<Object>(mail.getRecipients()));
+        assertEquals(true, mail.getAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE));
+    }
+
+    @Test
+    public void testNoMatch() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "b@localhost");
+        List<Mail> mails = splitter.split(new FixedMatcher(), null, log, container, mail);
+
+        assertEquals(1, mails.size());
+        assertSame(mail, mails.get(0));
+        assertEquals(addresses("a@localhost", "b@localhost"), new ArrayList<Object>(mail.getRecipients()));
+        assertNull(mail.getAttribute(MatcherSplitter.MATCHER_MATCHED_ATTRIBUTE));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSplitMailAttributesAreIsolated() throws MessagingException {
+        MailImpl mail = createMail("a@localhost", "b@localhost");
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("value");
+        mail.setAttribute("list", list);
+
+        List<Mail> mails = splitter.split(new FixedMatcher("a@localhost"), null, log, container, mail);
+        Mail split = mails.get(0);
+        ((List<String>) split.getAttribute("list")).add("split");
+
+        assertEquals(Arrays.asList("value"), mail.getAttribute("list"));
+        assertEquals(Arrays.asList("value", "split"), split.getAttribute("list"));
+        assertTrue(((List<String>) mail.getAttribute("list")).add("original"));
+        assertEquals(Arrays.asList("value", "split"), split.getAttribute("list"));
+    }
+
+    private MailImpl createMail(String... recipients) throws MessagingException {
+        return new MailImpl(MailImpl.getId(), new MailAddress("sender@localhost"), addresses(recipients));
+    }
+
+    private static List<Object> addresses(String... addresses) throws MessagingException {
+        List<Object> list = new ArrayList<Object>();
+        for (String address : addresses) {
+            list.add(new MailAddress(address));
+        }
+        return list;
+    }
+
+    /**
+     * Returns the configured recipients as they are, so duplicates are passed
+     * to the splitter
+     */
+    private final static class FixedMatcher implements Matcher {
+
+        private final String[] recipients;
+
+        private FixedMatcher(String... recipients) {
+            this.recipients = recipients;
+        }
+
+        @Override
+        public void init(MatcherConfig config) throws MessagingException {
+        }
+
+        @Override
+        public Collection<MailAddress> match(Mail mail) throws MessagingException {
+            List<MailAddress> matched = new ArrayList<MailAddress>();
+            for (String rcpt : recipients) {
+                matched.add(new MailAddress(rcpt));
+            }
+            return matched;
+        }
+
+        @Override
+        public MatcherConfig getMatcherConfig() {
+            return null;
+        }
+
+        @Override
+        public String getMatcherInfo() {
+            return getClass().getName();
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.camel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.apache.james.core.MailImpl;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Matcher;
+import org.apache.mailet.MatcherConfig;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple benchmark which passes a mail with {@link #RECIPIENTS} recipients
+ * through {@link #MATCHERS} matchers. Each matcher matches a different part of
+ * the recipients, so every matcher splits the mail. The results are only
+ * logged, the test fails if recipients get lost. It takes a while, so it is
+ * not part of the default build and needs to be run manually.
+ */
+public class MatcherSplitterThroughputTest {
+
+    private final static int RECIPIENTS = 500;
+    private final static int MATCHERS = 40;
+    private final static int RUNS = 200;
+
+    private final Logger log = LoggerFactory.getLogger(MatcherSplitterThroughputTest.class);
+
+    @Test
+    @Ignore(value = "Benchmark, run it manually")
+    public void testThroughput() throws Exception {
+        MatcherSplitter splitter = new MatcherSplitter();
+        CamelMailetProcessor container = new CamelMailetProcessor();
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            recipients.add(new MailAddress("rcpt" + i + "@localhost"));
+        }
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        for (int i = 0; i < MATCHERS; i++) {
+            matchers.add(new ModuloMatcher(i));
+        }
+
+        // warm up
+        for (int i = 0; i < RUNS; i++) {
+            run(splitter, container, matchers, recipients);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            run(splitter, container, matchers, recipients);
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("Passed " + RUNS + " mails with " + RECIPIENTS + " recipients through " + MATCHERS + " matchers: " + (elapsed / RUNS / 1000)
+                + " microseconds per mail");
+    }
+
+    /**
+     * Pass a new mail through all matchers, splitting it on each match
+     */
+    private void run(MatcherSplitter splitter, CamelMailetProcessor container, List<Matcher> matchers, List<MailAddress> recipients)
+            throws MessagingException {
+        MailImpl mail = new MailImpl(MailImpl.getId(), new MailAddress("sender@localhost"), recipients);
+        mail.setAttribute("string", "value");
+        mail.setAttribute("number", 42);
+        ArrayList<String> list = new ArrayList<String>();
+        list.add("value");
+        mail.setAttribute("list", list);
+
+        int count = 0;
+        Mail current = mail;
+        for (Matcher matcher : matchers) {
+            List<Mail> mails = splitter.split(matcher, null, log, container, current);
+            for (int i = 0; i < mails.size() - 1; i++) {
+                count += mails.get(i).getRecipients().size();
+            }
+            current = mails.get(mails.size() - 1);
+        }
+        count += current.getRecipients().size();
+        assertEquals(RECIPIENTS, count);
+    }
+
+    /**
+     * Matches the recipients whose number modulo {@link #MATCHERS} is the
+     * configured value
+     */
+    private final static class ModuloMatcher implements Matcher {
+
+        private final int value;
+
+        private ModuloMatcher(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void init(MatcherConfig config) throws MessagingException {
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Collection<MailAddress> match(Mail mail) throws MessagingException {
+            List<MailAddress> matched = new ArrayList<MailAddress>();
+            for (MailAddress rcpt : (Collection<MailAddress>) mail.getRecipients()) {
+                String local = rcpt.getLocalPart();
+                if (Integer.parseInt(local.substring(4)) % MATCHERS == value) {
+                    matched.add(rcpt);
+                }
+            }
+            return matched;
+        }
+
+        @Override
+        public MatcherConfig getMatcherConfig() {
+            return null;
+        }
+
+        @Override
+        public String getMatcherInfo() {
+            return getClass().getName();
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
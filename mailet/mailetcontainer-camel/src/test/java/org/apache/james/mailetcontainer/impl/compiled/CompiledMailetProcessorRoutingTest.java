@@ -0,0 +1,145 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.compiled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.mock.MockMailet;
+import org.apache.james.mailetcontainer.api.mock.MockMailetContext;
+import org.apache.james.mailetcontainer.api.mock.MockMailetLoader;
+import org.apache.james.mailetcontainer.api.mock.MockMatcher;
+import org.apache.james.mailetcontainer.api.mock.MockMatcherLoader;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor.MailetProcessorListener;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.Mailet;
+import org.apache.mailet.Matcher;
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the order in which the {@link CompiledMailetProcessor} routes split
+ * mails through its pairs
+ */
+public class CompiledMailetProcessorRoutingTest {
+
+    private CompiledMailetProcessor processor;
+
+    private final List<String> calls = new ArrayList<String>();
+
+    @After
+    public void tearDown() {
+        if (processor != null) {
+            processor.destroy();
+        }
+    }
+
+    @Test
+    public void testSplitMailIsProcessedFirst() throws Exception {
+        createProcessor(pair(1, Mail.DEFAULT) + pair(2, Mail.GHOST));
+        MailImpl mail = createMail(2);
+
+        processor.service(mail);
+
+        // the split off part passes all remaining pairs before the original
+        // mail reaches the second pair
+        assertEquals(3, calls.size());
+        String splitName = calls.get(0).substring(0, calls.get(0).indexOf(' '));
+        assertEquals(Arrays.asList(splitName + " " + Mail.DEFAULT, splitName + " " + Mail.GHOST, mail.getName() + " " + Mail.GHOST), calls);
+        assertEquals(Mail.GHOST, mail.getState());
+        assertEquals(1, mail.getRecipients().size());
+    }
+
+    @Test
+    public void testFullMatchPassesAllPairs() throws Exception {
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            pairs.append(pair(5, i == 39 ? Mail.GHOST : Mail.DEFAULT));
+        }
+        createProcessor(pairs.toString());
+
+        for (int i = 0; i < 3; i++) {
+            calls.clear();
+            MailImpl mail = createMail(5);
+            processor.service(mail);
+
+            // the mail is never split, so every mailet sees the same mail
+            assertEquals(40, calls.size());
+            assertEquals(mail.getName() + " " + Mail.GHOST, calls.get(39));
+            for (String call : calls.subList(0, 39)) {
+                assertEquals(mail.getName() + " " + Mail.DEFAULT, call);
+            }
+            assertEquals(Mail.GHOST, mail.getState());
+            assertEquals(5, mail.getRecipients().size());
+        }
+    }
+
+    private String pair(int matchCount, String state) {
+        return "<mailet match=\"" + MockMatcher.class.getName() + "=" + matchCount + "\" class=\"" + MockMailet.class.getName() + "\"><state>"
+                + state + "</state></mailet>";
+    }
+
+    private void createProcessor(String pairs) throws Exception {
+        DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder();
+        builder.load(new ByteArrayInputStream(("<processor state=\"" + Mail.DEFAULT + "\" enableJmx=\"false\">" + pairs + "</processor>")
+                .getBytes()));
+
+        processor = new CompiledMailetProcessor();
+        processor.setLog(LoggerFactory.getLogger("MockLog"));
+        processor.setMailetContext(new MockMailetContext());
+        processor.setMailetLoader(new MockMailetLoader());
+        processor.setMatcherLoader(new MockMatcherLoader());
+        processor.configure(builder);
+        processor.init();
+        processor.addListener(new MailetProcessorListener() {
+
+            @Override
+            public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients, Collection<MailAddress> matches,
+                    double processTime, MessagingException e) {
+            }
+
+            @Override
+            public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
+                if (MockMailet.class.equals(m.getClass())) {
+                    calls.add(mailName + " " + state);
+                }
+            }
+        });
+    }
+
+    private MailImpl createMail(int recipients) throws MessagingException {
+        List<MailAddress> rcpts = new ArrayList<MailAddress>();
+        for (int i = 0; i < recipients; i++) {
+            rcpts.add(new MailAddress("rcpt" + i + "@localhost"));
+        }
+        return new MailImpl(MailImpl.getId(), new MailAddress("sender@localhost"), rcpts);
+    }
+}
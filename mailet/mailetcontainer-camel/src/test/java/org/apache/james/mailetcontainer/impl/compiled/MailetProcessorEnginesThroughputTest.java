@@ -0,0 +1,133 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.compiled;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.commons.configuration.DefaultConfigurationBuilder;
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MailImpl;
+import org.apache.james.mailetcontainer.api.mock.MockMailet;
+import org.apache.james.mailetcontainer.api.mock.MockMailetContext;
+import org.apache.james.mailetcontainer.api.mock.MockMailetLoader;
+import org.apache.james.mailetcontainer.api.mock.MockMatcher;
+import org.apache.james.mailetcontainer.api.mock.MockMatcherLoader;
+import org.apache.james.mailetcontainer.impl.camel.CamelMailetProcessor;
+import org.apache.james.mailetcontainer.lib.AbstractStateMailetProcessor;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple benchmark which compares the {@link CamelMailetProcessor} with the
+ * {@link CompiledMailetProcessor}. Both pass mails through {@link #PAIRS}
+ * matcher/mailet pairs which all match. The results are only logged, the test
+ * fails if a mail does not reach the last mailet. It takes a while, so it is
+ * not part of the default build and needs to be run manually.
+ */
+public class MailetProcessorEnginesThroughputTest {
+
+    private final static int PAIRS = 40;
+    private final static int RECIPIENTS = 5;
+    private final static int MAILS = 2000;
+
+    private final Logger log = LoggerFactory.getLogger(MailetProcessorEnginesThroughputTest.class);
+
+    @Test
+    @Ignore(value = "Benchmark, run it manually")
+    public void testThroughput() throws Exception {
+        DefaultCamelContext camelContext = new DefaultCamelContext();
+        CamelMailetProcessor camel = new CamelMailetProcessor();
+        camel.setCamelContext(camelContext);
+        CompiledMailetProcessor compiled = new CompiledMailetProcessor();
+        try {
+            init(camel);
+            init(compiled);
+
+            // warm up
+            run(camel);
+            run(compiled);
+
+            long camelRate = run(camel);
+            long compiledRate = run(compiled);
+            log.info("Processed " + MAILS + " mails through " + PAIRS + " matcher/mailet pairs: camel " + camelRate + " mails/s, compiled "
+                    + compiledRate + " mails/s");
+        } finally {
+            camel.destroy();
+            compiled.destroy();
+            camelContext.stop();
+        }
+    }
+
+    private void init(AbstractStateMailetProcessor processor) throws Exception {
+        processor.setLog(log);
+        processor.setMailetContext(new MockMailetContext());
+        processor.setMailetLoader(new MockMailetLoader());
+        processor.setMatcherLoader(new MockMatcherLoader());
+        processor.configure(createConfig());
+        processor.init();
+    }
+
+    private HierarchicalConfiguration createConfig() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<processor state=\"").append(Mail.DEFAULT).append("\" enableJmx=\"false\">");
+        for (int i = 0; i < PAIRS; i++) {
+            String state = i == PAIRS - 1 ? Mail.GHOST : Mail.DEFAULT;
+            sb.append("<mailet match=\"").append(MockMatcher.class.getName()).append("=").append(RECIPIENTS).append("\"").append(" class=\"")
+                    .append(MockMailet.class.getName()).append("\">");
+            sb.append("<state>").append(state).append("</state>");
+            sb.append("</mailet>");
+        }
+        sb.append("</processor>");
+
+        DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder();
+        builder.load(new ByteArrayInputStream(sb.toString().getBytes()));
+        return builder;
+    }
+
+    /**
+     * Process {@link #MAILS} mails
+     * 
+     * @return processed mails per second
+     */
+    private long run(AbstractStateMailetProcessor processor) throws Exception {
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            recipients.add(new MailAddress("rcpt" + i + "@localhost"));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MAILS; i++) {
+            MailImpl mail = new MailImpl(MailImpl.getId(), new MailAddress("sender@localhost"), recipients);
+            processor.service(mail);
+            assertEquals(Mail.GHOST, mail.getState());
+        }
+        long elapsed = System.nanoTime() - start;
+        return MAILS * 1000000000L / Math.max(elapsed, 1);
+    }
+}
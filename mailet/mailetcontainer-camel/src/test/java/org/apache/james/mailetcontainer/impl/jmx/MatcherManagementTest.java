@@ -0,0 +1,46 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MatcherManagementTest {
+
+    @Test
+    public void testResetAlsoClearsMatchCounts() throws Exception {
+        MatcherManagement management = new MatcherManagement(null);
+        management.update(1.5, true, true);
+        management.update(0.5, false, false);
+        assertEquals(2, management.getHandledMailCount());
+        assertEquals(1, management.getMatchedCount());
+        assertEquals(0, management.getFastestProcessing());
+        assertEquals(1, management.getSlowestProcessing());
+        assertEquals(1.0, management.getMeanProcessing(), 0.001);
+
+        management.resetStatistics();
+        assertEquals(0, management.getHandledMailCount());
+        assertEquals(0, management.getMatchedCount());
+        assertEquals(0, management.getNotMatchedCount());
+        assertEquals(-1, management.getFastestProcessing());
+        assertEquals(0, management.getMedianProcessing(), 0);
+    }
+}
@@ -0,0 +1,67 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MovingWindowRateTest {
+
+    private final static long NOW = 1000000000000L;
+
+    @Test
+    public void testRateOfCompleteSeconds() {
+        MovingWindowRate rate = new MovingWindowRate(10);
+        for (int second = 0; second < 10; second++) {
+            for (int i = 0; i < 5; i++) {
+                rate.mark(NOW + second * 1000);
+            }
+        }
+        // the current second is not complete yet and not counted
+        rate.mark(NOW + 10000);
+
+        assertEquals(5.0, rate.getRate(10, NOW + 10000), 0.001);
+        assertEquals(5.0, rate.getRate(2, NOW + 10000), 0.001);
+    }
+
+    @Test
+    public void testOldSecondsAreDropped() {
+        MovingWindowRate rate = new MovingWindowRate(10);
+        rate.mark(NOW);
+        rate.mark(NOW + 1000);
+
+        assertEquals(0.2, rate.getRate(10, NOW + 2000), 0.001);
+        assertEquals(0.1, rate.getRate(10, NOW + 11000), 0.001);
+        assertEquals(0.0, rate.getRate(10, NOW + 12000), 0.001);
+
+        // the slot of NOW gets reused
+        rate.mark(NOW + 11000);
+        assertEquals(0.1, rate.getRate(10, NOW + 12000), 0.001);
+    }
+
+    @Test
+    public void testReset() {
+        MovingWindowRate rate = new MovingWindowRate(10);
+        rate.mark(NOW);
+        rate.reset();
+        assertEquals(0.0, rate.getRate(10, NOW + 1000), 0.001);
+    }
+}
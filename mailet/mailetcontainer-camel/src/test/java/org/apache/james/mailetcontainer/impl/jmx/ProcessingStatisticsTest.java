@@ -0,0 +1,40 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.mailetcontainer.impl.jmx;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProcessingStatisticsTest {
+
+    @Test
+    public void testSubMillisecondProcessingIsNotRoundedToZero() {
+        ProcessingStatistics statistics = new ProcessingStatistics();
+        for (int i = 0; i < 100; i++) {
+            statistics.update(0.02);
+        }
+        statistics.update(0.5);
+
+        assertEquals(0.02, statistics.getProcessingPercentile(50), 0.0001);
+        assertEquals(0.5, statistics.getProcessingPercentile(100), 0.5 / 16);
+        assertEquals(0.0248, statistics.getMeanProcessing(), 0.001);
+    }
+}
@@ -78,7 +78,7 @@ public abstract class AbstractStateMailetProcessorTest {
 
             @Override
             public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients,
-                                     Collection<MailAddress> matches, long processTime, MessagingException e) {
+                                     Collection<MailAddress> matches, double processTime, MessagingException e) {
                 if (MockMatcher.class.equals(m.getClass())) {
                     assertEquals(mail.getName(), mailName);
                     // match one recipient
@@ -90,7 +90,7 @@ public abstract class AbstractStateMailetProcessorTest {
             }
 
             @Override
-            public void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e) {
+            public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
                 // check for class name as the terminating  mailet will kick in too
 
                 if (MockMailet.class.equals(m.getClass())) {
@@ -126,7 +126,7 @@ public abstract class AbstractStateMailetProcessorTest {
 
             @Override
             public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients,
-                                     Collection<MailAddress> matches, long processTime, MessagingException e) {
+                                     Collection<MailAddress> matches, double processTime, MessagingException e) {
                 if (MockMatcher.class.equals(m.getClass())) {
                     assertEquals(mail.getName(), mailName);
                     // match all recipient
@@ -138,7 +138,7 @@ public abstract class AbstractStateMailetProcessorTest {
             }
 
             @Override
-            public void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e) {
+            public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
                 // check for class name as the terminating  mailet will kick in too
 
                 if (MockMailet.class.equals(m.getClass())) {
@@ -176,7 +176,7 @@ public abstract class AbstractStateMailetProcessorTest {
 
             @Override
             public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients,
-                                     Collection<MailAddress> matches, long processTime, MessagingException e) {
+                                     Collection<MailAddress> matches, double processTime, MessagingException e) {
                 if (ExceptionThrowingMatcher.class.equals(m.getClass())) {
                     assertEquals(mail.getName(), mailName);
                     // match no recipient because of the error
@@ -188,7 +188,7 @@ public abstract class AbstractStateMailetProcessorTest {
             }
 
             @Override
-            public void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e) {
+            public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
                 throw new RuntimeException("Should not call any mailet!");
             }
         });
@@ -224,7 +224,7 @@ public abstract class AbstractStateMailetProcessorTest {
 
             @Override
             public void afterMatcher(Matcher m, String mailName, Collection<MailAddress> recipients,
-                                     Collection<MailAddress> matches, long processTime, MessagingException e) {
+                                     Collection<MailAddress> matches, double processTime, MessagingException e) {
                 if (MockMatcher.class.equals(m.getClass())) {
                     assertEquals(mail.getName(), mailName);
                     // match one recipient
@@ -236,7 +236,7 @@ public abstract class AbstractStateMailetProcessorTest {
             }
 
             @Override
-            public void afterMailet(Mailet m, String mailName, String state, long processTime, MessagingException e) {
+            public void afterMailet(Mailet m, String mailName, String state, double processTime, MessagingException e) {
                 if (ExceptionThrowingMailet.class.equals(m.getClass())) {
                     // the name should be not the same as we have a part match
                     assertFalse(mail.getName().equals(mailName));
@@ -19,9 +19,8 @@
 
 package org.apache.james.transport.mailets;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.StringReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.sql.Connection;
 import java.text.DecimalFormat;
 import java.util.Collection;
@@ -32,6 +31,7 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import javax.sql.DataSource;
 
+import org.apache.james.core.MimeMessageInputStream;
 import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.util.bayesian.JDBCBayesianAnalyzer;
 import org.apache.james.util.sql.JDBCUtil;
@@ -60,10 +60,11 @@ import org.apache.mailet.base.RFC2822Headers;
  * <p>
  * The analysis capabilities are based on token frequencies (the <i>Corpus</i>)
  * learned through a training process (see {@link BayesianAnalysisFeeder}) and
- * stored in a JDBC database. After a training session, the Corpus must be
- * rebuilt from the database in order to acquire the new frequencies. Every 10
- * minutes a special thread in this mailet will check if any change was made to
- * the database by the feeder, and rebuild the corpus if necessary.
+ * stored in a JDBC database. The Corpus is loaded from the database once.
+ * The frequencies written by the feeders of the same server are applied to it
+ * every 10 seconds by a special thread in this mailet. The Corpus is an
+ * immutable snapshot which is replaced as a whole, so the analysis never waits
+ * for an update.
  * </p>
  * 
  * <p>
@@ -146,7 +147,7 @@ public class BayesianAnalysis extends GenericMailet {
 
     private static final String MAIL_ATTRIBUTE_NAME = "org.apache.james.spam.probability";
     private static final String HEADER_NAME = "X-MessageIsSpamProbability";
-    private static final long CORPUS_RELOAD_INTERVAL = 600000;
+    private static final long CORPUS_UPDATE_INTERVAL = 10000;
     private String headerName;
     private boolean ignoreLocalSender = false;
     private boolean tagSubject = true;
@@ -172,6 +173,8 @@ public class BayesianAnalysis extends GenericMailet {
 
     private FileSystem fs;
 
+    private CorpusLoader corpusLoader;
+
     /**
      * Getter for property maxSize.
      * 
@@ -255,14 +258,29 @@ public class BayesianAnalysis extends GenericMailet {
             tagSubject = false;
         }
 
+        // register before loading, so no update written in the meantime is
+        // missed
+        analyzer.registerForUpdates();
+
         initDb();
 
-        CorpusLoader corpusLoader = new CorpusLoader(this);
+        corpusLoader = new CorpusLoader(this);
         corpusLoader.setDaemon(true);
         corpusLoader.start();
 
     }
 
+    /**
+     * Stops the corpus updates.
+     */
+    public void destroy() {
+        if (corpusLoader != null) {
+            corpusLoader.interrupt();
+            corpusLoader = null;
+        }
+        analyzer.unregisterForUpdates();
+    }
+
     private void initDb() throws MessagingException {
 
         try {
@@ -304,13 +322,17 @@ public class BayesianAnalysis extends GenericMailet {
                 return;
             }
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
             double probability;
 
             if (message.getSize() < getMaxSize()) {
-                message.writeTo(baos);
-                probability = analyzer.computeSpamProbability(new BufferedReader(new StringReader(baos.toString())));
+                // the message is analyzed while it is read, so it is never
+                // copied in memory
+                Reader reader = new InputStreamReader(new MimeMessageInputStream(message));
+                try {
+                    probability = analyzer.computeSpamProbability(reader);
+                } finally {
+                    reader.close();
+                }
             } else {
                 probability = 0.0;
             }
@@ -348,13 +370,9 @@ public class BayesianAnalysis extends GenericMailet {
     private void loadData(Connection conn) throws java.sql.SQLException {
 
         try {
-            // this is synchronized to avoid concurrent update of the corpus
-            synchronized (JDBCBayesianAnalyzer.DATABASE_LOCK) {
-                analyzer.tokenCountsClear();
-                analyzer.loadHamNSpam(conn);
-                analyzer.buildCorpus();
-                analyzer.tokenCountsClear();
-            }
+            // the new corpus replaces the current one once it is loaded, so
+            // the analysis goes on in the meantime
+            analyzer.loadCorpus(conn);
 
             log("BayesianAnalysis Corpus loaded");
 
@@ -423,10 +441,10 @@ public class BayesianAnalysis extends GenericMailet {
          * Thread entry point.
          */
         public void run() {
-            analysis.log("CorpusLoader thread started: will wake up every " + CORPUS_RELOAD_INTERVAL + " ms");
+            analysis.log("CorpusLoader thread started: will wake up every " + CORPUS_UPDATE_INTERVAL + " ms");
 
             try {
-                Thread.sleep(CORPUS_RELOAD_INTERVAL);
+                Thread.sleep(CORPUS_UPDATE_INTERVAL);
 
                 while (true) {
                     if (analysis.getLastCorpusLoadTime() < JDBCBayesianAnalyzer.getLastDatabaseUpdateTime()) {
@@ -438,12 +456,14 @@ public class BayesianAnalysis extends GenericMailet {
                             analysis.log("SQLException: ", se);
                         }
 
+                    } else if (analysis.analyzer.applyReceivedUpdates()) {
+                        analysis.log("Corpus updated");
                     }
 
                     if (Thread.interrupted()) {
                         break;
                     }
-                    Thread.sleep(CORPUS_RELOAD_INTERVAL);
+                    Thread.sleep(CORPUS_UPDATE_INTERVAL);
                 }
             } catch (InterruptedException ex) {
                 interrupt();
@@ -19,11 +19,11 @@
 
 package org.apache.james.transport.mailets;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.StringReader;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.sql.Connection;
 import java.util.Enumeration;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.mail.Header;
@@ -31,6 +31,7 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 import javax.sql.DataSource;
 
+import org.apache.james.core.MimeMessageInputStream;
 import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.util.bayesian.JDBCBayesianAnalyzer;
 import org.apache.james.util.sql.JDBCUtil;
@@ -62,6 +63,13 @@ import org.apache.mailet.base.GenericMailet;
  *       to be analyzed (default is 100000).
  *     --&gt;
  *     &lt;maxSize&gt;100000&lt;/maxSize&gt;
+ *     &lt;!--
+ *       Count of fed messages which are written to the database in one go
+ *       (default is 50), and the maximal time in milliseconds a fed message
+ *       waits to be written (default is 10000).
+ *     --&gt;
+ *     &lt;batchSize&gt;50&lt;/batchSize&gt;
+ *     &lt;batchInterval&gt;10000&lt;/batchInterval&gt;
  *   &lt;/mailet&gt;
  * 
  *   &lt;mailet match="RecipientIs=spam@thisdomain.com" class="BayesianAnalysisFeeder"&gt;
@@ -108,17 +116,18 @@ import org.apache.mailet.base.GenericMailet;
  * </p>
  * 
  * <p>
- * After a training session, the frequency <i>Corpus</i> used by
- * <code>BayesianAnalysis</code> must be rebuilt from the database, in order to
- * take advantage of the new token frequencies. Every 10 minutes a special
- * thread in the <code>BayesianAnalysis</code> mailet will check if any change
- * was made to the database, and rebuild the corpus if necessary.
+ * The token frequencies of the fed messages are collected and written to the
+ * database in batches of <code>batchSize</code> messages, or at the latest
+ * after <code>batchInterval</code> milliseconds. As a token is written once
+ * per batch this avoids too much database locking, as thousands of rows may be
+ * updated just for one message fed. Messages which are not yet written when
+ * the server stops unexpectedly are lost for the training.
  * </p>
  * 
  * <p>
- * Only one message at a time is scanned (the database update activity is
- * <i>synchronized</i>) in order to avoid too much database locking, as
- * thousands of rows may be updated just for one message fed.
+ * The <code>BayesianAnalysis</code> mailets of the same server receive the
+ * written frequencies and apply them to their <i>Corpus</i>, without
+ * rebuilding it from the database.
  * </p>
  * 
  * @see BayesianAnalysis
@@ -150,6 +159,16 @@ public class BayesianAnalysisFeeder extends GenericMailet {
 
     private String feedType;
 
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
+    private static final long DEFAULT_BATCH_INTERVAL = 10000;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long batchInterval = DEFAULT_BATCH_INTERVAL;
+
+    private DeltaFlusher deltaFlusher;
+
     /**
      * Return a string describing this mailet.
      * 
@@ -221,8 +240,32 @@ public class BayesianAnalysisFeeder extends GenericMailet {
         }
         log("maxSize: " + getMaxSize());
 
+        String batchSizeParam = getInitParameter("batchSize");
+        if (batchSizeParam != null) {
+            batchSize = Integer.parseInt(batchSizeParam);
+        }
+        String batchIntervalParam = getInitParameter("batchInterval");
+        if (batchIntervalParam != null) {
+            batchInterval = Long.parseLong(batchIntervalParam);
+        }
+        log("batchSize: " + batchSize + ", batchInterval: " + batchInterval);
+
         initDb();
 
+        deltaFlusher = new DeltaFlusher(this);
+        deltaFlusher.setDaemon(true);
+        deltaFlusher.start();
+    }
+
+    /**
+     * Writes the fed messages which are still queued to the database.
+     */
+    public void destroy() {
+        if (deltaFlusher != null) {
+            deltaFlusher.interrupt();
+            deltaFlusher = null;
+        }
+        flushDeltas();
     }
 
     private void initDb() throws MessagingException {
@@ -236,23 +279,15 @@ public class BayesianAnalysisFeeder extends GenericMailet {
     }
 
     /**
-     * Scans the mail and updates the token frequencies in the database.
-     * 
-     * The method is synchronized in order to avoid too much database locking,
-     * as thousands of rows may be updated just for one message fed.
+     * Scans the mail and queues its token frequencies to be written to the
+     * database.
      * 
      * @param mail
      *            The Mail message to be scanned.
      */
     public void service(Mail mail) {
-        boolean dbUpdated = false;
-
         mail.setState(Mail.GHOST);
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-        Connection conn = null;
-
         try {
 
             MimeMessage message = mail.getMessage();
@@ -266,65 +301,53 @@ public class BayesianAnalysisFeeder extends GenericMailet {
 
             clearAllHeaders(message);
 
-            message.writeTo(baos);
-
-            BufferedReader br = new BufferedReader(new StringReader(baos.toString()));
-
-            // this is synchronized to avoid concurrent update of the corpus
-            synchronized (JDBCBayesianAnalyzer.DATABASE_LOCK) {
-
-                conn = datasource.getConnection();
-
-                if (conn.getAutoCommit()) {
-                    conn.setAutoCommit(false);
-                }
-
-                dbUpdated = true;
-
-                // Clear out any existing word/counts etc..
-                analyzer.clear();
-
-                if ("ham".equalsIgnoreCase(feedType)) {
-                    log(messageId + " Feeding HAM");
-                    // Process the stream as ham (not spam).
-                    analyzer.addHam(br);
-
-                    // Update storage statistics.
-                    analyzer.updateHamTokens(conn);
-                } else {
-                    log(messageId + " Feeding SPAM");
-                    // Process the stream as spam.
-                    analyzer.addSpam(br);
-
-                    // Update storage statistics.
-                    analyzer.updateSpamTokens(conn);
-                }
+            // the message is parsed while it is read, without holding any
+            // lock, only the resulting frequencies are queued
+            Map<String, Integer> tokens;
+            Reader reader = new InputStreamReader(new MimeMessageInputStream(message));
+            try {
+                tokens = analyzer.countTokens(reader);
+            } finally {
+                reader.close();
+            }
 
-                // Commit our changes if necessary.
-                if (conn != null && dbUpdated && !conn.getAutoCommit()) {
-                    conn.commit();
-                    dbUpdated = false;
-                    log(messageId + " Training ended successfully");
-                    JDBCBayesianAnalyzer.touchLastDatabaseUpdateTime();
-                }
+            int pending;
+            if ("ham".equalsIgnoreCase(feedType)) {
+                log(messageId + " Feeding HAM");
+                pending = analyzer.addHamDelta(tokens);
+            } else {
+                log(messageId + " Feeding SPAM");
+                pending = analyzer.addSpamDelta(tokens);
+            }
 
+            if (pending >= batchSize) {
+                flushDeltas();
             }
 
-        } catch (java.sql.SQLException se) {
-            log("SQLException: " + se.getMessage());
         } catch (java.io.IOException ioe) {
             log("IOException: " + ioe.getMessage());
         } catch (javax.mail.MessagingException me) {
             log("MessagingException: " + me.getMessage());
-        } finally {
-            // Rollback our changes if necessary.
-            try {
-                if (conn != null && dbUpdated && !conn.getAutoCommit()) {
-                    conn.rollback();
-                    dbUpdated = false;
+        }
+    }
+
+    /**
+     * Writes the queued token frequencies to the database.
+     */
+    private void flushDeltas() {
+        Connection conn = null;
+        try {
+            // this is synchronized to avoid concurrent update of the corpus
+            synchronized (JDBCBayesianAnalyzer.DATABASE_LOCK) {
+                conn = datasource.getConnection();
+                int count = analyzer.flushDeltas(conn);
+                if (count > 0) {
+                    log("Training with " + count + " messages ended successfully");
                 }
-            } catch (Exception e) {
             }
+        } catch (java.sql.SQLException se) {
+            log("SQLException: " + se.getMessage());
+        } finally {
             theJDBCUtil.closeJDBCConnection(conn);
         }
     }
@@ -342,4 +365,29 @@ public class BayesianAnalysisFeeder extends GenericMailet {
         message.saveChanges();
     }
 
+    private static class DeltaFlusher extends Thread {
+
+        private final BayesianAnalysisFeeder feeder;
+
+        private DeltaFlusher(BayesianAnalysisFeeder feeder) {
+            super("BayesianAnalysisFeeder Delta Flusher");
+            this.feeder = feeder;
+        }
+
+        /**
+         * Thread entry point.
+         */
+        public void run() {
+            try {
+                while (!Thread.interrupted()) {
+                    Thread.sleep(feeder.batchInterval);
+                    feeder.flushDeltas();
+                }
+            } catch (InterruptedException ex) {
+                interrupt();
+            }
+        }
+
+    }
+
 }
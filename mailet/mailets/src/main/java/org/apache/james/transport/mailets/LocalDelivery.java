@@ -95,6 +95,13 @@ public class LocalDelivery extends GenericMailet {
         }
     }
 
+    /**
+     * @see org.apache.mailet.base.GenericMailet#destroy()
+     */
+    public void destroy() {
+        sieveMailet.destroy();
+    }
+
     /**
      * Return a string describing this mailet.
      * 
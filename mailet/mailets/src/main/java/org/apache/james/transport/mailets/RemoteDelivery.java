@@ -19,9 +19,11 @@
 
 package org.apache.james.transport.mailets;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.ConnectException;
@@ -45,11 +47,14 @@ import java.util.regex.Pattern;
 import javax.annotation.Resource;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.mail.Address;
 import javax.mail.MessagingException;
 import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
+import javax.mail.URLName;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
@@ -61,14 +66,19 @@ import org.apache.james.dnsservice.api.TemporaryResolutionException;
 import org.apache.james.dnsservice.library.MXHostAddressIterator;
 import org.apache.james.domainlist.api.DomainList;
 import org.apache.james.domainlist.api.DomainListException;
+import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.queue.api.MailPrioritySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.api.MailQueueFactory;
+import org.apache.james.transport.util.DomainDeliveryScheduler;
 import org.apache.james.transport.util.MailetContextLog;
 import org.apache.james.transport.util.Patterns;
+import org.apache.james.transport.util.SMTPTransportPool;
+import org.apache.james.transport.util.SMTPTransportPool.PooledTransport;
+import org.apache.james.transport.util.SharedBodyStore;
 import org.apache.james.util.TimeConverter;
 import org.apache.mailet.HostAddress;
 import org.apache.mailet.Mail;
@@ -144,6 +154,37 @@ import org.apache.mailet.base.GenericMailet;
  * Note: This facility should be used with extreme care by expert users with a thorough knowledge of the relevant RFCs and
  * the ability to perform their own problem resolutions.</li>
  * <li><b>debug</b> (optional) - a Boolean (true/false) indicating whether debugging is on. Default is false.</li>
+ * <li><b>connectionPooling</b> (optional) - a Boolean (true/false) indicating whether connections to remote SMTP servers
+ * are kept open after a mail was sent, so the next mail to the same server can be sent over them. Default is false.</li>
+ * <li><b>connectionIdleTimeout</b> (optional) - a Long for the milliseconds after which an unused pooled connection
+ * is closed. Default is 30000.</li>
+ * <li><b>maxMessagesPerConnection</b> (optional) - an Integer for the count of mails sent over a pooled connection before
+ * it is closed. Default is 100.</li>
+ * <li><b>maxConnectionsPerHost</b> (optional) - an Integer for the maximal count of concurrent connections to one remote
+ * SMTP server, also if <code>&lt;connectionPooling/&gt;</code> is disabled. If a delivery thread can not get a connection
+ * within <code>&lt;connectionTimeout/&gt;</code> the next server is tried. Default is 0 (unlimited).</li>
+ * <li><b>sharedBody</b> (optional) - a Boolean (true/false) indicating whether the message of a mail for several domains
+ * is stored only once in the <code>&lt;sharedBodyRepository/&gt;</code>. The per domain mails in the outgoing queue then
+ * only carry the envelope and a reference to the stored message, which is deleted once the last of them was delivered or
+ * bounced. Default is false.</li>
+ * <li><b>sharedBodyRepository</b> (optional) - a String containing the directory used by <code>&lt;sharedBody/&gt;</code>.
+ * Default is <code>file://var/store/remotedelivery</code>.</li>
+ * <li><b>domainScheduler</b> (optional) - a Boolean (true/false) indicating whether mails are scheduled per destination
+ * domain. A single thread then dequeues the mails and the delivery threads take them domain by domain, so a slow or
+ * failing domain can only occupy <code>&lt;maxConcurrencyPerDomain/&gt;</code> threads. After
+ * <code>&lt;domainFailureThreshold/&gt;</code> consecutive temporary failures the whole domain is backed off, using the
+ * <code>&lt;delayTime/&gt;</code> delays in turn, and its mails are put back into the queue until the back off ends.
+ * The backlog and state of every domain is exposed over JMX. Default is false.</li>
+ * <li><b>maxConcurrencyPerDomain</b> (optional) - an Integer for the maximal count of concurrent deliveries to one domain.
+ * Default is half of <code>&lt;deliveryThreads/&gt;</code>, but at least 1. If <code>&lt;gateway/&gt;</code> is set all
+ * mails share one destination, so the default is <code>&lt;deliveryThreads/&gt;</code>.</li>
+ * <li><b>maxMessagesPerSecondPerDomain</b> (optional) - a Double for the maximal count of deliveries started per second
+ * to one domain. Default is 0 (unlimited).</li>
+ * <li><b>domainFailureThreshold</b> (optional) - an Integer for the count of consecutive temporary failures after which
+ * a domain is backed off. Default is 3.</li>
+ * <li><b>maxPendingMails</b> (optional) - an Integer for the maximal count of dequeued mails waiting for their domain.
+ * Every waiting mail stays dequeued, which is an open transaction with a JMS queue. Default is
+ * <code>&lt;deliveryThreads/&gt;</code>.</li>
  * </ul>
  */
 public class RemoteDelivery extends GenericMailet implements Runnable {
@@ -160,6 +201,17 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
     private static final Pattern PATTERN = Patterns.compilePatternUncheckedException(PATTERN_STRING);
 
+    /**
+     * Mail attribute holding the id of the shared message body of a queued mail
+     */
+    private static final String SHARED_BODY = RemoteDelivery.class.getName() + ".sharedBody";
+
+    /**
+     * Mail attribute holding the reference of a queued mail to its shared
+     * message body
+     */
+    private static final String SHARED_BODY_REFERENCE = RemoteDelivery.class.getName() + ".sharedBodyReference";
+
     @Inject
     @Named("dnsservice")
     @Resource
@@ -263,6 +315,30 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
 
     private boolean isSSLEnable = false;
 
+    private FileSystem fileSystem;
+
+    private boolean useSharedBody = false;
+
+    /**
+     * Store for shared message bodies. Also used if sharedBody is disabled, so
+     * mails which were queued before can still be delivered.
+     */
+    private SharedBodyStore sharedBodyStore;
+
+    /**
+     * Pool of outgoing connections, <code>null</code> if neither connection
+     * pooling nor a per host connection limit is configured
+     */
+    private SMTPTransportPool transportPool;
+
+    /**
+     * Scheduler of the dequeued mails per domain, <code>null</code> if the
+     * delivery threads dequeue themselves
+     */
+    private DomainDeliveryScheduler<MailQueueItem> domainScheduler;
+
+    private ObjectName domainSchedulerName;
+
     @Inject
     public void setDomainList(@Named("domainlist") DomainList domainList) {
         this.domainList = domainList;
@@ -273,6 +349,11 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         this.queueFactory = queueFactory;
     }
 
+    @Inject
+    public void setFileSystem(@Named("filesystem") FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+    }
+
     /**
      * Initializes all arguments based on configuration values specified in the
      * James configuration file.
@@ -441,11 +522,116 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             usePriority = Boolean.valueOf(prio);
         }
 
+        useSharedBody = Boolean.valueOf(getInitParameter("sharedBody"));
+        if (fileSystem != null) {
+            String sharedBodyRepository = getInitParameter("sharedBodyRepository");
+            if (sharedBodyRepository == null) {
+                sharedBodyRepository = "file://var/store/remotedelivery";
+            }
+            try {
+                sharedBodyStore = new SharedBodyStore(fileSystem.getFile(sharedBodyRepository));
+            } catch (IOException e) {
+                throw new MessagingException("Unable to access sharedBodyRepository " + sharedBodyRepository, e);
+            }
+        } else if (useSharedBody) {
+            throw new MessagingException("sharedBody needs a FileSystem");
+        }
+
+        boolean connectionPooling = Boolean.valueOf(getInitParameter("connectionPooling"));
+        int maxConnectionsPerHost = 0;
+        int maxMessagesPerConnection = 100;
+        long connectionIdleTimeout = 30000;
+        try {
+            if (getInitParameter("maxConnectionsPerHost") != null) {
+                maxConnectionsPerHost = Integer.parseInt(getInitParameter("maxConnectionsPerHost"));
+            }
+            if (getInitParameter("maxMessagesPerConnection") != null) {
+                maxMessagesPerConnection = Integer.parseInt(getInitParameter("maxMessagesPerConnection"));
+            }
+            if (getInitParameter("connectionIdleTimeout") != null) {
+                connectionIdleTimeout = Long.parseLong(getInitParameter("connectionIdleTimeout"));
+            }
+        } catch (NumberFormatException e) {
+            throw new MessagingException("Invalid connection pool setting", e);
+        }
+        if (connectionPooling || maxConnectionsPerHost > 0) {
+            if (!connectionPooling) {
+                // only limit the connections, don't reuse them
+                maxMessagesPerConnection = 1;
+            }
+            transportPool = new SMTPTransportPool(new SMTPTransportPool.Connector() {
+
+                @Override
+                public Session createSession() {
+                    return obtainSession(createSessionProperties());
+                }
+
+                @Override
+                public void connect(Transport transport, URLName server) throws MessagingException {
+                    if (authUser != null) {
+                        transport.connect(((HostAddress) server).getHostName(), authUser, authPass);
+                    } else {
+                        transport.connect();
+                    }
+                }
+            }, connectionIdleTimeout, maxMessagesPerConnection, maxConnectionsPerHost, connectionTimeout);
+        }
+
         // Start Workers Threads.
         workersThreadCount = Integer.parseInt(getInitParameter("deliveryThreads"));
+        if (Boolean.valueOf(getInitParameter("domainScheduler"))) {
+            initDomainScheduler(outgoing);
+        }
         initDeliveryThreads();
     }
 
+    private void initDomainScheduler(String outgoing) throws MessagingException {
+        // with a gateway all mails are scheduled under the same key, so
+        // limiting it would only idle the other threads
+        int maxConcurrency = gatewayServer != null ? workersThreadCount : Math.max(1, workersThreadCount / 2);
+        double maxRate = 0;
+        int failureThreshold = 3;
+        // every pending mail holds a dequeued queue item, so keep no more of
+        // them than there are threads to deliver them
+        int maxPending = workersThreadCount;
+        try {
+            if (getInitParameter("maxConcurrencyPerDomain") != null) {
+                maxConcurrency = Integer.parseInt(getInitParameter("maxConcurrencyPerDomain"));
+            }
+            if (getInitParameter("maxMessagesPerSecondPerDomain") != null) {
+                maxRate = Double.parseDouble(getInitParameter("maxMessagesPerSecondPerDomain"));
+            }
+            if (getInitParameter("domainFailureThreshold") != null) {
+                failureThreshold = Integer.parseInt(getInitParameter("domainFailureThreshold"));
+            }
+            if (getInitParameter("maxPendingMails") != null) {
+                maxPending = Integer.parseInt(getInitParameter("maxPendingMails"));
+            }
+        } catch (NumberFormatException e) {
+            throw new MessagingException("Invalid domain scheduler setting", e);
+        }
+        long[] backoffDelays = delayTimes.length > 0 ? delayTimes : new long[]{DEFAULT_DELAY_TIME};
+        domainScheduler = new DomainDeliveryScheduler<MailQueueItem>(maxConcurrency, maxRate, failureThreshold, backoffDelays, maxPending);
+
+        try {
+            ObjectName name = new ObjectName("org.apache.james:type=component,component=mailetcontainer,name=remotedelivery,queue=" + ObjectName.quote(outgoing));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(domainScheduler, name);
+            domainSchedulerName = name;
+        } catch (JMException e) {
+            log("Unable to register the domain scheduler MBean", e);
+        }
+
+        Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "Remote delivery dispatcher");
+        t.start();
+        workersThreads.add(t);
+    }
+
     private void initDeliveryThreads() {
         for (int a = 0; a < workersThreadCount; a++) {
             String threadName = "Remote delivery thread (" + a + ")";
@@ -636,6 +822,10 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
         Collection<MailAddress> recipients = mail.getRecipients();
 
+        // a bounce of a mail with a shared body may still carry its reference
+        mail.removeAttribute(SHARED_BODY);
+        mail.removeAttribute(SHARED_BODY_REFERENCE);
+
         if (usePriority) {
 
             // Use highest prio for new emails. See JAMES-1311
@@ -663,18 +853,44 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
             // Store the new message containers, organized by server, in the
             // outgoing mail repository
             String name = mail.getName();
-            for (Map.Entry<String, Collection<MailAddress>> entry : targets.entrySet()) {
-                if (isDebug) {
-                    String logMessageBuffer = "Sending mail to " + entry.getValue() + " on host " + entry.getKey();
-                    log(logMessageBuffer);
+            String sharedBody = null;
+            if (useSharedBody && targets.size() > 1) {
+                sharedBody = storeSharedBody(mail, targets.size());
+            }
+            int reference = 0;
+            try {
+                for (Map.Entry<String, Collection<MailAddress>> entry : targets.entrySet()) {
+                    if (isDebug) {
+                        String logMessageBuffer = "Sending mail to " + entry.getValue() + " on host " + entry.getKey();
+                        log(logMessageBuffer);
+                    }
+                    mail.setRecipients(entry.getValue());
+                    String nameBuffer = name + "-to-" + entry.getKey();
+                    mail.setName(nameBuffer);
+                    if (sharedBody != null) {
+                        mail.setAttribute(SHARED_BODY_REFERENCE, reference);
+                    }
+                    boolean queued = false;
+                    try {
+                        queue.enQueue(mail);
+                        queued = true;
+                    } catch (MailQueueException e) {
+                        log("Unable to queue mail " + mail.getName() + " for recipients + " + mail.getRecipients().toString(), e);
+                    } finally {
+                        // no queued mail holds this reference
+                        if (!queued) {
+                            releaseSharedBody(mail);
+                        }
+                        reference++;
+                    }
                 }
-                mail.setRecipients(entry.getValue());
-                String nameBuffer = name + "-to-" + entry.getKey();
-                mail.setName(nameBuffer);
-                try {
-                    queue.enQueue(mail);
-                } catch (MailQueueException e) {
-                    log("Unable to queue mail " + mail.getName() + " for recipients + " + mail.getRecipients().toString(), e);
+            } finally {
+                // release the references of the domains which were not
+                // reached because queueing failed with an unexpected exception
+                if (sharedBody != null) {
+                    for (; reference < targets.size(); reference++) {
+                        sharedBodyStore.release(sharedBody, reference);
+                    }
                 }
             }
         } else {
@@ -709,6 +925,26 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         for (Thread t : workersThreads) {
             t.interrupt();
         }
+        if (transportPool != null) {
+            transportPool.close();
+        }
+        if (domainScheduler != null) {
+            // give the not yet delivered mails back to the queue
+            for (MailQueueItem queueItem : domainScheduler.close()) {
+                try {
+                    queueItem.done(false);
+                } catch (MailQueueException e) {
+                    log("Unable to give back mail " + queueItem.getMail().getName(), e);
+                }
+            }
+            if (domainSchedulerName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(domainSchedulerName);
+                } catch (JMException e) {
+                    // ignore on shutdown
+                }
+            }
+        }
         notifyAll();
     }
 
@@ -718,8 +954,215 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
      */
     @Override
     public void run() {
+        final Session session = obtainSession(createSessionProperties());
+        try {
+            while (!Thread.interrupted() && !destroyed) {
+                try {
+                    if (domainScheduler == null) {
+                        // Get the 'mail' object that is ready for deliverying.
+                        // If no message is ready, the 'deQueue' will block
+                        // until message is ready.
+                        process(queue.deQueue(), session, null);
+                    } else {
+                        DomainDeliveryScheduler.Task<MailQueueItem> task = domainScheduler.take();
+                        if (task.getDeferDelay() > 0) {
+                            defer(task);
+                        } else {
+                            process(task.getMail(), session, task);
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (!destroyed) {
+                        log("Exception caught in RemoteDelivery.run()", e);
+                    }
+                }
+            }
+        } finally {
+            // Restore the thread state to non-interrupted.
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Dequeue the mails and hand them to the {@link DomainDeliveryScheduler}
+     */
+    private void dispatch() {
+        try {
+            while (!Thread.interrupted() && !destroyed) {
+                MailQueueItem queueItem = null;
+                try {
+                    queueItem = queue.deQueue();
+                    domainScheduler.offer(getDestinationDomain(queueItem.getMail()), queueItem);
+                } catch (InterruptedException e) {
+                    queueItem.done(false);
+                    break;
+                } catch (Throwable e) {
+                    if (!destroyed) {
+                        log("Exception caught in RemoteDelivery.dispatch()", e);
+                    }
+                }
+            }
+        } catch (MailQueueException e) {
+            log("Unable to give back mail", e);
+        } finally {
+            // Restore the thread state to non-interrupted.
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Return the key under which a mail is scheduled. All recipients of a
+     * queued mail share the domain, except for mails to a gateway.
+     *
+     * @param mail
+     * @return domain
+     */
+    private String getDestinationDomain(Mail mail) {
+        if (gatewayServer != null || mail.getRecipients().isEmpty()) {
+            return "";
+        }
+        return ((MailAddress) mail.getRecipients().iterator().next()).getDomain().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Put a mail of a backed off domain back into the queue, without counting
+     * a delivery attempt
+     *
+     * @param task
+     * @throws MailQueueException
+     */
+    private void defer(DomainDeliveryScheduler.Task<MailQueueItem> task) throws MailQueueException {
+        MailQueueItem queueItem = task.getMail();
+        Mail mail = queueItem.getMail();
+        if (isDebug) {
+            log("Domain " + task.getDomain() + " is backed off, deferring mail " + mail.getName());
+        }
+        try {
+            queue.enQueue(mail, task.getDeferDelay(), TimeUnit.MILLISECONDS);
+        } catch (MailQueueException e) {
+            LifecycleUtil.dispose(mail);
+            queueItem.done(false);
+            throw e;
+        }
+        LifecycleUtil.dispose(mail);
+        queueItem.done(true);
+    }
+
+    /**
+     * Deliver a dequeued mail and put it back into the queue if it needs to be
+     * retried
+     *
+     * @param queueItem
+     * @param session
+     * @param task
+     *            the task of the {@link DomainDeliveryScheduler}, or
+     *            <code>null</code>
+     * @throws MailQueueException
+     */
+    private void process(MailQueueItem queueItem, Session session, DomainDeliveryScheduler.Task<MailQueueItem> task) throws MailQueueException {
+        Mail mail = queueItem.getMail();
 
-        // Checks the pool and delivers a mail message
+        String key = mail.getName();
+
+        try {
+            if (!loadSharedBody(mail)) {
+                // nothing left to deliver
+                LifecycleUtil.dispose(mail);
+                queueItem.done(true);
+                return;
+            }
+
+            if (isDebug) {
+                String message = Thread.currentThread().getName() + " will process mail " + key;
+                log(message);
+            }
+
+            // Deliver message
+            if (deliver(mail, session)) {
+                // Message was successfully delivered/fully
+                // failed...
+                // delete it
+                releaseSharedBody(mail);
+                LifecycleUtil.dispose(mail);
+                // workRepository.remove(key);
+            } else {
+                // Something happened that will delay delivery.
+                // Store it back in the retry repository.
+                // workRepository.store(mail);
+                int retries = 0;
+                try {
+                    retries = Integer.parseInt(mail.getErrorMessage());
+                } catch (NumberFormatException e) {
+                    // Something strange was happen with the
+                    // errorMessage..
+                }
+
+                long delay = getNextDelay(retries);
+                if (task != null) {
+                    // don't retry before the back off of the domain ends
+                    delay = Math.max(delay, domainScheduler.complete(task, true));
+                    task = null;
+                }
+
+                if (usePriority) {
+                    // Use lowest priority for retries. See JAMES-1311
+                    mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
+                }
+                if (mail.getAttribute(SHARED_BODY) != null) {
+                    // the message is still stored in the shared body
+                    mail.setMessage(createPlaceholderMessage());
+                }
+                queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
+                LifecycleUtil.dispose(mail);
+
+                // This is an update, so we have to unlock and
+                // notify or this mail is kept locked by this
+                // thread.
+                // workRepository.unlock(key);
+
+                // Note: We do not notify because we updated an
+                // already existing mail and we are now free to
+                // handle
+                // more mails.
+                // Furthermore this mail should not be processed now
+                // because we have a retry time scheduling.
+            }
+
+            // Clear the object handle to make sure it recycles
+            // this object.
+            mail = null;
+            queueItem.done(true);
+        } catch (Exception e) {
+            // Prevent unexpected exceptions from causing looping by
+            // removing message from outgoing.
+            // DO NOT CHANGE THIS to catch Error! For example, if
+            // there were an OutOfMemory condition caused because
+            // something else in the server was abusing memory, we
+            // would
+            // not want to start purging the retrying spool!
+            log("Exception caught in RemoteDelivery.run()", e);
+            if (task != null) {
+                // the mail goes back to the queue, so count it as failed
+                domainScheduler.complete(task, true);
+                task = null;
+            }
+            LifecycleUtil.dispose(mail);
+            // workRepository.remove(key);
+            queueItem.done(false);
+            throw new MailQueueException("Unable to perform dequeue", e);
+        } finally {
+            if (task != null) {
+                domainScheduler.complete(task, false);
+            }
+        }
+    }
+
+    /**
+     * Create the JavaMail properties used for outgoing connections
+     *
+     * @return props
+     */
+    private Properties createSessionProperties() {
         Properties props = new Properties();
         // Not needed for production environment
         props.put("mail.debug", "false");
@@ -763,102 +1206,78 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
         }
 
         props.putAll(defprops);
+        return props;
+    }
 
-        final Session session = obtainSession(props);
+    /**
+     * Store the message of the given mail in the {@link SharedBodyStore} and
+     * replace it by a placeholder, so the mails queued for the single domains
+     * don't contain a copy of it.
+     *
+     * @param mail
+     * @param references
+     *            count of mails which will reference the body
+     * @return id of the shared body or <code>null</code> if it could not be
+     *         stored
+     */
+    private String storeSharedBody(Mail mail, int references) {
         try {
-            while (!Thread.interrupted() && !destroyed) {
-                try {
-                    // Get the 'mail' object that is ready for deliverying. If
-                    // no
-                    // message is
-                    // ready, the 'accept' will block until message is ready.
-                    // The amount
-                    // of time to block is determined by the 'getWaitTime'
-                    // method of the
-                    // MultipleDelayFilter.
-                    MailQueueItem queueItem = queue.deQueue();
-                    Mail mail = queueItem.getMail();
-
-                    String key = mail.getName();
-
-                    try {
-                        if (isDebug) {
-                            String message = Thread.currentThread().getName() + " will process mail " + key;
-                            log(message);
-                        }
-
-                        // Deliver message
-                        if (deliver(mail, session)) {
-                            // Message was successfully delivered/fully
-                            // failed...
-                            // delete it
-                            LifecycleUtil.dispose(mail);
-                            // workRepository.remove(key);
-                        } else {
-                            // Something happened that will delay delivery.
-                            // Store it back in the retry repository.
-                            // workRepository.store(mail);
-                            int retries = 0;
-                            try {
-                                retries = Integer.parseInt(mail.getErrorMessage());
-                            } catch (NumberFormatException e) {
-                                // Something strange was happen with the
-                                // errorMessage..
-                            }
-
-                            long delay = getNextDelay(retries);
-
-                            if (usePriority) {
-                                // Use lowest priority for retries. See JAMES-1311
-                                mail.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.LOW_PRIORITY);
-                            }
-                            queue.enQueue(mail, delay, TimeUnit.MILLISECONDS);
-                            LifecycleUtil.dispose(mail);
-
-                            // This is an update, so we have to unlock and
-                            // notify or this mail is kept locked by this
-                            // thread.
-                            // workRepository.unlock(key);
-
-                            // Note: We do not notify because we updated an
-                            // already existing mail and we are now free to
-                            // handle
-                            // more mails.
-                            // Furthermore this mail should not be processed now
-                            // because we have a retry time scheduling.
-                        }
-
-                        // Clear the object handle to make sure it recycles
-                        // this object.
-                        mail = null;
-                        queueItem.done(true);
-                    } catch (Exception e) {
-                        // Prevent unexpected exceptions from causing looping by
-                        // removing message from outgoing.
-                        // DO NOT CHANGE THIS to catch Error! For example, if
-                        // there were an OutOfMemory condition caused because
-                        // something else in the server was abusing memory, we
-                        // would
-                        // not want to start purging the retrying spool!
-                        log("Exception caught in RemoteDelivery.run()", e);
-                        LifecycleUtil.dispose(mail);
-                        // workRepository.remove(key);
-                        queueItem.done(false);
-                        throw new MailQueueException("Unable to perform dequeue", e);
-                    }
+            String sharedBody = sharedBodyStore.store(mail.getMessage(), references);
+            mail.setMessage(createPlaceholderMessage());
+            mail.setAttribute(SHARED_BODY, sharedBody);
+            return sharedBody;
+        } catch (IOException e) {
+            log("Unable to store shared body of mail " + mail.getName() + ", queue a copy per domain", e);
+        } catch (MessagingException e) {
+            log("Unable to store shared body of mail " + mail.getName() + ", queue a copy per domain", e);
+        }
+        return null;
+    }
 
-                } catch (Throwable e) {
-                    if (!destroyed) {
-                        log("Exception caught in RemoteDelivery.run()", e);
-                    }
-                }
+    /**
+     * Replace the placeholder message of a dequeued mail with its shared body
+     *
+     * @param mail
+     * @return <code>false</code> if the shared body does not exist anymore
+     * @throws MessagingException
+     */
+    private boolean loadSharedBody(Mail mail) throws MessagingException {
+        String sharedBody = (String) mail.getAttribute(SHARED_BODY);
+        if (sharedBody == null) {
+            return true;
+        }
+        try {
+            if (sharedBodyStore == null) {
+                throw new FileNotFoundException("No sharedBodyRepository available");
             }
-        } finally {
-            // Restore the thread state to non-interrupted.
-            Thread.interrupted();
+            mail.setMessage(sharedBodyStore.load(sharedBody));
+            return true;
+        } catch (FileNotFoundException e) {
+            log("Unable to load shared body of mail " + mail.getName() + ", dropping it", e);
+            return false;
         }
     }
 
+    /**
+     * Release the reference of the given mail to its shared body, once it was
+     * delivered or bounced
+     *
+     * @param mail
+     */
+    private void releaseSharedBody(Mail mail) {
+        String sharedBody = (String) mail.getAttribute(SHARED_BODY);
+        if (sharedBody != null && sharedBodyStore != null) {
+            sharedBodyStore.release(sharedBody, (Integer) mail.getAttribute(SHARED_BODY_REFERENCE));
+        }
+    }
+
+    private MimeMessage createPlaceholderMessage() throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setText("");
+        message.saveChanges();
+        return message;
+    }
+
     /**
      * We can assume that the recipients of this message are all going to the
      * same mail server. We will now rely on the DNS server to do DNS MX record
@@ -958,13 +1377,22 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                     // NOTIFY= after RCPT TO line.
 
                     Transport transport = null;
+                    PooledTransport pooledTransport = null;
+                    boolean reusable = false;
                     try {
-                        transport = session.getTransport(outgoingMailServer);
                         try {
-                            if (authUser != null) {
-                                transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+                            if (transportPool != null) {
+                                pooledTransport = transportPool.borrow(outgoingMailServer);
+                                transport = pooledTransport.getTransport();
+                                // the transport reads the sender from its own session
+                                pooledTransport.getSession().getProperties().put("mail.smtp.from", props.get("mail.smtp.from"));
                             } else {
-                                transport.connect();
+                                transport = session.getTransport(outgoingMailServer);
+                                if (authUser != null) {
+                                    transport.connect(outgoingMailServer.getHostName(), authUser, authPass);
+                                } else {
+                                    transport.connect();
+                                }
                             }
                         } catch (MessagingException me) {
                             // Any error on connect should cause the mailet to
@@ -1030,9 +1458,19 @@ public class RemoteDelivery extends GenericMailet implements Runnable {
                                 log("Error during the conversion to 7 bit.", e);
                             }
                         }
-                        transport.sendMessage(message, addr);
+                        try {
+                            transport.sendMessage(message, addr);
+                            reusable = true;
+                        } catch (SendFailedException sfe) {
+                            // the transaction failed, but not the connection
+                            reusable = true;
+                            throw sfe;
+                        }
                     } finally {
-                        if (transport != null) {
+                        if (pooledTransport != null) {
+                            transportPool.release(pooledTransport, reusable);
+                            transport = null;
+                        } else if (transport != null) {
                             try {
                                 // James-899: transport.close() sends QUIT to
                                 // the server; if that fails
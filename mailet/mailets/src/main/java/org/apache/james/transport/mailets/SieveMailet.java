@@ -18,13 +18,30 @@
  ****************************************************************/
 package org.apache.james.transport.mailets;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import org.apache.james.core.MailImpl;
 import org.apache.james.core.MimeMessageInputStream;
+import org.apache.james.core.MimeMessageInputStreamSource;
+import org.apache.james.core.MimeMessageWrapper;
 import org.apache.james.filesystem.api.FileSystem;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
@@ -36,6 +53,7 @@ import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.transport.util.MailetContextLog;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 import org.apache.jsieve.mailet.Poster;
 import org.apache.jsieve.mailet.SieveMailboxMailet;
 import org.apache.mailet.Mail;
@@ -44,13 +62,34 @@ import org.apache.mailet.MailetConfig;
 
 /**
  * Contains resource bindings.
+ * 
+ * A mail with more then one recipient is spooled once and then delivered to
+ * the recipients concurrently, using at most <code>deliveryThreads</code>
+ * threads. Every recipient gets a light weight copy of the message which
+ * shares the spooled content and only holds its own headers.
  */
 public class SieveMailet extends SieveMailboxMailet implements Poster {
+
+    /**
+     * Default count of threads used to deliver to many recipients
+     */
+    public final static int DEFAULT_DELIVERY_THREADS = 8;
+
+    /**
+     * Count of users for which the existence of the INBOX is cached
+     */
+    private final static int INBOX_CACHE_SIZE = 10000;
+
     private UsersRepository usersRepos;
     private MailboxManager mailboxManager;
     private FileSystem fileSystem;
     private String folder;
 
+    private String deliveryHeader;
+    private boolean resetReturnPath;
+    private ThreadPoolExecutor deliveryExecutor;
+    private final ConcurrentMap<String, Boolean> knownInboxes = new ConcurrentHashMap<String, Boolean>();
+
     @Inject
     public void setUsersRepository(UsersRepository usersRepos) {
         this.usersRepos = usersRepos;
@@ -90,6 +129,112 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
         }
         setPoster(this);
         super.init(config);
+
+        deliveryHeader = getInitParameter("addDeliveryHeader");
+        resetReturnPath = getInitParameter("resetReturnPath", false);
+        int threads = DEFAULT_DELIVERY_THREADS;
+        String threadsParam = getInitParameter("deliveryThreads");
+        if (threadsParam != null) {
+            try {
+                threads = Integer.parseInt(threadsParam);
+            } catch (NumberFormatException e) {
+                throw new MessagingException("Invalid deliveryThreads setting: " + threadsParam);
+            }
+        }
+        if (threads > 1) {
+            deliveryExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("LocalDelivery"));
+            deliveryExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdown();
+            deliveryExecutor = null;
+        }
+        knownInboxes.clear();
+        super.destroy();
+    }
+
+    /**
+     * Deliver the mail to all its recipients. If there is more then one
+     * recipient the deliveries are done concurrently, otherwise this is the
+     * same as {@link SieveMailboxMailet#service(Mail)}.
+     * 
+     * @see org.apache.jsieve.mailet.SieveMailboxMailet#service(org.apache.mailet.Mail)
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public void service(final Mail mail) throws MessagingException {
+        final Collection<MailAddress> recipients = mail.getRecipients();
+        ThreadPoolExecutor executor = deliveryExecutor;
+        if (executor == null || recipients.size() < 2) {
+            super.service(mail);
+            return;
+        }
+
+        final MimeMessage message = mail.getMessage();
+        if (resetReturnPath) {
+            message.setHeader("Return-Path", (mail.getSender() == null ? "<>" : "<" + mail.getSender() + ">"));
+        }
+
+        // spool the message once, all recipients share the content. The
+        // source is filled via its output stream, as the constructor which
+        // takes an InputStream deletes the spool file of big messages
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource(mail.getName() + "-delivery");
+        try {
+            OutputStream out = source.getWritableOutputStream();
+            try {
+                message.writeTo(out);
+            } finally {
+                out.close();
+            }
+
+            List<MailAddress> rcpts = new ArrayList<MailAddress>(recipients);
+            List<Future<?>> futures = new ArrayList<Future<?>>(rcpts.size());
+            for (MailAddress recipient : rcpts) {
+                futures.add(executor.submit(new RecipientDelivery(mail, recipient, source)));
+            }
+
+            Collection<MailAddress> errors = new ArrayList<MailAddress>();
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); i++) {
+                Future<?> future = futures.get(i);
+                try {
+                    if (interrupted) {
+                        future.cancel(true);
+                    }
+                    if (!future.isCancelled()) {
+                        future.get();
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    future.cancel(true);
+                } catch (ExecutionException e) {
+                    log("Error while storing mail.", e.getCause());
+                }
+                errors.add(rcpts.get(i));
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (!errors.isEmpty()) {
+                // If there were errors, we redirect the email to the ERROR
+                // processor.
+                getMailetContext().sendMail(mail.getSender(), errors, message, Mail.ERROR);
+            }
+        } catch (IOException e) {
+            throw new MessagingException("Unable to spool mail " + mail.getName(), e);
+        } finally {
+            source.dispose();
+        }
+
+        if (isConsume()) {
+            mail.setState(Mail.GHOST);
+        }
     }
 
     /**
@@ -209,9 +354,16 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
                     // Use the MailboxSession to construct the MailboxPath - See
                     // JAMES-1326
                     final MailboxPath path = new MailboxPath(MailboxConstants.USER_NAMESPACE, user, destination);
+                    boolean inbox = this.folder.equalsIgnoreCase(destination);
                     try {
-                        if (this.folder.equalsIgnoreCase(destination) && !(mailboxManager.mailboxExists(path, session))) {
-                            mailboxManager.createMailbox(path, session);
+                        if (inbox && !knownInboxes.containsKey(user)) {
+                            if (!mailboxManager.mailboxExists(path, session)) {
+                                mailboxManager.createMailbox(path, session);
+                            }
+                            if (knownInboxes.size() >= INBOX_CACHE_SIZE) {
+                                knownInboxes.clear();
+                            }
+                            knownInboxes.put(user, Boolean.TRUE);
                         }
                         final MessageManager mailbox = mailboxManager.getMailbox(path, session);
                         if (mailbox == null) {
@@ -222,6 +374,11 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
                         mailbox.appendMessage(new MimeMessageInputStream(mail), new Date(), session, true, null);
 
                     } catch (MailboxException e) {
+                        if (inbox) {
+                            // check again on the next delivery, the mailbox
+                            // may have been deleted in the meantime
+                            knownInboxes.remove(user);
+                        }
                         throw new MessagingException("Unable to access mailbox.", e);
                     } finally {
                         session.close();
@@ -248,4 +405,35 @@ public class SieveMailet extends SieveMailboxMailet implements Poster {
         }
     }
 
+    /**
+     * Delivers the mail to one recipient. The recipient gets its own copy of
+     * the message, which reads the content from the shared source.
+     */
+    private final class RecipientDelivery implements Callable<Void> {
+        private final Mail mail;
+        private final MailAddress recipient;
+        private final MimeMessageInputStreamSource source;
+
+        public RecipientDelivery(Mail mail, MailAddress recipient, MimeMessageInputStreamSource source) {
+            this.mail = mail;
+            this.recipient = recipient;
+            this.source = source;
+        }
+
+        public Void call() throws MessagingException {
+            MimeMessageWrapper message = new MimeMessageWrapper(source);
+            if (deliveryHeader != null) {
+                message.addHeader(deliveryHeader, recipient.toString());
+            }
+            // the copy is not disposed, as this would dispose the shared
+            // source which is done once all deliveries are done
+            MailImpl copy = new MailImpl(mail.getName(), mail.getSender(), Collections.singletonList(recipient));
+            copy.setRemoteHost(mail.getRemoteHost());
+            copy.setRemoteAddr(mail.getRemoteAddr());
+            copy.setMessage(message);
+            storeMail(mail.getSender(), recipient, copy);
+            return null;
+        }
+    }
+
 }
@@ -129,6 +129,14 @@ public class ToRecipientFolder extends GenericMailet {
         sieveMailet.setFolder(getInitParameter("folder", "INBOX"));
     }
 
+    /* (non-Javadoc)
+     * @see org.apache.mailet.base.GenericMailet#destroy()
+     */
+    @Override
+    public void destroy() {
+        sieveMailet.destroy();
+    }
+
     /* (non-Javadoc)
      * @see org.apache.mailet.base.GenericMailet#getMailetInfo()
      */
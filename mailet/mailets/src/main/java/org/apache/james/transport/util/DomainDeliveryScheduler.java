@@ -0,0 +1,369 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * Schedules the delivery of dequeued mails per destination domain, so a slow
+ * or failing domain can not occupy every delivery thread.
+ * <p>
+ * Mails are handed in with {@link #offer(String, Object)} and taken by the
+ * delivery threads with {@link #take()}, which serves the domains in turn.
+ * A domain is only served if
+ * <ul>
+ * <li>less than <code>maxConcurrency</code> of its mails are delivered right
+ * now</li>
+ * <li>its rate limit allows to start the next delivery</li>
+ * </ul>
+ * After <code>failureThreshold</code> consecutive temporary failures the whole
+ * domain is backed off, using the delays of the retry schedule in turn, and
+ * mails of it which failed are not retried before the back off ends. While a
+ * domain is backed off its mails are returned as deferred {@link Task}s, which
+ * should be put back into the queue until the back off ends.
+ * </p>
+ * <p>
+ * A domain without mails is forgotten at once if its last delivery succeeded.
+ * Otherwise it is kept to remember its failures, until its back off ended and
+ * it got no mail for the longest retry delay.
+ * </p>
+ *
+ * @param <T>
+ *            type of the scheduled mails
+ */
+public class DomainDeliveryScheduler<T> implements DomainDeliverySchedulerMBean {
+
+    private final static String[] STATE_NAMES = new String[]{"domain", "backlog", "active", "consecutiveFailures", "backoffUntil", "delivered", "failed"};
+    private final static String[] STATE_DESCS = new String[]{"Destination domain", "Mails waiting for delivery", "Mails being delivered", "Temporary failures since the last success",
+            "Timestamp until which the domain is backed off, 0 if it is not", "Mails delivered or permanently failed", "Temporary failed deliveries"};
+    private final static OpenType<?>[] STATE_TYPES = new OpenType<?>[]{SimpleType.STRING, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG};
+
+    private final int maxConcurrency;
+    private final long minInterval;
+    private final int failureThreshold;
+    private final long[] delayTimes;
+    private final int maxBacklog;
+    private final long idleTimeout;
+
+    /**
+     * The domains in the order they are served. A served domain is moved to
+     * the end.
+     */
+    private final LinkedHashMap<String, Domain> domains = new LinkedHashMap<String, Domain>();
+    private int backlog;
+    private int active;
+    private boolean closed;
+
+    /**
+     * @param maxConcurrency
+     *            maximal count of concurrent deliveries per domain
+     * @param maxRate
+     *            maximal deliveries started per second and domain, 0 for
+     *            unlimited
+     * @param failureThreshold
+     *            count of consecutive temporary failures after which a domain
+     *            is backed off
+     * @param delayTimes
+     *            retry delays in milliseconds, the last one is used for all
+     *            further retries
+     * @param maxBacklog
+     *            maximal count of mails waiting in the scheduler, before
+     *            {@link #offer(String, Object)} blocks
+     */
+    public DomainDeliveryScheduler(int maxConcurrency, double maxRate, int failureThreshold, long[] delayTimes, int maxBacklog) {
+        this.maxConcurrency = maxConcurrency;
+        this.minInterval = maxRate > 0 ? (long) (1000 / maxRate) : 0;
+        this.failureThreshold = failureThreshold;
+        this.delayTimes = delayTimes;
+        this.maxBacklog = maxBacklog;
+        long maxDelay = 0;
+        for (long delayTime : delayTimes) {
+            maxDelay = Math.max(maxDelay, delayTime);
+        }
+        this.idleTimeout = maxDelay;
+    }
+
+    /**
+     * Add a mail for the given domain. Blocks while the backlog is full.
+     *
+     * @param domain
+     * @param mail
+     * @throws InterruptedException
+     *             if interrupted or the scheduler was closed
+     */
+    public synchronized void offer(String domain, T mail) throws InterruptedException {
+        while (backlog >= maxBacklog && !closed) {
+            wait();
+        }
+        if (closed) {
+            throw new InterruptedException("Scheduler was closed");
+        }
+        Domain d = getDomain(domain);
+        d.pending.add(mail);
+        d.lastUsed = System.currentTimeMillis();
+        backlog++;
+        notifyAll();
+    }
+
+    /**
+     * Return the next mail to deliver, or the next mail of a backed off domain
+     * which should be deferred. Blocks until one is available.
+     *
+     * @return task
+     * @throws InterruptedException
+     *             if interrupted or the scheduler was closed
+     */
+    public synchronized Task<T> take() throws InterruptedException {
+        while (!closed) {
+            long now = System.currentTimeMillis();
+            expireIdleDomains(now);
+            long wait = 0;
+            for (Domain domain : domains.values()) {
+                if (domain.pending.isEmpty()) {
+                    continue;
+                }
+                if (domain.backoffUntil > now) {
+                    backlog--;
+                    notifyAll();
+                    return new Task<T>(domain.name, domain.pending.poll(), domain.backoffUntil - now);
+                }
+                if (domain.active >= maxConcurrency) {
+                    continue;
+                }
+                if (domain.nextStart > now) {
+                    wait = wait == 0 ? domain.nextStart - now : Math.min(wait, domain.nextStart - now);
+                    continue;
+                }
+                domain.active++;
+                domain.nextStart = now + minInterval;
+                active++;
+                backlog--;
+                // move to the end, so the other domains are served first
+                domains.remove(domain.name);
+                domains.put(domain.name, domain);
+                notifyAll();
+                return new Task<T>(domain.name, domain.pending.poll(), 0);
+            }
+            wait(wait);
+        }
+        throw new InterruptedException("Scheduler was closed");
+    }
+
+    /**
+     * Mark the delivery of the given task as done
+     *
+     * @param task
+     * @param temporaryFailure
+     *            <code>true</code> if the delivery failed temporary and should
+     *            be retried
+     * @return milliseconds the domain is still backed off, 0 if it is not
+     */
+    public synchronized long complete(Task<T> task, boolean temporaryFailure) {
+        Domain domain = getDomain(task.domain);
+        domain.active--;
+        active--;
+
+        long now = System.currentTimeMillis();
+        domain.lastUsed = now;
+        long delay = 0;
+        if (temporaryFailure) {
+            domain.failed++;
+            domain.consecutiveFailures++;
+            if (domain.consecutiveFailures >= failureThreshold && domain.backoffUntil <= now) {
+                domain.backoffUntil = now + getDelay(domain.backoffs++);
+            }
+            if (domain.backoffUntil > now) {
+                delay = domain.backoffUntil - now;
+            }
+        } else {
+            domain.delivered++;
+            domain.consecutiveFailures = 0;
+            domain.backoffs = 0;
+            domain.backoffUntil = 0;
+        }
+        removeIfUnused(domain);
+        notifyAll();
+        return delay;
+    }
+
+    /**
+     * Wake up all waiting threads and let them fail
+     *
+     * @return the mails which were not taken yet
+     */
+    public synchronized List<T> close() {
+        closed = true;
+        List<T> mails = new ArrayList<T>();
+        for (Domain domain : domains.values()) {
+            mails.addAll(domain.pending);
+            domain.pending.clear();
+        }
+        backlog = 0;
+        notifyAll();
+        return mails;
+    }
+
+    @Override
+    public synchronized int getBacklog() {
+        return backlog;
+    }
+
+    @Override
+    public synchronized int getActiveCount() {
+        return active;
+    }
+
+    @Override
+    public synchronized List<CompositeData> getDomainStates() throws OpenDataException {
+        CompositeType type = new CompositeType("DomainState", "Delivery state of a domain", STATE_NAMES, STATE_DESCS, STATE_TYPES);
+        List<CompositeData> states = new ArrayList<CompositeData>();
+        long now = System.currentTimeMillis();
+        expireIdleDomains(now);
+        for (Domain domain : domains.values()) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            map.put(STATE_NAMES[0], domain.name);
+            map.put(STATE_NAMES[1], domain.pending.size());
+            map.put(STATE_NAMES[2], domain.active);
+            map.put(STATE_NAMES[3], domain.consecutiveFailures);
+            map.put(STATE_NAMES[4], domain.backoffUntil > now ? domain.backoffUntil : 0L);
+            map.put(STATE_NAMES[5], domain.delivered);
+            map.put(STATE_NAMES[6], domain.failed);
+            states.add(new CompositeDataSupport(type, map));
+        }
+        return states;
+    }
+
+    @Override
+    public synchronized boolean resumeDomain(String domain) {
+        Domain d = domains.get(domain);
+        if (d == null || d.backoffUntil <= System.currentTimeMillis()) {
+            return false;
+        }
+        d.backoffUntil = 0;
+        d.consecutiveFailures = 0;
+        notifyAll();
+        return true;
+    }
+
+    private long getDelay(int retry) {
+        return delayTimes[Math.min(retry, delayTimes.length - 1)];
+    }
+
+    private Domain getDomain(String name) {
+        Domain domain = domains.get(name);
+        if (domain == null) {
+            domain = new Domain(name);
+            domains.put(name, domain);
+        }
+        return domain;
+    }
+
+    /**
+     * Forget a domain which is healthy and has nothing to do
+     */
+    private void removeIfUnused(Domain domain) {
+        if (domain.pending.isEmpty() && domain.active == 0 && domain.consecutiveFailures == 0 && domain.backoffs == 0) {
+            domains.remove(domain.name);
+        }
+    }
+
+    /**
+     * Forget the domains which have nothing to do, are not backed off anymore
+     * and got no mail for the longest retry delay
+     */
+    private void expireIdleDomains(long now) {
+        Iterator<Domain> it = domains.values().iterator();
+        while (it.hasNext()) {
+            Domain domain = it.next();
+            if (domain.pending.isEmpty() && domain.active == 0 && domain.backoffUntil <= now && domain.lastUsed + idleTimeout <= now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A mail taken from the scheduler
+     *
+     * @param <T>
+     */
+    public final static class Task<T> {
+        private final String domain;
+        private final T mail;
+        private final long deferDelay;
+
+        private Task(String domain, T mail, long deferDelay) {
+            this.domain = domain;
+            this.mail = mail;
+            this.deferDelay = deferDelay;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public T getMail() {
+            return mail;
+        }
+
+        /**
+         * Return the milliseconds the mail should be deferred because its
+         * domain is backed off. If 0 the mail should be delivered and
+         * {@link DomainDeliveryScheduler#complete(Task, boolean)} be called
+         * afterwards.
+         *
+         * @return deferDelay
+         */
+        public long getDeferDelay() {
+            return deferDelay;
+        }
+    }
+
+    /**
+     * State of one destination domain
+     */
+    private final class Domain {
+        private final String name;
+        private final LinkedList<T> pending = new LinkedList<T>();
+        private int active;
+        private long nextStart;
+        private int consecutiveFailures;
+        private int backoffs;
+        private long backoffUntil;
+        private long lastUsed;
+        private long delivered;
+        private long failed;
+
+        private Domain(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * JMX MBean for the per domain scheduling of RemoteDelivery
+ */
+public interface DomainDeliverySchedulerMBean {
+
+    /**
+     * Return the count of dequeued mails which wait for their domain to become
+     * ready
+     * 
+     * @return backlog
+     */
+    int getBacklog();
+
+    /**
+     * Return the count of mails which are delivered right now
+     * 
+     * @return active
+     */
+    int getActiveCount();
+
+    /**
+     * Return the state of every domain which has mails waiting or being
+     * delivered, or which is backed off
+     * 
+     * @return states
+     * @throws Exception
+     */
+    List<CompositeData> getDomainStates() throws Exception;
+
+    /**
+     * Stop backing off the given domain, so its mails are delivered again
+     * 
+     * @param domain
+     * @return <code>true</code> if the domain was backed off
+     */
+    boolean resumeDomain(String domain);
+}
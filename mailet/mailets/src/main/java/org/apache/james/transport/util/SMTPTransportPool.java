@@ -0,0 +1,346 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+/**
+ * Pool of connected outgoing SMTP {@link Transport}s, keyed by target host and
+ * port.
+ * <p>
+ * A borrowed transport is used by one caller only. When it is given back it
+ * stays connected for the next mail to the same host, until it was idle for
+ * longer than the idle timeout or sent the maximal count of messages. Before
+ * an idle transport is handed out again a <code>RSET</code> is sent, which
+ * also makes sure the server did not close the connection meanwhile.
+ * </p>
+ * <p>
+ * The count of transports per host, borrowed or being connected, can be
+ * limited so remote servers don't throttle us.
+ * </p>
+ */
+public class SMTPTransportPool {
+
+    /**
+     * Creates and connects new transports
+     */
+    public interface Connector {
+
+        /**
+         * Create the {@link Session} for a new transport. Every transport gets
+         * its own, so the sender can be set on it.
+         *
+         * @return session
+         */
+        Session createSession();
+
+        /**
+         * Connect the given transport to the given server
+         *
+         * @param transport
+         * @param server
+         * @throws MessagingException
+         */
+        void connect(Transport transport, URLName server) throws MessagingException;
+    }
+
+    private final Connector connector;
+    private final long idleTimeout;
+    private final int maxMessagesPerConnection;
+    private final int maxConnectionsPerHost;
+    private final long maxWait;
+
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+    private boolean closed;
+
+    /**
+     * @param connector
+     * @param idleTimeout
+     *            milliseconds after which an idle transport gets closed
+     * @param maxMessagesPerConnection
+     *            count of messages after which a transport gets closed, 1
+     *            disables the reuse of transports
+     * @param maxConnectionsPerHost
+     *            maximal count of transports per host which are in use at
+     *            once, 0 for unlimited
+     * @param maxWait
+     *            maximal milliseconds to wait for a free connection slot of a
+     *            host
+     */
+    public SMTPTransportPool(Connector connector, long idleTimeout, int maxMessagesPerConnection, int maxConnectionsPerHost, long maxWait) {
+        this.connector = connector;
+        this.idleTimeout = idleTimeout;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Return a connected transport for the given server, either an idle one
+     * or a newly connected one
+     *
+     * @param server
+     * @return transport
+     * @throws MessagingException
+     *             if no transport could be connected or the host has too many
+     *             connections
+     */
+    public PooledTransport borrow(URLName server) throws MessagingException {
+        String key = server.getHost() + ":" + server.getPort();
+        Host host;
+        synchronized (this) {
+            if (closed) {
+                throw new MessagingException("Transport pool was closed");
+            }
+            host = hosts.get(key);
+            if (host == null) {
+                host = new Host();
+                hosts.put(key, host);
+            }
+            // keeps the host from being removed until acquire() returns
+            host.addWaiter();
+        }
+
+        host.acquire(key);
+        try {
+            PooledTransport transport;
+            while ((transport = host.pollIdle()) != null) {
+                if (reset(transport.getTransport())) {
+                    return transport;
+                }
+                close(transport);
+            }
+
+            Session session = connector.createSession();
+            Transport newTransport = session.getTransport(server);
+            connector.connect(newTransport, server);
+            return new PooledTransport(host, session, newTransport);
+        } catch (MessagingException e) {
+            host.release();
+            throw e;
+        } catch (RuntimeException e) {
+            host.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a borrowed transport
+     *
+     * @param transport
+     * @param reusable
+     *            <code>false</code> if the connection may be broken, in which
+     *            case it gets closed
+     */
+    public void release(PooledTransport transport, boolean reusable) {
+        Host host = transport.host;
+        transport.messages++;
+        try {
+            if (reusable && transport.messages < maxMessagesPerConnection && !isClosed()) {
+                transport.lastUsed = System.currentTimeMillis();
+                host.addIdle(transport);
+            } else {
+                close(transport);
+            }
+        } finally {
+            host.release();
+        }
+        closeExpired();
+    }
+
+    /**
+     * Close all idle transports. Borrowed transports are closed when they are
+     * given back.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        closeExpired();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the idle transports which timed out, or all if the pool was
+     * closed
+     */
+    private void closeExpired() {
+        long expiry = isClosed() ? Long.MAX_VALUE : System.currentTimeMillis() - idleTimeout;
+        LinkedList<PooledTransport> expired = new LinkedList<PooledTransport>();
+        synchronized (this) {
+            for (Iterator<Host> it = hosts.values().iterator(); it.hasNext();) {
+                Host host = it.next();
+                if (host.removeExpired(expiry, expired)) {
+                    it.remove();
+                }
+            }
+        }
+        for (PooledTransport transport : expired) {
+            close(transport);
+        }
+    }
+
+    /**
+     * Send RSET over the given idle transport
+     *
+     * @return <code>true</code> if the transport can be used for the next
+     *         message
+     */
+    private boolean reset(Transport transport) {
+        // if the transport is a SMTPTransport (from sun) the command can be
+        // issued directly. Otherwise just check the connection.
+        if (transport.getClass().getName().endsWith(".SMTPTransport")) {
+            try {
+                Method simpleCommand = transport.getClass().getMethod("simpleCommand", new Class[]{String.class});
+                return (Integer) simpleCommand.invoke(transport, "RSET") == 250;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+        try {
+            return transport.isConnected();
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void close(PooledTransport transport) {
+        try {
+            transport.getTransport().close();
+        } catch (MessagingException e) {
+            // the server may already have closed the connection
+        }
+    }
+
+    /**
+     * A transport of the pool and its {@link Session}
+     */
+    public static final class PooledTransport {
+        private final Host host;
+        private final Session session;
+        private final Transport transport;
+        private int messages;
+        private long lastUsed;
+
+        private PooledTransport(Host host, Session session, Transport transport) {
+            this.host = host;
+            this.session = session;
+            this.transport = transport;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * @return count of messages sent over this transport before it was
+         *         borrowed
+         */
+        public int getMessageCount() {
+            return messages;
+        }
+    }
+
+    /**
+     * Idle transports and connection count of one host
+     */
+    private final class Host {
+        /** Idle transports, the most recently used first */
+        private final LinkedList<PooledTransport> idle = new LinkedList<PooledTransport>();
+        private int inUse;
+        private int waiters;
+
+        private synchronized void addWaiter() {
+            waiters++;
+        }
+
+        private synchronized void acquire(String key) throws MessagingException {
+            try {
+                waitForSlot(key);
+            } finally {
+                waiters--;
+            }
+            inUse++;
+        }
+
+        private void waitForSlot(String key) throws MessagingException {
+            if (maxConnectionsPerHost > 0) {
+                long end = System.currentTimeMillis() + maxWait;
+                while (inUse >= maxConnectionsPerHost) {
+                    long wait = end - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        throw new MessagingException("Too many connections to " + key);
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MessagingException("Interrupted while waiting for a connection to " + key, e);
+                    }
+                }
+            }
+        }
+
+        private synchronized void release() {
+            inUse--;
+            notifyAll();
+        }
+
+        private synchronized PooledTransport pollIdle() {
+            return idle.poll();
+        }
+
+        private synchronized void addIdle(PooledTransport transport) {
+            idle.addFirst(transport);
+        }
+
+        /**
+         * Move the transports which were idle since the given time to the
+         * given list
+         *
+         * @return <code>true</code> if the host is unused now
+         */
+        private synchronized boolean removeExpired(long expiry, LinkedList<PooledTransport> expired) {
+            for (Iterator<PooledTransport> it = idle.iterator(); it.hasNext();) {
+                PooledTransport transport = it.next();
+                if (transport.lastUsed <= expiry) {
+                    it.remove();
+                    expired.add(transport);
+                }
+            }
+            return idle.isEmpty() && inUse == 0 && waiters == 0;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageSource;
+
+/**
+ * Stores a message body once for several mails which are queued on their own,
+ * for example the per domain copies of a mail created by RemoteDelivery.
+ * <p>
+ * Every body gets its own directory which contains the message and one empty
+ * file per reference. Releasing a reference deletes its file, so doing it
+ * twice (for example after a crash) does not harm. The body is deleted once
+ * the last reference was released.
+ * </p>
+ */
+public class SharedBodyStore {
+
+    private final static String MESSAGE_FILE = "message";
+    private final static String REFERENCE_SUFFIX = ".ref";
+
+    private final static FilenameFilter REFERENCE_FILTER = new FilenameFilter() {
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(REFERENCE_SUFFIX);
+        }
+    };
+
+    private final File directory;
+
+    public SharedBodyStore(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+    }
+
+    /**
+     * Store the given message with the given count of references
+     *
+     * @param message
+     * @param references
+     * @return id of the stored body
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public String store(MimeMessage message, int references) throws IOException, MessagingException {
+        String id = UUID.randomUUID().toString();
+        File bodyDir = new File(directory, id);
+        if (!bodyDir.mkdir()) {
+            throw new IOException("Unable to create directory " + bodyDir);
+        }
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(new File(bodyDir, MESSAGE_FILE)));
+            message.writeTo(out);
+            out.close();
+            out = null;
+            for (int i = 0; i < references; i++) {
+                new File(bodyDir, i + REFERENCE_SUFFIX).createNewFile();
+            }
+        } catch (IOException e) {
+            close(out);
+            delete(bodyDir);
+            throw e;
+        } catch (MessagingException e) {
+            close(out);
+            delete(bodyDir);
+            throw e;
+        }
+        return id;
+    }
+
+    /**
+     * Load the body with the given id
+     *
+     * @param id
+     * @return message
+     * @throws FileNotFoundException
+     *             if the body does not exist anymore
+     * @throws MessagingException
+     */
+    public MimeMessage load(String id) throws FileNotFoundException, MessagingException {
+        File file = new File(new File(directory, id), MESSAGE_FILE);
+        if (!file.exists()) {
+            throw new FileNotFoundException("Shared body " + id + " does not exist");
+        }
+        return new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(file));
+    }
+
+    /**
+     * Release the given reference of a body. The body is deleted if no
+     * references are left.
+     *
+     * @param id
+     * @param reference
+     */
+    public void release(String id, int reference) {
+        File bodyDir = new File(directory, id);
+        new File(bodyDir, reference + REFERENCE_SUFFIX).delete();
+        String[] left = bodyDir.list(REFERENCE_FILTER);
+        if (left != null && left.length == 0) {
+            delete(bodyDir);
+        }
+    }
+
+    private void delete(File bodyDir) {
+        File[] files = bodyDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        bodyDir.delete();
+    }
+
+    private void close(OutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore on close
+            }
+        }
+    }
+
+    /**
+     * {@link MimeMessageSource} which reads a stored body
+     */
+    private final static class FileMimeMessageSource extends MimeMessageSource {
+
+        private final File file;
+
+        public FileMimeMessageSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String getSourceId() {
+            return file.getAbsolutePath();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FileInputStream(file);
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return file.length();
+        }
+    }
+}
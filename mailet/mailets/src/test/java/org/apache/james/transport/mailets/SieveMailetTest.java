@@ -0,0 +1,179 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.mailets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.core.MimeMessageInputStreamSource;
+import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.user.api.UsersRepository;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.apache.mailet.base.test.FakeMailetConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SieveMailetTest {
+
+    private final RecordingMailContext context = new RecordingMailContext();
+
+    /**
+     * The Delivered-To headers and the content each recipient got
+     */
+    private final Map<String, String[]> deliveredTo = new ConcurrentHashMap<String, String[]>();
+    private final Map<String, Object> contents = new ConcurrentHashMap<String, Object>();
+
+    private SieveMailet mailet;
+
+    @Before
+    public void setUp() throws Exception {
+        mailet = new SieveMailet() {
+
+            /**
+             * Record what the recipient would get instead of running the
+             * sieve script and storing the mail
+             */
+            @Override
+            public void storeMail(MailAddress sender, MailAddress recipient, Mail mail) throws MessagingException {
+                if (recipient.getLocalPart().equals("fail")) {
+                    throw new MessagingException("Unable to access mailbox.");
+                }
+                MimeMessage message = mail.getMessage();
+                deliveredTo.put(recipient.toString(), message.getHeader("Delivered-To"));
+                try {
+                    contents.put(recipient.toString(), message.getContent());
+                } catch (IOException e) {
+                    throw new MessagingException("Unable to read the message", e);
+                }
+            }
+        };
+        mailet.setUsersRepository(proxy(UsersRepository.class));
+        mailet.setFileSystem(proxy(FileSystem.class));
+
+        Properties parameters = new Properties();
+        parameters.setProperty("addDeliveryHeader", "Delivered-To");
+        parameters.setProperty("deliveryThreads", "4");
+        mailet.init(new FakeMailetConfig("LocalDelivery", context, parameters));
+    }
+
+    @After
+    public void tearDown() {
+        mailet.destroy();
+    }
+
+    @Test
+    public void testBigMessageIsDeliveredToEveryRecipient() throws Exception {
+        String body = createBody(MimeMessageInputStreamSource.THRESHOLD * 2);
+        Mail mail = createMail(body, "a@localhost", "b@localhost", "c@localhost");
+
+        mailet.service(mail);
+
+        assertEquals(0, context.getSendmails().size());
+        assertEquals(3, contents.size());
+        for (String recipient : Arrays.asList("a@localhost", "b@localhost", "c@localhost")) {
+            assertEquals(body, contents.get(recipient));
+            // every recipient only sees its own header
+            assertArrayEquals(new String[] { recipient }, deliveredTo.get(recipient));
+        }
+        assertNull(mail.getMessage().getHeader("Delivered-To"));
+    }
+
+    @Test
+    public void testFailedRecipientsOfBigMessageGoToErrorProcessor() throws Exception {
+        String body = createBody(MimeMessageInputStreamSource.THRESHOLD * 2);
+        Mail mail = createMail(body, "a@localhost", "fail@localhost", "b@localhost");
+
+        mailet.service(mail);
+
+        assertEquals(2, contents.size());
+        assertEquals(body, contents.get("a@localhost"));
+        assertEquals(body, contents.get("b@localhost"));
+
+        assertEquals(1, context.getSendmails().size());
+        RecordingMailContext.SendMailEvent event = context.getSendmails().get(0);
+        assertEquals(Mail.ERROR, event.getState());
+        assertEquals(Arrays.asList(new MailAddress("fail@localhost")), Arrays.asList(event.getRecipients().toArray()));
+    }
+
+    @Test
+    public void testSmallMessageIsDeliveredToEveryRecipient() throws Exception {
+        String body = createBody(1000);
+        Mail mail = createMail(body, "a@localhost", "b@localhost");
+
+        mailet.service(mail);
+
+        assertEquals(body, contents.get("a@localhost"));
+        assertEquals(body, contents.get("b@localhost"));
+        assertArrayEquals(new String[] { "b@localhost" }, deliveredTo.get("b@localhost"));
+    }
+
+    private static String createBody(int size) {
+        StringBuilder body = new StringBuilder(size + 100);
+        while (body.length() < size) {
+            body.append("0123456789012345678901234567890123456789012345678901234567890123456789012345678\r\n");
+        }
+        return body.toString();
+    }
+
+    private static Mail createMail(String body, String... recipients) throws MessagingException {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setSubject("test");
+        message.setText(body);
+        message.saveChanges();
+
+        MailAddress[] rcpts = new MailAddress[recipients.length];
+        for (int i = 0; i < recipients.length; i++) {
+            rcpts[i] = new MailAddress(recipients[i]);
+        }
+        return new MailImpl(MailImpl.getId(), new MailAddress("sender@localhost"), Arrays.asList(rcpts), message);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type) {
+        return (T) Proxy.newProxyInstance(SieveMailetTest.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getReturnType() == boolean.class) {
+                    // no virtual hosting
+                    return false;
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+}
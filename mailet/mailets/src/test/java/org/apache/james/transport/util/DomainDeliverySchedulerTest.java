@@ -0,0 +1,141 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import javax.management.openmbean.CompositeData;
+
+import org.apache.james.transport.util.DomainDeliveryScheduler.Task;
+import org.junit.Test;
+
+public class DomainDeliverySchedulerTest {
+
+    private final static long[] DELAYS = new long[]{60000, 120000};
+
+    @Test
+    public void testDomainsAreServedInTurn() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(10, 0, 3, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.offer("a", "a2");
+        scheduler.offer("b", "b1");
+
+        assertEquals("a1", scheduler.take().getMail());
+        assertEquals("b1", scheduler.take().getMail());
+        assertEquals("a2", scheduler.take().getMail());
+        assertEquals(0, scheduler.getBacklog());
+        assertEquals(3, scheduler.getActiveCount());
+    }
+
+    @Test
+    public void testConcurrencyPerDomain() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(1, 0, 3, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.offer("a", "a2");
+        scheduler.offer("b", "b1");
+
+        Task<String> a1 = scheduler.take();
+        assertEquals("a1", a1.getMail());
+        // a2 has to wait for a1
+        assertEquals("b1", scheduler.take().getMail());
+        assertEquals(1, scheduler.getBacklog());
+
+        scheduler.complete(a1, false);
+        assertEquals("a2", scheduler.take().getMail());
+    }
+
+    @Test
+    public void testBackoffAfterConsecutiveFailures() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(10, 0, 2, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.offer("a", "a2");
+        scheduler.offer("a", "a3");
+
+        assertEquals(0, scheduler.complete(scheduler.take(), true));
+        long backoff = scheduler.complete(scheduler.take(), true);
+        assertTrue(backoff > 0 && backoff <= DELAYS[0]);
+
+        // the remaining mail is deferred until the back off ends
+        Task<String> deferred = scheduler.take();
+        assertEquals("a3", deferred.getMail());
+        assertTrue(deferred.getDeferDelay() > 0 && deferred.getDeferDelay() <= DELAYS[0]);
+
+        List<CompositeData> states = scheduler.getDomainStates();
+        assertEquals(1, states.size());
+        assertEquals("a", states.get(0).get("domain"));
+        assertEquals(2L, states.get(0).get("failed"));
+        assertTrue((Long) states.get(0).get("backoffUntil") > System.currentTimeMillis());
+
+        assertTrue(scheduler.resumeDomain("a"));
+        scheduler.offer("a", "a4");
+        Task<String> task = scheduler.take();
+        assertEquals(0, task.getDeferDelay());
+        scheduler.complete(task, false);
+        assertEquals(0, scheduler.getDomainStates().size());
+    }
+
+    @Test
+    public void testIdleFailedDomainExpires() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(10, 0, 1, new long[]{100}, 100);
+        scheduler.offer("a", "a1");
+        assertTrue(scheduler.complete(scheduler.take(), true) > 0);
+        assertEquals(1, scheduler.getDomainStates().size());
+
+        Thread.sleep(300);
+        assertEquals(0, scheduler.getDomainStates().size());
+    }
+
+    @Test
+    public void testFailedDomainIsKeptWhileBackedOff() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(10, 0, 1, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.complete(scheduler.take(), true);
+
+        List<CompositeData> states = scheduler.getDomainStates();
+        assertEquals(1, states.size());
+        assertEquals(1, states.get(0).get("consecutiveFailures"));
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(10, 10, 3, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.offer("a", "a2");
+
+        long start = System.currentTimeMillis();
+        scheduler.take();
+        scheduler.take();
+        assertTrue(System.currentTimeMillis() - start >= 90);
+    }
+
+    @Test
+    public void testCloseReturnsPendingMails() throws Exception {
+        DomainDeliveryScheduler<String> scheduler = new DomainDeliveryScheduler<String>(1, 0, 3, DELAYS, 100);
+        scheduler.offer("a", "a1");
+        scheduler.offer("b", "b1");
+        scheduler.take();
+
+        List<String> pending = scheduler.close();
+        assertEquals(1, pending.size());
+        assertEquals(0, scheduler.getBacklog());
+    }
+}
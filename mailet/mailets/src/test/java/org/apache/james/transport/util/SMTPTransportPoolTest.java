@@ -0,0 +1,143 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Provider;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.URLName;
+
+import org.apache.james.transport.util.SMTPTransportPool.PooledTransport;
+import org.junit.Test;
+
+public class SMTPTransportPoolTest {
+
+    private final static URLName SERVER = new URLName("smtp://127.0.0.1:25");
+
+    private int connects;
+
+    @Test
+    public void testTransportIsReused() throws Exception {
+        SMTPTransportPool pool = createPool(60000, 100, 0);
+        PooledTransport transport = pool.borrow(SERVER);
+        pool.release(transport, true);
+
+        PooledTransport transport2 = pool.borrow(SERVER);
+        assertSame(transport, transport2);
+        assertEquals(1, transport2.getMessageCount());
+        assertEquals(1, connects);
+        pool.release(transport2, true);
+    }
+
+    @Test
+    public void testBrokenTransportIsClosed() throws Exception {
+        SMTPTransportPool pool = createPool(60000, 100, 0);
+        PooledTransport transport = pool.borrow(SERVER);
+        pool.release(transport, false);
+        assertFalse(transport.getTransport().isConnected());
+
+        assertNotSame(transport, pool.borrow(SERVER));
+        assertEquals(2, connects);
+    }
+
+    @Test
+    public void testMaxMessagesPerConnection() throws Exception {
+        SMTPTransportPool pool = createPool(60000, 2, 0);
+        PooledTransport transport = pool.borrow(SERVER);
+        pool.release(transport, true);
+        transport = pool.borrow(SERVER);
+        pool.release(transport, true);
+        assertFalse(transport.getTransport().isConnected());
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        SMTPTransportPool pool = createPool(0, 100, 0);
+        PooledTransport transport = pool.borrow(SERVER);
+        pool.release(transport, true);
+        assertFalse(transport.getTransport().isConnected());
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        SMTPTransportPool pool = createPool(60000, 100, 1);
+        PooledTransport transport = pool.borrow(SERVER);
+        try {
+            pool.borrow(SERVER);
+            fail("Only one connection per host allowed");
+        } catch (MessagingException e) {
+            // expected
+        }
+        // other hosts are not affected
+        pool.release(pool.borrow(new URLName("smtp://127.0.0.2:25")), true);
+
+        pool.release(transport, true);
+        assertTrue(pool.borrow(SERVER).getTransport().isConnected());
+    }
+
+    private SMTPTransportPool createPool(long idleTimeout, int maxMessages, int maxConnectionsPerHost) {
+        return new SMTPTransportPool(new SMTPTransportPool.Connector() {
+
+            @Override
+            public Session createSession() {
+                Session session = Session.getInstance(new Properties());
+                try {
+                    session.setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", MockTransport.class.getName(), "Apache", "1.0"));
+                } catch (MessagingException e) {
+                    throw new RuntimeException(e);
+                }
+                return session;
+            }
+
+            @Override
+            public void connect(Transport transport, URLName server) throws MessagingException {
+                transport.connect();
+                connects++;
+            }
+        }, idleTimeout, maxMessages, maxConnectionsPerHost, 100);
+    }
+
+    public static class MockTransport extends Transport {
+
+        public MockTransport(Session session, URLName urlname) {
+            super(session, urlname);
+        }
+
+        @Override
+        protected boolean protocolConnect(String host, int port, String user, String password) throws MessagingException {
+            return true;
+        }
+
+        @Override
+        public void sendMessage(Message msg, Address[] addresses) throws MessagingException {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.transport.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedBodyStoreTest {
+
+    private File directory;
+    private SharedBodyStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = new File(System.getProperty("java.io.tmpdir"), "sharedbody-" + UUID.randomUUID());
+        store = new SharedBodyStore(directory);
+    }
+
+    @After
+    public void tearDown() {
+        File[] bodies = directory.listFiles();
+        if (bodies != null) {
+            for (File body : bodies) {
+                File[] files = body.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                body.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testLoadStoredBody() throws Exception {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setSubject("test");
+        message.setText("shared body");
+        message.saveChanges();
+
+        String id = store.store(message, 2);
+        MimeMessage loaded = store.load(id);
+        assertEquals("test", loaded.getSubject());
+        assertEquals("shared body", loaded.getContent());
+    }
+
+    @Test
+    public void testBodyIsDeletedWithLastReference() throws Exception {
+        MimeMessage message = new MimeMessage(Session.getDefaultInstance(new Properties()));
+        message.setText("shared body");
+        message.saveChanges();
+
+        String id = store.store(message, 2);
+        store.release(id, 0);
+        // releasing twice must not remove the other reference
+        store.release(id, 0);
+        assertTrue(new File(directory, id).exists());
+        store.load(id);
+
+        store.release(id, 1);
+        assertFalse(new File(directory, id).exists());
+        try {
+            store.load(id);
+            fail("body should be deleted");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+    }
+}
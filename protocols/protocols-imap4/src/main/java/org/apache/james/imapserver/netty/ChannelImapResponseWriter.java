@@ -23,11 +23,16 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.apache.james.imap.encode.ImapResponseWriter;
 import org.apache.james.imap.message.response.Literal;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.DefaultFileRegion;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
@@ -38,36 +43,82 @@ import org.jboss.netty.handler.stream.ChunkedStream;
 
 /**
  * {@link ImapResponseWriter} implementation which writes the data to a
- * {@link Channel}
+ * {@link Channel}.
+ * <p>
+ * The fragments emitted by the encoder are coalesced into buffers of
+ * {@link #DEFAULT_FLUSH_THRESHOLD} bytes before they are written to the
+ * {@link Channel}. While {@link #setBuffered(boolean)} is active a buffer is only
+ * written once it is full, before a {@link Literal} and on {@link #flush()}.
+ * Otherwise it is written at the end of every response line, so untagged
+ * responses which are sent outside of a command (like during IDLE) are not
+ * delayed.
  */
 public class ChannelImapResponseWriter implements ImapResponseWriter {
 
+    /**
+     * Count of bytes which get coalesced before writing them to the channel
+     */
+    public final static int DEFAULT_FLUSH_THRESHOLD = 16 * 1024;
+
+    /**
+     * Maximal count of idle buffers kept for reuse
+     */
+    private final static int MAX_POOLED_BUFFERS = 4;
+
     private final Channel channel;
 	private final boolean zeroCopy;
+    private final int flushThreshold;
+    private final Queue<ChannelBuffer> pool = new ConcurrentLinkedQueue<ChannelBuffer>();
+    private ChannelBuffer buffer;
+    private boolean buffered;
 
     public ChannelImapResponseWriter(Channel channel) {
     	this(channel, true);
     }
 
     public ChannelImapResponseWriter(Channel channel, boolean zeroCopy) {
+        this(channel, zeroCopy, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    public ChannelImapResponseWriter(Channel channel, boolean zeroCopy, int flushThreshold) {
         this.channel = channel;
         this.zeroCopy = zeroCopy;
+        this.flushThreshold = flushThreshold;
     }
 
     /**
      * @see org.apache.james.imap.encode.ImapResponseWriter#write(byte[])
      */
-    public void write(byte[] buffer) throws IOException {
+    public synchronized void write(byte[] buffer) throws IOException {
         if (channel.isConnected()) {
-            channel.write(ChannelBuffers.wrappedBuffer(buffer));
+            if (buffer.length >= flushThreshold) {
+                // big enough to get written on its own
+                flush();
+                channel.write(ChannelBuffers.wrappedBuffer(buffer));
+                return;
+            }
+            if (this.buffer != null && this.buffer.writableBytes() < buffer.length) {
+                flush();
+            }
+            if (this.buffer == null) {
+                this.buffer = borrowBuffer();
+            }
+            this.buffer.writeBytes(buffer);
+
+            if (!buffered && buffer.length > 0 && buffer[buffer.length - 1] == '\n') {
+                flush();
+            }
         }
     }
 
     /**
      * @see org.apache.james.imap.encode.ImapResponseWriter#write(org.apache.james.imap.message.response.Literal)
      */
-    public void write(Literal literal) throws IOException {
+    public synchronized void write(Literal literal) throws IOException {
         if (channel.isConnected()) {
+            // everything which was encoded before needs to go out first
+            flush();
+
             InputStream in = literal.getInputStream();
             if (in instanceof FileInputStream && channel.getFactory() instanceof NioServerSocketChannelFactory) {
                 FileChannel fc = ((FileInputStream) in).getChannel();
@@ -85,7 +136,56 @@ public class ChannelImapResponseWriter implements ImapResponseWriter {
             }
         }
     }
-    
-    
+
+    /**
+     * Set whether the output should only be written to the {@link Channel}
+     * when the buffer is full or on {@link #flush()}. Switching buffering off
+     * flushes the pending output.
+     * 
+     * @param buffered
+     */
+    public synchronized void setBuffered(boolean buffered) {
+        this.buffered = buffered;
+        if (!buffered) {
+            flush();
+        }
+    }
+
+    /**
+     * Write all pending output to the {@link Channel}
+     */
+    public synchronized void flush() {
+        final ChannelBuffer pending = buffer;
+        buffer = null;
+        if (pending == null) {
+            return;
+        }
+        if (!pending.readable() || !channel.isConnected()) {
+            releaseBuffer(pending);
+            return;
+        }
+        channel.write(pending).addListener(new ChannelFutureListener() {
+
+            public void operationComplete(ChannelFuture future) throws Exception {
+                // the channel is done with the buffer, so it can be used again
+                releaseBuffer(pending);
+            }
+        });
+    }
+
+    private ChannelBuffer borrowBuffer() {
+        ChannelBuffer pooled = pool.poll();
+        if (pooled != null) {
+            return pooled;
+        }
+        return ChannelBuffers.buffer(flushThreshold);
+    }
+
+    private void releaseBuffer(ChannelBuffer buffer) {
+        if (pool.size() < MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
 
 }
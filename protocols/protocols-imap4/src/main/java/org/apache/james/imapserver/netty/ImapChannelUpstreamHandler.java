@@ -117,7 +117,8 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
         InetSocketAddress address = (InetSocketAddress) ctx.getChannel().getRemoteAddress();
         getLogger(ctx.getChannel()).info("Connection established from " + address.getAddress().getHostAddress());
 
-        ImapResponseComposer response = new ImapResponseComposerImpl(new ChannelImapResponseWriter(ctx.getChannel()));
+        NettyImapSession imapSession = (NettyImapSession) attributes.get(ctx.getChannel());
+        ImapResponseComposer response = new ImapResponseComposerImpl(imapSession.getResponseWriter());
         ctx.setAttachment(response);
 
         // write hello to client
@@ -171,12 +172,16 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
     @Override
     public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
         
-        ImapSession session = (ImapSession) attributes.get(ctx.getChannel());
+        NettyImapSession session = (NettyImapSession) attributes.get(ctx.getChannel());
         ImapResponseComposer response = (ImapResponseComposer) ctx.getAttachment();
         ImapMessage message = (ImapMessage) e.getMessage();
         ChannelPipeline cp = ctx.getPipeline();
+        ChannelImapResponseWriter writer = session.getResponseWriter();
 
         try {
+            // coalesce the whole response of the command
+            writer.setBuffered(true);
+
             if (cp.get(NettyConstants.EXECUTION_HANDLER) != null) {
                 cp.addBefore(NettyConstants.EXECUTION_HANDLER, NettyConstants.HEARTBEAT_HANDLER, heartbeatHandler);
             } else {
@@ -185,6 +190,7 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
             }
             final ResponseEncoder responseEncoder = new ResponseEncoder(encoder, response, session);
             processor.process(message, responseEncoder, session);
+            writer.flush();
 
             if (session.getState() == ImapSessionState.LOGOUT) {
                 // Make sure we close the channel after all the buffers were flushed out
@@ -204,6 +210,7 @@ public class ImapChannelUpstreamHandler extends SimpleChannelUpstreamHandler imp
                 throw failure;
             }
         } finally {
+            writer.setBuffered(false);
             ctx.getPipeline().remove(NettyConstants.HEARTBEAT_HANDLER);
         }
 
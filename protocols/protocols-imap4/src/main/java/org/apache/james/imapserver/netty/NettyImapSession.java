@@ -49,9 +49,15 @@ public class NettyImapSession implements ImapSession, NettyConstants {
     private final Channel channel;
     private int handlerCount;
     private final boolean plainAuthDisallowed;
+    private final ChannelImapResponseWriter responseWriter;
 
     public NettyImapSession(Channel channel, Logger log, SSLContext sslContext, String[] enabledCipherSuites, boolean compress, boolean plainAuthDisallowed) {
+        this(channel, log, sslContext, enabledCipherSuites, compress, plainAuthDisallowed, new ChannelImapResponseWriter(channel));
+    }
+
+    public NettyImapSession(Channel channel, Logger log, SSLContext sslContext, String[] enabledCipherSuites, boolean compress, boolean plainAuthDisallowed, ChannelImapResponseWriter responseWriter) {
         this.channel = channel;
+        this.responseWriter = responseWriter;
         this.log = new ProtocolSessionLogger(channel.getId() + "", new ProtocolLoggerAdapter(log));
         this.sslContext = sslContext;
         this.enabledCipherSuites = enabledCipherSuites;
@@ -69,6 +75,16 @@ public class NettyImapSession implements ImapSession, NettyConstants {
         return channel;
     }
 
+    /**
+     * Return the {@link ChannelImapResponseWriter} which writes the responses
+     * of this {@link ImapSession}
+     * 
+     * @return responseWriter
+     */
+    public ChannelImapResponseWriter getResponseWriter() {
+        return responseWriter;
+    }
+
     /**
      * @see org.apache.james.imap.api.process.ImapSession#logout()
      */
@@ -152,6 +168,9 @@ public class NettyImapSession implements ImapSession, NettyConstants {
             return false;
         channel.setReadable(false);
 
+        // the pending response must be written before the handler is in place
+        responseWriter.flush();
+
         SslHandler filter = new SslHandler(sslContext.createSSLEngine(), false);
         filter.getEngine().setUseClientMode(false);
         if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
@@ -187,6 +206,7 @@ public class NettyImapSession implements ImapSession, NettyConstants {
             return false;
 
         channel.setReadable(false);
+        responseWriter.flush();
         ZlibDecoder decoder = new ZlibDecoder(ZlibWrapper.NONE);
         ZlibEncoder encoder = new ZlibEncoder(ZlibWrapper.NONE, 5);
 
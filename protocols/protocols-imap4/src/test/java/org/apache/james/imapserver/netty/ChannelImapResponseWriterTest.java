@@ -0,0 +1,212 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.imapserver.netty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.james.imap.message.response.Literal;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.AbstractChannelSink;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.handler.codec.compression.ZlibEncoder;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.util.CharsetUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class ChannelImapResponseWriterTest {
+
+    private final static String LITERAL = "<literal>";
+
+    private final ChannelPipeline pipeline = Channels.pipeline();
+
+    /**
+     * What was written to the channel. The pipeline handlers which were in
+     * place at the time of each write are appended in brackets.
+     */
+    private final List<String> written = new ArrayList<String>();
+
+    private Channel channel;
+
+    @Before
+    public void setUp() {
+        channel = (Channel) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("write")) {
+                    String data = args[0] instanceof ChannelBuffer ? ((ChannelBuffer) args[0]).toString(CharsetUtil.US_ASCII) : LITERAL;
+                    written.add(data + pipeline.getNames());
+                    return Channels.succeededFuture((Channel) proxy);
+                } else if (name.equals("setReadable")) {
+                    return Channels.succeededFuture((Channel) proxy);
+                } else if (name.equals("isConnected") || name.equals("isOpen")) {
+                    return true;
+                } else if (name.equals("getPipeline")) {
+                    return pipeline;
+                } else if (name.equals("getId")) {
+                    return 1;
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                } else if (name.equals("compareTo")) {
+                    return 0;
+                } else if (name.equals("toString")) {
+                    return "channel";
+                }
+                return null;
+            }
+        });
+        // handlers added by the session may need the channel of their context
+        pipeline.attach(channel, new AbstractChannelSink() {
+
+            public void eventSunk(ChannelPipeline pipeline, ChannelEvent e) throws Exception {
+            }
+        });
+    }
+
+    @Test
+    public void testFragmentsAreCoalescedUpToThreshold() throws IOException {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 16);
+        writer.setBuffered(true);
+
+        writer.write(bytes("* 1 "));
+        writer.write(bytes("FETCH\r\n"));
+        assertEquals(0, written.size());
+
+        // does not fit into the buffer anymore
+        writer.write(bytes("* 2 FETCH\r\n"));
+        assertEquals(Arrays.asList("* 1 FETCH\r\n[]"), written);
+
+        // big enough to be written on its own, after the pending output
+        writer.write(bytes("* 3 FETCH (FLAGS ())\r\n"));
+        assertEquals(Arrays.asList("* 1 FETCH\r\n[]", "* 2 FETCH\r\n[]", "* 3 FETCH (FLAGS ())\r\n[]"), written);
+
+        writer.write(bytes("a OK\r\n"));
+        writer.flush();
+        assertEquals("a OK\r\n[]", written.get(3));
+        assertEquals(4, written.size());
+    }
+
+    @Test
+    public void testEachLineIsFlushedWhenUnbuffered() throws IOException {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 1024);
+
+        writer.write(bytes("* OK"));
+        writer.write(bytes(" ready"));
+        assertEquals(0, written.size());
+        writer.write(bytes("\r\n"));
+        writer.write(bytes("* 1 EXISTS\r\n"));
+        assertEquals(Arrays.asList("* OK ready\r\n[]", "* 1 EXISTS\r\n[]"), written);
+    }
+
+    @Test
+    public void testUnbufferingFlushesPendingOutput() throws IOException {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 1024);
+        writer.setBuffered(true);
+
+        writer.write(bytes("* 1 EXISTS\r\n"));
+        assertEquals(0, written.size());
+        writer.setBuffered(false);
+        assertEquals(Arrays.asList("* 1 EXISTS\r\n[]"), written);
+    }
+
+    @Test
+    public void testBufferIsFlushedBeforeLiteral() throws IOException {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 1024);
+        writer.setBuffered(true);
+
+        writer.write(bytes("* 1 FETCH (BODY[] {5}\r\n"));
+        writer.write(literal("hello"));
+        writer.write(bytes(")\r\n"));
+        writer.flush();
+        assertEquals(Arrays.asList("* 1 FETCH (BODY[] {5}\r\n[]", LITERAL + "[]", ")\r\n[]"), written);
+    }
+
+    @Test
+    public void testBufferIsFlushedBeforeStartTLS() throws Exception {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 1024);
+        NettyImapSession session = new NettyImapSession(channel, LoggerFactory.getLogger(getClass()), SSLContext.getDefault(), null, false, false,
+                writer);
+        writer.setBuffered(true);
+
+        writer.write(bytes("a OK Begin TLS negotiation now\r\n"));
+        assertTrue(session.startTLS());
+
+        // the response went out before the SslHandler was added
+        assertEquals(Arrays.asList("a OK Begin TLS negotiation now\r\n[]"), written);
+        assertNotNull(pipeline.get(SslHandler.class));
+    }
+
+    @Test
+    public void testBufferIsFlushedBeforeCompression() throws Exception {
+        ChannelImapResponseWriter writer = new ChannelImapResponseWriter(channel, false, 1024);
+        NettyImapSession session = new NettyImapSession(channel, LoggerFactory.getLogger(getClass()), null, null, true, false, writer);
+        writer.setBuffered(true);
+
+        writer.write(bytes("a OK DEFLATE active\r\n"));
+        assertTrue(session.startCompression());
+
+        // the response went out before the ZlibEncoder was added
+        assertEquals(Arrays.asList("a OK DEFLATE active\r\n[]"), written);
+        assertNotNull(pipeline.get(ZlibEncoder.class));
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(CharsetUtil.US_ASCII);
+    }
+
+    private static Literal literal(final String data) {
+        return (Literal) Proxy.newProxyInstance(ChannelImapResponseWriterTest.class.getClassLoader(), new Class<?>[] { Literal.class },
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getInputStream")) {
+                            return new ByteArrayInputStream(bytes(data));
+                        } else if (method.getName().equals("size")) {
+                            return (long) data.length();
+                        } else if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return data;
+                    }
+                });
+    }
+}
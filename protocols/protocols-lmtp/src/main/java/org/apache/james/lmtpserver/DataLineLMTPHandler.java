@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.lmtpserver;
 
+import org.apache.james.lmtpserver.hook.BatchDeliverToRecipientHook;
 import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.api.handler.WiringException;
 import org.apache.james.protocols.lmtp.LMTPMultiResponse;
@@ -29,6 +30,7 @@ import org.apache.james.protocols.smtp.SMTPRetCode;
 import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.core.AbstractHookableCmdHandler;
 import org.apache.james.protocols.smtp.dsn.DSNStatus;
+import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.smtpserver.DataLineJamesMessageHookHandler;
 import org.apache.mailet.Mail;
 
@@ -48,29 +50,56 @@ public class DataLineLMTPHandler extends DataLineJamesMessageHookHandler {
 
     @Override
     protected Response processExtensions(SMTPSession session, final Mail mail) {
-        LMTPMultiResponse mResponse = null;
-
         // build a wrapper around the Mail
         final ReadOnlyMailEnvelope env = new ReadOnlyMailEnvelope(mail);
 
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
         for (org.apache.mailet.MailAddress recipient : mail.getRecipients()) {
             // TODO: the transformation code between MailAddress is purely to compile. No idea if it does what it's supposed
-            MailAddress recipientAddress;
             try {
-                recipientAddress = new MailAddress(recipient.getLocalPart(), recipient.getDomain());
+                recipients.add(new MailAddress(recipient.getLocalPart(), recipient.getDomain()));
             } catch (MailAddressException e) {
                 throw new RuntimeException(e);
             }
-            Response response = null;
-            for (DeliverToRecipientHook handler : handlers) {
-                response = AbstractHookableCmdHandler.calcDefaultSMTPResponse(handler.deliver(session, recipientAddress, env));
-                if (response != null) {
-                    break;
+        }
+
+        // every handler gets the recipients which were not handled by the
+        // handlers before it. Handlers which support it get all of them in
+        // one call, so they can deliver to them concurrently
+        Response[] responses = new Response[recipients.size()];
+        for (DeliverToRecipientHook handler : handlers) {
+            List<Integer> pending = new ArrayList<Integer>();
+            for (int i = 0; i < responses.length; i++) {
+                if (responses[i] == null) {
+                    pending.add(i);
+                }
+            }
+            if (pending.isEmpty()) {
+                break;
+            }
+
+            if (handler instanceof BatchDeliverToRecipientHook && pending.size() > 1) {
+                List<MailAddress> batch = new ArrayList<MailAddress>(pending.size());
+                for (Integer index : pending) {
+                    batch.add(recipients.get(index));
+                }
+                List<HookResult> results = ((BatchDeliverToRecipientHook) handler).deliver(session, batch, env);
+                for (int i = 0; i < pending.size(); i++) {
+                    responses[pending.get(i)] = AbstractHookableCmdHandler.calcDefaultSMTPResponse(results.get(i));
+                }
+            } else {
+                for (Integer index : pending) {
+                    responses[index] = AbstractHookableCmdHandler.calcDefaultSMTPResponse(handler.deliver(session, recipients.get(index), env));
                 }
             }
+        }
+
+        LMTPMultiResponse mResponse = null;
+        for (int i = 0; i < responses.length; i++) {
+            Response response = responses[i];
             if (response == null) {
                 // Add some default response for not handled responses
-                response = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + "Temporary error deliver message to " + recipient);
+                response = new SMTPResponse(SMTPRetCode.LOCAL_ERROR, DSNStatus.getStatus(DSNStatus.TRANSIENT, DSNStatus.UNDEFINED_STATUS) + "Temporary error deliver message to " + recipients.get(i));
             }
             if (mResponse == null) {
                 mResponse = new LMTPMultiResponse(response);
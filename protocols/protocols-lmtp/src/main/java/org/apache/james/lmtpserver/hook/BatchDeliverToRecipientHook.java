@@ -0,0 +1,47 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.lmtpserver.hook;
+
+import java.util.List;
+
+import org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+
+/**
+ * {@link DeliverToRecipientHook} which is able to deliver a message to many
+ * recipients in one go. This allows implementations to share the work which
+ * is the same for all recipients and to deliver to them concurrently.
+ */
+public interface BatchDeliverToRecipientHook extends DeliverToRecipientHook {
+
+    /**
+     * Deliver the message to the given recipients.
+     * 
+     * @param session
+     * @param recipients
+     * @param envelope
+     * @return results, one for each recipient in the same order as the
+     *         recipients were given
+     */
+    List<HookResult> deliver(SMTPSession session, List<MailAddress> recipients, MailEnvelope envelope);
+}
@@ -20,15 +20,29 @@
 package org.apache.james.lmtpserver.hook;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.configuration.ConfigurationException;
 import org.apache.james.mailbox.MailboxManager;
 import org.apache.james.mailbox.MailboxSession;
 import org.apache.james.mailbox.exception.MailboxException;
 import org.apache.james.mailbox.model.MailboxPath;
 import org.apache.james.protocols.lib.Slf4jLoggerAdapter;
+import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 import org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook;
 import org.apache.james.protocols.smtp.MailAddress;
 import org.apache.james.protocols.smtp.MailEnvelope;
@@ -39,17 +53,37 @@ import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
+import org.apache.james.util.concurrent.NamedThreadFactory;
 
 /**
  * {@link DeliverToRecipientHook} which deliver the message directly to the recipients mailbox.
  * 
- *
+ * If a message has more then one recipient the appends are done concurrently
+ * on a bounded pool of <code>deliveryThreads</code> threads. Every append
+ * reads the message from the already spooled content, so the message is
+ * never received or copied more then once. The users whose INBOX is known to
+ * exist are cached, so the check is only done for the first delivery to a
+ * user.
  */
-public class MailboxDeliverToRecipientHandler implements DeliverToRecipientHook {
-  
+public class MailboxDeliverToRecipientHandler implements BatchDeliverToRecipientHook, InitializingLifecycleAwareProtocolHandler {
+
+    /**
+     * Default count of threads used to deliver to many recipients
+     */
+    public final static int DEFAULT_DELIVERY_THREADS = 8;
+
+    /**
+     * Default count of users for which the existence of the INBOX is cached
+     */
+    public final static int DEFAULT_INBOX_CACHE_SIZE = 10000;
+
     private UsersRepository users;
     private MailboxManager mailboxManager;
 
+    private final ConcurrentMap<String, Boolean> knownInboxes = new ConcurrentHashMap<String, Boolean>();
+    private int inboxCacheSize = DEFAULT_INBOX_CACHE_SIZE;
+    private ThreadPoolExecutor deliveryExecutor;
+
     @Inject
     public final void setUsersRepository(UsersRepository users) {
         this.users = users;
@@ -59,7 +93,29 @@ public class MailboxDeliverToRecipientHandler implements DeliverToRecipientHook
     public final void setMailboxManager(MailboxManager mailboxManager) {
         this.mailboxManager = mailboxManager;
     }
-    
+
+    @Override
+    public void init(Configuration config) throws ConfigurationException {
+        int threads = config.getInt("deliveryThreads", DEFAULT_DELIVERY_THREADS);
+        if (threads < 1) {
+            throw new ConfigurationException("deliveryThreads must be >= 1");
+        }
+        inboxCacheSize = config.getInt("inboxCacheSize", DEFAULT_INBOX_CACHE_SIZE);
+        if (threads > 1) {
+            deliveryExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("LMTPDelivery"));
+            deliveryExecutor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (deliveryExecutor != null) {
+            deliveryExecutor.shutdown();
+            deliveryExecutor = null;
+        }
+        knownInboxes.clear();
+    }
+
     @Override
     public HookResult deliver(SMTPSession session, MailAddress recipient, MailEnvelope envelope) {
         String username;
@@ -77,13 +133,26 @@ public class MailboxDeliverToRecipientHandler implements DeliverToRecipientHook
             MailboxPath inbox = MailboxPath.inbox(mailboxSession);
 
             mailboxManager.startProcessingRequest(mailboxSession);
-
-            // create inbox if not exist
-            if (!mailboxManager.mailboxExists(inbox, mailboxSession)) {
-                mailboxManager.createMailbox(inbox, mailboxSession);
+            try {
+                // create inbox if not exist
+                if (!knownInboxes.containsKey(username)) {
+                    if (!mailboxManager.mailboxExists(inbox, mailboxSession)) {
+                        mailboxManager.createMailbox(inbox, mailboxSession);
+                    }
+                    if (knownInboxes.size() >= inboxCacheSize) {
+                        knownInboxes.clear();
+                    }
+                    knownInboxes.put(username, Boolean.TRUE);
+                }
+                mailboxManager.getMailbox(inbox, mailboxSession).appendMessage(envelope.getMessageInputStream(), new Date(), mailboxSession, true, null);
+            } catch (MailboxException e) {
+                // the INBOX may have been deleted in the meantime, so check
+                // again on the next delivery
+                knownInboxes.remove(username);
+                throw e;
+            } finally {
+                mailboxManager.endProcessingRequest(mailboxSession);
             }
-            mailboxManager.getMailbox(MailboxPath.inbox(mailboxSession), mailboxSession).appendMessage(envelope.getMessageInputStream(), new Date(), mailboxSession, true, null);
-            mailboxManager.endProcessingRequest(mailboxSession);
             result = new HookResult(HookReturnCode.OK, SMTPRetCode.MAIL_OK, DSNStatus.getStatus(DSNStatus.SUCCESS, DSNStatus.CONTENT_OTHER) + " Message received");
 
         } catch (IOException e) {
@@ -99,4 +168,67 @@ public class MailboxDeliverToRecipientHandler implements DeliverToRecipientHook
         return result;
     }
 
+    /**
+     * Deliver to all recipients concurrently and wait until every delivery
+     * is done. The results are returned in the order of the recipients.
+     */
+    @Override
+    public List<HookResult> deliver(final SMTPSession session, List<MailAddress> recipients, final MailEnvelope envelope) {
+        List<HookResult> results = new ArrayList<HookResult>(recipients.size());
+        ThreadPoolExecutor executor = deliveryExecutor;
+
+        if (executor == null || recipients.size() < 2) {
+            for (MailAddress recipient : recipients) {
+                results.add(deliver(session, recipient, envelope));
+            }
+            return results;
+        }
+
+        List<Future<HookResult>> futures = new ArrayList<Future<HookResult>>(recipients.size());
+        for (final MailAddress recipient : recipients) {
+            Future<HookResult> future = null;
+            try {
+                future = executor.submit(new Callable<HookResult>() {
+                    public HookResult call() {
+                        return deliver(session, recipient, envelope);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the handler is shutting down
+                session.getLogger().info("Unable to schedule delivery to " + recipient, e);
+            }
+            futures.add(future);
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<HookResult> future = futures.get(i);
+            HookResult result = null;
+            if (future != null) {
+                try {
+                    if (interrupted) {
+                        // give up on the deliveries which did not complete yet
+                        future.cancel(true);
+                    }
+                    if (!future.isCancelled()) {
+                        result = future.get();
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    future.cancel(true);
+                } catch (ExecutionException e) {
+                    session.getLogger().info("Unexpected error deliver message to " + recipients.get(i), e.getCause());
+                }
+            }
+            if (result == null) {
+                result = new HookResult(HookReturnCode.DENYSOFT, " Temporary error deliver message to " + recipients.get(i));
+            }
+            results.add(result);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
 }
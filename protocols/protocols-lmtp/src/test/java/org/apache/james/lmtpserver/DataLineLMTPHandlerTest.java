@@ -0,0 +1,158 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.lmtpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.lmtpserver.hook.BatchDeliverToRecipientHook;
+import org.apache.james.protocols.api.Response;
+import org.apache.james.protocols.lmtp.hook.DeliverToRecipientHook;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.Test;
+
+public class DataLineLMTPHandlerTest {
+
+    private final SMTPSession session = (SMTPSession) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { SMTPSession.class },
+            new InvocationHandler() {
+
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    return null;
+                }
+            });
+
+    /**
+     * The calls the hooks got, in the order they got them
+     */
+    private final List<String> calls = new ArrayList<String>();
+
+    /**
+     * Delivers to "ok" recipients, fails for "fail" recipients and declines
+     * all others
+     */
+    private final BatchDeliverToRecipientHook batchHook = new BatchDeliverToRecipientHook() {
+
+        public HookResult deliver(SMTPSession session, MailAddress recipient, MailEnvelope envelope) {
+            calls.add("batch hook single " + recipient);
+            return result(recipient);
+        }
+
+        public List<HookResult> deliver(SMTPSession session, List<MailAddress> recipients, MailEnvelope envelope) {
+            calls.add("batch hook " + recipients);
+            List<HookResult> results = new ArrayList<HookResult>();
+            for (MailAddress recipient : recipients) {
+                results.add(result(recipient));
+            }
+            return results;
+        }
+
+        private HookResult result(MailAddress recipient) {
+            if (recipient.getLocalPart().startsWith("ok")) {
+                return new HookResult(HookReturnCode.OK, "250", "delivered to " + recipient);
+            } else if (recipient.getLocalPart().startsWith("fail")) {
+                return new HookResult(HookReturnCode.DENYSOFT, "451", "failed for " + recipient);
+            }
+            return new HookResult(HookReturnCode.DECLINED);
+        }
+    };
+
+    /**
+     * Delivers to "late" recipients and declines all others
+     */
+    private final DeliverToRecipientHook singleHook = new DeliverToRecipientHook() {
+
+        public HookResult deliver(SMTPSession session, MailAddress recipient, MailEnvelope envelope) {
+            calls.add("single hook " + recipient);
+            if (recipient.getLocalPart().startsWith("late")) {
+                return new HookResult(HookReturnCode.OK, "250", "late delivery to " + recipient);
+            }
+            return new HookResult(HookReturnCode.DECLINED);
+        }
+    };
+
+    @Test
+    public void testResponsesAreInRecipientOrder() throws Exception {
+        DataLineLMTPHandler handler = createHandler();
+        MailImpl mail = createMail("ok1@localhost", "fail@localhost", "late@localhost", "ok2@localhost", "unknown@localhost");
+
+        List<String> lines = lines(handler.processExtensions(session, mail));
+
+        assertEquals(5, lines.size());
+        assertLine("250", "delivered to ok1@localhost", lines.get(0));
+        assertLine("451", "failed for fail@localhost", lines.get(1));
+        assertLine("250", "late delivery to late@localhost", lines.get(2));
+        assertLine("250", "delivered to ok2@localhost", lines.get(3));
+        assertLine("451", "Temporary error deliver message to unknown@localhost", lines.get(4));
+
+        // the second hook only gets the recipients the first one declined
+        assertEquals(Arrays.asList("batch hook [ok1@localhost, fail@localhost, late@localhost, ok2@localhost, unknown@localhost]",
+                "single hook late@localhost", "single hook unknown@localhost"), calls);
+    }
+
+    @Test
+    public void testSinglePendingRecipientIsNotBatched() throws Exception {
+        DataLineLMTPHandler handler = createHandler();
+        MailImpl mail = createMail("ok@localhost");
+
+        List<String> lines = lines(handler.processExtensions(session, mail));
+
+        assertEquals(1, lines.size());
+        assertLine("250", "delivered to ok@localhost", lines.get(0));
+        assertEquals(Arrays.asList("batch hook single ok@localhost"), calls);
+    }
+
+    private DataLineLMTPHandler createHandler() throws Exception {
+        DataLineLMTPHandler handler = new DataLineLMTPHandler();
+        handler.wireExtensions(DeliverToRecipientHook.class, Arrays.asList(batchHook, singleHook));
+        return handler;
+    }
+
+    private static MailImpl createMail(String... recipients) throws Exception {
+        List<org.apache.mailet.MailAddress> rcpts = new ArrayList<org.apache.mailet.MailAddress>();
+        for (String recipient : recipients) {
+            rcpts.add(new org.apache.mailet.MailAddress(recipient));
+        }
+        return new MailImpl(MailImpl.getId(), new org.apache.mailet.MailAddress("sender@localhost"), rcpts);
+    }
+
+    private static List<String> lines(Response response) {
+        List<String> lines = new ArrayList<String>();
+        for (CharSequence line : response.getLines()) {
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    private static void assertLine(String code, String text, String line) {
+        assertTrue(line, line.startsWith(code));
+        assertTrue(line, line.contains(text));
+    }
+}
@@ -0,0 +1,141 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.lmtpserver.hook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.james.protocols.smtp.MailAddress;
+import org.apache.james.protocols.smtp.MailEnvelope;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.hook.HookResult;
+import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.junit.After;
+import org.junit.Test;
+
+public class MailboxDeliverToRecipientHandlerTest {
+
+    private final static int RECIPIENTS = 8;
+
+    private final SMTPSession session = (SMTPSession) proxy(SMTPSession.class);
+
+    private MailboxDeliverToRecipientHandler handler;
+
+    @After
+    public void tearDown() {
+        if (handler != null) {
+            handler.destroy();
+        }
+    }
+
+    @Test
+    public void testConcurrentResultsAreInRecipientOrder() throws Exception {
+        assertResultsInOrder(4, 5);
+    }
+
+    @Test
+    public void testSequentialResultsAreInRecipientOrder() throws Exception {
+        assertResultsInOrder(1, -1);
+    }
+
+    /**
+     * Deliver to {@link #RECIPIENTS} recipients. Deliveries to even
+     * recipients succeed, to odd ones they fail and the one to the recipient
+     * with the given index throws an exception.
+     */
+    private void assertResultsInOrder(int threads, final int broken) throws Exception {
+        handler = new MailboxDeliverToRecipientHandler() {
+
+            /**
+             * The deliveries to the first recipients take the longest, so
+             * they complete last
+             */
+            @Override
+            public HookResult deliver(SMTPSession session, MailAddress recipient, MailEnvelope envelope) {
+                int index = Integer.parseInt(recipient.getLocalPart().substring(4));
+                try {
+                    Thread.sleep((RECIPIENTS - index) * 10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (index == broken) {
+                    throw new RuntimeException("Broken delivery");
+                } else if (index % 2 == 0) {
+                    return new HookResult(HookReturnCode.OK, "250", "delivered to " + recipient);
+                }
+                return new HookResult(HookReturnCode.DENYSOFT, "451", "failed for " + recipient);
+            }
+        };
+        BaseConfiguration config = new BaseConfiguration();
+        config.addProperty("deliveryThreads", threads);
+        handler.init(config);
+
+        List<MailAddress> recipients = new ArrayList<MailAddress>();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            recipients.add(new MailAddress("rcpt" + i + "@localhost"));
+        }
+
+        List<HookResult> results = handler.deliver(session, recipients, null);
+
+        assertEquals(RECIPIENTS, results.size());
+        for (int i = 0; i < RECIPIENTS; i++) {
+            HookResult result = results.get(i);
+            String recipient = "rcpt" + i + "@localhost";
+            if (i == broken) {
+                assertEquals(HookReturnCode.DENYSOFT, result.getResult());
+                assertTrue(result.getSmtpDescription().contains("Temporary error deliver message to " + recipient));
+            } else if (i % 2 == 0) {
+                assertEquals(HookReturnCode.OK, result.getResult());
+                assertEquals("delivered to " + recipient, result.getSmtpDescription());
+            } else {
+                assertEquals(HookReturnCode.DENYSOFT, result.getResult());
+                assertEquals("failed for " + recipient, result.getSmtpDescription());
+            }
+        }
+    }
+
+    /**
+     * Return a proxy whose methods do nothing. Methods which return an
+     * interface return such a proxy too, so the logger of the session can be
+     * used.
+     */
+    private static Object proxy(Class<?> type) {
+        return Proxy.newProxyInstance(MailboxDeliverToRecipientHandlerTest.class.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Class<?> returnType = method.getReturnType();
+                if (returnType.isInterface()) {
+                    return proxy(returnType);
+                } else if (returnType == boolean.class) {
+                    return false;
+                } else if (method.getName().equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                }
+                return null;
+            }
+        });
+    }
+}
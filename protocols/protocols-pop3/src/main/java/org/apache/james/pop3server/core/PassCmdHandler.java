@@ -38,20 +38,30 @@ import org.apache.james.protocols.pop3.POP3Response;
 import org.apache.james.protocols.pop3.POP3Session;
 import org.apache.james.protocols.pop3.core.AbstractPassCmdHandler;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
+import org.apache.james.user.api.AuthenticationService;
 
 /**
- * {@link PassCmdHandler} which also handles POP3 Before SMTP
+ * {@link PassCmdHandler} which also handles POP3 Before SMTP. The credentials
+ * are checked by the {@link AuthenticationService} before the mailbox is
+ * opened, so failures are counted per client address.
  * 
  */
 public class PassCmdHandler extends AbstractPassCmdHandler  {
 
     private MailboxManager manager;
 
+    private AuthenticationService authenticationService;
+
     @Inject
     public void setMailboxManager(@Named("mailboxmanager") MailboxManager manager) {
         this.manager = manager;
     }
 
+    @Inject
+    public void setAuthenticationService(@Named("authenticationservice") AuthenticationService authenticationService) {
+        this.authenticationService = authenticationService;
+    }
+
     @Override
     public Response onCommand(POP3Session session, Request request) {
         Response response =  super.onCommand(session, request);
@@ -64,6 +74,9 @@ public class PassCmdHandler extends AbstractPassCmdHandler  {
 
     @Override
     protected Mailbox auth(POP3Session session, String username, String password) throws Exception {
+        if (!authenticationService.authenticate(session.getUser(), password, session.getRemoteAddress().getAddress().getHostAddress())) {
+            return null;
+        }
         MailboxSession mSession = null;
         try {
             mSession = manager.login(session.getUser(), password, new Slf4jLoggerAdapter(session.getLogger()));
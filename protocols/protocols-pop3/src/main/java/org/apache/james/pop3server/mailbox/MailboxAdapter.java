@@ -22,8 +22,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.mail.Flags;
@@ -38,8 +40,26 @@ import org.apache.james.mailbox.model.MessageResult.FetchGroup;
 import org.apache.james.protocols.pop3.mailbox.Mailbox;
 import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
 
+/**
+ * {@link Mailbox} implementation which adapts a {@link MessageManager}.
+ * <p>
+ * The message list is fetched once and cached for the lifetime of the POP3
+ * session. Sequential retrieval of messages is served from a batched range
+ * fetch which reads ahead up to {@link #DEFAULT_READ_AHEAD_COUNT} messages or
+ * {@link #DEFAULT_READ_AHEAD_SIZE} bytes.
+ */
 public class MailboxAdapter implements Mailbox {
 
+    /**
+     * Maximal count of messages fetched ahead
+     */
+    public final static int DEFAULT_READ_AHEAD_COUNT = 32;
+
+    /**
+     * Maximal count of bytes fetched ahead
+     */
+    public final static long DEFAULT_READ_AHEAD_SIZE = 1024 * 1024;
+
     private static abstract class POP3FetchGroup implements FetchGroup {
         @Override
         public Set<PartContentDescriptor> getPartContentDescriptors() {
@@ -86,14 +106,50 @@ public class MailboxAdapter implements Mailbox {
 
     private final MailboxManager mailboxManager;
 
+    private final int readAheadCount;
+    private final long readAheadSize;
+
+    /**
+     * The messages of the mailbox at the time they were first listed
+     */
+    private List<MessageMetaData> messages;
+
+    /**
+     * Position of each uid in {@link #messages}
+     */
+    private Map<Long, Integer> positions;
+
+    /**
+     * Messages which were fetched ahead but not retrieved yet
+     */
+    private final Map<Long, MessageResult> prefetched = new HashMap<Long, MessageResult>();
+
+    private long lastRetrieved = -1;
+
+    private String identifier;
+
     public MailboxAdapter(MailboxManager mailboxManager, MessageManager manager, MailboxSession session) {
+        this(mailboxManager, manager, session, DEFAULT_READ_AHEAD_COUNT, DEFAULT_READ_AHEAD_SIZE);
+    }
+
+    public MailboxAdapter(MailboxManager mailboxManager, MessageManager manager, MailboxSession session, int readAheadCount, long readAheadSize) {
         this.manager = manager;
         this.session = session;
         this.mailboxManager = mailboxManager;
+        this.readAheadCount = readAheadCount;
+        this.readAheadSize = readAheadSize;
     }
 
     @Override
     public InputStream getMessageBody(String uid) throws IOException {
+        MessageResult prefetchedResult = prefetched.get(new Long(uid));
+        if (prefetchedResult != null) {
+            try {
+                return prefetchedResult.getBody().getInputStream();
+            } catch (MailboxException e) {
+                throw new IOException("Unable to retrieve message body for uid " + uid, e);
+            }
+        }
         try {
             mailboxManager.startProcessingRequest(session);
             Iterator<MessageResult> results = manager.getMessages(MessageRange.one(new Long(uid)), BODY_GROUP, session);
@@ -111,6 +167,14 @@ public class MailboxAdapter implements Mailbox {
 
     @Override
     public InputStream getMessageHeaders(String uid) throws IOException {
+        MessageResult prefetchedResult = prefetched.get(new Long(uid));
+        if (prefetchedResult != null) {
+            try {
+                return prefetchedResult.getHeaders().getInputStream();
+            } catch (MailboxException e) {
+                throw new IOException("Unable to retrieve message header for uid " + uid, e);
+            }
+        }
         try {
             mailboxManager.startProcessingRequest(session);
             Iterator<MessageResult> results = manager.getMessages(MessageRange.one(new Long(uid)), HEADERS_GROUP,
@@ -129,33 +193,90 @@ public class MailboxAdapter implements Mailbox {
 
     @Override
     public InputStream getMessage(String uid) throws IOException {
+        Long messageUid = new Long(uid);
         try {
-            mailboxManager.startProcessingRequest(session);
-            Iterator<MessageResult> results = manager.getMessages(MessageRange.one(new Long(uid)), FULL_GROUP, session);
-            if (results.hasNext()) {
-                return results.next().getFullContent().getInputStream();
+            MessageResult result = prefetched.remove(messageUid);
+            if (result == null) {
+                result = fetch(messageUid);
+            }
+            lastRetrieved = messageUid;
+            if (result != null) {
+                return result.getFullContent().getInputStream();
             } else {
                 return null;
             }
         } catch (MailboxException e) {
             throw new IOException("Unable to retrieve message for uid " + uid, e);
+        }
+    }
+
+    /**
+     * Fetch the message with the given uid. If it directly follows the message
+     * which was retrieved before, the following messages are fetched with the
+     * same query and kept until they get retrieved.
+     */
+    private MessageResult fetch(Long uid) throws MailboxException {
+        MessageRange range = MessageRange.one(uid);
+        Integer position = positions != null ? positions.get(uid) : null;
+        boolean sequential = false;
+        if (position != null) {
+            if (position == 0) {
+                sequential = lastRetrieved == -1;
+            } else {
+                sequential = messages.get(position - 1).getUid().equals(Long.toString(lastRetrieved));
+            }
+        }
+        if (sequential) {
+            int last = position;
+            long size = messages.get(position).getSize();
+            while (last + 1 < messages.size() && last + 1 - position < readAheadCount && size + messages.get(last + 1).getSize() <= readAheadSize) {
+                last++;
+                size += messages.get(last).getSize();
+            }
+            // no other messages of the session are in between, so the range
+            // only covers the wanted ones
+            range = MessageRange.range(uid, Long.parseLong(messages.get(last).getUid()));
+        }
+
+        // drop what was fetched before but never retrieved
+        prefetched.clear();
+        MessageResult wanted = null;
+        try {
+            mailboxManager.startProcessingRequest(session);
+            Iterator<MessageResult> results = manager.getMessages(range, FULL_GROUP, session);
+            while (results.hasNext()) {
+                MessageResult result = results.next();
+                if (result.getUid() == uid) {
+                    wanted = result;
+                } else {
+                    prefetched.put(result.getUid(), result);
+                }
+            }
         } finally {
             mailboxManager.endProcessingRequest(session);
         }
+        return wanted;
     }
 
     @Override
     public List<MessageMetaData> getMessages() throws IOException {
+        if (messages != null) {
+            return messages;
+        }
         try {
             mailboxManager.startProcessingRequest(session);
             Iterator<MessageResult> results = manager.getMessages(MessageRange.all(), METADATA_GROUP, session);
             List<MessageMetaData> mList = new ArrayList<MessageMetaData>();
+            Map<Long, Integer> mPositions = new HashMap<Long, Integer>();
             while (results.hasNext()) {
                 MessageResult result = results.next();
                 MessageMetaData metaData = new MessageMetaData(Long.toString(result.getUid()), result.getSize());
+                mPositions.put(result.getUid(), mList.size());
                 mList.add(metaData);
             }
-            return Collections.unmodifiableList(mList);
+            messages = Collections.unmodifiableList(mList);
+            positions = mPositions;
+            return messages;
         } catch (MailboxException e) {
             throw new IOException("Unable to retrieve messages", e);
         } finally {
@@ -171,7 +292,7 @@ public class MailboxAdapter implements Mailbox {
             uidList.add(new Long(uid));
         }
 
-        List<MessageRange> ranges = MessageRange.toRanges(uidList);
+        List<MessageRange> ranges = toRanges(uidList);
         try {
             mailboxManager.startProcessingRequest(session);
             for (MessageRange range : ranges) {
@@ -182,16 +303,61 @@ public class MailboxAdapter implements Mailbox {
             throw new IOException("Unable to remove messages for ranges " + ranges);
         } finally {
             mailboxManager.endProcessingRequest(session);
+            // the cached list is outdated now
+            messages = null;
+            positions = null;
+            prefetched.clear();
+        }
+    }
+
+    /**
+     * Group the given uids to ranges. Uids which are next to each other in the
+     * cached message list end up in the same range, even if there are gaps
+     * between their values, as no other message of the session can be in
+     * between. So deleting all messages takes a single range.
+     */
+    private List<MessageRange> toRanges(List<Long> uidList) {
+        if (positions == null) {
+            return MessageRange.toRanges(uidList);
+        }
+        List<Integer> uidPositions = new ArrayList<Integer>();
+        for (Long uid : uidList) {
+            Integer position = positions.get(uid);
+            if (position == null) {
+                // not part of the session, so fall back to plain ranges
+                return MessageRange.toRanges(uidList);
+            }
+            uidPositions.add(position);
         }
+        Collections.sort(uidPositions);
+
+        List<MessageRange> ranges = new ArrayList<MessageRange>();
+        int i = 0;
+        while (i < uidPositions.size()) {
+            int first = uidPositions.get(i);
+            int last = first;
+            while (i + 1 < uidPositions.size() && uidPositions.get(i + 1) <= last + 1) {
+                last = uidPositions.get(++i);
+            }
+            i++;
+            long firstUid = Long.parseLong(messages.get(first).getUid());
+            long lastUid = Long.parseLong(messages.get(last).getUid());
+            ranges.add(firstUid == lastUid ? MessageRange.one(firstUid) : MessageRange.range(firstUid, lastUid));
+        }
+        return ranges;
     }
 
     @Override
     public String getIdentifier() throws IOException {
+        if (identifier != null) {
+            return identifier;
+        }
         try {
             mailboxManager.startProcessingRequest(session);
             long validity = manager.getMetaData(false, session, MessageManager.MetaData.FetchGroup.NO_COUNT)
                     .getUidValidity();
-            return Long.toString(validity);
+            identifier = Long.toString(validity);
+            return identifier;
         } catch (MailboxException e) {
             throw new IOException("Unable to retrieve indentifier for mailbox", e);
         } finally {
@@ -201,6 +367,7 @@ public class MailboxAdapter implements Mailbox {
 
     @Override
     public void close() throws IOException {
+        prefetched.clear();
         try {
             mailboxManager.logout(session, true);
         } catch (MailboxException e) {
@@ -54,6 +54,7 @@ import org.apache.james.protocols.lib.POP3BeforeSMTPHelper;
 import org.apache.james.protocols.lib.PortUtil;
 import org.apache.james.protocols.lib.mock.MockProtocolHandlerLoader;
 import org.apache.james.user.api.UsersRepositoryException;
+import org.apache.james.user.lib.CachingAuthenticationService;
 import org.apache.james.user.lib.mock.MockUsersRepository;
 import org.junit.After;
 import org.junit.Before;
@@ -705,6 +706,9 @@ public class POP3ServerTest {
     protected void setUpServiceManager() throws Exception {
         protocolHandlerChain = new MockProtocolHandlerLoader();
         protocolHandlerChain.put("usersrepository", usersRepository);
+        CachingAuthenticationService authenticationService = new CachingAuthenticationService();
+        authenticationService.setUsersRepository(usersRepository);
+        protocolHandlerChain.put("authenticationservice", authenticationService);
     
         InMemoryMailboxSessionMapperFactory factory = new InMemoryMailboxSessionMapperFactory();
         MailboxACLResolver aclResolver = new UnionMailboxACLResolver();
@@ -0,0 +1,224 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.pop3server.mailbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.mail.Flags;
+
+import org.apache.james.mailbox.MailboxSession;
+import org.apache.james.mailbox.MessageManager;
+import org.apache.james.mailbox.acl.SimpleGroupMembershipResolver;
+import org.apache.james.mailbox.acl.UnionMailboxACLResolver;
+import org.apache.james.mailbox.inmemory.InMemoryMailboxSessionMapperFactory;
+import org.apache.james.mailbox.model.FetchGroupImpl;
+import org.apache.james.mailbox.model.MailboxConstants;
+import org.apache.james.mailbox.model.MailboxPath;
+import org.apache.james.mailbox.model.MessageRange;
+import org.apache.james.mailbox.model.MessageResult;
+import org.apache.james.mailbox.store.Authenticator;
+import org.apache.james.mailbox.store.StoreMailboxManager;
+import org.apache.james.protocols.pop3.mailbox.MessageMetaData;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class MailboxAdapterTest {
+
+    private final static int READ_AHEAD_COUNT = 4;
+
+    private StoreMailboxManager<Long> mailboxManager;
+    private MailboxSession session;
+    private MessageManager mailbox;
+
+    /**
+     * The range operations the adapter ran against the mailbox
+     */
+    private final List<String> calls = new ArrayList<String>();
+
+    private MailboxAdapter adapter;
+
+    @Before
+    public void setUp() throws Exception {
+        mailboxManager = new StoreMailboxManager<Long>(new InMemoryMailboxSessionMapperFactory(), new Authenticator() {
+
+            @Override
+            public boolean isAuthentic(String userid, CharSequence passwd) {
+                return true;
+            }
+        }, new UnionMailboxACLResolver(), new SimpleGroupMembershipResolver());
+        mailboxManager.init();
+
+        session = mailboxManager.login("user", "pass", LoggerFactory.getLogger("Test"));
+        MailboxPath path = new MailboxPath(MailboxConstants.USER_NAMESPACE, "user", "INBOX");
+        mailboxManager.createMailbox(path, session);
+        mailbox = mailboxManager.getMailbox(path, session);
+
+        // uids 1 to 20 without every third one: 1, 2, 4, 5, 7, 8, ..., 19, 20
+        for (int uid = 1; uid <= 20; uid++) {
+            mailbox.appendMessage(new ByteArrayInputStream(("Subject: " + uid + "\r\n\r\nbody " + uid).getBytes()), new Date(), session, true,
+                    new Flags());
+        }
+        for (long uid = 3; uid <= 20; uid += 3) {
+            mailbox.setFlags(new Flags(Flags.Flag.DELETED), true, false, MessageRange.one(uid), session);
+            mailbox.expunge(MessageRange.one(uid), session);
+        }
+
+        MessageManager recording = (MessageManager) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MessageManager.class },
+                new InvocationHandler() {
+
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (args != null) {
+                            for (Object arg : args) {
+                                if (arg instanceof MessageRange) {
+                                    calls.add(method.getName() + " " + toString((MessageRange) arg));
+                                }
+                            }
+                        }
+                        try {
+                            return method.invoke(mailbox, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        adapter = new MailboxAdapter(mailboxManager, recording, session, READ_AHEAD_COUNT, 1024 * 1024);
+    }
+
+    @Test
+    public void testSequentialRetrieveIsBatched() throws IOException {
+        List<MessageMetaData> messages = adapter.getMessages();
+        assertEquals(14, messages.size());
+
+        for (MessageMetaData message : messages) {
+            assertTrue(read(adapter.getMessage(message.getUid())).endsWith("body " + message.getUid()));
+        }
+
+        // each query covers the next READ_AHEAD_COUNT messages of the list
+        assertEquals(Arrays.asList("getMessages all", "getMessages 1:5", "getMessages 7:11", "getMessages 13:17", "getMessages 19:20"), calls);
+    }
+
+    @Test
+    public void testTopIsServedFromPrefetchedMessages() throws IOException {
+        adapter.getMessages();
+        read(adapter.getMessage("1"));
+
+        assertTrue(read(adapter.getMessageHeaders("2")).startsWith("Subject: 2"));
+        assertEquals("body 2", read(adapter.getMessageBody("2")));
+        assertTrue(read(adapter.getMessage("2")).endsWith("body 2"));
+        assertEquals(Arrays.asList("getMessages all", "getMessages 1:5"), calls);
+    }
+
+    @Test
+    public void testRandomRetrieveFetchesSingleMessage() throws IOException {
+        adapter.getMessages();
+
+        assertTrue(read(adapter.getMessage("7")).endsWith("body 7"));
+        // the next one is sequential again, so it reads ahead
+        assertTrue(read(adapter.getMessage("8")).endsWith("body 8"));
+        assertEquals(Arrays.asList("getMessages all", "getMessages 7", "getMessages 8:13"), calls);
+    }
+
+    @Test
+    public void testRemoveMergesRangesOverSparseUids() throws Exception {
+        List<MessageMetaData> messages = adapter.getMessages();
+        List<String> uids = new ArrayList<String>();
+        for (MessageMetaData message : messages) {
+            uids.add(message.getUid());
+        }
+
+        adapter.remove(uids.toArray(new String[uids.size()]));
+        assertEquals(Arrays.asList("getMessages all", "setFlags 1:20", "expunge 1:20"), calls);
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void testRemoveKeepsRunsApart() throws Exception {
+        adapter.getMessages();
+
+        adapter.remove("1", "2", "4", "10", "11");
+        assertEquals(Arrays.asList("getMessages all", "setFlags 1:4", "expunge 1:4", "setFlags 10:11", "expunge 10:11"), calls);
+        assertEquals(9, count());
+    }
+
+    @Test
+    public void testUidsOutsideTheListFallBack() throws Exception {
+        adapter.getMessages();
+
+        // uid 3 is not part of the list, so the uids are grouped by value
+        adapter.remove("1", "3");
+        assertEquals(Arrays.asList("getMessages all", "setFlags 1", "expunge 1", "setFlags 3", "expunge 3"), calls);
+
+        calls.clear();
+        assertNull(adapter.getMessage("3"));
+        assertEquals(Arrays.asList("getMessages 3"), calls);
+        assertEquals(13, count());
+    }
+
+    private int count() throws Exception {
+        int count = 0;
+        Iterator<MessageResult> results = mailbox.getMessages(MessageRange.all(), FetchGroupImpl.MINIMAL, session);
+        while (results.hasNext()) {
+            results.next();
+            count++;
+        }
+        return count;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("US-ASCII");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String toString(MessageRange range) {
+        if (range.getType() == MessageRange.Type.ALL) {
+            return "all";
+        }
+        if (range.getUidFrom() == range.getUidTo()) {
+            return Long.toString(range.getUidFrom());
+        }
+        return range.getUidFrom() + ":" + range.getUidTo();
+    }
+
+}
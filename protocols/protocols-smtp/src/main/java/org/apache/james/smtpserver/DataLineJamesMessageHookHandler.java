@@ -51,6 +51,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -68,8 +69,10 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
     public Response onLine(SMTPSession session, ByteBuffer lineByteBuffer, LineHandler<SMTPSession> next) {
 
-        byte[] line = new byte[lineByteBuffer.remaining()];
-        lineByteBuffer.get(line, 0, line.length);
+        // the line is inspected in place and written straight from the buffer,
+        // so no copy of it is needed
+        int start = lineByteBuffer.position();
+        int length = lineByteBuffer.remaining();
 
         MimeMessageInputStreamSource mmiss = (MimeMessageInputStreamSource) session.getAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, State.Transaction);
 
@@ -78,7 +81,7 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
 
             // 46 is "."
             // Stream terminated
-            if (line.length == 3 && line[0] == 46) {
+            if (length == 3 && lineByteBuffer.get(start) == 46) {
                 out.flush();
                 out.close();
 
@@ -121,14 +124,15 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
                 }
 
                 // DotStuffing.
-            } else if (line[0] == 46 && line[1] == 46) {
-                out.write(line, 1, line.length - 1);
+            } else if (length > 1 && lineByteBuffer.get(start) == 46 && lineByteBuffer.get(start + 1) == 46) {
+                lineByteBuffer.position(start + 1);
+                write(out, lineByteBuffer);
                 // Standard write
             } else {
                 // TODO: maybe we should handle the Header/Body recognition here
                 // and if needed let a filter to cache the headers to apply some
                 // transformation before writing them to output.
-                out.write(line);
+                write(out, lineByteBuffer);
             }
         } catch (IOException e) {
             LifecycleUtil.dispose(mmiss);
@@ -144,6 +148,20 @@ public class DataLineJamesMessageHookHandler implements DataLineFilter, Extensib
         return null;
     }
 
+    /**
+     * Write the remaining bytes of the buffer, directly if the stream supports
+     * it and via a byte array otherwise
+     */
+    private void write(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (out instanceof WritableByteChannel) {
+            ((WritableByteChannel) out).write(buffer);
+        } else {
+            byte[] line = new byte[buffer.remaining()];
+            buffer.get(line);
+            out.write(line);
+        }
+    }
+
     protected Response processExtensions(SMTPSession session, Mail mail) {
         if (mail != null && messageHandlers != null) {
             try {
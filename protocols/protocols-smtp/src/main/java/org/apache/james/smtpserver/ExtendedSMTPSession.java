@@ -18,6 +18,7 @@
  ****************************************************************/
 package org.apache.james.smtpserver;
 
+import org.apache.james.core.MessageContentStore;
 import org.apache.james.protocols.api.ProtocolTransport;
 import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
 import org.apache.james.protocols.smtp.SMTPConfiguration;
@@ -40,4 +41,16 @@ public class ExtendedSMTPSession extends org.apache.james.protocols.smtp.SMTPSes
 	public boolean verifyIdentity() {
         return !(smtpConfiguration instanceof SMTPHandlerConfigurationDataImpl) || ((SMTPHandlerConfigurationDataImpl) smtpConfiguration).verifyIdentity();
     }
+
+    /**
+     * Return the store which holds the content of DATA streams
+     * 
+     * @return store or null if the default store should be used
+     */
+    public MessageContentStore getMessageContentStore() {
+        if (smtpConfiguration instanceof SMTPHandlerConfigurationDataImpl) {
+            return ((SMTPHandlerConfigurationDataImpl) smtpConfiguration).getMessageContentStore();
+        }
+        return null;
+    }
 }
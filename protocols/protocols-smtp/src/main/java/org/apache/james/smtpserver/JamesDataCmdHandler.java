@@ -19,6 +19,7 @@
 package org.apache.james.smtpserver;
 
 import org.apache.james.core.MailImpl;
+import org.apache.james.core.MessageContentStore;
 import org.apache.james.core.MimeMessageInputStreamSource;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.smtp.SMTPResponse;
@@ -40,7 +41,16 @@ public class JamesDataCmdHandler extends DataCmdHandler {
      */
     protected SMTPResponse doDATA(SMTPSession session, String argument) {
         try {
-            MimeMessageInputStreamSource mmiss = new MimeMessageInputStreamSource(MailImpl.getId());
+            MessageContentStore store = null;
+            if (session instanceof ExtendedSMTPSession) {
+                store = ((ExtendedSMTPSession) session).getMessageContentStore();
+            }
+            MimeMessageInputStreamSource mmiss;
+            if (store != null) {
+                mmiss = new MimeMessageInputStreamSource(MailImpl.getId(), store);
+            } else {
+                mmiss = new MimeMessageInputStreamSource(MailImpl.getId());
+            }
             session.setAttachment(SMTPConstants.DATA_MIMEMESSAGE_STREAMSOURCE, mmiss, State.Transaction);
         } catch (Exception e) {
             session.getLogger().warn("Error creating mimemessagesource for incoming data", e);
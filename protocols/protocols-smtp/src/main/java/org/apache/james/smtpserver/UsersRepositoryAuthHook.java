@@ -25,16 +25,20 @@ import org.apache.james.protocols.smtp.SMTPSession;
 import org.apache.james.protocols.smtp.hook.AuthHook;
 import org.apache.james.protocols.smtp.hook.HookResult;
 import org.apache.james.protocols.smtp.hook.HookReturnCode;
+import org.apache.james.user.api.AuthenticationService;
 import org.apache.james.user.api.UsersRepository;
 import org.apache.james.user.api.UsersRepositoryException;
 
 /**
  * This Auth hook can be used to authenticate against the james user repository
+ * through the {@link AuthenticationService}
  */
 public class UsersRepositoryAuthHook implements AuthHook {
 
     private UsersRepository users;
 
+    private AuthenticationService authenticationService;
+
     /**
      * Gets the users repository.
      * 
@@ -55,13 +59,18 @@ public class UsersRepositoryAuthHook implements AuthHook {
         this.users = users;
     }
 
+    @Inject
+    public final void setAuthenticationService(@Named("authenticationservice") AuthenticationService authenticationService) {
+        this.authenticationService = authenticationService;
+    }
+
     /**
      * @see org.apache.james.protocols.smtp.hook.AuthHook#doAuth(org.apache.james.protocols.smtp.SMTPSession,
      *      java.lang.String, java.lang.String)
      */
     public HookResult doAuth(SMTPSession session, String username, String password) {
         try {
-            if (users.test(username, password)) {
+            if (authenticationService.authenticate(username, password, session.getRemoteAddress().getAddress().getHostAddress())) {
                 session.setUser(username);
                 session.setRelayingAllowed(true);
                 return new HookResult(HookReturnCode.OK, "Authentication Successful");
@@ -18,10 +18,16 @@
  ****************************************************************/
 package org.apache.james.smtpserver.fastfail;
 
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -30,12 +36,28 @@ import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.DNSServiceAsyncAdapter;
+import org.apache.james.protocols.api.Response;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
+import org.apache.james.protocols.smtp.SMTPSession;
 
 public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail.DNSRBLHandler implements InitializingLifecycleAwareProtocolHandler {
 
     private DNSService dns;
 
+    private String[] whitelist;
+
+    private String[] blacklist;
+
+    /**
+     * Lookups in all lists for the addresses checked right now, keyed by the
+     * reversed octets the superclass builds. An entry lives as long as a
+     * {@link #onConnect(SMTPSession)} checks its address, so concurrent
+     * connections from the same address share the lookups and no entry is
+     * left behind, whichever lists the superclass actually checked.
+     */
+    private final Map<String, Lookups> pendingLookups = new HashMap<String, Lookups>();
+
     @Inject
     public void setDNSService(@Named("dnsservice") DNSService dns) {
         this.dns = dns;
@@ -74,8 +96,82 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         // Do nothing
     }
 
+    @Override
+    public void setWhitelist(String[] whitelist) {
+        super.setWhitelist(whitelist);
+        this.whitelist = whitelist;
+    }
+
+    @Override
+    public void setBlacklist(String[] blacklist) {
+        super.setBlacklist(blacklist);
+        this.blacklist = blacklist;
+    }
+
+    @Override
+    public Response onConnect(SMTPSession session) {
+        String reversedOctets = reverseOctets(session.getRemoteAddress().getAddress().getHostAddress());
+        Lookups lookups;
+        synchronized (pendingLookups) {
+            lookups = pendingLookups.get(reversedOctets);
+            if (lookups == null) {
+                lookups = new Lookups(reversedOctets);
+                pendingLookups.put(reversedOctets, lookups);
+            }
+            lookups.checks++;
+        }
+        try {
+            return super.onConnect(session);
+        } finally {
+            synchronized (pendingLookups) {
+                if (--lookups.checks == 0) {
+                    pendingLookups.remove(reversedOctets);
+                    lookups.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * The superclass checks the lists one after another and stops at the
+     * first listing. All lookups for the address are started on the first
+     * call, so the following calls only wait for their result.
+     */
     @Override
     protected boolean resolve(String ip) {
+        String reversedOctets = getReversedOctets(ip);
+        Lookups lookups = null;
+        if (reversedOctets != null) {
+            synchronized (pendingLookups) {
+                lookups = pendingLookups.get(reversedOctets);
+            }
+        }
+        Future<InetAddress> lookup = lookups == null ? null : lookups.get(ip);
+        if (lookup == null) {
+            // not checked by onConnect
+            return resolveNow(ip);
+        }
+        try {
+            lookup.get();
+            return true;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Return the count of addresses whose lookups are kept
+     */
+    int getPendingLookupCount() {
+        synchronized (pendingLookups) {
+            return pendingLookups.size();
+        }
+    }
+
+    private boolean resolveNow(String ip) {
         try {
             dns.getByName(ip);
             return true;
@@ -84,8 +180,81 @@ public class DNSRBLHandler extends org.apache.james.protocols.smtp.core.fastfail
         }
     }
 
+    /**
+     * Reverse the octets of the given address the way the superclass does
+     */
+    private static String reverseOctets(String ipAddress) {
+        StringBuilder sb = new StringBuilder();
+        StringTokenizer st = new StringTokenizer(ipAddress, " .", false);
+        while (st.hasMoreTokens()) {
+            sb.insert(0, st.nextToken() + ".");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Return the reversed octets the given name was built from, or null if it
+     * does not belong to a configured list
+     */
+    private String getReversedOctets(String ip) {
+        String list = null;
+        for (String[] lists : new String[][]{whitelist, blacklist}) {
+            if (lists != null) {
+                for (String rbl : lists) {
+                    if (ip.length() > rbl.length() && ip.endsWith(rbl) && (list == null || rbl.length() > list.length())) {
+                        list = rbl;
+                    }
+                }
+            }
+        }
+        return list == null ? null : ip.substring(0, ip.length() - list.length());
+    }
+
+    private Map<String, Future<InetAddress>> startLookups(String reversedOctets) {
+        Collection<String> names = new ArrayList<String>();
+        if (whitelist != null) {
+            for (String rbl : whitelist) {
+                names.add(reversedOctets + rbl);
+            }
+        }
+        if (blacklist != null) {
+            for (String rbl : blacklist) {
+                names.add(reversedOctets + rbl);
+            }
+        }
+        return DNSServiceAsyncAdapter.adapt(dns).getByNameAsync(names);
+    }
+
     @Override
     protected Collection<String> resolveTXTRecords(String ip) {
         return dns.findTXTRecords(ip);
     }
+
+    /**
+     * The lookups of one address, started on the first access
+     */
+    private final class Lookups {
+        private final String reversedOctets;
+        private Map<String, Future<InetAddress>> futures;
+        private int checks;
+
+        private Lookups(String reversedOctets) {
+            this.reversedOctets = reversedOctets;
+        }
+
+        private synchronized Future<InetAddress> get(String name) {
+            if (futures == null) {
+                futures = startLookups(reversedOctets);
+            }
+            return futures.get(name);
+        }
+
+        private synchronized void cancel() {
+            if (futures != null) {
+                for (Future<InetAddress> lookup : futures.values()) {
+                    lookup.cancel(false);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,393 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.smtpserver.fastfail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * <p>
+ * Extracts the registrar domains of the URIs and email addresses found in a
+ * stream of bytes.
+ * </p>
+ * <p>
+ * The bytes are scanned one by one by a small state machine, so the cost is
+ * linear in the size of the content and nothing but the host names is
+ * buffered. As host names and URIs are ASCII, the bytes are not decoded: any
+ * charset which is a superset of ASCII works. The following are recognized:
+ * </p>
+ * <ul>
+ * <li>URIs with a http, https, ftp, file or mailto scheme (in any case)</li>
+ * <li>host names starting with <code>www.</code> (or <code>www2.</code>, ...)
+ * or <code>ftp.</code></li>
+ * <li>email addresses</li>
+ * </ul>
+ * <p>
+ * Each host is then distilled to its registrar domain, see
+ * {@link URIScanner#domainFromHost(String)}, so each domain is only reported
+ * once. Scanning stops once the byte or URI budget is exhausted.
+ * </p>
+ * <p>
+ * This class is not thread safe, use one instance per message.
+ * </p>
+ */
+public class URIExtractor {
+
+    /** Longest host name (RFC 1035) */
+    private final static int MAX_HOST_LENGTH = 255;
+
+    /** Longest word which can start an URI ("javascript") */
+    private final static int MAX_WORD_LENGTH = 10;
+
+    /** Longest authority (userinfo@host:port) of an URI which is kept */
+    private final static int MAX_AUTHORITY_LENGTH = 512;
+
+    private final static int SCAN = 0;
+
+    private final static int SCHEME = 1;
+
+    private final static int AUTHORITY = 2;
+
+    private final static int EMAIL_HOST = 3;
+
+    /** The char classes, see {@link #classify(int)} */
+    private final static int WORD = 1;
+
+    private final static int URIC = 2;
+
+    private final static int HOST = 4;
+
+    private final static int ATOM = 8;
+
+    private final static byte[] CLASSES = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            CLASSES[c] = (byte) classify(c);
+        }
+    }
+
+    private final long maxBytes;
+
+    private final int maxURIs;
+
+    private long byteCount;
+
+    private int uriCount;
+
+    private final Set<String> hosts = new HashSet<String>();
+
+    private final Set<String> domains = new LinkedHashSet<String>();
+
+    /** state of the URI automaton */
+    private int uriState = SCAN;
+
+    private int previous = ' ';
+
+    /** the word (lower case) read last */
+    private final byte[] word = new byte[MAX_WORD_LENGTH];
+
+    private int wordLength;
+
+    /** the byte before the word */
+    private int beforeWord = ' ';
+
+    /** slashes expected after the scheme, negative if they are optional */
+    private int schemeSlashes;
+
+    private final byte[] authority = new byte[MAX_AUTHORITY_LENGTH];
+
+    private int authorityLength;
+
+    /** state of the email automaton */
+    private boolean inEmailHost;
+
+    /** count of bytes of the local part read last */
+    private int localPartLength;
+
+    /** true if only white spaces follow the local part */
+    private boolean afterLocalPart;
+
+    private final byte[] emailHost = new byte[MAX_HOST_LENGTH];
+
+    private int emailHostLength;
+
+    /**
+     * Create a new extractor.
+     * 
+     * @param maxBytes
+     *            the count of bytes to scan at most
+     * @param maxURIs
+     *            the count of distinct hosts of URIs and email addresses to
+     *            extract at most
+     */
+    public URIExtractor(long maxBytes, int maxURIs) {
+        this.maxBytes = maxBytes;
+        this.maxURIs = maxURIs;
+    }
+
+    /**
+     * Scan the given content, e.g. a text part of a message. The stream is
+     * read until its end, or until the budget is exhausted. It is not closed.
+     * 
+     * @param in
+     *            the content
+     * @throws IOException
+     *             if the content could not be read
+     */
+    public void scan(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while (!isExhausted() && (read = in.read(buffer, 0, (int) Math.min(buffer.length, maxBytes - byteCount))) != -1) {
+            byteCount += read;
+            for (int i = 0; i < read && uriCount < maxURIs; i++) {
+                update(buffer[i] & 0xFF);
+            }
+        }
+        // the end of the content ends the URI or address read last, and the
+        // next content is scanned from scratch
+        update(' ');
+        uriState = SCAN;
+        previous = ' ';
+        wordLength = 0;
+        localPartLength = 0;
+        afterLocalPart = false;
+    }
+
+    /**
+     * Return true if the budget of bytes or URIs is exhausted. Nothing more is
+     * scanned then.
+     * 
+     * @return exhausted
+     */
+    public boolean isExhausted() {
+        return byteCount >= maxBytes || uriCount >= maxURIs;
+    }
+
+    /**
+     * Return the registrar domains found so far, in the order they were found.
+     * 
+     * @return domains
+     */
+    public Set<String> getDomains() {
+        return domains;
+    }
+
+    private void update(int c) {
+        int classes = classesOf(c);
+        updateURI(c, classes);
+        updateEmail(c, classes);
+        previous = c;
+    }
+
+    private void updateURI(int c, int classes) {
+        if (uriState == SCHEME) {
+            if (c == '/' && schemeSlashes != 0) {
+                schemeSlashes--;
+                return;
+            }
+            if (schemeSlashes <= 0 && (classes & URIC) != 0 && c != ':') {
+                uriState = AUTHORITY;
+                authorityLength = 0;
+            } else {
+                uriState = SCAN;
+            }
+        }
+
+        if (uriState == AUTHORITY) {
+            if ((classes & URIC) != 0 && c != '/' && c != '?' && c != '#') {
+                if (authorityLength < MAX_AUTHORITY_LENGTH) {
+                    authority[authorityLength++] = (byte) c;
+                } else {
+                    // too long to be a valid one, so it's ignored
+                    uriState = SCAN;
+                }
+                return;
+            }
+            uriState = SCAN;
+            addAuthority();
+        }
+
+        boolean previousIsWord = (classesOf(previous) & WORD) != 0;
+        if ((classes & WORD) != 0) {
+            if (!previousIsWord) {
+                // a new word starts
+                beforeWord = previous;
+                wordLength = 0;
+            }
+            if (wordLength < MAX_WORD_LENGTH) {
+                word[wordLength] = (byte) Character.toLowerCase((char) c);
+            }
+            wordLength++;
+        } else if (previousIsWord) {
+            if (c == ':') {
+                startScheme();
+            } else if (c == '.' && beforeWord != '.' && beforeWord != '=' && isHostPrefix()) {
+                // a schemeless URI, its authority starts with the word
+                uriState = AUTHORITY;
+                System.arraycopy(word, 0, authority, 0, wordLength);
+                authority[wordLength] = '.';
+                authorityLength = wordLength + 1;
+            }
+        }
+    }
+
+    private void startScheme() {
+        if (wordEquals("http") || wordEquals("https") || wordEquals("ftp") || wordEquals("file")) {
+            uriState = SCHEME;
+            schemeSlashes = 2;
+        } else if (wordEquals("mailto")) {
+            // mailto:user@host, any slashes are skipped
+            uriState = SCHEME;
+            schemeSlashes = -1;
+        }
+    }
+
+    private boolean wordEquals(String scheme) {
+        if (wordLength != scheme.length()) {
+            return false;
+        }
+        for (int i = 0; i < wordLength; i++) {
+            if (word[i] != scheme.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the word is www, www followed by digits, or ftp.
+     */
+    private boolean isHostPrefix() {
+        if (wordEquals("ftp")) {
+            return true;
+        }
+        if (wordLength < 3 || wordLength > MAX_WORD_LENGTH || word[0] != 'w' || word[1] != 'w' || word[2] != 'w') {
+            return false;
+        }
+        for (int i = 3; i < wordLength; i++) {
+            if (word[i] < '0' || word[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addAuthority() {
+        // skip the user info
+        int start = 0;
+        for (int i = 0; i < authorityLength; i++) {
+            if (authority[i] == '@') {
+                start = i + 1;
+            }
+        }
+        int end = start;
+        while (end < authorityLength && (classesOf(authority[end]) & HOST) != 0) {
+            end++;
+        }
+        addHost(authority, start, end);
+    }
+
+    private void updateEmail(int c, int classes) {
+        if (inEmailHost) {
+            if ((classes & HOST) != 0) {
+                if (emailHostLength < MAX_HOST_LENGTH) {
+                    emailHost[emailHostLength++] = (byte) c;
+                } else {
+                    inEmailHost = false;
+                }
+            } else if (emailHostLength > 0 || (c != ' ' && c != '\t')) {
+                inEmailHost = false;
+                addHost(emailHost, 0, emailHostLength);
+            }
+        } else if (c == '@' && (localPartLength > 0 || afterLocalPart)) {
+            inEmailHost = true;
+            emailHostLength = 0;
+        }
+
+        if ((classes & ATOM) != 0 || c == '.') {
+            localPartLength++;
+            afterLocalPart = false;
+        } else if ((c == ' ' || c == '\t') && (localPartLength > 0 || afterLocalPart)) {
+            localPartLength = 0;
+            afterLocalPart = true;
+        } else {
+            localPartLength = 0;
+            afterLocalPart = false;
+        }
+    }
+
+    /**
+     * Add the host which is stored in the given bytes, if it is a valid host
+     * name.
+     */
+    private void addHost(byte[] bytes, int start, int end) {
+        // a label neither starts nor ends with '.' or '-'
+        while (end > start && (bytes[end - 1] == '.' || bytes[end - 1] == '-')) {
+            end--;
+        }
+        if (end == start || end - start > MAX_HOST_LENGTH || bytes[start] == '.' || bytes[start] == '-' || uriCount >= maxURIs) {
+            return;
+        }
+
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = Character.toLowerCase((char) bytes[i]);
+        }
+        String host = new String(chars);
+        // only distinct hosts count, so repeating one link does not use up
+        // the budget
+        if (hosts.add(host)) {
+            uriCount++;
+            String domain = URIScanner.domainFromHost(host);
+            if (domain != null) {
+                domains.add(domain);
+            }
+        }
+    }
+
+    private static int classesOf(int c) {
+        return c < 128 ? CLASSES[c] : 0;
+    }
+
+    /**
+     * Return the classes of an ASCII char.
+     */
+    private static int classify(int c) {
+        int classes = 0;
+        boolean letterOrDigit = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+        if (letterOrDigit || c == '_') {
+            classes |= WORD;
+        }
+        if (letterOrDigit || "-_.!~*'()%;/?:@&=+$,[]\\#|".indexOf(c) >= 0 || (c <= 0x1f && c != '\t' && c != '\n' && c != '\r')) {
+            classes |= URIC;
+        }
+        if (letterOrDigit || c == '.' || c == '-') {
+            classes |= HOST;
+        }
+        if (c > ' ' && c < 0x7f && "()<>@,;:\\\".[]".indexOf(c) < 0) {
+            classes |= ATOM;
+        }
+        return classes;
+    }
+}
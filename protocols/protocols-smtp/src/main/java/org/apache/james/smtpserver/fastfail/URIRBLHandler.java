@@ -19,11 +19,16 @@
 package org.apache.james.smtpserver.fastfail;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -36,6 +41,7 @@ import javax.mail.internet.MimePart;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.DNSServiceAsyncAdapter;
 import org.apache.james.protocols.api.ProtocolSession.State;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
 import org.apache.james.protocols.smtp.SMTPSession;
@@ -50,6 +56,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Extract domains from message and check against URIRBLServer. For more
  * informations see <a href="http://www.surbl.org">www.surbl.org</a>
+ * 
+ * The text parts of the message are scanned while they are decoded, see
+ * {@link URIExtractor}. The scan stops after maxScanBytes bytes or maxURIs
+ * distinct hosts, so only the beginning of huge messages is checked.
  */
 public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwareProtocolHandler {
 
@@ -66,12 +76,20 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
     private final static String URBLSERVER = "URBL_SERVER";
 
+    private final static long DEFAULT_MAX_SCAN_BYTES = 1024 * 1024;
+
+    private final static int DEFAULT_MAX_URIS = 1000;
+
     private DNSService dnsService;
 
     private Collection<String> uriRbl;
 
     private boolean getDetail = false;
 
+    private long maxScanBytes = DEFAULT_MAX_SCAN_BYTES;
+
+    private int maxURIs = DEFAULT_MAX_URIS;
+
     /**
      * Gets the DNS service.
      * 
@@ -112,6 +130,26 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         this.getDetail = getDetail;
     }
 
+    /**
+     * Set the count of bytes of the text parts which are scanned at most.
+     * 
+     * @param maxScanBytes
+     *            the count of bytes
+     */
+    public void setMaxScanBytes(long maxScanBytes) {
+        this.maxScanBytes = maxScanBytes;
+    }
+
+    /**
+     * Set the count of distinct hosts of URIs which are extracted at most.
+     * 
+     * @param maxURIs
+     *            the count of hosts
+     */
+    public void setMaxURIs(int maxURIs) {
+        this.maxURIs = maxURIs;
+    }
+
     /**
      * @see org.apache.james.smtpserver.JamesMessageHook#onMessage(org.apache.james.protocols.smtp.SMTPSession,
      *      org.apache.mailet.Mail)
@@ -147,44 +185,37 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
 
     /**
      * Recursively scans all MimeParts of an email for domain strings. Domain
-     * strings that are found are added to the supplied HashSet.
+     * strings that are found are added to the supplied extractor.
      * 
      * @param part
      *            MimePart to scan
+     * @param extractor
+     *            the extractor which collects the domains
      * @param session
      *            not null
-     * @return domains The HashSet that contains the domains which were
-     *         extracted
      */
-    private HashSet<String> scanMailForDomains(MimePart part, SMTPSession session) throws MessagingException, IOException {
-        HashSet<String> domains = new HashSet<String>();
+    private void scanMailForDomains(MimePart part, URIExtractor extractor, SMTPSession session) throws MessagingException, IOException {
         session.getLogger().debug("mime type is: \"" + part.getContentType() + "\"");
 
         if (part.isMimeType("text/plain") || part.isMimeType("text/html")) {
-            session.getLogger().debug("scanning: \"" + part.getContent().toString() + "\"");
-            HashSet<String> newDom = URIScanner.scanContentForDomains(domains, part.getContent().toString());
-
-            // Check if new domains are found and add the domains
-            if (newDom != null && newDom.size() > 0) {
-                domains.addAll(newDom);
+            // the transfer encoding is decoded while the part is read
+            InputStream in = part.getInputStream();
+            try {
+                extractor.scan(in);
+            } finally {
+                in.close();
             }
         } else if (part.isMimeType("multipart/*")) {
             MimeMultipart multipart = (MimeMultipart) part.getContent();
             int count = multipart.getCount();
             session.getLogger().debug("multipart count is: " + count);
 
-            for (int index = 0; index < count; index++) {
+            for (int index = 0; index < count && !extractor.isExhausted(); index++) {
                 session.getLogger().debug("recursing index: " + index);
                 MimeBodyPart mimeBodyPart = (MimeBodyPart) multipart.getBodyPart(index);
-                HashSet<String> newDomains = scanMailForDomains(mimeBodyPart, session);
-
-                // Check if new domains are found and add the domains
-                if (newDomains != null && newDomains.size() > 0) {
-                    domains.addAll(newDomains);
-                }
+                scanMailForDomains(mimeBodyPart, extractor, session);
             }
         }
-        return domains;
     }
 
     /**
@@ -196,31 +227,39 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         try {
             message = mail.getMessage();
 
-            HashSet<String> domains = scanMailForDomains(message, session);
+            URIExtractor extractor = new URIExtractor(maxScanBytes, maxURIs);
+            scanMailForDomains(message, extractor, session);
+            Set<String> domains = extractor.getDomains();
+            if (extractor.isExhausted()) {
+                session.getLogger().debug("Scan budget exhausted, only the domains found so far are checked");
+            }
 
+            // start all lookups at once, and evaluate them in the order they
+            // were done one after another before
+            List<String> addresses = new ArrayList<String>();
             for (String domain : domains) {
-                Iterator<String> uRbl = uriRbl.iterator();
-                String target = domain;
-
-                while (uRbl.hasNext()) {
-                    try {
-                        String uRblServer = uRbl.next();
-                        String address = target + "." + uRblServer;
-
-                        if (session.getLogger().isDebugEnabled()) {
-                            session.getLogger().debug("Lookup " + address);
+                for (String uRblServer : uriRbl) {
+                    addresses.add(domain + "." + uRblServer);
+                }
+            }
+            if (session.getLogger().isDebugEnabled()) {
+                session.getLogger().debug("Lookup " + addresses);
+            }
+            Map<String, Future<InetAddress>> lookups = DNSServiceAsyncAdapter.adapt(dnsService).getByNameAsync(addresses);
+
+            for (String target : domains) {
+                for (String uRblServer : uriRbl) {
+                    if (isListed(lookups.get(target + "." + uRblServer), session)) {
+                        // the remaining lookups are not needed anymore
+                        for (Future<InetAddress> lookup : lookups.values()) {
+                            lookup.cancel(false);
                         }
 
-                        dnsService.getByName(address);
-
                         // store server name for later use
                         session.setAttachment(URBLSERVER, uRblServer, State.Transaction);
                         session.setAttachment(LISTED_DOMAIN, target, State.Transaction);
 
                         return true;
-
-                    } catch (UnknownHostException uhe) {
-                        // domain not found. keep processing
                     }
                 }
             }
@@ -232,6 +271,27 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         return false;
     }
 
+    /**
+     * Wait for the lookup of a domain in an URIRBL zone
+     * 
+     * @return true if the domain is listed
+     */
+    private boolean isListed(Future<InetAddress> lookup, SMTPSession session) {
+        try {
+            lookup.get();
+            return true;
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof UnknownHostException)) {
+                session.getLogger().info("Unable to lookup URIRBL entry", e.getCause());
+            }
+            // domain not found. keep processing
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     @Override
     public void init(Configuration config) throws ConfigurationException {
         String[] servers = config.getStringArray("uriRblServers.server");
@@ -249,6 +309,8 @@ public class URIRBLHandler implements JamesMessageHook, InitializingLifecycleAwa
         }
 
         setGetDetail(config.getBoolean("getDetail", false));        
+        setMaxScanBytes(config.getLong("maxScanBytes", DEFAULT_MAX_SCAN_BYTES));
+        setMaxURIs(config.getInt("maxURIs", DEFAULT_MAX_URIS));
     }
 
     @Override
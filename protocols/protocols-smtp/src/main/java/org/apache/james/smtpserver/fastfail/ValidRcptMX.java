@@ -18,10 +18,13 @@
  ****************************************************************/
 package org.apache.james.smtpserver.fastfail;
 
+import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -29,6 +32,7 @@ import javax.inject.Named;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.james.dnsservice.api.DNSService;
+import org.apache.james.dnsservice.api.DNSServiceAsyncAdapter;
 import org.apache.james.dnsservice.api.TemporaryResolutionException;
 import org.apache.james.dnsservice.library.netmatcher.NetMatcher;
 import org.apache.james.protocols.lib.lifecycle.InitializingLifecycleAwareProtocolHandler;
@@ -116,26 +120,30 @@ public class ValidRcptMX implements InitializingLifecycleAwareProtocolHandler, R
         // Email should be deliver local
         if (!domain.equals(LOCALHOST)) {
 
-            Iterator<String> mx;
+            Collection<String> mx;
             try {
-                mx = dnsService.findMXRecords(domain).iterator();
+                mx = dnsService.findMXRecords(domain);
             } catch (TemporaryResolutionException e1) {
                 return new HookResult(HookReturnCode.DENYSOFT);
             }
 
-            if (mx != null && mx.hasNext()) {
-                while (mx.hasNext()) {
-                    String mxRec = mx.next();
+            if (mx != null && !mx.isEmpty()) {
+                // resolve all MX hosts at once
+                Map<String, Future<InetAddress>> lookups = DNSServiceAsyncAdapter.adapt(dnsService).getByNameAsync(mx);
+                for (Future<InetAddress> lookup : lookups.values()) {
 
                     try {
-                        String ip = dnsService.getByName(mxRec).getHostAddress();
+                        String ip = lookup.get().getHostAddress();
 
                         // Check for invalid MX
                         if (bNetwork.matchInetNetwork(ip)) {
                             return new HookResult(HookReturnCode.DENY, SMTPRetCode.AUTH_REQUIRED, DSNStatus.getStatus(DSNStatus.PERMANENT, DSNStatus.SECURITY_AUTH) + " Invalid MX " + session.getRemoteAddress().getAddress().toString() + " for domain " + domain + ". Reject email");
                         }
-                    } catch (UnknownHostException e) {
+                    } catch (ExecutionException e) {
                         // Ignore this
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
                     }
                 }
             }
@@ -18,10 +18,16 @@
  ****************************************************************/
 package org.apache.james.smtpserver.netty;
 
+import java.io.File;
+
 import javax.inject.Inject;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.james.core.MessageContentStore;
+import org.apache.james.core.MimeMessageInputStreamSource;
+import org.apache.james.core.SpoolingMessageContentStore;
+import org.apache.james.core.TieredMessageContentStore;
 import org.apache.james.dnsservice.api.DNSService;
 import org.apache.james.dnsservice.library.netmatcher.NetMatcher;
 import org.apache.james.protocols.api.ProtocolSession;
@@ -71,6 +77,26 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
      */
     private long maxMessageSize = 0;
 
+    /**
+     * The count of bytes of a DATA stream kept in memory before it gets
+     * spooled to disk
+     */
+    private int dataSpoolThreshold = MimeMessageInputStreamSource.THRESHOLD;
+
+    /**
+     * The directory to which DATA streams get spooled. The default value, null,
+     * means the temporary directory of the JVM.
+     */
+    private String dataSpoolDirectory = null;
+
+    /**
+     * The count of bytes all DATA streams together may keep off-heap. The
+     * default value, 0, means the streams are kept on the heap.
+     */
+    private long dataSpoolMemoryBudget = 0;
+
+    private MessageContentStore messageContentStore;
+
     /**
      * The configuration data to be passed to the handler
      */
@@ -102,6 +128,20 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
             }
             authorizedNetworks = new NetMatcher(networks, dns);
         }
+        File dataSpoolDir = MimeMessageInputStreamSource.TMPDIR;
+        if (dataSpoolDirectory != null) {
+            dataSpoolDir = getFileSystem().getFile(dataSpoolDirectory);
+            if (!dataSpoolDir.exists() && !dataSpoolDir.mkdirs()) {
+                throw new ConfigurationException("Unable to create data spool directory " + dataSpoolDir);
+            }
+        }
+        if (dataSpoolMemoryBudget > 0) {
+            messageContentStore = new TieredMessageContentStore(dataSpoolMemoryBudget, dataSpoolThreshold, dataSpoolDir);
+            getLogger().info("DATA streams share " + dataSpoolMemoryBudget + " bytes of off-heap memory, bigger ones get spooled to " + dataSpoolDir);
+        } else {
+            messageContentStore = new SpoolingMessageContentStore(dataSpoolThreshold, dataSpoolDir);
+            getLogger().info("DATA streams bigger than " + dataSpoolThreshold + " bytes get spooled to " + dataSpoolDir);
+        }
         SMTPProtocol transport = new SMTPProtocol(getProtocolHandlerChain(), theConfigData, new ProtocolLoggerAdapter(getLogger())) {
 
             @Override
@@ -162,6 +202,12 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
                 getLogger().info("No maximum message size is enforced for this server.");
             }
 
+            // get the DATA spool threshold from the conf file and multiply
+            // by 1024, to put it in bytes
+            dataSpoolThreshold = configuration.getInt("dataSpoolThreshold", dataSpoolThreshold / 1024) * 1024;
+            dataSpoolDirectory = configuration.getString("dataSpoolDirectory", null);
+            dataSpoolMemoryBudget = configuration.getLong("dataSpoolMemoryBudget", dataSpoolMemoryBudget) * 1024;
+
             heloEhloEnforcement = configuration.getBoolean("heloEhloEnforcement", true);
 
             if (authRequiredString.equals("true"))
@@ -267,6 +313,15 @@ public class SMTPServer extends AbstractProtocolAsyncServer implements SMTPServe
             return SMTPServer.this.verifyIdentity;
         }
 
+        /**
+         * Return the store which holds the content of DATA streams
+         * 
+         * @return store
+         */
+        public MessageContentStore getMessageContentStore() {
+            return SMTPServer.this.messageContentStore;
+        }
+
         @Override
         public String getGreeting() {
             return SMTPServer.this.smtpGreeting;
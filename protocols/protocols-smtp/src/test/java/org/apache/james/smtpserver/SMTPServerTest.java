@@ -57,6 +57,7 @@ import org.apache.james.queue.api.mock.MockMailQueueFactory;
 import org.apache.james.rrt.api.RecipientRewriteTable;
 import org.apache.james.rrt.api.RecipientRewriteTableException;
 import org.apache.james.smtpserver.netty.SMTPServer;
+import org.apache.james.user.lib.CachingAuthenticationService;
 import org.apache.james.user.lib.mock.MockUsersRepository;
 import org.apache.mailet.HostAddress;
 import org.apache.mailet.Mail;
@@ -214,6 +215,9 @@ public class SMTPServerTest {
         chain = new MockProtocolHandlerLoader();
     
         chain.put("usersrepository", usersRepository);
+        CachingAuthenticationService authenticationService = new CachingAuthenticationService();
+        authenticationService.setUsersRepository(usersRepository);
+        chain.put("authenticationservice", authenticationService);
     
         dnsServer = new AlterableDNSServer();
         chain.put("dnsservice", dnsServer);
@@ -0,0 +1,94 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+
+package org.apache.james.smtpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.apache.james.smtpserver.fastfail.URIExtractor;
+import org.junit.Test;
+
+public class URIExtractorTest {
+
+    private URIExtractor scan(String content, long maxBytes, int maxURIs) throws IOException {
+        URIExtractor extractor = new URIExtractor(maxBytes, maxURIs);
+        extractor.scan(new ByteArrayInputStream(content.getBytes("US-ASCII")));
+        return extractor;
+    }
+
+    private void assertDomains(String content, String... domains) throws IOException {
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(domains)), scan(content, 1000000, 1000).getDomains());
+    }
+
+    @Test
+    public void testURIs() throws IOException {
+        assertDomains("Visit http://www.Example.com/path?x=1 and HTTPS://user:pw@shop.example.co.uk:8080/.", "example.com", "example.co.uk");
+        assertDomains("<a href=\"ftp://files.example.org\">files</a>", "example.org");
+        assertDomains("xhttp://example.com http:example.net");
+    }
+
+    @Test
+    public void testSchemelessURIs() throws IOException {
+        assertDomains("see www2.example.com/offer or ftp.example.net, not a.www.example.org", "example.com", "example.net");
+    }
+
+    @Test
+    public void testEmailAddresses() throws IOException {
+        assertDomains("Write to john.doe@mail.example.com or mailto:jane@example.net?subject=hi", "example.com", "example.net");
+    }
+
+    @Test
+    public void testIpAddresses() throws IOException {
+        assertDomains("http://192.168.1.2/login", "2.1.168.192");
+    }
+
+    @Test
+    public void testBudgets() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append("http://domain").append(i).append(".com/ ");
+        }
+        URIExtractor extractor = scan(content.toString(), 1000000, 10);
+        assertEquals(10, extractor.getDomains().size());
+        assertTrue(extractor.isExhausted());
+
+        extractor = scan(content.toString(), 45, 1000);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("domain0.com", "domain1.com")), extractor.getDomains());
+        assertTrue(extractor.isExhausted());
+    }
+
+    @Test
+    public void testRepeatedLinksDoNotExhaustBudget() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            content.append("http://www.innocent.example.com/ ");
+        }
+        content.append("http://listed.example.net/");
+        URIExtractor extractor = scan(content.toString(), 1000000, 10);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("example.com", "example.net")), extractor.getDomains());
+        assertFalse(extractor.isExhausted());
+    }
+}
@@ -0,0 +1,142 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.smtpserver.fastfail;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.james.dnsservice.api.mock.MockDNSService;
+import org.apache.james.protocols.api.logger.Logger;
+import org.apache.james.protocols.api.logger.ProtocolLoggerAdapter;
+import org.apache.james.protocols.smtp.SMTPSession;
+import org.apache.james.protocols.smtp.utils.BaseFakeSMTPSession;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DNSRBLHandlerTest {
+
+    private final static String WHITELIST = "whitelist.example.";
+    private final static String BLACKLIST = "blacklist.example.";
+
+    private final List<String> queried = new ArrayList<String>();
+    private DNSRBLHandler handler;
+
+    @Before
+    public void setUp() {
+        handler = new DNSRBLHandler();
+        handler.setDNSService(new MockDNSService() {
+
+            @Override
+            public InetAddress getByName(String host) throws UnknownHostException {
+                queried.add(host);
+                if (host.equals("2.0.0.127." + WHITELIST) || host.equals("3.0.0.127." + BLACKLIST)) {
+                    return InetAddress.getByName("127.0.0.2");
+                }
+                throw new UnknownHostException(host);
+            }
+        });
+        handler.setWhitelist(new String[]{WHITELIST});
+        handler.setBlacklist(new String[]{BLACKLIST});
+    }
+
+    @Test
+    public void testWhitelistedClientLeavesNoLookups() throws Exception {
+        SMTPSession session = createSession("127.0.0.2");
+        handler.onConnect(session);
+
+        assertNull(session.getAttachment(DNSRBLHandler.RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, SMTPSession.State.Connection));
+        assertEquals(0, handler.getPendingLookupCount());
+
+        // a later connection from the same address is looked up again
+        queried.clear();
+        handler.onConnect(createSession("127.0.0.2"));
+        assertEquals(2, queried.size());
+        assertEquals(0, handler.getPendingLookupCount());
+    }
+
+    @Test
+    public void testBlacklistedClient() throws Exception {
+        SMTPSession session = createSession("127.0.0.3");
+        handler.onConnect(session);
+
+        assertNotNull(session.getAttachment(DNSRBLHandler.RBL_BLOCKLISTED_MAIL_ATTRIBUTE_NAME, SMTPSession.State.Connection));
+        assertEquals(0, handler.getPendingLookupCount());
+    }
+
+    @Test
+    public void testRelayingClientLeavesNoLookups() throws Exception {
+        SMTPSession session = createSession("127.0.0.3");
+        session.setRelayingAllowed(true);
+        handler.onConnect(session);
+
+        assertEquals(0, queried.size());
+        assertEquals(0, handler.getPendingLookupCount());
+    }
+
+    private SMTPSession createSession(final String ipAddress) {
+        return new BaseFakeSMTPSession() {
+
+            private final Map<String, Object> connectionState = new HashMap<String, Object>();
+            private boolean relayingAllowed;
+
+            @Override
+            public InetSocketAddress getRemoteAddress() {
+                return new InetSocketAddress(ipAddress, 25);
+            }
+
+            @Override
+            public Logger getLogger() {
+                return new ProtocolLoggerAdapter(LoggerFactory.getLogger(DNSRBLHandlerTest.class));
+            }
+
+            @Override
+            public Object setAttachment(String key, Object value, State state) {
+                if (value == null) {
+                    return connectionState.remove(key);
+                }
+                return connectionState.put(key, value);
+            }
+
+            @Override
+            public Object getAttachment(String key, State state) {
+                return connectionState.get(key);
+            }
+
+            @Override
+            public boolean isRelayingAllowed() {
+                return relayingAllowed;
+            }
+
+            @Override
+            public void setRelayingAllowed(boolean relayingAllowed) {
+                this.relayingAllowed = relayingAllowed;
+            }
+        };
+    }
+}
@@ -20,6 +20,7 @@ package org.apache.james.queue.activemq;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +38,7 @@ import javax.jms.TemporaryQueue;
 import javax.mail.MessagingException;
 
 import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.ScheduledMessage;
 import org.apache.activemq.BlobMessage;
 import org.apache.activemq.command.ActiveMQBlobMessage;
 import org.apache.activemq.util.JMSExceptionSupport;
@@ -45,6 +47,7 @@ import org.apache.james.core.MimeMessageInputStream;
 import org.apache.james.core.MimeMessageSource;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.jms.JMSMailQueue;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 import org.springframework.jms.connection.SessionProxy;
@@ -86,6 +89,8 @@ import org.springframework.jms.connection.SessionProxy;
 public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
 
     private final boolean useBlob;
+    private boolean useScheduler = false;
+    private int prefetch = -1;
 
     /**
      * Construct a {@link ActiveMQMailQueue} which only use {@link BlobMessage}
@@ -104,10 +109,60 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
      * @param logger
      */
     public ActiveMQMailQueue(final ConnectionFactory connectionFactory, final String queuename, boolean useBlob, final Logger logger) {
-        super(connectionFactory, queuename, logger);
+        this(connectionFactory, queuename, useBlob, DEFAULT_MAX_IDLE_SESSIONS, logger);
+    }
+
+    /**
+     * Construct a new ActiveMQ based {@link MailQueue}.
+     * 
+     * @param connectionFactory
+     * @param queuename
+     * @param useBlob
+     * @param maxIdleSessions
+     * @param logger
+     */
+    public ActiveMQMailQueue(final ConnectionFactory connectionFactory, final String queuename, boolean useBlob, int maxIdleSessions, final Logger logger) {
+        super(connectionFactory, queuename, maxIdleSessions, logger);
         this.useBlob = useBlob;
     }
 
+    /**
+     * If <code>true</code> delayed mails are handed to the ActiveMQ broker
+     * scheduler, which puts them in the queue once they are ready. This allows
+     * to keep the dequeue consumers open, as no time based selector is needed
+     * anymore. The broker needs to run with <code>schedulerSupport</code>
+     * enabled.
+     * <p>
+     * </p>
+     * While a mail waits in the scheduler it is counted by
+     * {@link #getSize()} and delivered by {@link #flush()}, but it is neither
+     * returned by {@link #browse()} nor removed by
+     * {@link #remove(org.apache.james.queue.api.ManageableMailQueue.Type, String)},
+     * so it can not be managed through JMX. Mails which were enqueued with a
+     * delay before this got enabled are delivered at once, as they are not
+     * selected by their next delivery time anymore. Disabled by default.
+     * 
+     * @param useScheduler
+     */
+    public void setUseScheduler(boolean useScheduler) {
+        this.useScheduler = useScheduler;
+    }
+
+    /**
+     * Set the count of messages the broker pushes to a dequeue consumer
+     * before they are requested. A negative value uses the prefetch policy of
+     * the {@link ConnectionFactory}. Only use a value greater then 0 together
+     * with {@link #setUseScheduler(boolean)}, as otherwise the consumers are
+     * recreated for every dequeue. Keep it small, as messages prefetched by a
+     * consumer of an idle pooled session are not delivered to other consumers
+     * until that session is used again.
+     * 
+     * @param prefetch
+     */
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
     /**
      * @see
      * org.apache.james.queue.jms.JMSMailQueue#populateMailMimeMessage(javax.jms.Message, org.apache.mailet.Mail)
@@ -238,9 +293,195 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
     }
 
     @Override
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(PooledSession session, Message message) throws JMSException, MessagingException {
         Mail mail = createMail(message);
-        return new ActiveMQMailQueueItem(mail, connection, session, consumer, message, logger);
+        return new ActiveMQMailQueueItem(mail, sessionPool, session, hasStaticMessageSelector(), message, logger);
+    }
+
+    /**
+     * Pass the configured prefetch size as destination option, see <a
+     * href="http://activemq.apache.org/destination-options.html"
+     * >http://activemq.apache.org/destination-options.html</a>
+     */
+    @Override
+    protected Queue createDequeueQueue(Session session) throws JMSException {
+        if (prefetch < 0) {
+            return super.createDequeueQueue(session);
+        }
+        return session.createQueue(queueName + "?consumer.prefetchSize=" + prefetch);
+    }
+
+    /**
+     * If the broker scheduler is used delayed mails are only put in the
+     * queue once they are ready, so no selector is needed
+     */
+    @Override
+    protected String getMessageSelector() {
+        if (useScheduler) {
+            return null;
+        }
+        return super.getMessageSelector();
+    }
+
+    @Override
+    protected boolean hasStaticMessageSelector() {
+        return useScheduler;
+    }
+
+    /**
+     * Add the {@link ScheduledMessage#AMQ_SCHEDULED_DELAY} if the broker
+     * scheduler is used
+     */
+    @Override
+    protected Map<String, Object> getJMSProperties(Mail mail, long delayInMillis) throws MessagingException {
+        Map<String, Object> props = super.getJMSProperties(mail, delayInMillis);
+        if (useScheduler && delayInMillis > 0) {
+            props.put(ScheduledMessage.AMQ_SCHEDULED_DELAY, delayInMillis);
+            // the scheduler replaces the destination of browsed messages, so
+            // we need our own marker to find the ones of this queue
+            props.put(JAMES_QUEUE_NAME, queueName);
+        }
+        return props;
+    }
+
+    /**
+     * Deliver the mails which wait in the broker scheduler as well
+     */
+    @Override
+    public long flush() throws MailQueueException {
+        long count = super.flush();
+        if (useScheduler) {
+            count += flushScheduled();
+        }
+        return count;
+    }
+
+    /**
+     * Move all mails of this queue which wait in the broker scheduler to the
+     * queue, so they get delivered now
+     *
+     * @return count
+     * @throws MailQueueException
+     */
+    private long flushScheduled() throws MailQueueException {
+        Connection connection = null;
+        Session session = null;
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+
+            Queue queue = session.createQueue(queueName);
+            MessageProducer producer = null;
+            MessageProducer managementProducer = null;
+            long count = 0;
+            try {
+                producer = session.createProducer(queue);
+                managementProducer = session.createProducer(session.createTopic(ScheduledMessage.AMQ_SCHEDULER_MANAGEMENT_DESTINATION));
+                for (Message scheduled : browseScheduled(session)) {
+                    Message m = copy(session, scheduled);
+                    // a delay of 0 makes the broker deliver it right away
+                    m.setLongProperty(ScheduledMessage.AMQ_SCHEDULED_DELAY, 0);
+                    m.setLongProperty(JAMES_NEXT_DELIVERY, -1);
+                    m.setBooleanProperty(FORCE_DELIVERY, true);
+                    producer.send(m, Message.DEFAULT_DELIVERY_MODE, scheduled.getJMSPriority(), Message.DEFAULT_TIME_TO_LIVE);
+
+                    Message remove = session.createMessage();
+                    remove.setStringProperty(ScheduledMessage.AMQ_SCHEDULER_ACTION, ScheduledMessage.AMQ_SCHEDULER_ACTION_REMOVE);
+                    remove.setStringProperty(ScheduledMessage.AMQ_SCHEDULED_ID, scheduled.getStringProperty(ScheduledMessage.AMQ_SCHEDULED_ID));
+                    managementProducer.send(remove);
+                    count++;
+                }
+            } finally {
+                if (producer != null) {
+                    try {
+                        producer.close();
+                    } catch (JMSException e) {
+                        // ignore here
+                    }
+                }
+                if (managementProducer != null) {
+                    try {
+                        managementProducer.close();
+                    } catch (JMSException e) {
+                        // ignore here
+                    }
+                }
+            }
+            return count;
+        } catch (JMSException e) {
+            throw new MailQueueException("Unable to flush scheduled mails of queue " + queueName, e);
+        } finally {
+            try {
+                if (session != null)
+                    session.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+        }
+    }
+
+    /**
+     * Return the messages of this queue which wait in the broker scheduler
+     *
+     * @param session
+     * @return messages
+     * @throws JMSException
+     */
+    private List<Message> browseScheduled(Session session) throws JMSException {
+        List<Message> messages = new ArrayList<Message>();
+        TemporaryQueue replyTo = null;
+        MessageConsumer consumer = null;
+        MessageProducer producer = null;
+        try {
+            replyTo = session.createTemporaryQueue();
+            consumer = session.createConsumer(replyTo);
+            producer = session.createProducer(session.createTopic(ScheduledMessage.AMQ_SCHEDULER_MANAGEMENT_DESTINATION));
+
+            Message request = session.createMessage();
+            request.setStringProperty(ScheduledMessage.AMQ_SCHEDULER_ACTION, ScheduledMessage.AMQ_SCHEDULER_ACTION_BROWSE);
+            request.setJMSReplyTo(replyTo);
+            producer.send(request);
+
+            Message message = consumer.receive(1000);
+            while (message != null) {
+                if (queueName.equals(message.getStringProperty(JAMES_QUEUE_NAME))) {
+                    messages.add(message);
+                }
+                message = consumer.receive(100);
+            }
+            return messages;
+        } finally {
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    // ignore here
+                }
+            }
+            if (producer != null) {
+                try {
+                    producer.close();
+                } catch (JMSException e) {
+                    // ignore here
+                }
+            }
+            if (replyTo != null) {
+                try {
+                    // see getSize() why the temporary queue is deleted
+                    replyTo.delete();
+                } catch (JMSException e) {
+                    // ignore here
+                }
+            }
+        }
     }
 
     @Override
@@ -282,8 +523,7 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
      * Try to use ActiveMQ StatisticsPlugin to get size and if that fails
      * fallback to {@link JMSMailQueue#getSize()}
      */
-    @Override
-    public long getSize() throws MailQueueException {
+    private long getQueueSize() throws MailQueueException {
 
         Connection connection = null;
         Session session = null;
@@ -374,4 +614,44 @@ public class ActiveMQMailQueue extends JMSMailQueue implements ActiveMQSupport {
         return super.getSize();
     }
 
+    /**
+     * Return the size of the queue including the mails which wait in the
+     * broker scheduler
+     */
+    @Override
+    public long getSize() throws MailQueueException {
+        long size = getQueueSize();
+        if (useScheduler) {
+            size += countScheduled();
+        }
+        return size;
+    }
+
+    private long countScheduled() throws MailQueueException {
+        Connection connection = null;
+        Session session = null;
+        try {
+            connection = connectionFactory.createConnection();
+            connection.start();
+            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            return browseScheduled(session).size();
+        } catch (JMSException e) {
+            throw new MailQueueException("Unable to count scheduled mails of queue " + queueName, e);
+        } finally {
+            try {
+                if (session != null)
+                    session.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+        }
+    }
+
 }
@@ -29,13 +29,32 @@ import org.apache.james.queue.jms.JMSMailQueueFactory;
 public class ActiveMQMailQueueFactory extends JMSMailQueueFactory {
 
     private boolean useBlob = true;
+    private boolean useScheduler = false;
+    private int prefetch = -1;
 
     public void setUseBlobMessages(boolean useBlob) {
         this.useBlob = useBlob;
     }
 
+    /**
+     * @see ActiveMQMailQueue#setUseScheduler(boolean)
+     */
+    public void setUseScheduler(boolean useScheduler) {
+        this.useScheduler = useScheduler;
+    }
+
+    /**
+     * @see ActiveMQMailQueue#setPrefetch(int)
+     */
+    public void setPrefetch(int prefetch) {
+        this.prefetch = prefetch;
+    }
+
     @Override
     protected MailQueue createMailQueue(String name) {
-        return new ActiveMQMailQueue(connectionFactory, name, useBlob, log);
+        ActiveMQMailQueue queue = new ActiveMQMailQueue(connectionFactory, name, useBlob, maxIdleSessions, log);
+        queue.setUseScheduler(useScheduler);
+        queue.setPrefetch(prefetch);
+        return queue;
     }
 }
@@ -21,16 +21,15 @@ package org.apache.james.queue.activemq;
 
 import java.io.IOException;
 
-import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
-import javax.jms.MessageConsumer;
-import javax.jms.Session;
 
 import org.apache.activemq.command.ActiveMQBlobMessage;
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
 import org.apache.james.queue.jms.JMSMailQueueItem;
+import org.apache.james.queue.jms.JMSSessionPool;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
@@ -43,8 +42,8 @@ public class ActiveMQMailQueueItem extends JMSMailQueueItem implements ActiveMQS
     private final Message message;
     private final Logger logger;
 
-    public ActiveMQMailQueueItem(Mail mail, Connection connection, Session session, MessageConsumer consumer, Message message, Logger logger) {
-        super(mail, connection, session, consumer);
+    public ActiveMQMailQueueItem(Mail mail, JMSSessionPool sessionPool, PooledSession session, boolean keepConsumer, Message message, Logger logger) {
+        super(mail, sessionPool, session, keepConsumer);
         this.message = message;
         this.logger = logger;
     }
@@ -0,0 +1,53 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.activemq;
+
+import org.apache.james.queue.jms.JMSMailQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jms.ConnectionFactory;
+
+/**
+ * Run the {@link ActiveMQMailQueue} tests with delayed mails handled by the
+ * broker scheduler and long-lived, prefetching consumers
+ */
+public class ActiveMQMailQueueSchedulerTest extends ActiveMQMailQueueTest {
+
+    private JMSMailQueue queue;
+
+    @Override
+    protected JMSMailQueue createQueue(ConnectionFactory factory, String queueName) {
+        Logger log = LoggerFactory.getLogger(ActiveMQMailQueueSchedulerTest.class);
+        ActiveMQMailQueue queue = new ActiveMQMailQueue(factory, queueName, useBlobMessages(), log);
+        queue.setUseScheduler(true);
+        queue.setPrefetch(10);
+        return queue;
+    }
+
+    @Override
+    public JMSMailQueue getQueue() {
+        return queue;
+    }
+
+    @Override
+    public void setQueue(JMSMailQueue queue) {
+        this.queue = queue;
+    }
+}
@@ -54,6 +54,10 @@ public abstract class ActiveMQMailQueueTest extends AbstractJMSMailQueueTest {
         BrokerService broker = new BrokerService();
         broker.setPersistent(false);
         broker.setUseJmx(false);
+        // the scheduler store is file based, so don't share it between test classes
+        broker.setDataDirectory("target/activemq-data/" + System.currentTimeMillis());
+        // Enable the scheduler for ActiveMQMailQueue.setUseScheduler(true)
+        broker.setSchedulerSupport(true);
         broker.addConnector("tcp://127.0.0.1:61616");
 
         // Enable priority support
@@ -0,0 +1,155 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.activemq;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailQueue.MailQueueException;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simple dequeue throughput benchmark which compares the default
+ * {@link ActiveMQMailQueue} setup with the one using long-lived prefetching
+ * consumers and the broker scheduler. Like the shipped spring configuration
+ * the {@link ActiveMQConnectionFactory} disables prefetching. The results are
+ * only logged, the test fails if mails get lost. It takes a while, so it is
+ * not part of the default build and needs to be run manually.
+ */
+public class ActiveMQMailQueueThroughputTest {
+
+    private final static int MAILS = 300;
+    private final static int THREADS = 4;
+
+    private final Logger log = LoggerFactory.getLogger(ActiveMQMailQueueThroughputTest.class);
+    private BrokerService broker;
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("throughput");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.setDataDirectory("target/activemq-data/throughput-" + System.currentTimeMillis());
+        broker.setSchedulerSupport(true);
+        broker.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        broker.stop();
+    }
+
+    @Test
+    @Ignore(value = "Benchmark, run it manually")
+    public void testThroughput() throws Exception {
+        // warm up
+        run(createQueue("warmup", false, -1));
+
+        long plain = run(createQueue("plain", false, -1));
+        long tuned = run(createQueue("tuned", true, -1));
+        long prefetch = run(createQueue("prefetch", true, 1));
+        log.info("Dequeued " + MAILS + " mails with " + THREADS + " threads: default " + plain + " mails/s, long-lived consumers " + tuned
+                + " mails/s, long-lived consumers with prefetch 1 " + prefetch + " mails/s");
+    }
+
+    private ActiveMQMailQueue createQueue(String name, boolean useScheduler, int prefetch) {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory("vm://throughput?create=false");
+        factory.getPrefetchPolicy().setAll(0);
+        ActiveMQMailQueue queue = new ActiveMQMailQueue(factory, name, false, THREADS, log);
+        queue.setUseScheduler(useScheduler);
+        queue.setPrefetch(prefetch);
+        return queue;
+    }
+
+    /**
+     * Enqueue {@link #MAILS} mails and dequeue them with {@link #THREADS}
+     * threads
+     *
+     * @return dequeued mails per second
+     */
+    private long run(final ActiveMQMailQueue queue) throws Exception {
+        try {
+            for (int i = 0; i < MAILS; i++) {
+                queue.enQueue(createMail("mail" + i));
+            }
+
+            final AtomicInteger dequeued = new AtomicInteger();
+            final CountDownLatch latch = new CountDownLatch(MAILS);
+            long start = System.nanoTime();
+            for (int i = 0; i < THREADS; i++) {
+                Thread t = new Thread(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            while (dequeued.getAndIncrement() < MAILS) {
+                                MailQueueItem item = queue.deQueue();
+                                item.done(true);
+                                latch.countDown();
+                            }
+                        } catch (MailQueueException e) {
+                            log.error("Unable to dequeue", e);
+                        }
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            }
+            assertTrue(latch.await(2, TimeUnit.MINUTES));
+            long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            assertEquals(0, queue.getSize());
+            return MAILS * 1000L / elapsed;
+        } finally {
+            queue.dispose();
+        }
+    }
+
+    private MailImpl createMail(String name) throws MessagingException {
+        MailImpl mail = new MailImpl();
+        mail.setName(name);
+        mail.setRecipients(Arrays.asList(new MailAddress("test@test")));
+        mail.setSender(new MailAddress("sender@senderdomain"));
+
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setText("test " + name);
+        message.saveChanges();
+        mail.setMessage(message);
+        return mail;
+    }
+}
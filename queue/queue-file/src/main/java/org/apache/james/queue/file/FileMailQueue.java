@@ -19,8 +19,11 @@
 package org.apache.james.queue.file;
 
 import com.google.common.io.Closeables;
+import org.apache.james.core.MessageContent;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.core.MimeMessageInputStreamSource;
 import org.apache.james.core.MimeMessageSource;
+import org.apache.james.core.MimeMessageWrapper;
 import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.queue.api.ManageableMailQueue;
@@ -28,6 +31,7 @@ import org.apache.mailet.Mail;
 import org.slf4j.Logger;
 
 import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
 import javax.mail.util.SharedFileInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -38,7 +42,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
@@ -54,8 +61,13 @@ import java.util.concurrent.atomic.AtomicLong;
  * <p/>
  * On create of the {@link FileMailQueue} the {@link #init()} will get called. This takes care of
  * loading the needed meta-data into memory for fast access.
+ * <p/>
+ * If the message of an enqueued {@link Mail} is still held by the
+ * {@link MessageContent} it was received into, the queue keeps a reference to
+ * that content and reads the message from it on dequeue. The reference is
+ * released once the mail was processed successfully or removed from the queue.
  */
-public class FileMailQueue implements ManageableMailQueue {
+public class FileMailQueue implements ManageableMailQueue, Disposable {
 
     private final ConcurrentHashMap<String, FileItem> keyMappings = new ConcurrentHashMap<String, FileMailQueue.FileItem>();
     private final BlockingQueue<String> inmemoryQueue = new LinkedBlockingQueue<String>();
@@ -164,6 +176,7 @@ public class FileMailQueue implements ManageableMailQueue {
         FileOutputStream out = null;
         FileOutputStream foout = null;
         ObjectOutputStream oout = null;
+        MessageContent content = retainContent(mail.getMessage());
         try {
             int i = (int) (Math.random() * SPLITCOUNT + 1);
 
@@ -181,10 +194,18 @@ public class FileMailQueue implements ManageableMailQueue {
             if (sync) foout.getFD().sync();
             out = new FileOutputStream(item.getMessageFile());
 
-            mail.getMessage().writeTo(out);
+            File spoolFile = content != null ? content.getFile() : null;
+            if (spoolFile != null) {
+                transfer(spoolFile, out.getChannel());
+            } else {
+                mail.getMessage().writeTo(out);
+            }
             out.flush();
             if (sync) out.getFD().sync();
 
+            // the item owns the reference from now on
+            item.setContent(content);
+            content = null;
             keyMappings.put(key, item);
 
             if (delay > 0) {
@@ -219,6 +240,9 @@ public class FileMailQueue implements ManageableMailQueue {
             throw new MailQueueException("Unable to enqueue mail", e);
 
         } finally {
+            if (content != null) {
+                content.release();
+            }
             if (out != null) {
                 try {
                     out.close();
@@ -244,11 +268,71 @@ public class FileMailQueue implements ManageableMailQueue {
 
     }
 
+    /**
+     * Acquire a reference to the {@link MessageContent} which holds the
+     * unmodified content of the given message, if there is any. This is the
+     * case for messages received via SMTP. The reference keeps the content,
+     * and so a spool file, from being freed while the queue still uses it.
+     * 
+     * @return content or null if the message is not held by a content
+     */
+    private static MessageContent retainContent(MimeMessage message) {
+        if (message instanceof MimeMessageCopyOnWriteProxy) {
+            message = ((MimeMessageCopyOnWriteProxy) message).getWrappedMessage();
+        }
+        if (message instanceof MimeMessageWrapper) {
+            MimeMessageWrapper wrapper = (MimeMessageWrapper) message;
+            MimeMessageSource source = wrapper.getSource();
+            MessageContent content = null;
+            if (!wrapper.isModified() && source instanceof MimeMessageInputStreamSource) {
+                content = ((MimeMessageInputStreamSource) source).getContent();
+            }
+            if (content != null) {
+                try {
+                    content.retain();
+                    return content;
+                } catch (IllegalStateException e) {
+                    // the source was disposed in the meantime
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Copy the given file to the channel without reading it through the heap
+     */
+    private static void transfer(File file, FileChannel target) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel source = in.getChannel();
+            long size = source.size();
+            long position = 0;
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
     @Override
     public void enQueue(Mail mail) throws MailQueueException {
         enQueue(mail, 0, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Release the contents the queued mails still hold. The mails stay in the
+     * queue directory and are read from their msg files after a restart.
+     */
+    @Override
+    public void dispose() {
+        scheduler.shutdownNow();
+        for (FileItem item : keyMappings.values()) {
+            item.releaseContent();
+        }
+    }
+
     @Override
     public MailQueueItem deQueue() throws MailQueueException {
         try {
@@ -268,7 +352,11 @@ public class FileMailQueue implements ManageableMailQueue {
                 final File msgFile = new File(fitem.getMessageFile());
                 oin = new ObjectInputStream(new FileInputStream(objectFile));
                 final Mail mail = (Mail) oin.readObject();
-                mail.setMessage(new MimeMessageCopyOnWriteProxy(new FileMimeMessageSource(msgFile)));
+                MimeMessageSource source = ContentMimeMessageSource.create(key, fitem.getContent());
+                if (source == null) {
+                    source = new FileMimeMessageSource(msgFile);
+                }
+                mail.setMessage(new MimeMessageCopyOnWriteProxy(source));
                 return new MailQueueItem() {
 
                     @Override
@@ -358,12 +446,85 @@ public class FileMailQueue implements ManageableMailQueue {
 
     }
 
+    /**
+     * {@link MimeMessageSource} which reads the message from the
+     * {@link MessageContent} it was received into. It holds its own reference
+     * to the content, so the content stays readable until the source is
+     * disposed, even if the mail gets removed from the queue in the meantime.
+     */
+    private final static class ContentMimeMessageSource extends MimeMessageSource implements Disposable {
+
+        private final String sourceId;
+        private final List<InputStream> streams = new ArrayList<InputStream>();
+        private MessageContent content;
+
+        private ContentMimeMessageSource(String sourceId, MessageContent content) {
+            this.sourceId = sourceId;
+            this.content = content;
+        }
+
+        /**
+         * Return a source for the given content
+         * 
+         * @return source or null if there is no content or it was already
+         *         released
+         */
+        public static ContentMimeMessageSource create(String sourceId, MessageContent content) {
+            if (content == null) {
+                return null;
+            }
+            try {
+                content.retain();
+            } catch (IllegalStateException e) {
+                return null;
+            }
+            return new ContentMimeMessageSource(sourceId, content);
+        }
+
+        @Override
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (content == null) {
+                throw new IOException("Source " + sourceId + " already disposed");
+            }
+            InputStream in = content.getInputStream();
+            streams.add(in);
+            return in;
+        }
+
+        @Override
+        public synchronized long getMessageSize() throws IOException {
+            if (content == null) {
+                throw new IOException("Source " + sourceId + " already disposed");
+            }
+            return content.getSize();
+        }
+
+        @Override
+        public synchronized void dispose() {
+            for (InputStream stream : streams) {
+                Closeables.closeQuietly(stream);
+            }
+            streams.clear();
+            if (content != null) {
+                content.release();
+                content = null;
+            }
+        }
+
+    }
+
     /**
      * Helper class which is used to reference the path to the object and msg file
      */
     private final class FileItem {
         private final String objectfile;
         private final String messagefile;
+        private MessageContent content;
 
         public FileItem(String objectfile, String messagefile) {
             this.objectfile = objectfile;
@@ -378,7 +539,31 @@ public class FileMailQueue implements ManageableMailQueue {
             return messagefile;
         }
 
+        /**
+         * Return the content which still holds the message
+         * 
+         * @return content or null if the message is only held by the msg file
+         */
+        public synchronized MessageContent getContent() {
+            return content;
+        }
+
+        public synchronized void setContent(MessageContent content) {
+            this.content = content;
+        }
+
+        /**
+         * Release the reference to the content, if the item holds one
+         */
+        public synchronized void releaseContent() {
+            if (content != null) {
+                content.release();
+                content = null;
+            }
+        }
+
         public void delete() throws MailQueueException {
+            releaseContent();
             File msgFile = new File(getMessageFile());
             File objectFile = new File(getObjectFile());
 
@@ -19,11 +19,13 @@
 package org.apache.james.queue.file;
 
 import org.apache.james.filesystem.api.FileSystem;
+import org.apache.james.lifecycle.api.LifecycleUtil;
 import org.apache.james.lifecycle.api.LogEnabled;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.MailQueueFactory;
 import org.slf4j.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import javax.inject.Inject;
 
@@ -40,6 +42,8 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
     private FileSystem fs;
     private Logger log;
     private boolean sync = true;
+    private boolean journal = false;
+    private long maxSegmentSize = 64 * 1024 * 1024;
 
     @Inject
     @Resource
@@ -59,13 +63,55 @@ public class FileMailQueueFactory implements MailQueueFactory, LogEnabled {
         this.sync = sync;
     }
 
+    /**
+     * If <code>true</code> the later created queues are {@link JournaledFileMailQueue} instances, which append all mails to a journal and
+     * only need to read a compact index on startup. With <code>sync</code> enabled concurrent enqueues are group committed.
+     * <p/>
+     * The default is <code>false</code>
+     *
+     * @param journal
+     */
+    public void setJournal(boolean journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Size in bytes after which a {@link JournaledFileMailQueue} starts a new journal segment. A segment is deleted once all mails in it
+     * were dequeued.
+     * <p/>
+     * The default is 64 MB
+     *
+     * @param maxSegmentSize
+     */
+    public void setMaxSegmentSize(long maxSegmentSize) {
+        this.maxSegmentSize = maxSegmentSize;
+    }
+
+    /**
+     * Dispose all queues created by this factory, which closes the files of
+     * the {@link JournaledFileMailQueue} instances
+     */
+    @PreDestroy
+    public void destroy() {
+        synchronized (queues) {
+            for (MailQueue queue : queues.values()) {
+                LifecycleUtil.dispose(queue);
+            }
+            queues.clear();
+        }
+    }
+
     @Override
     public MailQueue getQueue(String name) {
         MailQueue queue = queues.get(name);
         if (queue == null) {
             synchronized (queues) {
                 try {
-                    queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    if (journal) {
+                        queue = new JournaledFileMailQueue(fs.getFile("file://var/store/queue"), name, sync, maxSegmentSize, log);
+                    } else {
+                        queue = new FileMailQueue(fs.getFile("file://var/store/queue"), name, sync, log);
+                    }
                     queues.put(name, queue);
                 } catch (IOException e) {
                     throw new RuntimeException("Unable to access queue " + name, e);
@@ -0,0 +1,618 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import com.google.common.io.Closeables;
+import org.apache.james.core.MimeMessageSource;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+import javax.mail.MessagingException;
+import javax.mail.util.SharedFileInputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only storage used by {@link JournaledFileMailQueue}.
+ * <p/>
+ * The serialized {@link Mail} and its message are appended to segment files
+ * (<code>segment-N.dat</code>). For every stored mail a small record holding
+ * the key, the location inside the segment, the next delivery time and the
+ * priority is appended to <code>index.idx</code>. Removing a mail only appends
+ * a remove record to the index, so a restart only has to replay the index and
+ * never needs to deserialize a {@link Mail}.
+ * <p/>
+ * If <code>sync</code> is enabled, concurrent {@link #append(String, Mail, long, int)}
+ * calls are group committed: the first caller waiting for durability forces the
+ * segment and the index to disk for every record written so far, all others
+ * just wait for it.
+ */
+public class FileMailQueueJournal {
+
+    private final static String INDEX_FILE = "index.idx";
+    private final static String INDEX_TMP_FILE = "index.idx.tmp";
+    private final static String SEGMENT_PREFIX = "segment-";
+    private final static String SEGMENT_SUFFIX = ".dat";
+
+    private final static byte ADD = 1;
+    private final static byte REMOVE = 2;
+
+    /**
+     * Compact the index once it holds more remove records than this and more
+     * than live entries
+     */
+    private final static int COMPACT_THRESHOLD = 10000;
+
+    private final File dir;
+    private final boolean sync;
+    private final long maxSegmentSize;
+    private final Logger log;
+
+    /** Guards the segment and index append positions */
+    private final Object writeLock = new Object();
+
+    /** Guards the group commit state */
+    private final Object syncLock = new Object();
+
+    private final Map<Integer, Segment> segments = new HashMap<Integer, Segment>();
+    private final Map<String, JournalEntry> entries = new HashMap<String, JournalEntry>();
+    private Segment activeSegment;
+    private FileOutputStream indexFileOut;
+    private DataOutputStream indexOut;
+    private int removedSinceCompaction;
+
+    private long writeSequence;
+    private long syncedSequence;
+    private boolean syncing;
+
+    public FileMailQueueJournal(File dir, boolean sync, long maxSegmentSize, Logger log) throws IOException {
+        this.dir = dir;
+        this.sync = sync;
+        this.maxSegmentSize = maxSegmentSize;
+        this.log = log;
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + dir);
+        }
+    }
+
+    /**
+     * Replay the index and return all live entries in the order they were
+     * appended. This also compacts the index and deletes segments which are
+     * not referenced anymore. Must get called once before any other method.
+     *
+     * @return entries
+     * @throws IOException
+     */
+    public List<JournalEntry> recover() throws IOException {
+        synchronized (writeLock) {
+            Map<String, JournalEntry> recovered = new LinkedHashMap<String, JournalEntry>();
+            File indexFile = new File(dir, INDEX_FILE);
+            if (indexFile.exists()) {
+                readIndex(indexFile, recovered);
+            }
+
+            Map<Integer, Long> segmentLengths = new HashMap<Integer, Long>();
+            int maxSegment = 0;
+            for (File segmentFile : listSegmentFiles()) {
+                int id = segmentId(segmentFile.getName());
+                segmentLengths.put(id, segmentFile.length());
+                maxSegment = Math.max(maxSegment, id);
+            }
+
+            Iterator<JournalEntry> it = recovered.values().iterator();
+            while (it.hasNext()) {
+                JournalEntry entry = it.next();
+                Long length = segmentLengths.get(entry.segment);
+                if (length == null || length < entry.messageOffset + entry.messageLength) {
+                    // the index record made it to disk but the data did not
+                    log.warn("Dropping incomplete journal entry " + entry.key);
+                    it.remove();
+                    continue;
+                }
+                Segment segment = segments.get(entry.segment);
+                if (segment == null) {
+                    segment = openSegment(entry.segment);
+                }
+                segment.live++;
+            }
+
+            for (Integer id : segmentLengths.keySet()) {
+                if (!segments.containsKey(id)) {
+                    deleteSegmentFile(segmentFile(id));
+                }
+            }
+
+            entries.putAll(recovered);
+            rewriteIndex();
+            activeSegment = openSegment(maxSegment + 1);
+            return new ArrayList<JournalEntry>(recovered.values());
+        }
+    }
+
+    /**
+     * Append the given {@link Mail} to the journal. If <code>sync</code> is
+     * enabled this method returns after the mail was forced to disk.
+     *
+     * @param key
+     * @param mail
+     * @param nextDelivery
+     * @param priority
+     * @return entry
+     * @throws IOException
+     * @throws MessagingException
+     */
+    public JournalEntry append(String key, Mail mail, long nextDelivery, int priority) throws IOException, MessagingException {
+        // serialize the Mail itself outside of the lock. The message is
+        // streamed into the segment while holding it, as it needs to directly
+        // follow the serialized Mail and is not buffered in memory
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream oout = new ObjectOutputStream(bout);
+        oout.writeObject(mail);
+        oout.close();
+        byte[] object = bout.toByteArray();
+
+        JournalEntry entry;
+        long sequence;
+        synchronized (writeLock) {
+            if (activeSegment.channel.position() >= maxSegmentSize) {
+                rollSegment();
+            }
+            Segment segment = activeSegment;
+            FileChannel channel = segment.channel;
+            long objectOffset = channel.position();
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            out.write(object);
+            long messageOffset = objectOffset + object.length;
+            mail.getMessage().writeTo(out);
+            out.flush();
+            long messageLength = channel.position() - messageOffset;
+
+            entry = new JournalEntry(key, segment.id, objectOffset, object.length, messageOffset, messageLength, nextDelivery, priority);
+            writeAdd(indexOut, entry);
+            indexOut.flush();
+            segment.live++;
+            entries.put(key, entry);
+            sequence = ++writeSequence;
+        }
+        if (sync) {
+            commit(sequence);
+        }
+        return entry;
+    }
+
+    /**
+     * Mark the given entry as removed. If <code>sync</code> is enabled this
+     * method returns after the remove record was forced to disk, sharing the
+     * group commit with concurrent appends and removes.
+     *
+     * @param entry
+     * @throws IOException
+     */
+    public void remove(JournalEntry entry) throws IOException {
+        long sequence;
+        synchronized (writeLock) {
+            if (entries.remove(entry.key) == null) {
+                return;
+            }
+            indexOut.writeByte(REMOVE);
+            indexOut.writeUTF(entry.key);
+            indexOut.flush();
+            sequence = ++writeSequence;
+
+            Segment segment = segments.get(entry.segment);
+            if (segment != null && --segment.live == 0 && segment != activeSegment) {
+                closeSegment(segment);
+                deleteSegmentFile(segment.file);
+            }
+
+            removedSinceCompaction++;
+            if (removedSinceCompaction > COMPACT_THRESHOLD && removedSinceCompaction > entries.size()) {
+                rewriteIndex();
+            }
+        }
+        if (sync) {
+            commit(sequence);
+        }
+    }
+
+    /**
+     * Read the {@link Mail} stored for the given entry. The message of the
+     * returned {@link Mail} is not set, use {@link #openMessage(JournalEntry)}
+     * for it.
+     *
+     * @param entry
+     * @return mail
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Mail readMail(JournalEntry entry) throws IOException, ClassNotFoundException {
+        FileChannel channel;
+        synchronized (writeLock) {
+            Segment segment = segments.get(entry.segment);
+            if (segment == null) {
+                throw new IOException("Segment " + entry.segment + " for " + entry.key + " does not exist");
+            }
+            channel = segment.channel;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(entry.objectLength);
+        long position = entry.objectOffset;
+        while (buf.hasRemaining()) {
+            int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment " + entry.segment);
+            }
+            position += read;
+        }
+        ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(buf.array()));
+        try {
+            return (Mail) oin.readObject();
+        } finally {
+            Closeables.closeQuietly(oin);
+        }
+    }
+
+    /**
+     * Return a {@link MimeMessageSource} which reads the message of the given
+     * entry directly from its segment
+     *
+     * @param entry
+     * @return source
+     * @throws IOException
+     */
+    public MimeMessageSource openMessage(JournalEntry entry) throws IOException {
+        return new JournalMimeMessageSource(segmentFile(entry.segment), entry.messageOffset, entry.messageLength);
+    }
+
+    /**
+     * Close all open files. Pending records are forced to disk if
+     * <code>sync</code> is enabled.
+     */
+    public void close() {
+        synchronized (writeLock) {
+            try {
+                if (indexOut != null) {
+                    indexOut.flush();
+                    if (sync) {
+                        indexFileOut.getChannel().force(false);
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("Unable to flush journal index", e);
+            }
+            Closeables.closeQuietly(indexOut);
+            indexOut = null;
+            for (Segment segment : segments.values()) {
+                Closeables.closeQuietly(segment.channel);
+            }
+            segments.clear();
+        }
+    }
+
+    /**
+     * Wait until all records up to the given sequence are forced to disk. The
+     * first waiting thread forces the files for everybody.
+     */
+    private void commit(long sequence) throws IOException {
+        synchronized (syncLock) {
+            while (syncedSequence < sequence) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for journal commit");
+                }
+            }
+            if (syncedSequence >= sequence) {
+                return;
+            }
+        }
+
+        long target = sequence;
+        boolean forced = false;
+        try {
+            FileChannel segmentChannel;
+            FileChannel indexChannel;
+            synchronized (writeLock) {
+                target = writeSequence;
+                segmentChannel = activeSegment.channel;
+                indexChannel = indexFileOut.getChannel();
+            }
+            // force the data before the index so a recovered index entry
+            // always points to complete data
+            try {
+                segmentChannel.force(false);
+            } catch (ClosedChannelException e) {
+                // the segment was rolled in the meantime, which already forced it
+            }
+            indexChannel.force(false);
+            forced = true;
+        } finally {
+            synchronized (syncLock) {
+                if (forced && target > syncedSequence) {
+                    syncedSequence = target;
+                }
+                syncing = false;
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (sync) {
+            // the group commit only forces the active segment
+            activeSegment.channel.force(false);
+        }
+        Segment old = activeSegment;
+        activeSegment = openSegment(old.id + 1);
+        if (old.live == 0) {
+            closeSegment(old);
+            deleteSegmentFile(old.file);
+        }
+    }
+
+    private void readIndex(File indexFile, Map<String, JournalEntry> recovered) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    if (type == ADD) {
+                        JournalEntry entry = readAdd(in);
+                        recovered.put(entry.key, entry);
+                    } else if (type == REMOVE) {
+                        recovered.remove(in.readUTF());
+                    } else {
+                        log.warn("Corrupt journal index " + indexFile + ", ignoring the rest of it");
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // partial record from a crash while appending
+                    break;
+                }
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write all live entries into a new index and atomically replace the old
+     * one with it
+     */
+    private void rewriteIndex() throws IOException {
+        File tmp = new File(dir, INDEX_TMP_FILE);
+        FileOutputStream fout = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fout));
+        try {
+            for (JournalEntry entry : entries.values()) {
+                writeAdd(out, entry);
+            }
+            out.flush();
+            fout.getChannel().force(false);
+        } finally {
+            Closeables.closeQuietly(out);
+        }
+
+        Closeables.closeQuietly(indexOut);
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!tmp.renameTo(indexFile)) {
+            // renameTo does not replace existing files on all platforms
+            if (!indexFile.delete() || !tmp.renameTo(indexFile)) {
+                throw new IOException("Unable to replace journal index " + indexFile);
+            }
+        }
+        indexFileOut = new FileOutputStream(indexFile, true);
+        indexOut = new DataOutputStream(new BufferedOutputStream(indexFileOut));
+        removedSinceCompaction = 0;
+    }
+
+    private static void writeAdd(DataOutputStream out, JournalEntry entry) throws IOException {
+        out.writeByte(ADD);
+        out.writeUTF(entry.key);
+        out.writeInt(entry.segment);
+        out.writeLong(entry.objectOffset);
+        out.writeInt(entry.objectLength);
+        out.writeLong(entry.messageOffset);
+        out.writeLong(entry.messageLength);
+        out.writeLong(entry.nextDelivery);
+        out.writeInt(entry.priority);
+    }
+
+    private static JournalEntry readAdd(DataInputStream in) throws IOException {
+        String key = in.readUTF();
+        int segment = in.readInt();
+        long objectOffset = in.readLong();
+        int objectLength = in.readInt();
+        long messageOffset = in.readLong();
+        long messageLength = in.readLong();
+        long nextDelivery = in.readLong();
+        int priority = in.readInt();
+        return new JournalEntry(key, segment, objectOffset, objectLength, messageOffset, messageLength, nextDelivery, priority);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        File file = segmentFile(id);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.position(channel.size());
+        Segment segment = new Segment(id, file, channel);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void closeSegment(Segment segment) {
+        segments.remove(segment.id);
+        Closeables.closeQuietly(segment.channel);
+    }
+
+    private void deleteSegmentFile(File file) {
+        if (file.exists() && !file.delete()) {
+            log.debug("Unable to delete journal segment " + file);
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    private File[] listSegmentFiles() {
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    private static int segmentId(String name) {
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A segment file which is open for reading and, if it is the active one,
+     * appending
+     */
+    private final static class Segment {
+        private final int id;
+        private final File file;
+        private final FileChannel channel;
+        private int live;
+
+        public Segment(int id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Index record of a stored mail
+     */
+    public final static class JournalEntry {
+        private final String key;
+        private final int segment;
+        private final long objectOffset;
+        private final int objectLength;
+        private final long messageOffset;
+        private final long messageLength;
+        private final long nextDelivery;
+        private final int priority;
+
+        public JournalEntry(String key, int segment, long objectOffset, int objectLength, long messageOffset, long messageLength, long nextDelivery, int priority) {
+            this.key = key;
+            this.segment = segment;
+            this.objectOffset = objectOffset;
+            this.objectLength = objectLength;
+            this.messageOffset = messageOffset;
+            this.messageLength = messageLength;
+            this.nextDelivery = nextDelivery;
+            this.priority = priority;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getNextDelivery() {
+            return nextDelivery;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public long getMessageLength() {
+            return messageLength;
+        }
+    }
+
+    /**
+     * {@link MimeMessageSource} which reads a message from a region of a
+     * segment file
+     */
+    private final static class JournalMimeMessageSource extends MimeMessageSource implements Disposable {
+
+        private final String sourceId;
+        private final long offset;
+        private final long length;
+        private SharedFileInputStream in;
+
+        public JournalMimeMessageSource(File file, long offset, long length) throws IOException {
+            this.sourceId = file.getAbsolutePath() + "#" + offset;
+            this.offset = offset;
+            this.length = length;
+            this.in = new SharedFileInputStream(file);
+        }
+
+        @Override
+        public String getSourceId() {
+            return sourceId;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return in.newStream(offset, offset + length);
+        }
+
+        @Override
+        public long getMessageSize() throws IOException {
+            return length;
+        }
+
+        @Override
+        public void dispose() {
+            Closeables.closeQuietly(in);
+        }
+    }
+}
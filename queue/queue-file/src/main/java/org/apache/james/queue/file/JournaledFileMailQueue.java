@@ -0,0 +1,391 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.lifecycle.api.Disposable;
+import org.apache.james.lifecycle.api.LifecycleUtil;
+import org.apache.james.queue.api.MailPrioritySupport;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.file.FileMailQueueJournal.JournalEntry;
+import org.apache.mailet.Mail;
+import org.slf4j.Logger;
+
+import javax.mail.MessagingException;
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ManageableMailQueue} implementation which stores {@link Mail}'s in a
+ * {@link FileMailQueueJournal}.
+ * <p/>
+ * Compared to {@link FileMailQueue} a restart only needs to replay the compact
+ * journal index instead of deserializing every queued {@link Mail}, and with
+ * <code>sync</code> enabled concurrent enqueues share their fsync calls.
+ * Mails with a higher {@link MailPrioritySupport#MAIL_PRIORITY} are dequeued
+ * first.
+ * <p/>
+ * A mail which can not be read from the journal is retried with a doubling
+ * delay and dropped from the journal once it failed to be read
+ * <code>maxDequeueFailures</code> times in a row.
+ */
+public class JournaledFileMailQueue implements ManageableMailQueue, Disposable {
+
+    private final static Comparator<QueuedKey> PRIORITY_ORDER = new Comparator<QueuedKey>() {
+        @Override
+        public int compare(QueuedKey o1, QueuedKey o2) {
+            if (o1.priority != o2.priority) {
+                return o1.priority > o2.priority ? -1 : 1;
+            }
+            if (o1.sequence == o2.sequence) {
+                return 0;
+            }
+            return o1.sequence < o2.sequence ? -1 : 1;
+        }
+    };
+
+    private final ConcurrentHashMap<String, JournalEntry> keyMappings = new ConcurrentHashMap<String, JournalEntry>();
+    private final PriorityBlockingQueue<QueuedKey> inmemoryQueue = new PriorityBlockingQueue<QueuedKey>(11, PRIORITY_ORDER);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ConcurrentHashMap<String, Integer> dequeueFailures = new ConcurrentHashMap<String, Integer>();
+    private final static AtomicLong COUNTER = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final FileMailQueueJournal journal;
+    private final int maxDequeueFailures;
+    private final long dequeueRetryDelay;
+    private final Logger log;
+
+    public JournaledFileMailQueue(File parentDir, String queuename, boolean sync, long maxSegmentSize, Logger log) throws IOException {
+        this(parentDir, queuename, sync, maxSegmentSize, 5, 1000, log);
+    }
+
+    /**
+     * @param maxDequeueFailures
+     *            number of failed reads after which a mail is dropped
+     * @param dequeueRetryDelay
+     *            delay in milliseconds before the first retry of a failed
+     *            read, doubled for each further one
+     */
+    public JournaledFileMailQueue(File parentDir, String queuename, boolean sync, long maxSegmentSize, int maxDequeueFailures, long dequeueRetryDelay, Logger log) throws IOException {
+        this.log = log;
+        this.maxDequeueFailures = maxDequeueFailures;
+        this.dequeueRetryDelay = dequeueRetryDelay;
+        this.journal = new FileMailQueueJournal(new File(new File(parentDir, queuename), "journal"), sync, maxSegmentSize, log);
+        init();
+    }
+
+    private void init() throws IOException {
+        List<JournalEntry> entries = journal.recover();
+        for (JournalEntry entry : entries) {
+            keyMappings.put(entry.getKey(), entry);
+            schedule(entry, entry.getNextDelivery() - System.currentTimeMillis());
+        }
+        log.info("Recovered " + entries.size() + " mails from the journal");
+    }
+
+    @Override
+    public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
+        final String key = mail.getName() + "-" + COUNTER.incrementAndGet();
+        long nextDelivery = 0;
+        if (delay > 0) {
+            nextDelivery = System.currentTimeMillis() + unit.toMillis(delay);
+        }
+        try {
+            JournalEntry entry = journal.append(key, mail, nextDelivery, getPriority(mail));
+            keyMappings.put(key, entry);
+            schedule(entry, unit.toMillis(delay));
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        } catch (MessagingException e) {
+            throw new MailQueueException("Unable to enqueue mail", e);
+        }
+    }
+
+    @Override
+    public void enQueue(Mail mail) throws MailQueueException {
+        enQueue(mail, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public MailQueueItem deQueue() throws MailQueueException {
+        try {
+            JournalEntry item = null;
+            while (item == null) {
+                item = keyMappings.get(inmemoryQueue.take().key);
+            }
+            final JournalEntry entry = item;
+            try {
+                final Mail mail = journal.readMail(entry);
+                mail.setMessage(new MimeMessageCopyOnWriteProxy(journal.openMessage(entry)));
+                dequeueFailures.remove(entry.getKey());
+                return new MailQueueItem() {
+
+                    @Override
+                    public Mail getMail() {
+                        return mail;
+                    }
+
+                    @Override
+                    public void done(boolean success) throws MailQueueException {
+                        if (!success) {
+                            schedule(entry, 0);
+                        } else {
+                            keyMappings.remove(entry.getKey());
+                            remove(entry);
+                        }
+
+                        LifecycleUtil.dispose(mail);
+                    }
+                };
+            } catch (IOException e) {
+                requeue(entry, e);
+                throw new MailQueueException("Unable to dequeue", e);
+            } catch (ClassNotFoundException e) {
+                requeue(entry, e);
+                throw new MailQueueException("Unable to dequeue", e);
+            } catch (MessagingException e) {
+                requeue(entry, e);
+                throw new MailQueueException("Unable to dequeue", e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailQueueException("Unable to dequeue", e);
+        }
+    }
+
+    @Override
+    public long getSize() throws MailQueueException {
+        return keyMappings.size();
+    }
+
+    @Override
+    public long flush() throws MailQueueException {
+        Iterator<JournalEntry> entries = keyMappings.values().iterator();
+        long i = 0;
+        while (entries.hasNext()) {
+            JournalEntry entry = entries.next();
+            if (!isQueued(entry.getKey())) {
+                inmemoryQueue.add(new QueuedKey(entry, sequence.incrementAndGet()));
+                i++;
+            }
+        }
+        return i;
+    }
+
+    @Override
+    public long clear() throws MailQueueException {
+        Iterator<JournalEntry> entries = keyMappings.values().iterator();
+        long count = 0;
+        while (entries.hasNext()) {
+            JournalEntry entry = entries.next();
+            entries.remove();
+            remove(entry);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long remove(Type type, String value) throws MailQueueException {
+        switch (type) {
+            case Name:
+                JournalEntry entry = keyMappings.remove(value);
+                if (entry != null) {
+                    remove(entry);
+                    return 1;
+                } else {
+                    return 0;
+                }
+
+            default:
+                break;
+        }
+        throw new MailQueueException("Not supported yet");
+    }
+
+    @Override
+    public MailQueueIterator browse() throws MailQueueException {
+        final Iterator<JournalEntry> entries = keyMappings.values().iterator();
+        return new MailQueueIterator() {
+            private MailQueueItemView item = null;
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Read-only");
+            }
+
+            @Override
+            public MailQueueItemView next() {
+                if (hasNext()) {
+                    MailQueueItemView vitem = item;
+                    item = null;
+                    return vitem;
+                } else {
+                    throw new NoSuchElementException();
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (item == null) {
+                    while (entries.hasNext()) {
+                        final JournalEntry entry = entries.next();
+                        try {
+                            final Mail mail = journal.readMail(entry);
+                            item = new MailQueueItemView() {
+
+                                @Override
+                                public long getNextDelivery() {
+                                    return entry.getNextDelivery();
+                                }
+
+                                @Override
+                                public Mail getMail() {
+                                    return mail;
+                                }
+                            };
+                            return true;
+                        } catch (IOException e) {
+                            log.info("Unable to load mail", e);
+                        } catch (ClassNotFoundException e) {
+                            log.info("Unable to load mail", e);
+                        }
+                    }
+                    return false;
+                } else {
+                    return true;
+                }
+            }
+
+            @Override
+            public void close() {
+                // do nothing
+            }
+        };
+    }
+
+    @Override
+    public void dispose() {
+        scheduler.shutdownNow();
+        journal.close();
+    }
+
+    private void remove(JournalEntry entry) throws MailQueueException {
+        try {
+            journal.remove(entry);
+        } catch (IOException e) {
+            throw new MailQueueException("Unable to remove mail", e);
+        }
+    }
+
+    /**
+     * Put the given entry in the in-memory queue after the given delay
+     */
+    private void schedule(final JournalEntry entry, long delayMillis) {
+        if (delayMillis > 0) {
+            // Schedule a task which will put the mail in the queue
+            // for processing after a given delay
+            scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    inmemoryQueue.add(new QueuedKey(entry, sequence.incrementAndGet()));
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } else {
+            inmemoryQueue.add(new QueuedKey(entry, sequence.incrementAndGet()));
+        }
+    }
+
+    /**
+     * Put the given entry back in the in-memory queue after a failed dequeue
+     * if it was not removed in the meantime. The delay doubles with every
+     * failure, and after <code>maxDequeueFailures</code> failures the entry is
+     * removed from the journal instead, so a broken record can not keep the
+     * spooler busy forever
+     */
+    private void requeue(JournalEntry entry, Exception cause) {
+        String key = entry.getKey();
+        if (!keyMappings.containsKey(key)) {
+            dequeueFailures.remove(key);
+            return;
+        }
+        Integer previous = dequeueFailures.get(key);
+        int failures = previous == null ? 1 : previous + 1;
+        if (failures >= maxDequeueFailures) {
+            dequeueFailures.remove(key);
+            if (keyMappings.remove(key) != null) {
+                log.error("Removing mail " + key + " from the journal after " + failures + " failed attempts to read it", cause);
+                try {
+                    journal.remove(entry);
+                } catch (IOException e) {
+                    log.error("Unable to remove mail " + key + " from the journal", e);
+                }
+            }
+        } else {
+            dequeueFailures.put(key, failures);
+            long delay = dequeueRetryDelay << (failures - 1);
+            log.warn("Unable to read mail " + key + " from the journal, retrying in " + delay + " ms", cause);
+            schedule(entry, delay);
+        }
+    }
+
+    private boolean isQueued(String key) {
+        for (QueuedKey queued : inmemoryQueue) {
+            if (queued.key.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int getPriority(Mail mail) {
+        Object priority = mail.getAttribute(MailPrioritySupport.MAIL_PRIORITY);
+        if (priority instanceof Integer) {
+            return (Integer) priority;
+        }
+        return MailPrioritySupport.NORMAL_PRIORITY;
+    }
+
+    /**
+     * Key waiting in the in-memory queue, ordered by priority and then by the
+     * time it became ready
+     */
+    private final static class QueuedKey {
+        private final String key;
+        private final int priority;
+        private final long sequence;
+
+        public QueuedKey(JournalEntry entry, long sequence) {
+            this.key = entry.getKey();
+            this.priority = entry.getPriority();
+            this.sequence = sequence;
+        }
+    }
+}
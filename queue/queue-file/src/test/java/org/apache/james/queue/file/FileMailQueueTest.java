@@ -0,0 +1,120 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.core.MimeMessageInputStreamSource;
+import org.apache.james.core.MimeMessageWrapper;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileMailQueueTest {
+
+    private final static String QUEUE_NAME = "test";
+    private final static String MESSAGE = "Subject: test\r\nTestheader: testvalue\r\n\r\nspooled body\r\n";
+    private final Logger log = LoggerFactory.getLogger(FileMailQueueTest.class);
+
+    private File parentDir;
+    private FileMailQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        parentDir = new File(System.getProperty("java.io.tmpdir"), "filequeue-" + UUID.randomUUID());
+        queue = new FileMailQueue(parentDir, QUEUE_NAME, false, log);
+    }
+
+    @After
+    public void tearDown() {
+        queue.dispose();
+        delete(parentDir);
+    }
+
+    @Test
+    public void testSpoolFileSurvivesUntilQueueReleasesIt() throws Exception {
+        // a source spooled to disk, like the one of a mail received via SMTP
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("mail1", 16, parentDir);
+        OutputStream out = source.getWritableOutputStream();
+        out.write(MESSAGE.getBytes("US-ASCII"));
+        out.close();
+        File spoolFile = source.getFile();
+        assertNotNull(spoolFile);
+
+        MailImpl mail = new MailImpl("mail1", new MailAddress("sender@senderdomain"), Arrays.asList(new MailAddress("test@test")), new MimeMessageWrapper(source));
+        queue.enQueue(mail);
+
+        // the SMTP session is done with the mail once it was enqueued
+        mail.dispose();
+        assertTrue(spoolFile.exists());
+
+        MailQueueItem item = queue.deQueue();
+        Mail dequeued = item.getMail();
+        assertEquals("mail1", dequeued.getName());
+        assertEquals(MESSAGE.length(), dequeued.getMessageSize());
+        assertEquals("testvalue", dequeued.getMessage().getHeader("Testheader", null));
+        assertTrue(spoolFile.exists());
+
+        item.done(true);
+        assertFalse(spoolFile.exists());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRemoveReleasesSpoolFile() throws Exception {
+        MimeMessageInputStreamSource source = new MimeMessageInputStreamSource("mail2", 16, parentDir);
+        OutputStream out = source.getWritableOutputStream();
+        out.write(MESSAGE.getBytes("US-ASCII"));
+        out.close();
+        File spoolFile = source.getFile();
+
+        MailImpl mail = new MailImpl("mail2", new MailAddress("sender@senderdomain"), Arrays.asList(new MailAddress("test@test")), new MimeMessageWrapper(source));
+        queue.enQueue(mail);
+        mail.dispose();
+        assertTrue(spoolFile.exists());
+
+        assertEquals(1, queue.clear());
+        assertFalse(spoolFile.exists());
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,222 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.file;
+
+import org.apache.james.core.MailImpl;
+import org.apache.james.queue.api.MailPrioritySupport;
+import org.apache.james.queue.api.MailQueue.MailQueueException;
+import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.mailet.Mail;
+import org.apache.mailet.MailAddress;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JournaledFileMailQueueTest {
+
+    private final static String QUEUE_NAME = "test";
+    private final Logger log = LoggerFactory.getLogger(JournaledFileMailQueueTest.class);
+
+    private File parentDir;
+    private JournaledFileMailQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        parentDir = new File(System.getProperty("java.io.tmpdir"), "journaledqueue-" + UUID.randomUUID());
+        queue = createQueue(1024);
+    }
+
+    @After
+    public void tearDown() {
+        queue.dispose();
+        delete(parentDir);
+    }
+
+    @Test
+    public void testEnqueueDequeue() throws Exception {
+        Mail mail = createMail("mail1");
+        queue.enQueue(mail);
+        assertEquals(1, queue.getSize());
+
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(true);
+
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRecoverAfterRestart() throws Exception {
+        List<Mail> mails = new ArrayList<Mail>();
+        for (int i = 0; i < 20; i++) {
+            Mail mail = createMail("mail" + i);
+            mails.add(mail);
+            queue.enQueue(mail);
+        }
+        // remove the first half so the journal contains remove records and
+        // fully consumed segments
+        for (int i = 0; i < 10; i++) {
+            MailQueueItem item = queue.deQueue();
+            checkMail(mails.get(i), item.getMail());
+            item.done(true);
+        }
+
+        queue.dispose();
+        queue = createQueue(1024);
+
+        assertEquals(10, queue.getSize());
+        for (int i = 10; i < 20; i++) {
+            MailQueueItem item = queue.deQueue();
+            checkMail(mails.get(i), item.getMail());
+            item.done(true);
+        }
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void testRecoverKeepsDelay() throws Exception {
+        queue.enQueue(createMail("delayed"), 1, TimeUnit.HOURS);
+        Mail mail = createMail("now");
+        queue.enQueue(mail);
+
+        queue.dispose();
+        queue = createQueue(1024);
+
+        assertEquals(2, queue.getSize());
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail, item.getMail());
+        item.done(true);
+        assertEquals(1, queue.getSize());
+
+        ManageableMailQueue.MailQueueIterator it = queue.browse();
+        assertTrue(it.next().getNextDelivery() > System.currentTimeMillis());
+        it.close();
+    }
+
+    @Test
+    public void testPrioritySupport() throws Exception {
+        Mail mail = createMail("low");
+        Mail mail2 = createMail("high");
+        mail2.setAttribute(MailPrioritySupport.MAIL_PRIORITY, MailPrioritySupport.HIGH_PRIORITY);
+
+        queue.enQueue(mail);
+        queue.enQueue(mail2);
+
+        MailQueueItem item = queue.deQueue();
+        checkMail(mail2, item.getMail());
+        item.done(true);
+
+        MailQueueItem item2 = queue.deQueue();
+        checkMail(mail, item2.getMail());
+        item2.done(true);
+    }
+
+    @Test
+    public void testFailedDequeueRemovesMailAfterRetries() throws Exception {
+        queue.dispose();
+        queue = new JournaledFileMailQueue(parentDir, QUEUE_NAME, true, 1024, 3, 10, log);
+        queue.enQueue(createMail("broken"));
+
+        // truncate the segment so reading the mail fails
+        File[] segments = new File(new File(parentDir, QUEUE_NAME), "journal").listFiles();
+        for (File segment : segments) {
+            if (segment.getName().startsWith("segment-")) {
+                RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+                raf.setLength(0);
+                raf.close();
+            }
+        }
+
+        // the mail stays queued and is retried with a delay until the
+        // maximum number of failures is reached
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1, queue.getSize());
+            try {
+                queue.deQueue();
+                fail("Dequeue of a truncated mail must fail");
+            } catch (MailQueueException e) {
+                // expected
+            }
+        }
+        assertEquals(0, queue.getSize());
+        assertEquals(0, queue.flush());
+
+        // the remove record was written to the journal
+        queue.dispose();
+        queue = createQueue(1024);
+        assertEquals(0, queue.getSize());
+    }
+
+    private JournaledFileMailQueue createQueue(long maxSegmentSize) throws IOException {
+        return new JournaledFileMailQueue(parentDir, QUEUE_NAME, true, maxSegmentSize, log);
+    }
+
+    private MailImpl createMail(String name) throws MessagingException {
+        MailImpl mail = new MailImpl();
+        mail.setName(name);
+        mail.setAttribute("test1", System.currentTimeMillis());
+        mail.setRecipients(Arrays.asList(new MailAddress("test@test"), new MailAddress("test@test2")));
+        mail.setSender(new MailAddress("sender@senderdomain"));
+
+        MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+        message.setText("test " + name);
+        message.setHeader("testheader", "testvalue");
+        message.saveChanges();
+        mail.setMessage(message);
+        return mail;
+    }
+
+    private void checkMail(Mail enqueuedMail, Mail dequeuedMail) throws MessagingException, IOException {
+        assertEquals(enqueuedMail.getName(), dequeuedMail.getName());
+        assertEquals(enqueuedMail.getSender(), dequeuedMail.getSender());
+        assertEquals(enqueuedMail.getRecipients().size(), dequeuedMail.getRecipients().size());
+        assertEquals(enqueuedMail.getMessageSize(), dequeuedMail.getMessageSize());
+        assertEquals(enqueuedMail.getMessage().getContent(), dequeuedMail.getMessage().getContent());
+    }
+
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
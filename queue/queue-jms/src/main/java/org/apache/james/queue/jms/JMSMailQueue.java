@@ -21,9 +21,11 @@ package org.apache.james.queue.jms;
 import com.google.common.io.Closeables;
 import org.apache.james.core.MailImpl;
 import org.apache.james.core.MimeMessageCopyOnWriteProxy;
+import org.apache.james.lifecycle.api.Disposable;
 import org.apache.james.queue.api.MailPrioritySupport;
 import org.apache.james.queue.api.MailQueue;
 import org.apache.james.queue.api.ManageableMailQueue;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 import org.apache.mailet.MailAddress;
 import org.slf4j.Logger;
@@ -67,17 +69,28 @@ import java.util.concurrent.TimeUnit;
  * {@link Mail} objects.
  * </p>
  */
-public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport {
+public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPrioritySupport, Disposable {
 
     protected final String queueName;
     protected final ConnectionFactory connectionFactory;
     protected final Logger logger;
+    protected final JMSSessionPool sessionPool;
     public final static String FORCE_DELIVERY = "FORCE_DELIVERY";
 
+    /**
+     * Default count of idle dequeue sessions which are kept open
+     */
+    public final static int DEFAULT_MAX_IDLE_SESSIONS = 10;
+
     public JMSMailQueue(final ConnectionFactory connectionFactory, final String queueName, final Logger logger) {
+        this(connectionFactory, queueName, DEFAULT_MAX_IDLE_SESSIONS, logger);
+    }
+
+    public JMSMailQueue(final ConnectionFactory connectionFactory, final String queueName, final int maxIdleSessions, final Logger logger) {
         this.connectionFactory = connectionFactory;
         this.queueName = queueName;
         this.logger = logger;
+        this.sessionPool = new JMSSessionPool(connectionFactory, maxIdleSessions);
     }
 
     /**
@@ -88,85 +101,37 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
      * seconds.
      * </p>
      * <p>
+     * The transacted {@link Session}s are taken from a {@link JMSSessionPool},
+     * so they are not created again for every mail. If
+     * {@link #hasStaticMessageSelector()} returns <code>true</code> the
+     * {@link MessageConsumer} is kept open as well.
+     * </p>
+     * <p>
      * Many JMS implementations support better solutions for this, so this
      * should get overridden by these implementations
      * </p>
      */
     @Override
     public MailQueueItem deQueue() throws MailQueueException {
-        Connection connection = null;
-        Session session = null;
-        Message message;
-        MessageConsumer consumer = null;
-
         while (true) {
+            PooledSession session = null;
             try {
-                connection = connectionFactory.createConnection();
-                connection.start();
-
-                session = connection.createSession(true, Session.SESSION_TRANSACTED);
-                Queue queue = session.createQueue(queueName);
-                consumer = session.createConsumer(queue, getMessageSelector());
+                session = sessionPool.borrow();
+                MessageConsumer consumer = session.getConsumer(createDequeueQueue(session.getSession()), getMessageSelector());
 
-                message = consumer.receive(10000);
+                Message message = consumer.receive(10000);
 
                 if (message != null) {
-                    return createMailQueueItem(connection, session, consumer, message);
+                    return createMailQueueItem(session, message);
                 } else {
                     session.commit();
-
-                    if (consumer != null) {
-
-                        try {
-                            consumer.close();
-                        } catch (JMSException e1) {
-                            // ignore on rollback
-                        }
-                    }
-                    try {
-                        if (session != null)
-                            session.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
-
-                    try {
-                        if (connection != null)
-                            connection.close();
-                    } catch (JMSException e1) {
-                        // ignore here
-                    }
+                    sessionPool.release(session, hasStaticMessageSelector());
                 }
 
             } catch (Exception e) {
                 if (session != null) {
-                    try {
-                        session.rollback();
-                    } catch (JMSException e1) {
-                        // ignore on rollback
-                    }
-                }
-
-                if (consumer != null) {
-
-                    try {
-                        consumer.close();
-                    } catch (JMSException e1) {
-                        // ignore on rollback
-                    }
-                }
-                try {
-                    if (session != null)
-                        session.close();
-                } catch (JMSException e1) {
-                    // ignore here
-                }
-
-                try {
-                    if (connection != null)
-                        connection.close();
-                } catch (JMSException e1) {
-                    // ignore here
+                    session.rollback();
+                    sessionPool.invalidate(session);
                 }
                 throw new MailQueueException("Unable to dequeue next message", e);
             }
@@ -174,6 +139,14 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
 
     }
 
+    /**
+     * Close the pooled dequeue sessions
+     */
+    @Override
+    public void dispose() {
+        sessionPool.close();
+    }
+
     @Override
     public void enQueue(Mail mail, long delay, TimeUnit unit) throws MailQueueException {
         Connection connection = null;
@@ -464,23 +437,44 @@ public class JMSMailQueue implements ManageableMailQueue, JMSSupport, MailPriori
     /**
      * Create a {@link org.apache.james.queue.api.MailQueue.MailQueueItem} for the given parameters
      *
-     * @param connection
      * @param session
-     * @param consumer
      * @param message
      * @return item
      * @throws JMSException
      * @throws MessagingException
      */
-    protected MailQueueItem createMailQueueItem(Connection connection, Session session, MessageConsumer consumer, Message message) throws JMSException, MessagingException {
+    protected MailQueueItem createMailQueueItem(PooledSession session, Message message) throws JMSException, MessagingException {
         final Mail mail = createMail(message);
-        return new JMSMailQueueItem(mail, connection, session, consumer);
+        return new JMSMailQueueItem(mail, sessionPool, session, hasStaticMessageSelector());
+    }
+
+    /**
+     * Create the {@link Queue} which is used to dequeue messages. Implementations
+     * can override this to pass provider specific consumer options.
+     *
+     * @param session
+     * @return queue
+     * @throws JMSException
+     */
+    protected Queue createDequeueQueue(Session session) throws JMSException {
+        return session.createQueue(queueName);
     }
 
     protected String getMessageSelector() {
         return JAMES_NEXT_DELIVERY + " <= " + System.currentTimeMillis() + " OR " + FORCE_DELIVERY + " = true";
     }
 
+    /**
+     * Return <code>true</code> if {@link #getMessageSelector()} returns the
+     * same selector on every call. Only then the {@link MessageConsumer} of a
+     * pooled session is kept open between dequeue calls.
+     *
+     * @return static
+     */
+    protected boolean hasStaticMessageSelector() {
+        return false;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public long getSize() throws MailQueueException {
@@ -33,6 +33,7 @@ import org.apache.james.queue.library.AbstractMailQueueFactory;
 public class JMSMailQueueFactory extends AbstractMailQueueFactory {
 
     protected ConnectionFactory connectionFactory;
+    protected int maxIdleSessions = JMSMailQueue.DEFAULT_MAX_IDLE_SESSIONS;
 
     @Inject
     @Resource(name = "jmsConnectionFactory")
@@ -40,9 +41,19 @@ public class JMSMailQueueFactory extends AbstractMailQueueFactory {
         this.connectionFactory = connectionFactory;
     }
 
+    /**
+     * Set the count of idle dequeue sessions every created queue keeps open.
+     * The default is {@link JMSMailQueue#DEFAULT_MAX_IDLE_SESSIONS}
+     *
+     * @param maxIdleSessions
+     */
+    public void setMaxIdleSessions(int maxIdleSessions) {
+        this.maxIdleSessions = maxIdleSessions;
+    }
+
     @Override
     protected MailQueue createMailQueue(String name) {
-        return new JMSMailQueue(connectionFactory, name, log);
+        return new JMSMailQueue(connectionFactory, name, maxIdleSessions, log);
     }
     
 }
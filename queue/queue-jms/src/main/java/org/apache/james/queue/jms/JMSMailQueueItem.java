@@ -19,68 +19,46 @@
 
 package org.apache.james.queue.jms;
 
-import javax.jms.Connection;
 import javax.jms.JMSException;
-import javax.jms.MessageConsumer;
-import javax.jms.Session;
 
 import org.apache.james.queue.api.MailQueue.MailQueueException;
 import org.apache.james.queue.api.MailQueue.MailQueueItem;
+import org.apache.james.queue.jms.JMSSessionPool.PooledSession;
 import org.apache.mailet.Mail;
 
 /**
- * JMS {@link MailQueueItem} implementation
+ * JMS {@link MailQueueItem} implementation. The transaction of the pooled
+ * session is committed or rolled back in {@link #done(boolean)}, after which
+ * the session is given back to the pool.
  */
 public class JMSMailQueueItem implements MailQueueItem {
 
     protected final Mail mail;
-    protected final Connection connection;
-    protected final Session session;
-    protected final MessageConsumer consumer;
+    protected final JMSSessionPool sessionPool;
+    protected final PooledSession session;
+    protected final boolean keepConsumer;
 
-    public JMSMailQueueItem(Mail mail, Connection connection, Session session, MessageConsumer consumer) {
+    public JMSMailQueueItem(Mail mail, JMSSessionPool sessionPool, PooledSession session, boolean keepConsumer) {
         this.mail = mail;
-        this.connection = connection;
+        this.sessionPool = sessionPool;
         this.session = session;
-        this.consumer = consumer;
+        this.keepConsumer = keepConsumer;
     }
 
     @Override
     public void done(boolean success) throws MailQueueException {
-        try {
-            if (success) {
-                session.commit();
-            } else {
-                try {
-                    session.rollback();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
-        } catch (JMSException ex) {
-            throw new MailQueueException("Unable to commit dequeue operation for mail " + mail.getName(), ex);
-        } finally {
-            if (consumer != null) {
-
-                try {
-                    consumer.close();
-                } catch (JMSException e1) {
-                    // ignore on rollback
-                }
-            }
+        if (success) {
             try {
-                if (session != null)
-                    session.close();
-            } catch (JMSException e) {
-                // ignore here
-            }
-
-            try {
-                if (connection != null)
-                    connection.close();
-            } catch (JMSException e) {
-                // ignore here
+                session.commit();
+            } catch (JMSException ex) {
+                session.rollback();
+                sessionPool.invalidate(session);
+                throw new MailQueueException("Unable to commit dequeue operation for mail " + mail.getName(), ex);
             }
+            sessionPool.release(session, keepConsumer);
+        } else {
+            session.rollback();
+            sessionPool.release(session, keepConsumer);
         }
     }
 
@@ -0,0 +1,258 @@
+/****************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one   *
+ * or more contributor license agreements.  See the NOTICE file *
+ * distributed with this work for additional information        *
+ * regarding copyright ownership.  The ASF licenses this file   *
+ * to you under the Apache License, Version 2.0 (the            *
+ * "License"); you may not use this file except in compliance   *
+ * with the License.  You may obtain a copy of the License at   *
+ *                                                              *
+ *   http://www.apache.org/licenses/LICENSE-2.0                 *
+ *                                                              *
+ * Unless required by applicable law or agreed to in writing,   *
+ * software distributed under the License is distributed on an  *
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY       *
+ * KIND, either express or implied.  See the License for the    *
+ * specific language governing permissions and limitations      *
+ * under the License.                                           *
+ ****************************************************************/
+package org.apache.james.queue.jms;
+
+import java.util.LinkedList;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * Pool of long-lived transacted {@link Session}s which are used to dequeue
+ * messages. All sessions share one {@link Connection}.
+ * <p>
+ * A {@link PooledSession} is owned by exactly one caller between
+ * {@link #borrow()} and {@link #release(PooledSession, boolean)}, as a
+ * transacted {@link Session} commits or rollbacks all messages received in
+ * it at once. Released sessions can keep their {@link MessageConsumer} open,
+ * so the next dequeue does not need to create it again.
+ * </p>
+ */
+public class JMSSessionPool {
+
+    private final ConnectionFactory connectionFactory;
+    private final int maxIdle;
+
+    /** Idle sessions, handed out in the order they were released */
+    private final LinkedList<PooledSession> idle = new LinkedList<PooledSession>();
+    private Connection connection;
+    private boolean closed;
+
+    /**
+     * @param connectionFactory
+     * @param maxIdle
+     *            maximal count of idle sessions to keep open. Sessions which
+     *            get released while the pool is full are closed.
+     */
+    public JMSSessionPool(ConnectionFactory connectionFactory, int maxIdle) {
+        this.connectionFactory = connectionFactory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Return an idle session or create a new one if none is idle
+     *
+     * @return session
+     * @throws JMSException
+     */
+    public PooledSession borrow() throws JMSException {
+        Connection current;
+        synchronized (idle) {
+            if (closed) {
+                throw new javax.jms.IllegalStateException("Session pool was closed");
+            }
+            PooledSession session = idle.poll();
+            if (session != null) {
+                return session;
+            }
+            current = getConnection();
+        }
+        try {
+            return new PooledSession(current, current.createSession(true, Session.SESSION_TRANSACTED));
+        } catch (JMSException e) {
+            // the connection is most likely broken, so start over with a new
+            // one on the next call
+            reset(current);
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a session after its transaction was committed or rolled back
+     *
+     * @param session
+     * @param keepConsumer
+     *            if <code>false</code> the {@link MessageConsumer} of the
+     *            session gets closed
+     */
+    public void release(PooledSession session, boolean keepConsumer) {
+        if (!keepConsumer) {
+            session.closeConsumer();
+        }
+        synchronized (idle) {
+            if (!closed && session.connection == connection && idle.size() < maxIdle) {
+                idle.add(session);
+                return;
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * Close a session which can not be used anymore, for example because an
+     * operation on it failed
+     *
+     * @param session
+     */
+    public void invalidate(PooledSession session) {
+        session.close();
+    }
+
+    /**
+     * Close all idle sessions and the shared {@link Connection}. Sessions
+     * which get released after this are closed.
+     */
+    public void close() {
+        synchronized (idle) {
+            closed = true;
+            reset(connection);
+        }
+    }
+
+    private Connection getConnection() throws JMSException {
+        if (connection == null) {
+            final Connection newConnection = connectionFactory.createConnection();
+            try {
+                newConnection.setExceptionListener(new ExceptionListener() {
+                    @Override
+                    public void onException(JMSException exception) {
+                        reset(newConnection);
+                    }
+                });
+            } catch (JMSException e) {
+                // Some pooling ConnectionFactory implementations don't allow
+                // to register a listener. Broken sessions are invalidated on
+                // use anyway.
+            }
+            newConnection.start();
+            connection = newConnection;
+        }
+        return connection;
+    }
+
+    /**
+     * Close the given connection and all idle sessions of it, if it is still
+     * the current one
+     */
+    private void reset(Connection broken) {
+        synchronized (idle) {
+            if (broken == null || broken != connection) {
+                return;
+            }
+            while (!idle.isEmpty()) {
+                idle.poll().close();
+            }
+            connection = null;
+        }
+        try {
+            broken.close();
+        } catch (JMSException e) {
+            // ignore here
+        }
+    }
+
+    /**
+     * A transacted {@link Session} of the pool and the {@link MessageConsumer}
+     * which was created for it
+     */
+    public static final class PooledSession {
+        private final Connection connection;
+        private final Session session;
+        private MessageConsumer consumer;
+        private String consumerSelector;
+
+        private PooledSession(Connection connection, Session session) {
+            this.connection = connection;
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Return a {@link MessageConsumer} for the given destination and
+         * selector. The consumer of the session is reused if it was created
+         * with the same selector.
+         *
+         * @param queue
+         * @param selector
+         * @return consumer
+         * @throws JMSException
+         */
+        public MessageConsumer getConsumer(Queue queue, String selector) throws JMSException {
+            if (consumer != null && !sameSelector(selector)) {
+                closeConsumer();
+            }
+            if (consumer == null) {
+                consumer = session.createConsumer(queue, selector);
+                consumerSelector = selector;
+            }
+            return consumer;
+        }
+
+        public void commit() throws JMSException {
+            session.commit();
+        }
+
+        /**
+         * Rollback the transaction. The consumer gets closed as well, so the
+         * messages are given back to the provider and not redelivered to this
+         * session only.
+         */
+        public void rollback() {
+            try {
+                session.rollback();
+            } catch (JMSException e) {
+                // ignore on rollback
+            }
+            closeConsumer();
+        }
+
+        private boolean sameSelector(String selector) {
+            return selector == null ? consumerSelector == null : selector.equals(consumerSelector);
+        }
+
+        private void closeConsumer() {
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    // ignore on close
+                }
+                consumer = null;
+                consumerSelector = null;
+            }
+        }
+
+        private void close() {
+            closeConsumer();
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // ignore here
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -75,6 +76,13 @@ public abstract class AbstractJMSMailQueueTest {
         setQueue(createQueue(connectionFactory, QUEUE_NAME));
     }
 
+    @After
+    public void disposeQueue() {
+        // close the pooled dequeue sessions, so they can't take messages
+        // of the next test
+        getQueue().dispose();
+    }
+
     @Test
     public void testFIFO() throws MessagingException, InterruptedException, IOException, MailAddressException {
         final JMSMailQueue queue = getQueue();